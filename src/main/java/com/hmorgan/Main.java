@@ -58,6 +58,7 @@ public class Main {
             objModel.setYaw(90.0);
 //            objModel.setOpacity(0.5f);
             layer.addRenderable(objModel);
+//            objModel.setRedrawScheduler(new RedrawScheduler(ww));  // redraws when a change can show
 
 //            for(int i = 0; i < 100; i++) {
 //                objModel = new ObjModel(objModel);  // copy instead of reloading from file
@@ -82,7 +83,7 @@ public class Main {
 //                    } catch(InterruptedException e) {
 //                        e.printStackTrace();
 //                    }
-//                    ww.redraw();
+//                    // no ww.redraw(), the redraw scheduler requests one if the model is on screen
 //                }
 //            }).start();
 
@@ -91,6 +92,7 @@ public class Main {
         }
 
         ww.getModel().getLayers().add(layer);
+//        ww.getModel().getLayers().add(new RenderMetricsLayer());    // per-frame ObjModel metrics overlay
 //        ww.getModel().getLayers().getLayerByName("Atmosphere").setEnabled(false);
 
         frame.add(ww, BorderLayout.CENTER);
@@ -0,0 +1,232 @@
+package com.hmorgan.gfx;
+
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.util.Logging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Spreads the cost of getting meshes onto the GPU over several frames. Vertex buffers are built
+ * on worker threads; the render thread then uploads prepared meshes, most important first, until
+ * a per-frame byte budget is spent. This keeps a large model from stalling the frame it first
+ * becomes visible in.
+ * <p>
+ * {@link #request(Mesh, double)} and {@link #processUploads(DrawContext)} must be called on the
+ * render thread. Meshes are tracked by identity. A request only holds its priority until the
+ * frame after next: meshes that stopped being requested, e.g. because their model left the view,
+ * wait behind all meshes that are still requested. Meshes whose vertex buffer can't be built are
+ * logged once and not tried again, until they are {@link #cancel(Mesh) cancelled}.
+ *
+ * @author Hunter N. Morgan
+ */
+public class GpuUploadScheduler {
+
+    public static final long DEFAULT_BYTES_PER_FRAME = 4L * 1024L * 1024L;
+
+    private static GpuUploadScheduler defaultScheduler;
+
+    private final ExecutorService preparer;     // builds vertex buffers off the render thread
+    private volatile long bytesPerFrame;        // upload budget of one frame
+
+    // owned by the render thread
+    private final Map<Mesh, Pending> pending = new IdentityHashMap<>();  // requested, not yet uploaded
+    private final List<Pending> ready = new ArrayList<>();               // prepared, waiting for budget
+    private final Set<Mesh> failed = Collections.newSetFromMap(new IdentityHashMap<>()); // preparing threw
+    private long lastFrame = Long.MIN_VALUE;
+    private long generation;                                             // frames processed so far
+
+    // handed from the preparer threads to the render thread
+    private final Queue<Pending> prepared = new ConcurrentLinkedQueue<>();
+
+    private static final class Pending {
+        final Mesh mesh;
+        double priority;
+        long requested;                 // generation of the latest request
+        boolean stale;                  // not requested since the previous frame
+        boolean failed;
+
+        Pending(Mesh mesh, double priority) {
+            this.mesh = mesh;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * @return the scheduler shared by all models that weren't given one, with a
+     * {@value #DEFAULT_BYTES_PER_FRAME} byte budget and one worker per spare core
+     */
+    public static synchronized GpuUploadScheduler getDefault() {
+        if(defaultScheduler == null) {
+            final int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            defaultScheduler = new GpuUploadScheduler(newPreparer(workers), DEFAULT_BYTES_PER_FRAME);
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * @param preparer      executor that builds vertex buffers
+     * @param bytesPerFrame upload budget of one frame, at least one mesh is uploaded per frame
+     *                      regardless of its size
+     */
+    public GpuUploadScheduler(ExecutorService preparer, long bytesPerFrame) {
+        this.preparer = preparer;
+        this.bytesPerFrame = bytesPerFrame;
+    }
+
+    private static ExecutorService newPreparer(int workers) {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(workers, r -> {
+            final Thread t = new Thread(r, "mesh-buffer-prep-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+    }
+
+    /**
+     * Asks for a mesh to be uploaded, or updates the priority of an earlier request. The first
+     * request for a mesh after a frame's uploads replaces its priority, later ones in the same
+     * frame raise it. Requests for meshes that are already on the GPU, or that failed to prepare,
+     * are ignored.
+     *
+     * @param mesh     the mesh
+     * @param priority importance of the mesh, e.g. its projected size in pixels; higher uploads first
+     */
+    public void request(Mesh mesh, double priority) {
+        if(mesh.isGlBufferReady() || failed.contains(mesh))
+            return;
+
+        Pending p = pending.get(mesh);
+        if(p != null) {
+            p.priority = (p.requested == generation) ? Math.max(p.priority, priority) : priority;
+            p.requested = generation;
+            return;
+        }
+
+        p = new Pending(mesh, priority);
+        p.requested = generation;
+        pending.put(mesh, p);
+        if(mesh.isVboBufferPrepared()) {
+            ready.add(p);
+        } else {
+            final Pending task = p;
+            preparer.execute(() -> {
+                try {
+                    task.mesh.prepareVboBuffer();
+                } catch (RuntimeException e) {
+                    Logging.logger().log(Level.WARNING, "can't prepare the vertex buffer of mesh " + task.mesh.getName(), e);
+                    task.failed = true;
+                }
+                prepared.add(task);
+            });
+        }
+    }
+
+    /**
+     * Uploads prepared meshes in priority order until this frame's byte budget is spent. Meshes
+     * not requested since the previous frame come after all others. Only the first call in a
+     * frame does any work, so every model may call this.
+     *
+     * @param dc the current draw context
+     * @return number of GPU buffers uploaded
+     */
+    public int processUploads(DrawContext dc) {
+        if(dc.getFrameTimeStamp() == lastFrame)
+            return 0;
+        lastFrame = dc.getFrameTimeStamp();
+        final long previous = generation++;
+
+        Pending p;
+        while((p = prepared.poll()) != null) {
+            if(pending.get(p.mesh) != p)
+                continue;                   // cancelled while it was being prepared
+            if(p.failed) {
+                pending.remove(p.mesh);
+                failed.add(p.mesh);         // it would fail again, every frame
+            } else {
+                ready.add(p);
+            }
+        }
+        if(ready.isEmpty())
+            return 0;
+
+        for(Pending r : ready)
+            r.stale = r.requested < previous;
+        ready.sort((a, b) -> (a.stale != b.stale) ? Boolean.compare(a.stale, b.stale)
+                                                   : Double.compare(b.priority, a.priority));
+
+        final long budget = bytesPerFrame;
+        long spent = 0;
+        int uploads = 0;
+        int i = 0;
+        for(; i < ready.size(); i++) {
+            final Mesh mesh = ready.get(i).mesh;
+            final long size = mesh.getUploadSizeBytes();
+            if(i > 0 && spent + size > budget)
+                break;
+            uploads += upload(dc, mesh);
+            spent += size;
+            pending.remove(mesh);
+        }
+        ready.subList(0, i).clear();
+        return uploads;
+    }
+
+    /**
+     * Uploads one prepared mesh to the GPU.
+     *
+     * @param dc   the current draw context
+     * @param mesh the mesh
+     * @return number of GPU buffers uploaded
+     */
+    protected int upload(DrawContext dc, Mesh mesh) {
+        return mesh.uploadGlBuffers(dc);
+    }
+
+    /**
+     * Withdraws an upload request, e.g. because the mesh is being discarded, and forgets that the
+     * mesh failed to prepare. Does nothing if the mesh wasn't requested or is already on the GPU.
+     *
+     * @param mesh the mesh
+     */
+    public void cancel(Mesh mesh) {
+        failed.remove(mesh);
+        final Pending p = pending.remove(mesh);
+        if(p != null)
+            ready.remove(p);
+    }
+
+    /**
+     * @return number of requested meshes that are not on the GPU yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return number of requested meshes whose vertex buffer couldn't be built, and that are
+     * ignored until they are cancelled
+     */
+    public int getFailedCount() {
+        return failed.size();
+    }
+
+    public long getBytesPerFrame() {
+        return bytesPerFrame;
+    }
+
+    public void setBytesPerFrame(long bytesPerFrame) {
+        this.bytesPerFrame = bytesPerFrame;
+    }
+}
@@ -0,0 +1,231 @@
+package com.hmorgan.gfx;
+
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Vec4;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vertex animation of a set of meshes, made of keyframes that share the topology of the first
+ * one: the same meshes, materials, vertex count and face order. Only the first frame's meshes are
+ * kept; every other frame is stored as the difference of its positions and normals to the first,
+ * quantized to 16 bits per component with a scale per frame and mesh: 12 bytes per vertex and
+ * frame, less than half of what a separate vertex buffer per frame takes.
+ * <p>
+ * {@link #interpolate} blends two neighbouring keyframes into the interleaved layout of the first
+ * frame's vertex buffer, so the result can be drawn like the mesh itself. An animation is immutable
+ * once built and doesn't touch OpenGL.
+ *
+ * @author Hunter N. Morgan
+ */
+public class KeyframeAnimation {
+
+    private static final float QUANTUM = 32767.0f;
+
+    private final Mesh[] meshes;            // of the first frame, sorted by name
+    private final int frameCount;
+    private final int[] strides;            // floats per vertex of each mesh's vertex buffer
+    private final short[][][] deltas;       // [frame][mesh], dx dy dz dnx dny dnz per vertex, null for frame 0
+    private final float[][] positionScales; // [frame][mesh], delta = quantized * scale
+    private final float[][] normalScales;
+    private final Box bounds;               // all vertices of all frames
+
+    private KeyframeAnimation(Mesh[] meshes, List<Map<String, Mesh>> frames) {
+        this.meshes = meshes;
+        this.frameCount = frames.size();
+        this.strides = new int[meshes.length];
+        this.deltas = new short[frameCount][meshes.length][];
+        this.positionScales = new float[frameCount][meshes.length];
+        this.normalScales = new float[frameCount][meshes.length];
+        for(int m = 0; m < meshes.length; m++) {
+            meshes[m].prepareVboBuffer();
+            strides[m] = meshes[m].isHasValidDiffuseTextureMap() ? 8 : 6;
+        }
+        final float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        final float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for(int m = 0; m < meshes.length; m++)
+            extend(meshes[m].getVboBuf(), strides[m], min, max);
+        for(int f = 1; f < frameCount; f++)
+            setFrame(f, frames.get(f), min, max);
+        this.bounds = min[0] <= max[0] ? toBox(min, max) : null;
+    }
+
+    /**
+     * Builds an animation from the meshes of each keyframe, in playback order. Meshes are matched
+     * across frames by name, so frames loaded from a sequence of files must be loaded into the same
+     * namespace.
+     *
+     * @param frames meshes of each frame keyed by name, at least one frame
+     * @return the animation
+     * @throws IllegalArgumentException if a frame's meshes don't have the topology of the first
+     */
+    public static KeyframeAnimation fromFrames(List<Map<String, Mesh>> frames) {
+        if(frames.isEmpty())
+            throw new IllegalArgumentException("an animation needs at least one frame");
+        final List<Mesh> first = new ArrayList<>(frames.get(0).values());
+        first.sort(Comparator.comparing(Mesh::getName));
+        return new KeyframeAnimation(first.toArray(new Mesh[first.size()]), frames);
+    }
+
+    private void setFrame(int frame, Map<String, Mesh> frameMeshes, float[] min, float[] max) {
+        if(frameMeshes.size() != meshes.length)
+            throw new IllegalArgumentException("frame " + frame + " has " + frameMeshes.size() + " meshes, the first has " + meshes.length);
+        for(int m = 0; m < meshes.length; m++) {
+            final Mesh mesh = frameMeshes.get(meshes[m].getName());
+            if(mesh == null)
+                throw new IllegalArgumentException("frame " + frame + " has no mesh " + meshes[m].getName());
+            mesh.prepareVboBuffer();
+            final FloatBuffer base = meshes[m].getVboBuf();
+            final FloatBuffer vbo = mesh.getVboBuf();
+            final int stride = strides[m];
+            if(vbo.limit() != base.limit() || mesh.isHasValidDiffuseTextureMap() != meshes[m].isHasValidDiffuseTextureMap()
+                    || mesh.getMeshType() != meshes[m].getMeshType())
+                throw new IllegalArgumentException("mesh " + mesh.getName() + " of frame " + frame + " doesn't match the first frame");
+            extend(vbo, stride, min, max);
+
+            // largest difference of each attribute sets its quantization step
+            final int vertexCount = base.limit() / stride;
+            float positionRange = 0.0f;
+            float normalRange = 0.0f;
+            for(int v = 0; v < vertexCount; v++) {
+                final int i = v * stride;
+                for(int c = 0; c < 3; c++) {
+                    positionRange = Math.max(positionRange, Math.abs(vbo.get(i + c) - base.get(i + c)));
+                    normalRange = Math.max(normalRange, Math.abs(vbo.get(i + 3 + c) - base.get(i + 3 + c)));
+                }
+            }
+            final float positionScale = positionRange / QUANTUM;
+            final float normalScale = normalRange / QUANTUM;
+            final short[] quantized = new short[vertexCount * 6];
+            for(int v = 0; v < vertexCount; v++) {
+                final int i = v * stride;
+                for(int c = 0; c < 3; c++) {
+                    quantized[v * 6 + c] = quantize(vbo.get(i + c) - base.get(i + c), positionScale);
+                    quantized[v * 6 + 3 + c] = quantize(vbo.get(i + 3 + c) - base.get(i + 3 + c), normalScale);
+                }
+            }
+            deltas[frame][m] = quantized;
+            positionScales[frame][m] = positionScale;
+            normalScales[frame][m] = normalScale;
+        }
+    }
+
+    private static short quantize(float delta, float scale) {
+        return scale == 0.0f ? 0 : (short) Math.round(delta / scale);
+    }
+
+    private static void extend(FloatBuffer vbo, int stride, float[] min, float[] max) {
+        for(int i = 0; i < vbo.limit(); i += stride) {
+            for(int c = 0; c < 3; c++) {
+                min[c] = Math.min(min[c], vbo.get(i + c));
+                max[c] = Math.max(max[c], vbo.get(i + c));
+            }
+        }
+    }
+
+    private static Box toBox(float[] min, float[] max) {
+        return new Box(new Vec4[]{new Vec4(1, 0, 0), new Vec4(0, 1, 0), new Vec4(0, 0, 1)},
+                       min[0], max[0], min[1], max[1], min[2], max[2]);
+    }
+
+    /**
+     * Writes the vertices of a mesh at a point of the animation into a buffer of the layout of
+     * the mesh's vertex buffer. Positions and normals are blended linearly between the two
+     * keyframes around the point, normals are renormalized; other attributes are copied from the
+     * first frame. Doesn't allocate.
+     *
+     * @param meshIndex index of the mesh in {@link #getMeshes()}
+     * @param keyframe  point of the animation in keyframes, wraps around after the last frame
+     * @param out       receives the vertices from position 0, at least as large as the mesh's
+     *                  vertex buffer
+     */
+    public void interpolate(int meshIndex, double keyframe, FloatBuffer out) {
+        final double wrapped = keyframe - Math.floor(keyframe / frameCount) * frameCount;
+        final int f0 = Math.min((int) wrapped, frameCount - 1);
+        final int f1 = (f0 + 1) % frameCount;
+        final float a = (float) (wrapped - f0);
+        final short[] d0 = deltas[f0][meshIndex];
+        final short[] d1 = deltas[f1][meshIndex];
+        // delta = (1 - a) * d0 * s0 + a * d1 * s1
+        final float p0 = (1.0f - a) * positionScales[f0][meshIndex];
+        final float p1 = a * positionScales[f1][meshIndex];
+        final float n0 = (1.0f - a) * normalScales[f0][meshIndex];
+        final float n1 = a * normalScales[f1][meshIndex];
+
+        final FloatBuffer base = meshes[meshIndex].getVboBuf();
+        final int stride = strides[meshIndex];
+        final int vertexCount = base.limit() / stride;
+        for(int v = 0; v < vertexCount; v++) {
+            final int i = v * stride;
+            final int d = v * 6;
+            for(int c = 0; c < 3; c++) {
+                float delta = 0.0f;
+                if(d0 != null)
+                    delta += d0[d + c] * p0;
+                if(d1 != null)
+                    delta += d1[d + c] * p1;
+                out.put(i + c, base.get(i + c) + delta);
+            }
+            float nx = base.get(i + 3);
+            float ny = base.get(i + 4);
+            float nz = base.get(i + 5);
+            if(d0 != null) {
+                nx += d0[d + 3] * n0;
+                ny += d0[d + 4] * n0;
+                nz += d0[d + 5] * n0;
+            }
+            if(d1 != null) {
+                nx += d1[d + 3] * n1;
+                ny += d1[d + 4] * n1;
+                nz += d1[d + 5] * n1;
+            }
+            final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            final float inverse = length > 0.0f ? 1.0f / length : 0.0f;
+            out.put(i + 3, nx * inverse);
+            out.put(i + 4, ny * inverse);
+            out.put(i + 5, nz * inverse);
+            for(int c = 6; c < stride; c++)
+                out.put(i + c, base.get(i + c));
+        }
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    /**
+     * @return meshes of the first frame, which give every frame its topology and materials
+     */
+    public Mesh[] getMeshes() {
+        return meshes.clone();
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return bounds of the vertices of every frame, null if there are none
+     */
+    public Box getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return bytes taken by the deltas of the frames after the first
+     */
+    public long getDeltaBytes() {
+        long bytes = 0L;
+        for(short[][] frame : deltas) {
+            for(short[] mesh : frame) {
+                if(mesh != null)
+                    bytes += mesh.length * 2L;
+            }
+        }
+        return bytes;
+    }
+}
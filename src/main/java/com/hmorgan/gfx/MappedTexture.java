@@ -0,0 +1,116 @@
+package com.hmorgan.gfx;
+
+import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureCoords;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.WWTexture;
+
+import javax.media.opengl.GL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * A texture uploaded straight from RGBA texels of a {@link TextureDiskCache} entry, with the
+ * smaller levels of the entry as its mipmaps. No image object is created on the way. The GPU
+ * texture is kept in the draw context's texture cache, keyed by this object.
+ *
+ * @author Hunter N. Morgan
+ */
+class MappedTexture implements WWTexture {
+
+    private final TextureDiskCache.Entry entry;
+    private final int baseLevel;            // entry level uploaded as mipmap level 0
+    private boolean initializationFailed;
+
+    /**
+     * @param entry     the cached texels
+     * @param baseLevel entry level to use as the full resolution of this texture
+     */
+    MappedTexture(TextureDiskCache.Entry entry, int baseLevel) {
+        this.entry = entry;
+        this.baseLevel = baseLevel;
+    }
+
+    @Override
+    public Object getImageSource() {
+        return this;
+    }
+
+    @Override
+    public boolean bind(DrawContext dc) {
+        if(initializationFailed)
+            return false;
+
+        Texture texture = dc.getTextureCache().getTexture(this);
+        if(texture == null) {
+            try {
+                texture = TextureIO.newTexture(newTextureData(dc));
+            } catch (RuntimeException e) {
+                initializationFailed = true;
+                e.printStackTrace();
+                return false;
+            }
+            dc.getTextureCache().put(this, texture);
+        }
+
+        final GL gl = dc.getGL();
+        texture.bind(gl);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+        return true;
+    }
+
+    private TextureData newTextureData(DrawContext dc) {
+        final Buffer[] mipmaps = new Buffer[entry.getLevelCount() - baseLevel];
+        for(int i = 0; i < mipmaps.length; i++)
+            mipmaps[i] = entry.getTexels(baseLevel + i);
+        // rows are stored top first like decoded images, so the same texture coordinates apply
+        return new TextureData(dc.getGL().getGLProfile(), GL.GL_RGBA,
+                               entry.getWidth(baseLevel), entry.getHeight(baseLevel), 0,
+                               GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, false, true, mipmaps, null);
+    }
+
+    @Override
+    public void applyInternalTransform(DrawContext dc) {
+        // texture coordinates are used as they are
+    }
+
+    @Override
+    public boolean isTextureCurrent(DrawContext dc) {
+        return dc.getTextureCache().getTexture(this) != null;
+    }
+
+    @Override
+    public int getWidth(DrawContext dc) {
+        return entry.getWidth(baseLevel);
+    }
+
+    @Override
+    public int getHeight(DrawContext dc) {
+        return entry.getHeight(baseLevel);
+    }
+
+    @Override
+    public TextureCoords getTexCoords() {
+        return new TextureCoords(0, 0, 1, 1);
+    }
+
+    @Override
+    public boolean isTextureInitializationFailed() {
+        return initializationFailed;
+    }
+
+    /**
+     * Touches every page of the texels this texture uploads, so a later upload on the render
+     * thread doesn't wait for the disk.
+     */
+    void prefault() {
+        for(int level = baseLevel; level < entry.getLevelCount(); level++) {
+            final ByteBuffer texels = entry.getTexels(level);
+            for(int i = 0; i < texels.limit(); i += 4096)
+                texels.get(i);
+        }
+    }
+}
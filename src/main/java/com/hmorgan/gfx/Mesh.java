@@ -4,19 +4,19 @@ import com.hackoeur.jglm.Vec3;
 import com.hmorgan.gfx.wavefront.WavefrontMaterial;
 import com.jogamp.common.nio.Buffers;
 import gov.nasa.worldwind.render.DrawContext;
-import gov.nasa.worldwind.render.LazilyLoadedTexture;
-import gov.nasa.worldwind.render.WWTexture;
 
-import javax.imageio.ImageIO;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 // TODO: Implement textures/materials
 /**
@@ -37,14 +37,19 @@ public class Mesh {
 //    protected FloatBuffer normals;      // n0x/n0y/n0z/n1x/n1y/n1z...
 //    protected FloatBuffer textureCoords;// t0x/v0y/t1x/t1y...
     protected IntBuffer indices;        // v1/v2/v3 or v1/n1/v2/n2 or /v1/t1/n1/v2/t2/n2
-    protected FloatBuffer vboBuf;       // vvvvnnnn (if no normals, then just vvvv)
+    protected volatile FloatBuffer vboBuf; // vvvvnnnn (if no normals, then just vvvv), may be built off the render thread
     private WavefrontMaterial material;
-    private WWTexture texture;
+    private TexturePyramid texture;
+    private Optional<WavefrontMaterial> materialOptional; // handed out by getMaterial, so drawing doesn't allocate
+    private Optional<TexturePyramid> textureOptional;     // handed out by getTexture
 
     private int[] vboIds;               // vertex buffer object ids
     private int[] eboIds;               // element buffer object ids
     private boolean generatedGlBuffers;
     private boolean hasValidDiffuseTextureMap; // true if material diffuse texture map exists
+    private final long contentHash;     // hash of what the mesh was built from, 0 if unknown
+    private final String objectName;    // object ('o') of the file the mesh belongs to, null if none
+    private final String groupName;     // group ('g') within the object, null if none
 
     public enum MeshType {
         POINTS_MESH,            // mesh contains just points
@@ -57,9 +62,23 @@ public class Mesh {
     // VBO Cache. Whenever a VBO is to be loaded, it first checks here to see if
     // the mesh already has a VBO. If so, then it will use the existing VBO. The key
     // is the mesh's name, so take care into keeping unique names for each mesh!
-    private static Map<String, int[]> vboCache = new HashMap<>();
-    private static Map<String, int[]> eboCache = new HashMap<>();
-    private static Map<String, WWTexture> textureCache = new HashMap<>();
+    // The caches are shared by all loads, which may run on several threads.
+    private static final Map<String, int[]> vboCache = new ConcurrentHashMap<>();
+    private static final Map<String, int[]> eboCache = new ConcurrentHashMap<>();
+    // Texture cache, keyed by image path. Only the latest version of an image is kept, so
+    // reloading a changed image replaces its entry.
+    private static final Map<String, CachedTexture> textureCache = new ConcurrentHashMap<>();
+    private static final Map<String, Object> textureLocks = new ConcurrentHashMap<>(); // one decode per texture
+
+    private static final class CachedTexture {
+        final String version;           // see textureVersion
+        final TexturePyramid pyramid;
+
+        CachedTexture(String version, TexturePyramid pyramid) {
+            this.version = version;
+            this.pyramid = pyramid;
+        }
+    }
 
 
     public static final class Builder {
@@ -68,6 +87,11 @@ public class Mesh {
         private IntBuffer indices;
         private MeshType meshType;
         private WavefrontMaterial material;
+        private FloatBuffer vboBuf;
+        private boolean vboHasTexCoords;
+        private long contentHash;
+        private String objectName;
+        private String groupName;
 
         public Builder() {
             vertices = new ArrayList<>();
@@ -100,6 +124,60 @@ public class Mesh {
             return this;
         }
 
+        /**
+         * Sets a vertex buffer that is already interleaved the way {@link #prepareVboBuffer()}
+         * lays it out: position and normal, followed by texture coordinates if there are any.
+         * The mesh draws and uploads this buffer as it is, and its vertices are read from it.
+         *
+         * @param val          the interleaved vertex data, from position 0 to its limit
+         * @param texCoords    true if every vertex has texture coordinates
+         * @return this builder
+         */
+        public Builder setVboBuffer(FloatBuffer val, boolean texCoords) {
+            vboBuf = val;
+            vboHasTexCoords = texCoords;
+            return this;
+        }
+
+        /**
+         * @param val hash of everything the mesh is built from, see {@link Mesh#getContentHash()}
+         * @return this builder
+         */
+        public Builder setContentHash(long val) {
+            contentHash = val;
+            return this;
+        }
+
+        /**
+         * @param val name of the object ('o') the mesh belongs to in its file, null if none
+         * @return this builder
+         */
+        public Builder setObjectName(String val) {
+            objectName = val;
+            return this;
+        }
+
+        /**
+         * @param val name of the group ('g') the mesh belongs to within its object, null if none
+         * @return this builder
+         */
+        public Builder setGroupName(String val) {
+            groupName = val;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public MeshType getMeshType() {
+            return meshType;
+        }
+
+        public WavefrontMaterial getMaterial() {
+            return material;
+        }
+
         public Mesh build() {
             return new Mesh(this);
         }
@@ -111,29 +189,33 @@ public class Mesh {
         indices = builder.indices;
         meshType = builder.meshType;
         material = builder.material;
+        contentHash = builder.contentHash;
+        objectName = builder.objectName;
+        groupName = builder.groupName;
         vboIds = new int[1];
         eboIds = new int[1];
         generatedGlBuffers = false;
 
-        if(material != null) {
-            if(material.getDiffuseTextureMapPath() != null) {
-                if(textureCache.containsKey(material.getDiffuseTextureMapPath().toString())) {
-                    // texture in cache
-                    texture = textureCache.get(material.getDiffuseTextureMapPath().toString());
-                    hasValidDiffuseTextureMap = true;
-                } else {
-                    // texture not in cache, load it (note this does load it into GPU
-                    // memory..since it's lazily loaded)
-                    try {
-                        texture = new LazilyLoadedTexture(ImageIO.read(material.getDiffuseTextureMapPath().toFile()), true);
-                        textureCache.put(material.getDiffuseTextureMapPath().toString(), texture);
-                        hasValidDiffuseTextureMap = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+        // a prebuilt vertex buffer without texture coordinates can't be textured
+        final boolean canTexture = builder.vboBuf == null || builder.vboHasTexCoords;
+        if(canTexture && material != null && material.getDiffuseTextureMapPath() != null) {
+            try {
+                texture = loadTexture(material.getDiffuseTextureMapPath());
+                hasValidDiffuseTextureMap = true;
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
+        materialOptional = Optional.ofNullable(material);
+        textureOptional = Optional.ofNullable(texture);
+
+        if(builder.vboBuf != null) {
+            FloatBuffer buf = builder.vboBuf;
+            if(builder.vboHasTexCoords && !hasValidDiffuseTextureMap)
+                buf = dropTexCoords(buf);   // the texture failed to load, the layout has no room for them
+            vboBuf = buf;
+            vertices = new InterleavedVertexList(buf, hasValidDiffuseTextureMap ? 8 : 6);
+        }
 
 //        // check to see if the material texture is valid:
 //        if(material != null) {
@@ -168,42 +250,166 @@ public class Mesh {
 //        }
     }
 
-    public void genGlBuffers(DrawContext dc) {
-        final GL2 gl = dc.getGL().getGL2();
+    private static FloatBuffer dropTexCoords(FloatBuffer buf) {
+        final int count = buf.limit() / 8;
+        final FloatBuffer result = FloatBuffer.allocate(count * 6);
+        for(int i = 0; i < count; i++) {
+            for(int j = 0; j < 6; j++)
+                result.put(buf.get(i * 8 + j));
+        }
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Vertices of a mesh built from an interleaved vertex buffer, read from the buffer on access.
+     */
+    private static final class InterleavedVertexList extends AbstractList<Vertex> implements RandomAccess {
+        private final FloatBuffer buf;
+        private final int stride;           // floats per vertex
+
+        InterleavedVertexList(FloatBuffer buf, int stride) {
+            this.buf = buf;
+            this.stride = stride;
+        }
+
+        @Override
+        public Vertex get(int index) {
+            final int i = index * stride;
+            final Vertex.Builder builder = new Vertex.Builder(new Vec3(buf.get(i), buf.get(i + 1), buf.get(i + 2)))
+                    .setNormal(new Vec3(buf.get(i + 3), buf.get(i + 4), buf.get(i + 5)));
+            if(stride == 8)
+                builder.setTexCoord(new Vec3(buf.get(i + 6), buf.get(i + 7), 0.0f));
+            return builder.build();
+        }
+
+        @Override
+        public int size() {
+            return buf.limit() / stride;
+        }
+    }
+
+    /**
+     * Returns the texture pyramid for the given image file, building it if it is not already in the
+     * texture cache. Only the pyramid's smallest levels are kept in memory, so this does not touch
+     * GPU memory and may be called off the render thread (e.g. by a loader that wants to decode
+     * textures ahead of building meshes). Concurrent callers asking for the same file wait for a
+     * single build.
+     *
+     * @param texturePath path to the texture image
+     * @return the cached or newly built texture pyramid
+     * @throws IOException if the image could not be read
+     */
+    public static TexturePyramid loadTexture(Path texturePath) throws IOException {
+        final String key = texturePath.toString();
+        final String version = textureVersion(texturePath);
+        CachedTexture cached = textureCache.get(key);
+        if(cached != null && cached.version.equals(version))
+            return cached.pyramid;
+
+        synchronized(textureLocks.computeIfAbsent(key, k -> new Object())) {
+            cached = textureCache.get(key);
+            if(cached == null || !cached.version.equals(version)) {
+                cached = new CachedTexture(version, TexturePyramid.build(texturePath));
+                textureCache.put(key, cached);
+            }
+        }
+        return cached.pyramid;
+    }
+
+    /**
+     * @param texturePath path to the texture image
+     * @return true if the texture for the given image file has already been decoded
+     */
+    public static boolean isTextureCached(Path texturePath) {
+        try {
+            final CachedTexture cached = textureCache.get(texturePath.toString());
+            return cached != null && cached.version.equals(textureVersion(texturePath));
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
+    /**
+     * @return the current version of an image, so an image that changed on disk is decoded again
+     */
+    private static String textureVersion(Path texturePath) throws IOException {
+        return Files.size(texturePath) + "-" + Files.getLastModifiedTime(texturePath).toMillis();
+    }
+
+    /**
+     * Builds this mesh's interleaved vertex buffer and uploads it, along with the element
+     * buffer, unless buffers for a mesh of the same name have already been uploaded.
+     *
+     * @param dc the current draw context
+     * @return the number of buffers uploaded to the GPU
+     */
+    public int genGlBuffers(DrawContext dc) {
+        prepareVboBuffer();
+        return uploadGlBuffers(dc);
+    }
 
+    /**
+     * Builds this mesh's interleaved vertex buffer in client memory, if it hasn't been built yet.
+     * This doesn't touch OpenGL, so it may run on any thread, e.g. ahead of uploading by a
+     * {@link GpuUploadScheduler}.
+     */
+    public synchronized void prepareVboBuffer() {
+        if(vboBuf != null)
+            return;
 
         // create VBO, layout is:
         //  - vertices, normals, and texels: vvvnnntttvvvnnnttt...
         //  - vertices, normals:             vvvnnnvvvnnn...
         //  - vertices:                      vvvvvv...
         final int stride = (hasValidDiffuseTextureMap) ? 8 : 6;
-        vboBuf = FloatBuffer.allocate(vertices.size() * stride);
+        final FloatBuffer buf = FloatBuffer.allocate(vertices.size() * stride);
         for(Vertex v : vertices) {
-            vboBuf.put(v.getPosition().getX());
-            vboBuf.put(v.getPosition().getY());
-            vboBuf.put(v.getPosition().getZ());
-
-            v.getNormal().ifPresent(n -> {
-                vboBuf.put(n.getX());
-                vboBuf.put(n.getY());
-                vboBuf.put(n.getZ());
-            });
+            buf.put(v.getPosition().getX());
+            buf.put(v.getPosition().getY());
+            buf.put(v.getPosition().getZ());
+
+            // vertices without a normal, e.g. of points, keep the layout with a zero normal
+            if(v.getNormal().isPresent()) {
+                final Vec3 n = v.getNormal().get();
+                buf.put(n.getX());
+                buf.put(n.getY());
+                buf.put(n.getZ());
+            } else {
+                buf.put(0.0f).put(0.0f).put(0.0f);
+            }
 
             // if diffuse texture map file exists, then include the tex coords
             if(hasValidDiffuseTextureMap) {
-                final BufferedImage textureBI = (BufferedImage) texture.getImageSource();
                 if(v.getTexCoord().isPresent()) {
                     final Vec3 t = v.getTexCoord().get();
-                    vboBuf.put(t.getX());
+                    buf.put(t.getX());
 
-                    // for some reason the Y/V coordinate is flipped
-                    vboBuf.put(textureBI.getHeight() - t.getY());
+                    // for some reason the Y/V coordinate is flipped, textures repeat so this is the
+                    // same as flipping about the image height
+                    buf.put(1.0f - t.getY());
                 }
             }
         }
 
-        vboBuf.flip();
+        buf.flip();
+        vboBuf = buf;
+    }
+
+    /**
+     * Uploads the prepared vertex buffer and the element buffer to the GPU, unless buffers for a
+     * mesh of the same name have already been uploaded. Must be called on the render thread after
+     * {@link #prepareVboBuffer()}.
+     *
+     * @param dc the current draw context
+     * @return the number of buffers uploaded to the GPU
+     */
+    public int uploadGlBuffers(DrawContext dc) {
+        final GL2 gl = dc.getGL().getGL2();
+        final FloatBuffer vboBuf = this.vboBuf;
+        if(vboBuf == null)
+            throw new IllegalStateException("vertex buffer of mesh " + name + " has not been prepared");
+        int uploads = 0;
 
         // gen vbo
         if(!vboCache.containsKey(name)) {
@@ -213,26 +419,113 @@ public class Mesh {
                 gl.glBufferData(GL.GL_ARRAY_BUFFER, vboBuf.limit() * Buffers.SIZEOF_FLOAT, vboBuf.rewind(), GL.GL_STATIC_DRAW);   // copy data to buffer
                 generatedGlBuffers = true;
                 vboCache.put(name, vboIds);
+                uploads++;
             } finally {
                 gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);             // unbind buffer
             }
         }
 
         // gen ebo
-        if(!eboCache.containsKey(name)) {
-            getIndices().ifPresent(indices -> {
-                try {
-                    gl.glGenBuffers(1, eboIds, 0);                              // gen 1 buffer for EBO
-                    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, eboIds[0]);     // bind buffer ID as EBO
-                    gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indices.limit() * Buffers.SIZEOF_INT, indices.rewind(), GL.GL_STATIC_DRAW);   // copy data to buffer
-                    eboCache.put(name, eboIds);
-                } finally {
-                    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);             // unbind buffer
-                }
-            });
+        if(!eboCache.containsKey(name) && indices != null) {
+            try {
+                gl.glGenBuffers(1, eboIds, 0);                              // gen 1 buffer for EBO
+                gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, eboIds[0]);     // bind buffer ID as EBO
+                gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indices.limit() * Buffers.SIZEOF_INT, indices.rewind(), GL.GL_STATIC_DRAW);   // copy data to buffer
+                eboCache.put(name, eboIds);
+                uploads++;
+            } finally {
+                gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);             // unbind buffer
+            }
+        }
+
+        return uploads;
+    }
+
+    /**
+     * Uploads a vertex buffer that isn't built from a mesh, e.g. a chunk of a {@link PointCloud},
+     * into the same cache as mesh buffers, so it is shared and released by name like them. Must be
+     * called on the render thread.
+     *
+     * @param dc   the current draw context
+     * @param name unique name of the buffer
+     * @param data the vertex data
+     */
+    static void uploadGlBuffer(DrawContext dc, String name, ByteBuffer data) {
+        final GL2 gl = dc.getGL().getGL2();
+        final ByteBuffer view = data.duplicate();
+        ((Buffer) view).rewind();
+        final int[] ids = new int[1];
+        try {
+            gl.glGenBuffers(1, ids, 0);
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, ids[0]);
+            gl.glBufferData(GL.GL_ARRAY_BUFFER, view.limit(), view, GL.GL_STATIC_DRAW);
+            vboCache.put(name, ids);
+        } finally {
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
         }
     }
 
+    /**
+     * @param name name of a mesh or a buffer uploaded by {@link #uploadGlBuffer}
+     * @return ids of the vertex buffer uploaded for the name, or null if there is none
+     */
+    static int[] getGlBufferIds(String name) {
+        return vboCache.get(name);
+    }
+
+    /**
+     * Deletes this mesh's buffers from the GPU, so a mesh that is being discarded doesn't keep
+     * GPU memory. Buffers are shared by name, so only call this when no other mesh of the same
+     * name is still drawn. Must be called on the render thread.
+     *
+     * @param dc the current draw context
+     */
+    public void releaseGlBuffers(DrawContext dc) {
+        releaseGlBuffers(dc, name);
+        generatedGlBuffers = false;
+    }
+
+    /**
+     * Deletes the GPU buffers uploaded for meshes of the given name, e.g. after the last mesh of
+     * that name was garbage collected. Must be called on the render thread.
+     *
+     * @param dc   the current draw context
+     * @param name the mesh name
+     */
+    public static void releaseGlBuffers(DrawContext dc, String name) {
+        final GL2 gl = dc.getGL().getGL2();
+        final int[] vbo = vboCache.remove(name);
+        if(vbo != null)
+            gl.glDeleteBuffers(1, vbo, 0);
+        final int[] ebo = eboCache.remove(name);
+        if(ebo != null)
+            gl.glDeleteBuffers(1, ebo, 0);
+    }
+
+    /**
+     * @return true if the vertex buffer has been prepared in client memory
+     */
+    public boolean isVboBufferPrepared() {
+        return vboBuf != null;
+    }
+
+    /**
+     * @return true if this mesh can be drawn: its vertex buffer is prepared and buffers for its
+     * name are on the GPU. Render thread only.
+     */
+    public boolean isGlBufferReady() {
+        return vboBuf != null && vboCache.containsKey(name);
+    }
+
+    /**
+     * @return number of bytes uploading this mesh's vertex and element buffers transfers to the GPU
+     */
+    public long getUploadSizeBytes() {
+        final long vertexBytes = (long) vertices.size() * ((hasValidDiffuseTextureMap) ? 8 : 6) * Buffers.SIZEOF_FLOAT;
+        final long indexBytes = (indices != null) ? (long) indices.limit() * Buffers.SIZEOF_INT : 0L;
+        return vertexBytes + indexBytes;
+    }
+
     public String getName() {
         return name;
     }
@@ -250,11 +543,11 @@ public class Mesh {
     }
 
     public Optional<WavefrontMaterial> getMaterial() {
-        return Optional.ofNullable(material);
+        return materialOptional;
     }
 
-    public Optional<WWTexture> getTexture() {
-        return Optional.ofNullable(texture);
+    public Optional<TexturePyramid> getTexture() {
+        return textureOptional;
     }
 
     public int[] getVboIds() {
@@ -273,6 +566,30 @@ public class Mesh {
         return meshType;
     }
 
+    /**
+     * @return name of the object ('o') the mesh belongs to in its file, or null if it isn't
+     * part of a named object
+     */
+    public String getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * @return name of the group ('g') the mesh belongs to within its object, or null if it isn't
+     * part of a group
+     */
+    public String getGroupName() {
+        return groupName;
+    }
+
+    /**
+     * @return hash of the geometry and material the mesh was built from, set by loaders so a
+     * reload can keep meshes that didn't change; 0 if unknown
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
     public boolean isHasValidDiffuseTextureMap() {
         return hasValidDiffuseTextureMap;
     }
@@ -0,0 +1,593 @@
+package com.hmorgan.gfx;
+
+import com.jogamp.common.nio.Buffers;
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContext;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A large set of points, e.g. a LiDAR scan, organized for drawing at interactive rates. The points
+ * are sorted into an octree whose leaves hold at most {@link Builder#setLeafPoints(int) a few
+ * thousand} points each, and the leaves are packed into chunks of up to {@value #CHUNK_POINTS}
+ * points that are uploaded to the GPU as one vertex buffer each.
+ * <p>
+ * The points of every leaf are stored in random order, so any prefix of a leaf is an even sample
+ * of it. That is what {@link #select} decimates with: a leaf far from the eye is drawn with just
+ * enough points to cover its projected area, and when the visible leaves ask for more points than
+ * the frame budget allows, all of them are thinned by the same factor.
+ * <p>
+ * Points are stored as floats relative to an {@link #getOrigin() origin}, the first point added,
+ * so georeferenced coordinates keep their precision. A point cloud is immutable once built; its GPU
+ * buffers are shared by name like those of a {@link Mesh}.
+ *
+ * @author Hunter N. Morgan
+ */
+public class PointCloud {
+
+    // box axes with w = 1, frustum tests ignore the plane distance of corners with w = 0
+    private static final Vec4[] AXES = {new Vec4(1, 0, 0), new Vec4(0, 1, 0), new Vec4(0, 0, 1)};
+
+    public static final int CHUNK_POINTS = 1 << 20;     // points per vertex buffer
+    public static final int DEFAULT_LEAF_POINTS = 8192;
+    public static final int BYTES_PER_POINT = 16;       // xyz floats, then rgba bytes
+
+    private static final int MAX_DEPTH = 20;            // stops splitting piles of duplicate points
+
+    private final String name;
+    private final double[] origin;          // model coordinates the point coordinates are relative to
+    private final Node root;                // null if there are no points
+    private final Node[] leaves;            // in chunk order
+    private final Chunk[] chunks;
+    private final long pointCount;
+    private final boolean hasColors;
+
+    /**
+     * A node of the octree. Leaves own a range of points within one chunk.
+     */
+    public static final class Node {
+        private final Box bounds;           // tight bounds in model coordinates
+        private final Vec4 center;
+        private final double radius;
+        private final Node[] children;      // null for leaves
+        private int leafIndex = -1;
+        private int chunk;
+        private int offset;                 // first point of the leaf within its chunk
+        private final int count;            // points in this subtree
+
+        private Node(Box bounds, Node[] children, int count) {
+            this.bounds = bounds;
+            this.center = bounds.getCenter();
+            this.radius = bounds.getRadius();
+            this.children = children;
+            this.count = count;
+        }
+
+        public Box getBounds() {
+            return bounds;
+        }
+
+        public boolean isLeaf() {
+            return children == null;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * A run of leaves sharing one vertex buffer.
+     */
+    private static final class Chunk {
+        final ByteBuffer data;              // interleaved points, direct
+        final int pointCount;
+
+        Chunk(ByteBuffer data, int pointCount) {
+            this.data = data;
+            this.pointCount = pointCount;
+        }
+    }
+
+    /**
+     * The leaves to draw in one frame and how many points of each. Owned by whoever draws the
+     * cloud, typically one per model, and reused from frame to frame.
+     */
+    public static final class Selection {
+        private int[] leaves = new int[64];
+        private int[] counts = new int[64];
+        private int size;
+        private long pointCount;
+        private long requestedCount;
+
+        /**
+         * @return number of leaves selected
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return points selected across all leaves, after the budget was applied
+         */
+        public long getPointCount() {
+            return pointCount;
+        }
+
+        /**
+         * @return points the visible leaves asked for before the budget was applied
+         */
+        public long getRequestedCount() {
+            return requestedCount;
+        }
+
+        private void add(int leaf, int count) {
+            if(size == leaves.length) {
+                leaves = Arrays.copyOf(leaves, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            leaves[size] = leaf;
+            counts[size] = count;
+            size++;
+        }
+    }
+
+    /**
+     * Accumulates points, in chunks so that tens of millions of them don't need one huge array.
+     */
+    public static final class Builder {
+        private static final int BLOCK_POINTS = 1 << 16;
+
+        private String name;
+        private int leafPoints = DEFAULT_LEAF_POINTS;
+        private final List<float[]> positionBlocks = new ArrayList<>();
+        private final List<int[]> colorBlocks = new ArrayList<>();
+        private double[] origin;
+        private int count;
+        private boolean hasColors;
+
+        public Builder setName(String val) {
+            name = val;
+            return this;
+        }
+
+        /**
+         * @param val most points a leaf may hold before it is split, at most {@value #CHUNK_POINTS}
+         * @return this builder
+         */
+        public Builder setLeafPoints(int val) {
+            if(val < 1 || val > CHUNK_POINTS)
+                throw new IllegalArgumentException("leaf points must be between 1 and " + CHUNK_POINTS);
+            leafPoints = val;
+            return this;
+        }
+
+        /**
+         * Adds a point drawn in the current color.
+         */
+        public Builder addPoint(double x, double y, double z) {
+            return addPoint(x, y, z, 0xffffffff, false);
+        }
+
+        /**
+         * Adds a colored point.
+         *
+         * @param rgba color of the point, red in the highest byte
+         */
+        public Builder addPoint(double x, double y, double z, int rgba) {
+            return addPoint(x, y, z, rgba, true);
+        }
+
+        private Builder addPoint(double x, double y, double z, int rgba, boolean colored) {
+            if(count == Integer.MAX_VALUE - 8)
+                throw new IllegalStateException("too many points");
+            if(origin == null)
+                origin = new double[]{x, y, z};
+            final int block = count / BLOCK_POINTS;
+            final int i = count % BLOCK_POINTS;
+            if(block == positionBlocks.size()) {
+                positionBlocks.add(new float[BLOCK_POINTS * 3]);
+                colorBlocks.add(new int[BLOCK_POINTS]);
+            }
+            final float[] positions = positionBlocks.get(block);
+            positions[3 * i] = (float) (x - origin[0]);
+            positions[3 * i + 1] = (float) (y - origin[1]);
+            positions[3 * i + 2] = (float) (z - origin[2]);
+            colorBlocks.get(block)[i] = rgba;
+            hasColors |= colored;
+            count++;
+            return this;
+        }
+
+        public int getPointCount() {
+            return count;
+        }
+
+        public PointCloud build() {
+            return new PointCloud(this);
+        }
+
+        float coord(int point, int axis) {
+            return positionBlocks.get(point / BLOCK_POINTS)[3 * (point % BLOCK_POINTS) + axis];
+        }
+
+        int color(int point) {
+            return colorBlocks.get(point / BLOCK_POINTS)[point % BLOCK_POINTS];
+        }
+    }
+
+    private PointCloud(Builder builder) {
+        name = builder.name;
+        origin = builder.origin != null ? builder.origin : new double[3];
+        pointCount = builder.count;
+        hasColors = builder.hasColors;
+
+        if(builder.count == 0) {
+            root = null;
+            leaves = new Node[0];
+            chunks = new Chunk[0];
+            return;
+        }
+
+        // sort the points into octants, as a permutation of point indices
+        final int[] order = new int[builder.count];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        final float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        final float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for(int i = 0; i < order.length; i++) {
+            for(int axis = 0; axis < 3; axis++) {
+                final float v = builder.coord(i, axis);
+                min[axis] = Math.min(min[axis], v);
+                max[axis] = Math.max(max[axis], v);
+            }
+        }
+        // octree cells are cubes, so points spread along one axis still split evenly
+        final float size = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+        final float[] cellMax = {min[0] + size, min[1] + size, min[2] + size};
+
+        final List<Node> leafList = new ArrayList<>();
+        final List<int[]> leafRanges = new ArrayList<>();
+        root = split(builder, order, new int[order.length], 0, order.length, min, cellMax, 0, leafList, leafRanges);
+        leaves = leafList.toArray(new Node[leafList.size()]);
+
+        // a random order within each leaf makes any prefix of it an even sample
+        final Random random = new Random(order.length);
+        for(int[] range : leafRanges) {
+            for(int i = range[1] - 1; i > range[0]; i--) {
+                final int j = range[0] + random.nextInt(i - range[0] + 1);
+                final int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+        }
+
+        // pack the leaves into chunks, in traversal order so neighbouring leaves share a buffer
+        final List<Chunk> chunkList = new ArrayList<>();
+        int first = 0;
+        while(first < leaves.length) {
+            int last = first;
+            int points = 0;
+            while(last < leaves.length && points + leaves[last].count <= CHUNK_POINTS)
+                points += leaves[last++].count;
+            final ByteBuffer data = Buffers.newDirectByteBuffer(points * BYTES_PER_POINT).order(ByteOrder.nativeOrder());
+            int offset = 0;
+            for(int l = first; l < last; l++) {
+                final Node leaf = leaves[l];
+                leaf.chunk = chunkList.size();
+                leaf.offset = offset;
+                final int[] range = leafRanges.get(l);
+                for(int i = range[0]; i < range[1]; i++) {
+                    final int point = order[i];
+                    data.putFloat(builder.coord(point, 0));
+                    data.putFloat(builder.coord(point, 1));
+                    data.putFloat(builder.coord(point, 2));
+                    final int rgba = builder.color(point);
+                    data.put((byte) (rgba >>> 24)).put((byte) (rgba >>> 16)).put((byte) (rgba >>> 8)).put((byte) rgba);
+                }
+                offset += leaf.count;
+            }
+            ((Buffer) data).flip();
+            chunkList.add(new Chunk(data, points));
+            first = last;
+        }
+        chunks = chunkList.toArray(new Chunk[chunkList.size()]);
+    }
+
+    /**
+     * Builds the subtree of the points order[begin, end), which lie in the given cell.
+     */
+    private Node split(Builder builder, int[] order, int[] scratch, int begin, int end,
+                       float[] cellMin, float[] cellMax, int depth, List<Node> leafList, List<int[]> leafRanges) {
+        final int count = end - begin;
+        final float[] mid = new float[3];
+        for(int axis = 0; axis < 3; axis++)
+            mid[axis] = (cellMin[axis] + cellMax[axis]) * 0.5f;
+
+        if(count <= builder.leafPoints || depth == MAX_DEPTH) {
+            final float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+            final float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+            for(int i = begin; i < end; i++) {
+                for(int axis = 0; axis < 3; axis++) {
+                    final float v = builder.coord(order[i], axis);
+                    min[axis] = Math.min(min[axis], v);
+                    max[axis] = Math.max(max[axis], v);
+                }
+            }
+            // a leaf that is still too big (duplicate points) is cut into chunk sized leaves
+            Node node = null;
+            final List<Node> pieces = new ArrayList<>();
+            for(int piece = begin; piece < end; piece += CHUNK_POINTS) {
+                final int pieceEnd = Math.min(end, piece + CHUNK_POINTS);
+                node = new Node(toBox(min, max), null, pieceEnd - piece);
+                node.leafIndex = leafList.size();
+                leafList.add(node);
+                leafRanges.add(new int[]{piece, pieceEnd});
+                pieces.add(node);
+            }
+            return pieces.size() == 1 ? node : new Node(toBox(min, max), pieces.toArray(new Node[pieces.size()]), count);
+        }
+
+        // counting sort by octant
+        final int[] octantStart = new int[9];
+        for(int i = begin; i < end; i++)
+            octantStart[octant(builder, order[i], mid) + 1]++;
+        for(int o = 0; o < 8; o++)
+            octantStart[o + 1] += octantStart[o];
+        final int[] next = Arrays.copyOf(octantStart, 8);
+        for(int i = begin; i < end; i++)
+            scratch[begin + next[octant(builder, order[i], mid)]++] = order[i];
+        System.arraycopy(scratch, begin, order, begin, count);
+
+        final List<Node> children = new ArrayList<>(8);
+        Box bounds = null;
+        for(int o = 0; o < 8; o++) {
+            final int childBegin = begin + octantStart[o];
+            final int childEnd = begin + octantStart[o + 1];
+            if(childBegin == childEnd)
+                continue;
+            final float[] childMin = new float[3];
+            final float[] childMax = new float[3];
+            for(int axis = 0; axis < 3; axis++) {
+                final boolean upper = (o & (1 << axis)) != 0;
+                childMin[axis] = upper ? mid[axis] : cellMin[axis];
+                childMax[axis] = upper ? cellMax[axis] : mid[axis];
+            }
+            final Node child = split(builder, order, scratch, childBegin, childEnd, childMin, childMax,
+                                     depth + 1, leafList, leafRanges);
+            children.add(child);
+            bounds = bounds == null ? child.bounds : union(bounds, child.bounds);
+        }
+        return new Node(bounds, children.toArray(new Node[children.size()]), count);
+    }
+
+    private static int octant(Builder builder, int point, float[] mid) {
+        int octant = 0;
+        for(int axis = 0; axis < 3; axis++) {
+            if(builder.coord(point, axis) >= mid[axis])
+                octant |= 1 << axis;
+        }
+        return octant;
+    }
+
+    private Box toBox(float[] min, float[] max) {
+        return new Box(AXES,
+                       origin[0] + min[0], origin[0] + max[0],
+                       origin[1] + min[1], origin[1] + max[1],
+                       origin[2] + min[2], origin[2] + max[2]);
+    }
+
+    private static Box union(Box a, Box b) {
+        final List<Vec4> corners = new ArrayList<>(Arrays.asList(a.getCorners()));
+        corners.addAll(Arrays.asList(b.getCorners()));
+        return Box.computeBoundingBox(corners);
+    }
+
+    /**
+     * Picks the leaves to draw and how many points of each. A leaf gets about
+     * {@code pointsPerPixel} points for each pixel it covers on screen, and if the total exceeds
+     * the budget every leaf is thinned by the same factor.
+     *
+     * @param frustum          view frustum in model coordinates
+     * @param eye              eye point in model coordinates
+     * @param pixelSizePerUnit size of a pixel at a distance of one model unit, in model units
+     * @param pointsPerPixel   point density to aim for on screen
+     * @param budget           most points to select
+     * @param selection        receives the selection, cleared first
+     */
+    public void select(Frustum frustum, Vec4 eye, double pixelSizePerUnit, double pointsPerPixel,
+                       long budget, Selection selection) {
+        selection.size = 0;
+        selection.pointCount = 0;
+        selection.requestedCount = 0;
+        if(root != null)
+            select(root, frustum, eye, pixelSizePerUnit, pointsPerPixel, selection);
+
+        if(selection.requestedCount > budget) {
+            final double factor = (double) budget / selection.requestedCount;
+            long total = 0;
+            for(int i = 0; i < selection.size; i++) {
+                selection.counts[i] = (int) (selection.counts[i] * factor);
+                total += selection.counts[i];
+            }
+            selection.pointCount = total;
+        } else {
+            selection.pointCount = selection.requestedCount;
+        }
+    }
+
+    private void select(Node node, Frustum frustum, Vec4 eye, double pixelSizePerUnit, double pointsPerPixel,
+                        Selection selection) {
+        if(!frustum.intersects(node.bounds))
+            return;
+        if(node.children != null) {
+            for(Node child : node.children)
+                select(child, frustum, eye, pixelSizePerUnit, pointsPerPixel, selection);
+            return;
+        }
+
+        final double distance = Math.max(node.radius * 0.5, eye.distanceTo3(node.center) - node.radius);
+        final double pixels = 2.0 * node.radius / Math.max(1e-12, distance * pixelSizePerUnit);
+        final double wanted = Math.ceil(pixels * pixels * pointsPerPixel);
+        final int count = wanted >= node.count ? node.count : (int) Math.max(1.0, wanted);
+        selection.add(node.leafIndex, count);
+        selection.requestedCount += count;
+    }
+
+    /**
+     * Uploads the vertex buffers of selected chunks that aren't on the GPU yet, at most as many
+     * bytes as given; the rest follow in later frames. Must be called on the render thread.
+     *
+     * @param dc        the current draw context
+     * @param selection the leaves about to be drawn
+     * @param maxBytes  most bytes to upload, at least one chunk is uploaded if any is missing
+     * @return the number of chunks uploaded
+     */
+    public int uploadChunks(DrawContext dc, Selection selection, long maxBytes) {
+        int uploads = 0;
+        long bytes = 0;
+        int lastChunk = -1;
+        for(int i = 0; i < selection.size; i++) {
+            final int chunk = leaves[selection.leaves[i]].chunk;
+            if(chunk == lastChunk)
+                continue;
+            lastChunk = chunk;
+            final String key = chunkName(chunk);
+            if(Mesh.getGlBufferIds(key) != null)
+                continue;
+            final long chunkBytes = (long) chunks[chunk].pointCount * BYTES_PER_POINT;
+            if(uploads > 0 && bytes + chunkBytes > maxBytes)
+                break;
+            Mesh.uploadGlBuffer(dc, key, chunks[chunk].data);
+            bytes += chunkBytes;
+            uploads++;
+        }
+        return uploads;
+    }
+
+    /**
+     * Draws the selected points of the leaves whose chunks are on the GPU, as GL_POINTS in model
+     * coordinates. The vertex array must be enabled; colors are only sent if the color array is.
+     * Must be called on the render thread.
+     *
+     * @param dc        the current draw context
+     * @param selection the leaves to draw
+     * @param colors    true to send per-point colors
+     * @return the number of points drawn
+     */
+    public long draw(DrawContext dc, Selection selection, boolean colors) {
+        final GL2 gl = dc.getGL().getGL2();
+        long drawn = 0;
+        int boundChunk = -1;
+        boolean chunkReady = false;
+        try {
+            for(int i = 0; i < selection.size; i++) {
+                final Node leaf = leaves[selection.leaves[i]];
+                if(leaf.chunk != boundChunk) {
+                    boundChunk = leaf.chunk;
+                    final int[] vbo = Mesh.getGlBufferIds(chunkName(boundChunk));
+                    chunkReady = vbo != null;
+                    if(!chunkReady)
+                        continue;   // still waiting for its upload
+                    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo[0]);
+                    gl.glVertexPointer(3, GL.GL_FLOAT, BYTES_PER_POINT, 0);
+                    if(colors)
+                        gl.glColorPointer(4, GL.GL_UNSIGNED_BYTE, BYTES_PER_POINT, 3 * Buffers.SIZEOF_FLOAT);
+                }
+                if(!chunkReady || selection.counts[i] == 0)
+                    continue;
+                gl.glDrawArrays(GL.GL_POINTS, leaf.offset, selection.counts[i]);
+                drawn += selection.counts[i];
+            }
+        } finally {
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        }
+        return drawn;
+    }
+
+    /**
+     * Deletes this cloud's vertex buffers from the GPU. Must be called on the render thread.
+     *
+     * @param dc the current draw context
+     */
+    public void releaseGlBuffers(DrawContext dc) {
+        for(int i = 0; i < chunks.length; i++)
+            Mesh.releaseGlBuffers(dc, chunkName(i));
+    }
+
+    private String chunkName(int chunk) {
+        return name + "#chunk" + chunk;
+    }
+
+    ////////////////////////
+    // GETTERS
+    ////////////////////////
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return model coordinates the stored point coordinates are relative to
+     */
+    public Vec4 getOrigin() {
+        return new Vec4(origin[0], origin[1], origin[2]);
+    }
+
+    /**
+     * @return bounds of all points in model coordinates, or null if there are none
+     */
+    public Box getBounds() {
+        return root != null ? root.bounds : null;
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    public int getLeafCount() {
+        return leaves.length;
+    }
+
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    public boolean hasColors() {
+        return hasColors;
+    }
+
+    /**
+     * @param leaf a leaf index, in chunk order
+     * @return the points of the leaf, xyz relative to the origin and rgba, in their stored order
+     */
+    public ByteBuffer getLeafPoints(int leaf) {
+        final Node node = leaves[leaf];
+        final ByteBuffer view = chunks[node.chunk].data.duplicate().order(ByteOrder.nativeOrder());
+        ((Buffer) view).position(node.offset * BYTES_PER_POINT);
+        ((Buffer) view).limit((node.offset + node.count) * BYTES_PER_POINT);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @param leaf a leaf index, in chunk order
+     * @return the leaf node
+     */
+    public Node getLeaf(int leaf) {
+        return leaves[leaf];
+    }
+}
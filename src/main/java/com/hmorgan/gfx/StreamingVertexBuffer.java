@@ -0,0 +1,99 @@
+package com.hmorgan.gfx;
+
+import com.jogamp.common.nio.Buffers;
+import gov.nasa.worldwind.render.DrawContext;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A vertex buffer whose contents are replaced every frame, e.g. by a {@link KeyframeAnimation}.
+ * Writes go round a ring of GL buffers, so a write never targets the buffer the previous frame
+ * draws from, and each buffer is orphaned before it is written, so the driver hands out fresh
+ * storage instead of waiting for the GPU if it still reads an older frame. A ring size of one
+ * relies on orphaning alone.
+ * <p>
+ * Must only be used on the render thread.
+ *
+ * @author Hunter N. Morgan
+ */
+public class StreamingVertexBuffer {
+
+    public static final int DEFAULT_RING_SIZE = 3;
+
+    private final int[] ids;                // GL buffer names, all 0 until the first write
+    private int current = -1;               // index of the buffer written last, -1 before the first write
+
+    /**
+     * Creates a buffer with a ring of {@value #DEFAULT_RING_SIZE} GL buffers.
+     */
+    public StreamingVertexBuffer() {
+        this(DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param ringSize number of GL buffers written in turn, at least one
+     */
+    public StreamingVertexBuffer(int ringSize) {
+        if(ringSize < 1)
+            throw new IllegalArgumentException("ringSize must be at least 1");
+        this.ids = new int[ringSize];
+    }
+
+    /**
+     * Writes new contents into the next buffer of the ring, which becomes the one to draw from.
+     *
+     * @param dc   the current draw context
+     * @param data the vertex data, from position 0 to its limit
+     * @return number of bytes uploaded
+     */
+    public long update(DrawContext dc, FloatBuffer data) {
+        final GL2 gl = dc.getGL().getGL2();
+        if(current < 0)
+            gl.glGenBuffers(ids.length, ids, 0);
+        current = (current + 1) % ids.length;
+
+        final long bytes = (long) data.limit() * Buffers.SIZEOF_FLOAT;
+        ((Buffer) data).rewind();
+        try {
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, ids[current]);
+            // orphan the old storage, then fill the new one
+            gl.glBufferData(GL.GL_ARRAY_BUFFER, bytes, null, GL2.GL_STREAM_DRAW);
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, bytes, data);
+        } finally {
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        }
+        return bytes;
+    }
+
+    /**
+     * Deletes the GL buffers. The buffer can be written again afterwards.
+     *
+     * @param dc the current draw context
+     */
+    public void release(DrawContext dc) {
+        if(current < 0)
+            return;
+        dc.getGL().getGL2().glDeleteBuffers(ids.length, ids, 0);
+        for(int i = 0; i < ids.length; i++)
+            ids[i] = 0;
+        current = -1;
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    /**
+     * @return name of the GL buffer written last, 0 if nothing was written yet
+     */
+    public int getBufferId() {
+        return current < 0 ? 0 : ids[current];
+    }
+
+    public int getRingSize() {
+        return ids.length;
+    }
+}
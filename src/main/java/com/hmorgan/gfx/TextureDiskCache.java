@@ -0,0 +1,288 @@
+package com.hmorgan.gfx;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Disk cache of decoded texture images. Each entry holds the RGBA texels of every level of an
+ * image's mip pyramid in a single file, which is memory-mapped when read, so a cached texture
+ * goes from disk to texture upload without being decoded or copied onto the heap.
+ * <p>
+ * Entries are keyed by the source image's path, size and modification time; when an image
+ * changes, the entries of its older versions are deleted. The total size of the cache is kept
+ * under a bound by deleting the least recently used entries.
+ * <p>
+ * Entry layout, big-endian: magic, format version, level count, then width, height and data
+ * offset of every level, followed by the tightly packed RGBA rows of each level, top row first.
+ *
+ * @author Hunter N. Morgan
+ */
+public class TextureDiskCache {
+
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024L * 1024L;
+
+    private static final int MAGIC = 0x574F5458;    // "WOTX"
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".rgba";
+
+    private static TextureDiskCache defaultCache;
+
+    private final Path directory;
+    private volatile long maxBytes;
+
+    /**
+     * Texels of a cached pyramid. The level buffers are views of a mapping of the entry file.
+     */
+    public static final class Entry {
+        private final int[] widths;
+        private final int[] heights;
+        private final ByteBuffer[] levels;
+
+        Entry(int[] widths, int[] heights, ByteBuffer[] levels) {
+            this.widths = widths;
+            this.heights = heights;
+            this.levels = levels;
+        }
+
+        public int getLevelCount() {
+            return levels.length;
+        }
+
+        public int getWidth(int level) {
+            return widths[level];
+        }
+
+        public int getHeight(int level) {
+            return heights[level];
+        }
+
+        /**
+         * @param level the level index, 0 being full resolution
+         * @return RGBA texels of the level, top row first; a new view on every call
+         */
+        public ByteBuffer getTexels(int level) {
+            return levels[level].duplicate();
+        }
+    }
+
+    /**
+     * @return the cache shared by all texture pyramids, in the temporary directory and bounded
+     * by {@value #DEFAULT_MAX_BYTES} bytes
+     */
+    public static synchronized TextureDiskCache getDefault() {
+        if(defaultCache == null)
+            defaultCache = new TextureDiskCache(Paths.get(System.getProperty("java.io.tmpdir"), "worldwind-obj-textures"),
+                                                DEFAULT_MAX_BYTES);
+        return defaultCache;
+    }
+
+    /**
+     * @param directory directory holding the entries, created when first written to
+     * @param maxBytes  bound of the total size of the entries
+     */
+    public TextureDiskCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Maps the entry of the current version of an image.
+     *
+     * @param imagePath path to the texture image
+     * @return the cached texels, or null if the current version isn't cached
+     * @throws IOException if the image or the entry can't be read
+     */
+    public Entry get(Path imagePath) throws IOException {
+        final Path file = entryFile(imagePath);
+        if(!Files.exists(file))
+            return null;
+
+        final MappedByteBuffer mapped;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); // for LRU
+        } catch (IOException e) {
+            // read-only cache, entries are still usable
+        }
+
+        mapped.order(ByteOrder.BIG_ENDIAN);
+        if(mapped.capacity() < 12 || mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION)
+            return null;
+        final int levelCount = mapped.getInt(8);
+        final int[] widths = new int[levelCount];
+        final int[] heights = new int[levelCount];
+        final ByteBuffer[] levels = new ByteBuffer[levelCount];
+        for(int i = 0; i < levelCount; i++) {
+            final int header = 12 + i * 16;
+            widths[i] = mapped.getInt(header);
+            heights[i] = mapped.getInt(header + 4);
+            final long offset = mapped.getLong(header + 8);
+            final long length = 4L * widths[i] * heights[i];
+            if(offset + length > mapped.capacity())
+                return null;    // truncated entry
+            levels[i] = slice(mapped, (int) offset, (int) length);
+        }
+        return new Entry(widths, heights, levels);
+    }
+
+    /**
+     * Writes the entry of the current version of an image, replacing the entries of its older
+     * versions, then trims the cache to its bound.
+     *
+     * @param imagePath path to the texture image
+     * @param widths    width of each level
+     * @param heights   height of each level
+     * @param texels    RGBA texels of each level, top row first
+     * @throws IOException if the entry can't be written
+     */
+    public void put(Path imagePath, int[] widths, int[] heights, byte[][] texels) throws IOException {
+        Files.createDirectories(directory);
+        final Path file = entryFile(imagePath);
+        deleteOtherVersions(file);
+
+        final int levelCount = texels.length;
+        final ByteBuffer header = ByteBuffer.allocate(12 + levelCount * 16).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(levelCount);
+        long offset = header.capacity();
+        for(int i = 0; i < levelCount; i++) {
+            header.putInt(widths[i]).putInt(heights[i]).putLong(offset);
+            offset += texels[i].length;
+        }
+        ((Buffer) header).flip();
+
+        // written to a temporary file and moved into place, so readers never see a partial entry
+        final Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            while(header.hasRemaining())
+                channel.write(header);
+            for(byte[] level : texels) {
+                final ByteBuffer data = ByteBuffer.wrap(level);
+                while(data.hasRemaining())
+                    channel.write(data);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        trim(file);
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits its bound. Entries that are still
+     * mapped may not be deletable on some platforms; those are skipped.
+     *
+     * @param keep entry that must not be deleted
+     */
+    private void trim(Path keep) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        long total = 0;
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for(Path file : stream) {
+                files.add(file);
+                total += Files.size(file);
+            }
+        }
+        if(total <= maxBytes)
+            return;
+
+        files.sort(Comparator.comparingLong(TextureDiskCache::lastModifiedMillis));
+        for(Path file : files) {
+            if(total <= maxBytes)
+                break;
+            if(file.equals(keep))
+                continue;
+            final long size = Files.size(file);
+            try {
+                Files.delete(file);
+                total -= size;
+            } catch (IOException e) {
+                // still mapped, try again on the next write
+            }
+        }
+    }
+
+    private void deleteOtherVersions(Path file) throws IOException {
+        final String name = file.getFileName().toString();
+        final String pathPrefix = name.substring(0, name.indexOf('_') + 1);
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, pathPrefix + "*" + SUFFIX)) {
+            for(Path other : stream) {
+                if(!other.equals(file)) {
+                    try {
+                        Files.delete(other);
+                    } catch (IOException e) {
+                        // still mapped, the bound will get it later
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param imagePath path to the texture image
+     * @return entry file of the image's current version: a hash of the path's URI, then size and mtime
+     */
+    private Path entryFile(Path imagePath) throws IOException {
+        final Path absolute = imagePath.toAbsolutePath().normalize();
+        final String version = Files.size(absolute) + "-" + Files.getLastModifiedTime(absolute).toMillis();
+        return directory.resolve(sha1(absolute.toUri().toString()) + "_" + version + SUFFIX);     // URI tells JARs apart
+    }
+
+    private static String sha1(String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder();
+            for(byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JVM has SHA-1
+        }
+    }
+
+    private static long lastModifiedMillis(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(offset);
+        ((Buffer) view).limit(offset + length);
+        return view.slice();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param maxBytes bound of the total size of the entries, applied on the next write
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,434 @@
+package com.hmorgan.gfx;
+
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.WWTexture;
+import gov.nasa.worldwind.util.Logging;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A texture image reduced into a pyramid of levels, each half the size of the one before,
+ * that is only uploaded at the resolution the screen needs. The decoded levels are kept in a
+ * {@link TextureDiskCache}, so an image is decoded once per version and later builds, in this
+ * run or the next, map the cached texels instead.
+ * <p>
+ * When bound, the pyramid picks the level matching the projected size of the geometry, and
+ * streams it in off the render thread if it isn't resident; until then the nearest resident
+ * level is bound instead. Levels no bigger than {@value #RESIDENT_SIZE} pixels are always
+ * resident. Levels that haven't been bound for {@link #getEvictAfterMillis()} are dropped from
+ * memory and the GPU again.
+ * <p>
+ * If the cached levels can't be read, the image is decoded again once and its levels are kept
+ * on the heap instead.
+ *
+ * @author Hunter N. Morgan
+ */
+public class TexturePyramid {
+
+    public static final int RESIDENT_SIZE = 64;     // levels this small are always resident
+    public static final long DEFAULT_EVICT_AFTER_MILLIS = 10000L;
+
+    // pyramids still in use, for eviction; a pyramid no mesh refers to anymore is collected
+    private static final Set<TexturePyramid> pyramids = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static ExecutorService streamer;
+    private static volatile long evictAfterMillis = DEFAULT_EVICT_AFTER_MILLIS;
+    private static long lastSweepFrame = -1L;    // render thread
+
+    private final Path source;
+    private volatile TextureDiskCache.Entry texels; // texels of every level
+    private final Level[] levels;           // level 0 is the full resolution image
+    private boolean onHeap;                 // texels were decoded into memory, guarded by this
+    private volatile boolean failed;        // the texels can't be read, no more levels are streamed
+
+    /**
+     * One level of the pyramid.
+     */
+    private static final class Level {
+        final int index;
+        final int width;
+        final int height;
+        final boolean pinned;               // always resident
+        volatile MappedTexture texture;     // non-null while resident
+        volatile boolean loading;
+        volatile long lastUsedNanos;
+
+        Level(int index, int width, int height, boolean pinned) {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+            this.pinned = pinned;
+        }
+    }
+
+    private TexturePyramid(Path source, TextureDiskCache.Entry texels, boolean onHeap) {
+        this.source = source;
+        this.texels = texels;
+        this.onHeap = onHeap;
+        this.levels = new Level[texels.getLevelCount()];
+        for(int i = 0; i < levels.length; i++) {
+            final int width = texels.getWidth(i);
+            final int height = texels.getHeight(i);
+            levels[i] = new Level(i, width, height, Math.max(width, height) <= RESIDENT_SIZE);
+            if(levels[i].pinned)
+                levels[i].texture = new MappedTexture(texels, i);
+        }
+        pyramids.add(this);
+    }
+
+    /**
+     * Builds the pyramid of an image using the shared {@link TextureDiskCache#getDefault() disk cache}.
+     *
+     * @param imagePath path to the texture image
+     * @return the pyramid
+     * @throws IOException if the image can't be read
+     */
+    public static TexturePyramid build(Path imagePath) throws IOException {
+        return build(imagePath, TextureDiskCache.getDefault());
+    }
+
+    /**
+     * Builds the pyramid of an image, or maps the levels cached by an earlier build of the same
+     * file version. If the cache can't be written, the decoded levels are kept on the heap.
+     *
+     * @param imagePath path to the texture image
+     * @param cache     cache of decoded levels
+     * @return the pyramid
+     * @throws IOException if the image can't be read
+     */
+    public static TexturePyramid build(Path imagePath, TextureDiskCache cache) throws IOException {
+        TextureDiskCache.Entry entry = cache.get(imagePath);
+        if(entry != null)
+            return new TexturePyramid(imagePath, entry, false);
+
+        final Decoded decoded = decode(imagePath);
+        try {
+            cache.put(imagePath, decoded.widths, decoded.heights, decoded.rgba);
+            entry = cache.get(imagePath);
+        } catch (IOException e) {
+            Logging.logger().log(java.util.logging.Level.WARNING, "can't cache texture " + imagePath, e);
+        }
+        if(entry == null)
+            return new TexturePyramid(imagePath, decoded.toHeapEntry(), true);
+        return new TexturePyramid(imagePath, entry, false);
+    }
+
+    /**
+     * Levels of a decoded image.
+     */
+    private static final class Decoded {
+        final int[] widths;
+        final int[] heights;
+        final byte[][] rgba;
+
+        Decoded(int[] widths, int[] heights, byte[][] rgba) {
+            this.widths = widths;
+            this.heights = heights;
+            this.rgba = rgba;
+        }
+
+        TextureDiskCache.Entry toHeapEntry() {
+            final ByteBuffer[] buffers = new ByteBuffer[rgba.length];
+            for(int i = 0; i < rgba.length; i++)
+                buffers[i] = ByteBuffer.wrap(rgba[i]);
+            return new TextureDiskCache.Entry(widths, heights, buffers);
+        }
+    }
+
+    /**
+     * Decodes an image and reduces it into its levels.
+     *
+     * @param imagePath path to the texture image
+     * @return the levels, down to 1x1
+     * @throws IOException if the image can't be read
+     */
+    private static Decoded decode(Path imagePath) throws IOException {
+        final BufferedImage image;
+        try(InputStream in = Files.newInputStream(imagePath)) {    // not toFile(), the image may be in a JAR
+            image = ImageIO.read(in);
+        }
+        if(image == null)
+            throw new IOException("no image reader for " + imagePath);
+
+        final List<int[]> argbLevels = new ArrayList<>();
+        final List<int[]> sizes = new ArrayList<>();
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] argb = image.getRGB(0, 0, w, h, null, 0, w);
+        while(true) {
+            argbLevels.add(argb);
+            sizes.add(new int[]{w, h});
+            if(w == 1 && h == 1)
+                break;
+            argb = halve(argb, w, h);
+            w = Math.max(1, w / 2);
+            h = Math.max(1, h / 2);
+        }
+
+        final int levelCount = argbLevels.size();
+        final int[] widths = new int[levelCount];
+        final int[] heights = new int[levelCount];
+        final byte[][] rgba = new byte[levelCount][];
+        for(int i = 0; i < levelCount; i++) {
+            widths[i] = sizes.get(i)[0];
+            heights[i] = sizes.get(i)[1];
+            rgba[i] = toRgba(argbLevels.get(i));
+        }
+        return new Decoded(widths, heights, rgba);
+    }
+
+    /**
+     * Halves an image with a 2x2 box filter. Odd edges are clamped.
+     *
+     * @param src ARGB pixels of the image, top row first
+     * @param w   width of the image
+     * @param h   height of the image
+     * @return ARGB pixels of an image half the size, at least 1x1
+     */
+    private static int[] halve(int[] src, int w, int h) {
+        final int hw = Math.max(1, w / 2);
+        final int hh = Math.max(1, h / 2);
+        final int[] dst = new int[hw * hh];
+        for(int y = 0; y < hh; y++) {
+            final int y0 = Math.min(2 * y, h - 1);
+            final int y1 = Math.min(2 * y + 1, h - 1);
+            for(int x = 0; x < hw; x++) {
+                final int x0 = Math.min(2 * x, w - 1);
+                final int x1 = Math.min(2 * x + 1, w - 1);
+                final int a = src[y0 * w + x0], b = src[y0 * w + x1], c = src[y1 * w + x0], d = src[y1 * w + x1];
+                int argb = 0;
+                for(int shift = 0; shift < 32; shift += 8) {
+                    final int sum = ((a >>> shift) & 0xff) + ((b >>> shift) & 0xff)
+                            + ((c >>> shift) & 0xff) + ((d >>> shift) & 0xff);
+                    argb |= ((sum + 2) / 4) << shift;
+                }
+                dst[y * hw + x] = argb;
+            }
+        }
+        return dst;
+    }
+
+    private static byte[] toRgba(int[] argb) {
+        final byte[] rgba = new byte[argb.length * 4];
+        for(int i = 0; i < argb.length; i++) {
+            final int p = argb[i];
+            rgba[4 * i] = (byte) (p >>> 16);
+            rgba[4 * i + 1] = (byte) (p >>> 8);
+            rgba[4 * i + 2] = (byte) p;
+            rgba[4 * i + 3] = (byte) (p >>> 24);
+        }
+        return rgba;
+    }
+
+    /**
+     * Picks the level whose resolution matches geometry of the given size on screen: the
+     * smallest level that still has at least one texel per pixel.
+     *
+     * @param screenPixels projected size of the textured geometry, in pixels
+     * @return the level index, 0 being full resolution
+     */
+    public int selectLevel(double screenPixels) {
+        final double size = Math.max(levels[0].width, levels[0].height);
+        final int level = (int) Math.floor(Math.log(size / Math.max(1.0, screenPixels)) / Math.log(2.0));
+        return Math.max(0, Math.min(levels.length - 1, level));
+    }
+
+    /**
+     * Binds the level for geometry of the given projected size, or the nearest resident level
+     * while that one is streamed in. Must be called on the render thread.
+     *
+     * @param dc           the current draw context
+     * @param screenPixels projected size of the textured geometry, in pixels
+     * @return true if a texture was bound
+     */
+    public boolean bind(DrawContext dc, double screenPixels) {
+        evictUnused(dc);
+
+        final int desired = selectLevel(screenPixels);
+        final long now = System.nanoTime();
+        levels[desired].lastUsedNanos = now;
+        if(levels[desired].texture == null)
+            request(levels[desired]);
+
+        final Level level = nearestResident(desired);
+        if(level == null)
+            return false;
+        level.lastUsedNanos = now;
+        return level.texture.bind(dc);
+    }
+
+    private Level nearestResident(int desired) {
+        // prefer a blurrier level over a sharper one, it's cheaper and the sharper one would be evicted anyway
+        for(int i = desired; i < levels.length; i++) {
+            if(levels[i].texture != null)
+                return levels[i];
+        }
+        for(int i = desired - 1; i >= 0; i--) {
+            if(levels[i].texture != null)
+                return levels[i];
+        }
+        return null;
+    }
+
+    private void request(Level level) {
+        if(level.loading || failed)
+            return;
+        level.loading = true;
+        getStreamer().execute(() -> {
+            try {
+                // fault the mapped pages in here, so the upload on the render thread doesn't wait for the disk
+                final MappedTexture texture = new MappedTexture(texels, level.index);
+                texture.prefault();
+                level.texture = texture;
+            } catch (RuntimeException | InternalError e) {
+                // a mapping faults with an InternalError once its file was truncated
+                fallBackToHeap(e);
+            } finally {
+                level.loading = false;
+            }
+        });
+    }
+
+    /**
+     * Decodes the image again into memory after its cached texels failed to read, so the next
+     * request streams from the heap. If the texels are on the heap already, or the image can't
+     * be decoded either, no more levels are streamed.
+     *
+     * @param cause why reading the texels failed
+     */
+    private synchronized void fallBackToHeap(Throwable cause) {
+        if(failed)
+            return;
+        if(onHeap) {
+            failed = true;
+            Logging.logger().log(java.util.logging.Level.WARNING, "can't read texture levels of " + source, cause);
+            return;
+        }
+        Logging.logger().log(java.util.logging.Level.WARNING, "can't read cached texture levels of " + source + ", decoding it again", cause);
+        onHeap = true;
+        try {
+            final TextureDiskCache.Entry entry = decode(source).toHeapEntry();
+            for(Level level : levels) {
+                if(level.pinned)
+                    level.texture = new MappedTexture(entry, level.index);
+            }
+            texels = entry;
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            Logging.logger().log(java.util.logging.Level.WARNING, "can't decode texture " + source, e);
+        }
+    }
+
+    private static synchronized ExecutorService getStreamer() {
+        if(streamer == null) {
+            final AtomicInteger count = new AtomicInteger();
+            streamer = Executors.newFixedThreadPool(2, r -> {
+                final Thread t = new Thread(r, "texture-level-loader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            });
+        }
+        return streamer;
+    }
+
+    /**
+     * Drops levels of all pyramids that weren't bound for the eviction time, from memory and from
+     * the GPU. Only the first call in a frame does any work.
+     *
+     * @param dc the current draw context
+     */
+    public static void evictUnused(DrawContext dc) {
+        if(dc.getFrameTimeStamp() == lastSweepFrame)
+            return;
+        lastSweepFrame = dc.getFrameTimeStamp();
+
+        final long now = System.nanoTime();
+        final long evictAfterNanos = TimeUnit.MILLISECONDS.toNanos(evictAfterMillis);
+        synchronized(pyramids) {
+            for(TexturePyramid pyramid : pyramids) {
+                for(Level level : pyramid.levels) {
+                    final WWTexture texture = level.texture;
+                    if(texture == null || level.pinned || now - level.lastUsedNanos < evictAfterNanos)
+                        continue;
+                    level.texture = null;
+                    dc.getTextureCache().remove(texture.getImageSource());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return bytes of texels of the levels currently resident across all pyramids
+     */
+    public static long getResidentBytes() {
+        long bytes = 0;
+        synchronized(pyramids) {
+            for(TexturePyramid pyramid : pyramids)
+                bytes += pyramid.getPyramidResidentBytes();
+        }
+        return bytes;
+    }
+
+    private long getPyramidResidentBytes() {
+        long bytes = 0;
+        for(Level level : levels) {
+            if(level.texture != null)
+                bytes += 4L * level.width * level.height;
+        }
+        return bytes;
+    }
+
+    public static long getEvictAfterMillis() {
+        return evictAfterMillis;
+    }
+
+    /**
+     * @param millis how long a level may go unbound before it is dropped
+     */
+    public static void setEvictAfterMillis(long millis) {
+        evictAfterMillis = millis;
+    }
+
+    ////////////////////////
+    // GETTERS
+    ////////////////////////
+
+    public Path getSource() {
+        return source;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getWidth() {
+        return levels[0].width;
+    }
+
+    public int getHeight() {
+        return levels[0].height;
+    }
+
+    /**
+     * @param level the level index
+     * @return true if the level can be bound without streaming it in
+     */
+    public boolean isResident(int level) {
+        return levels[level].texture != null;
+    }
+}
@@ -0,0 +1,243 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.KeyframeAnimation;
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.StreamingVertexBuffer;
+import com.jogamp.common.nio.Buffers;
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.render.DrawContext;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ObjModel} that plays a vertex animation, e.g. of rotor blades or a flag, loaded from a
+ * sequence of .OBJ files with one file per keyframe. The files must share the topology of the
+ * first one; only its meshes are kept, the other frames are stored as compact deltas, see
+ * {@link KeyframeAnimation}.
+ * <p>
+ * Once per frame in which the model is drawn, the vertices are interpolated between the two
+ * keyframes around the playback time and streamed into a {@link StreamingVertexBuffer} per mesh,
+ * which is drawn instead of the mesh's own vertex buffer. Models off screen or paused on the
+ * keyframe already streamed cost nothing. The CPU time and the bytes streamed are recorded in
+ * {@link RenderMetrics} as {@link RenderMetrics.Timer#ANIMATE} and
+ * {@link RenderMetrics.Counter#STREAMED_BYTES}.
+ * <p>
+ * A playing model asks its {@link #getRedrawScheduler() redraw scheduler}, if it has one, for the
+ * next frame whenever it is drawn.
+ *
+ * @author Hunter N. Morgan
+ */
+public class AnimatedObjModel extends ObjModel {
+
+    public static final double DEFAULT_FRAMES_PER_SECOND = 24.0;
+
+    private static final AtomicInteger loadCount = new AtomicInteger();  // keeps namespaces of loads apart
+
+    private final KeyframeAnimation animation;
+    private final Mesh[] animatedMeshes;    // in the animation's order
+    private final FloatBuffer[] vertices;   // interpolated vertices of each mesh, render thread
+    private final StreamingVertexBuffer[] streams;
+    private final Map<Mesh, StreamingVertexBuffer> streamsByMesh = new IdentityHashMap<>();
+    private long animatedFrame = -1L;       // frame timestamp the vertices were streamed for
+    private double streamedKeyframe = Double.NaN;
+
+    private volatile double framesPerSecond = DEFAULT_FRAMES_PER_SECOND;
+    private volatile boolean paused;
+    private volatile double startKeyframe;  // keyframe at startMillis
+    private volatile long startMillis = -1L;// time playback started from startKeyframe, -1 for the next frame's
+
+    /**
+     * Constructs a new AnimatedObjModel, loading one keyframe per file with an {@link ObjLoader}.
+     *
+     * @param framePaths Paths to the .OBJ files, in playback order
+     * @throws IOException if a file can't be read or doesn't match the topology of the first
+     */
+    public AnimatedObjModel(List<Path> framePaths) throws IOException {
+        this(new ObjLoader(), framePaths);
+    }
+
+    /**
+     * Constructs a new AnimatedObjModel, loading one keyframe per file.
+     *
+     * @param loader     loads the files
+     * @param framePaths Paths to the model files, in playback order
+     * @throws IOException if a file can't be read or doesn't match the topology of the first
+     */
+    public AnimatedObjModel(ModelLoader loader, List<Path> framePaths) throws IOException {
+        this(loadFrames(loader, framePaths));
+    }
+
+    /**
+     * Constructs a new AnimatedObjModel playing the given animation.
+     *
+     * @param animation the animation
+     */
+    public AnimatedObjModel(KeyframeAnimation animation) {
+        super(meshMap(animation));
+        this.animation = animation;
+        this.animatedMeshes = animation.getMeshes();
+        this.vertices = new FloatBuffer[animatedMeshes.length];
+        this.streams = new StreamingVertexBuffer[animatedMeshes.length];
+        for(int m = 0; m < animatedMeshes.length; m++) {
+            // the first frame's layout, attributes that aren't animated stay as they are
+            vertices[m] = Buffers.newDirectFloatBuffer(animatedMeshes[m].getVboBuf().limit());
+            streams[m] = new StreamingVertexBuffer();
+            streamsByMesh.put(animatedMeshes[m], streams[m]);
+        }
+    }
+
+    private static KeyframeAnimation loadFrames(ModelLoader loader, List<Path> framePaths) throws IOException {
+        if(framePaths.isEmpty())
+            throw new IllegalArgumentException("framePaths must not be empty");
+        // one namespace for all frames, so their meshes match up by name
+        final String namespace = "keyframes:" + framePaths.get(0) + "#" + loadCount.incrementAndGet();
+        final List<Map<String, Mesh>> frames = new ArrayList<>(framePaths.size());
+        for(Path path : framePaths)
+            frames.add(loader.load(path, namespace).getMeshes());
+        try {
+            return KeyframeAnimation.fromFrames(frames);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("keyframes of " + framePaths.get(0) + " don't share one topology", e);
+        }
+    }
+
+    private static Map<String, Mesh> meshMap(KeyframeAnimation animation) {
+        final Map<String, Mesh> meshes = new LinkedHashMap<>();
+        for(Mesh mesh : animation.getMeshes())
+            meshes.put(mesh.getName(), mesh);
+        return meshes;
+    }
+
+    @Override
+    protected Box computeLocalBoundingBox() {
+        // every frame fits, so culling never loses a vertex that moved out of the first frame's bounds
+        return animation.getBounds();
+    }
+
+    @Override
+    protected void updateMeshes(DrawContext dc) {
+        // the picking and the rendering pass draw the same vertices
+        if(dc.getFrameTimeStamp() == animatedFrame)
+            return;
+        animatedFrame = dc.getFrameTimeStamp();
+
+        final double keyframe = computeKeyframe(dc.getFrameTimeStamp());
+        if(!paused) {
+            final RedrawScheduler scheduler = getRedrawScheduler();
+            if(scheduler != null)
+                scheduler.requestRedraw();
+        }
+        if(keyframe == streamedKeyframe)
+            return;                         // paused, the buffers hold this keyframe already
+
+        final long start = System.nanoTime();
+        long bytes = 0L;
+        for(int m = 0; m < animatedMeshes.length; m++) {
+            animation.interpolate(m, keyframe, vertices[m]);
+            bytes += streams[m].update(dc, vertices[m]);
+        }
+        streamedKeyframe = keyframe;
+        final RenderMetrics metrics = RenderMetrics.getInstance();
+        metrics.addNanos(dc, RenderMetrics.Timer.ANIMATE, System.nanoTime() - start);
+        metrics.add(dc, RenderMetrics.Counter.STREAMED_BYTES, bytes);
+    }
+
+    /**
+     * @param timeMillis time of a frame, as given by {@link DrawContext#getFrameTimeStamp()}
+     * @return keyframe to show at that time, within [0, frame count)
+     */
+    synchronized double computeKeyframe(long timeMillis) {
+        if(startMillis < 0L)
+            startMillis = timeMillis;       // started or restarted since the last frame
+        double keyframe = startKeyframe;
+        if(!paused)
+            keyframe += (timeMillis - startMillis) / 1000.0 * framesPerSecond;
+        final int frameCount = animation.getFrameCount();
+        return keyframe - Math.floor(keyframe / frameCount) * frameCount;
+    }
+
+    @Override
+    protected int getVertexBufferId(Mesh mesh) {
+        final StreamingVertexBuffer stream = streamsByMesh.get(mesh);
+        if(stream == null || stream.getBufferId() == 0)
+            return super.getVertexBufferId(mesh);
+        return stream.getBufferId();
+    }
+
+    @Override
+    protected Object getImpostorKey() {
+        // a picture would freeze the animation
+        return null;
+    }
+
+    /**
+     * Deletes the streaming buffers, e.g. when the model is discarded. Must be called on the
+     * render thread.
+     *
+     * @param dc the current draw context
+     */
+    public void releaseGlBuffers(DrawContext dc) {
+        for(StreamingVertexBuffer stream : streams)
+            stream.release(dc);
+        streamedKeyframe = Double.NaN;
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    public KeyframeAnimation getAnimation() {
+        return animation;
+    }
+
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    /**
+     * @param framesPerSecond playback speed in keyframes per second, negative plays backwards
+     */
+    public synchronized void setFramesPerSecond(double framesPerSecond) {
+        // carry on from the current keyframe at the new speed
+        if(startMillis >= 0L)
+            startKeyframe = computeKeyframe(System.currentTimeMillis());
+        startMillis = -1L;
+        this.framesPerSecond = framesPerSecond;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @param paused true to hold the current keyframe, false to play on from it
+     */
+    public synchronized void setPaused(boolean paused) {
+        if(paused == this.paused)
+            return;
+        if(startMillis >= 0L)
+            startKeyframe = computeKeyframe(System.currentTimeMillis());
+        startMillis = -1L;
+        this.paused = paused;
+        markChanged();
+    }
+
+    /**
+     * Jumps to a point of the animation, playback continues from there unless paused.
+     *
+     * @param keyframe point of the animation in keyframes, wraps around
+     */
+    public synchronized void setKeyframe(double keyframe) {
+        startKeyframe = keyframe;
+        startMillis = -1L;
+        markChanged();
+    }
+}
@@ -0,0 +1,61 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Loads .OBJ and glTF files alike, handing each file to the loader of its
+ * {@link ModelFormat#detect(Path) detected format}. This is the loader of the default
+ * {@link ObjAssetRegistry}, so {@link ObjModel} can be constructed from either format.
+ *
+ * @author Hunter N. Morgan
+ */
+public class FormatDetectingLoader implements ModelLoader {
+
+    private final ObjLoader objLoader;
+    private final GltfLoader gltfLoader;
+
+    /**
+     * @param objLoader  loads .OBJ files
+     * @param gltfLoader loads .gltf and .glb files
+     */
+    public FormatDetectingLoader(ObjLoader objLoader, GltfLoader gltfLoader) {
+        this.objLoader = objLoader;
+        this.gltfLoader = gltfLoader;
+    }
+
+    @Override
+    public ObjLoadResult load(Path filePath, String meshNamespace) throws IOException {
+        return getLoader(ModelFormat.detect(filePath)).load(filePath, meshNamespace);
+    }
+
+    @Override
+    public ObjLoadResult reload(Path filePath, String meshNamespace, Map<String, Mesh> previous) throws IOException {
+        return getLoader(ModelFormat.detect(filePath)).reload(filePath, meshNamespace, previous);
+    }
+
+    /**
+     * @param format a file format
+     * @return the loader of files of the format
+     */
+    public ModelLoader getLoader(ModelFormat format) {
+        switch(format) {
+            case GLTF:
+            case GLB:
+                return gltfLoader;
+            default:
+                return objLoader;
+        }
+    }
+
+    public ObjLoader getObjLoader() {
+        return objLoader;
+    }
+
+    public GltfLoader getGltfLoader() {
+        return gltfLoader;
+    }
+}
@@ -0,0 +1,831 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.TexturePyramid;
+
+import gov.nasa.worldwind.util.Logging;
+import java.awt.*;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads glTF 2.0 files, .gltf and .glb, into the same {@link Mesh} and {@link WavefrontMaterial}
+ * model as {@link ObjLoader}, so they can be drawn by {@link ObjModel}.
+ * <p>
+ * The binary chunk of a .glb file and external .bin buffers are memory-mapped, and vertex
+ * attributes are read from the mapped buffer views straight into the interleaved vertex buffer of
+ * each mesh, without building {@link com.hmorgan.gfx.Vertex} objects or copying the views onto
+ * the heap first. Images embedded in the file are written once to a content-addressed file, so
+ * they go through the same {@link TexturePyramid} and texture disk cache as .OBJ textures; the
+ * images of a file are decoded in parallel.
+ * <p>
+ * Each primitive of each mesh placed by a node of the default scene becomes one Mesh, with the
+ * node's transform applied to its vertices. Triangles, triangle strips and fans are drawn as
+ * triangles and points as points; line primitives are skipped. The base color factor and texture
+ * of a material become its diffuse color and texture map, its emissive factor the emission color,
+ * and its roughness the shininess. Sparse accessors and extensions aren't supported.
+ * <p>
+ * A loader may load several files at the same time.
+ *
+ * @author Hunter N. Morgan
+ */
+public class GltfLoader implements ModelLoader {
+
+    private static final int GLB_MAGIC = 0x46546C67;        // "glTF"
+    private static final int GLB_CHUNK_JSON = 0x4E4F534A;   // "JSON"
+    private static final int GLB_CHUNK_BIN = 0x004E4942;    // "BIN"
+
+    private static final int BYTE = 5120;
+    private static final int UNSIGNED_BYTE = 5121;
+    private static final int SHORT = 5122;
+    private static final int UNSIGNED_SHORT = 5123;
+    private static final int UNSIGNED_INT = 5125;
+    private static final int FLOAT = 5126;
+
+    private static final int MODE_POINTS = 0;
+    private static final int MODE_TRIANGLES = 4;
+    private static final int MODE_TRIANGLE_STRIP = 5;
+    private static final int MODE_TRIANGLE_FAN = 6;
+
+    private static ExecutorService imageDecoders;
+
+    private final Path imageDirectory;      // embedded images are written here
+    private volatile LoadReport lastLoadReport;
+
+    /**
+     * Constructs a new GltfLoader writing embedded images to the temporary directory.
+     */
+    public GltfLoader() {
+        this(Paths.get(System.getProperty("java.io.tmpdir"), "worldwind-obj-gltf-images"));
+    }
+
+    /**
+     * @param imageDirectory directory embedded images are written to, created when needed
+     */
+    public GltfLoader(Path imageDirectory) {
+        this.imageDirectory = imageDirectory;
+    }
+
+    @Override
+    public ObjLoadResult load(Path filePath, String meshNamespace) throws IOException {
+        final Load load = new Load(filePath, meshNamespace);
+        try {
+            load.run();
+        } catch (IOException | RuntimeException e) {
+            ObjLoaderStats.getInstance().recordFailure();
+            throw e;
+        }
+        lastLoadReport = load.report;
+        ObjLoaderStats.getInstance().record(load.report);
+        return ObjLoadResult.success(filePath, load.meshes, load.report);
+    }
+
+    /**
+     * @return the report of the last successful load by this loader, or null if there was none
+     */
+    public LoadReport getLastLoadReport() {
+        return lastLoadReport;
+    }
+
+    public Path getImageDirectory() {
+        return imageDirectory;
+    }
+
+    private static synchronized ExecutorService getImageDecoders() {
+        if(imageDecoders == null) {
+            final AtomicInteger count = new AtomicInteger();
+            imageDecoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                final Thread t = new Thread(r, "gltf-image-decoder-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return imageDecoders;
+    }
+
+    /**
+     * State of one load.
+     */
+    private final class Load {
+        final Path filePath;
+        final String namespace;
+        final LoadPhaseTimer timer = new LoadPhaseTimer();
+        final Map<String, Mesh> meshes = new LinkedHashMap<>();
+        LoadReport report;
+
+        private Map<String, Object> document;
+        private ByteBuffer glbBinary;                   // BIN chunk of a .glb file
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private final Map<Integer, Path> imagePaths = new HashMap<>();
+        private final List<WavefrontMaterial> materials = new ArrayList<>();
+        private final Set<TexturePyramid> textures = new HashSet<>();
+        private long bytesRead;
+        private long vertexCount;
+        private long faceCount;
+
+        Load(Path filePath, String namespace) {
+            this.filePath = filePath;
+            this.namespace = namespace;
+        }
+
+        void run() throws IOException {
+            timer.enter(LoadReport.Phase.PARSE);
+            try {
+                readDocument();
+                readBuffers();
+            } finally {
+                timer.exit();
+            }
+
+            timer.enter(LoadReport.Phase.MTL);
+            try {
+                for(Object material : list(document, "materials"))
+                    materials.add(material(map(material)));
+            } finally {
+                timer.exit();
+            }
+
+            decodeTextures();
+
+            timer.enter(LoadReport.Phase.MESH_BUILD);
+            try {
+                buildMeshes();
+            } finally {
+                timer.exit();
+            }
+
+            final LoadReport.Builder builder = new LoadReport.Builder()
+                    .setSource(filePath)
+                    .setBytesRead(bytesRead)
+                    .setVertices(vertexCount)
+                    .setFaces(faceCount)
+                    .setMeshes(meshes.size())
+                    .setMaterials(materials.size())
+                    .setTextures(textures.size());
+            timer.finish(builder);
+            report = builder.build();
+        }
+
+        private void readDocument() throws IOException {
+            final ByteBuffer file = map(filePath);
+            bytesRead += file.capacity();
+            final CharSequence json;
+            if(file.capacity() >= 12 && file.getInt(0) == GLB_MAGIC) {
+                if(file.getInt(4) != 2)
+                    throw new IOException(filePath + ": unsupported GLB version " + file.getInt(4));
+                final int length = Math.min(file.getInt(8), file.capacity());
+                CharSequence jsonChunk = null;
+                int offset = 12;
+                while(offset + 8 <= length) {
+                    final int chunkLength = file.getInt(offset);
+                    final int chunkType = file.getInt(offset + 4);
+                    if(chunkLength < 0 || offset + 8 + chunkLength > length)
+                        throw new IOException(filePath + ": truncated GLB chunk at " + offset);
+                    final ByteBuffer chunk = slice(file, offset + 8, chunkLength);
+                    if(chunkType == GLB_CHUNK_JSON && jsonChunk == null)
+                        jsonChunk = StandardCharsets.UTF_8.decode(chunk);
+                    else if(chunkType == GLB_CHUNK_BIN && glbBinary == null)
+                        glbBinary = chunk;
+                    offset += 8 + ((chunkLength + 3) & ~3);
+                }
+                if(jsonChunk == null)
+                    throw new IOException(filePath + ": GLB has no JSON chunk");
+                json = jsonChunk;
+            } else {
+                json = StandardCharsets.UTF_8.decode(file);
+            }
+
+            final Object value = Json.parse(json);
+            if(!(value instanceof Map))
+                throw new IOException(filePath + ": glTF document isn't a JSON object");
+            document = map(value);
+            final String version = string(map(document.get("asset")), "version", "2.0");
+            if(!version.startsWith("2."))
+                throw new IOException(filePath + ": unsupported glTF version " + version);
+        }
+
+        private void readBuffers() throws IOException {
+            final List<Object> bufferList = list(document, "buffers");
+            for(int i = 0; i < bufferList.size(); i++) {
+                final Map<String, Object> buffer = map(bufferList.get(i));
+                final String uri = string(buffer, "uri", null);
+                final ByteBuffer data;
+                if(uri == null) {
+                    if(i != 0 || glbBinary == null)
+                        throw new IOException(filePath + ": buffer " + i + " has no data");
+                    data = glbBinary;
+                } else if(uri.startsWith("data:")) {
+                    data = ByteBuffer.wrap(decodeDataUri(uri));
+                } else {
+                    data = map(resolve(uri));
+                    bytesRead += data.capacity();
+                }
+                final int byteLength = integer(buffer, "byteLength", data.capacity());
+                if(byteLength > data.capacity())
+                    throw new IOException(filePath + ": buffer " + i + " is shorter than its byteLength");
+                buffers.add(data.order(ByteOrder.LITTLE_ENDIAN));
+            }
+        }
+
+        private WavefrontMaterial material(Map<String, Object> material) throws IOException {
+            final Map<String, Object> pbr = map(material.get("pbrMetallicRoughness"));
+            final List<Object> baseColor = list(pbr, "baseColorFactor");
+            final Color diffuse = baseColor.size() == 4
+                    ? color(baseColor)
+                    : Color.WHITE;
+            final List<Object> emissive = list(material, "emissiveFactor");
+            final Color emission = emissive.size() == 3
+                    ? color(emissive)
+                    : Color.BLACK;
+            final float roughness = (float) number(pbr, "roughnessFactor", 1.0);
+            final int specular = Math.round((1.0f - roughness) * 255.0f);
+            final Map<String, Object> baseColorTexture = map(pbr.get("baseColorTexture"));
+            final Path texturePath = baseColorTexture.containsKey("index")
+                    ? texturePath(integer(baseColorTexture, "index", -1))
+                    : null;
+            return new WavefrontMaterial(new Color(specular, specular, specular), diffuse, diffuse, emission,
+                                         Math.max(1.0f, (1.0f - roughness) * 128.0f), texturePath);
+        }
+
+        /**
+         * @param textureIndex index of a glTF texture
+         * @return path of the image of the texture, written to the image directory if embedded
+         */
+        private Path texturePath(int textureIndex) throws IOException {
+            final Map<String, Object> texture = map(get(list(document, "textures"), textureIndex, "texture"));
+            if(!texture.containsKey("source"))
+                return null;
+            final int imageIndex = integer(texture, "source", -1);
+            Path path = imagePaths.get(imageIndex);
+            if(path != null)
+                return path;
+
+            final Map<String, Object> image = map(get(list(document, "images"), imageIndex, "image"));
+            final String uri = string(image, "uri", null);
+            if(uri != null && !uri.startsWith("data:")) {
+                path = resolve(uri);
+            } else {
+                final ByteBuffer data = uri != null
+                        ? ByteBuffer.wrap(decodeDataUri(uri))
+                        : bufferView(integer(image, "bufferView", -1));
+                final String mimeType = uri != null
+                        ? uri.substring(5, Math.max(5, uri.indexOf(';')))
+                        : string(image, "mimeType", "");
+                path = writeImage(data, mimeType.equals("image/jpeg") ? ".jpg" : ".png");
+            }
+            imagePaths.put(imageIndex, path);
+            return path;
+        }
+
+        /**
+         * Writes embedded image data to a file named by its content hash, so equal images share
+         * a file, and one written by an earlier load is reused with its texture cache entry.
+         */
+        private Path writeImage(ByteBuffer data, String extension) throws IOException {
+            final Path path = imageDirectory.resolve(sha1(data.duplicate()) + extension);
+            if(Files.exists(path) && Files.size(path) == data.remaining())
+                return path;
+
+            Files.createDirectories(imageDirectory);
+            final Path tmp = Files.createTempFile(imageDirectory, path.getFileName().toString(), ".tmp");
+            try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                final ByteBuffer remaining = data.duplicate();
+                while(remaining.hasRemaining())
+                    channel.write(remaining);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return path;
+        }
+
+        /**
+         * Decodes the texture images of all materials in parallel ahead of mesh building.
+         * Failures are left for {@link Mesh} to report.
+         */
+        private void decodeTextures() throws IOException {
+            timer.enter(LoadReport.Phase.TEXTURE_DECODE);
+            try {
+                final Set<Path> paths = new LinkedHashSet<>();
+                for(WavefrontMaterial material : materials) {
+                    if(material.getDiffuseTextureMapPath() != null)
+                        paths.add(material.getDiffuseTextureMapPath());
+                }
+                final List<Future<TexturePyramid>> futures = new ArrayList<>(paths.size());
+                for(Path path : paths)
+                    futures.add(getImageDecoders().submit(() -> Mesh.loadTexture(path)));
+                for(Future<TexturePyramid> future : futures) {
+                    try {
+                        textures.add(future.get());
+                    } catch (ExecutionException e) {
+                        // Mesh reports unreadable textures when it is built
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while decoding textures of " + filePath);
+                    }
+                }
+            } finally {
+                timer.exit();
+            }
+        }
+
+        private void buildMeshes() throws IOException {
+            final List<Object> nodes = list(document, "nodes");
+            final List<Object> scenes = list(document, "scenes");
+            if(scenes.isEmpty()) {
+                // a file without scenes only holds meshes, each placed once as it is
+                final List<Object> meshList = list(document, "meshes");
+                for(int i = 0; i < meshList.size(); i++)
+                    buildMesh(i, i, map(meshList.get(i)), null);
+                return;
+            }
+
+            final int scene = integer(document, "scene", 0);
+            final List<Object> roots = list(map(get(scenes, scene, "scene")), "nodes");
+            final Set<Integer> visited = new HashSet<>();
+            for(Object root : roots)
+                buildNode(nodes, ((Number) root).intValue(), null, visited);
+        }
+
+        private void buildNode(List<Object> nodes, int nodeIndex, double[] parentMatrix, Set<Integer> visited) throws IOException {
+            if(!visited.add(nodeIndex))
+                throw new IOException(filePath + ": node " + nodeIndex + " is in a cycle or has two parents");
+            final Map<String, Object> node = map(get(nodes, nodeIndex, "node"));
+            final double[] local = localMatrix(node);
+            final double[] matrix = parentMatrix == null
+                    ? local
+                    : local == null ? parentMatrix : multiply(parentMatrix, local);
+
+            if(node.containsKey("mesh")) {
+                final int meshIndex = integer(node, "mesh", -1);
+                buildMesh(nodeIndex, meshIndex, map(get(list(document, "meshes"), meshIndex, "mesh")), matrix);
+            }
+            for(Object child : list(node, "children"))
+                buildNode(nodes, ((Number) child).intValue(), matrix, visited);
+        }
+
+        private void buildMesh(int nodeIndex, int meshIndex, Map<String, Object> mesh, double[] matrix) throws IOException {
+            final String meshName = string(mesh, "name", "mesh" + meshIndex);
+            final List<Object> primitives = list(mesh, "primitives");
+            for(int p = 0; p < primitives.size(); p++) {
+                final Map<String, Object> primitive = map(primitives.get(p));
+                final int mode = integer(primitive, "mode", MODE_TRIANGLES);
+                if(mode != MODE_POINTS && mode != MODE_TRIANGLES && mode != MODE_TRIANGLE_STRIP && mode != MODE_TRIANGLE_FAN) {
+                    Logging.logger().fine(() -> filePath + ": skipping line primitive of mesh " + meshName);
+                    continue;
+                }
+                final Map<String, Object> attributes = map(primitive.get("attributes"));
+                if(!attributes.containsKey("POSITION"))
+                    continue;
+
+                final Accessor positions = accessor(integer(attributes, "POSITION", -1));
+                final Accessor normals = attributes.containsKey("NORMAL")
+                        ? accessor(integer(attributes, "NORMAL", -1))
+                        : null;
+                final Accessor texCoords = attributes.containsKey("TEXCOORD_0")
+                        ? accessor(integer(attributes, "TEXCOORD_0", -1))
+                        : null;
+                final WavefrontMaterial material = primitive.containsKey("material")
+                        ? get(materials, integer(primitive, "material", -1), "material")
+                        : WavefrontMaterial.GRAY;
+                final boolean textured = texCoords != null && material.getDiffuseTextureMapPath() != null;
+
+                final int[] order = vertexOrder(primitive, mode, positions.count);
+                final FloatBuffer vbo = interleave(order, positions, normals, textured ? texCoords : null, matrix, mode != MODE_POINTS);
+                vertexCount += order.length;
+                if(mode != MODE_POINTS)
+                    faceCount += order.length / 3;
+
+                final Mesh built = new Mesh.Builder()
+                        .setName(namespace + "#" + nodeIndex + "." + meshName + "." + p)
+                        .setMeshType(mode == MODE_POINTS ? Mesh.MeshType.POINTS_MESH : Mesh.MeshType.POLYGON_MESH)
+                        .setMaterial(material)
+                        .setVboBuffer(vbo, textured)
+                        .build();
+                meshes.put(built.getName(), built);
+            }
+        }
+
+        /**
+         * @return the vertex of each drawn point, or of each corner of each drawn triangle
+         */
+        private int[] vertexOrder(Map<String, Object> primitive, int mode, int vertices) throws IOException {
+            final int[] indices;
+            if(primitive.containsKey("indices")) {
+                final Accessor accessor = accessor(integer(primitive, "indices", -1));
+                indices = new int[accessor.count];
+                for(int i = 0; i < indices.length; i++) {
+                    indices[i] = accessor.getIndex(i);
+                    if(indices[i] < 0 || indices[i] >= vertices)
+                        throw new IOException(filePath + ": vertex index " + indices[i] + " out of range");
+                }
+            } else {
+                indices = new int[vertices];
+                for(int i = 0; i < vertices; i++)
+                    indices[i] = i;
+            }
+
+            switch(mode) {
+                case MODE_TRIANGLE_STRIP: {
+                    final int[] triangles = new int[Math.max(0, indices.length - 2) * 3];
+                    for(int i = 0; i + 2 < indices.length; i++) {
+                        // every other triangle is flipped to keep the winding
+                        triangles[i * 3] = indices[(i & 1) == 0 ? i : i + 1];
+                        triangles[i * 3 + 1] = indices[(i & 1) == 0 ? i + 1 : i];
+                        triangles[i * 3 + 2] = indices[i + 2];
+                    }
+                    return triangles;
+                }
+                case MODE_TRIANGLE_FAN: {
+                    final int[] triangles = new int[Math.max(0, indices.length - 2) * 3];
+                    for(int i = 0; i + 2 < indices.length; i++) {
+                        triangles[i * 3] = indices[0];
+                        triangles[i * 3 + 1] = indices[i + 1];
+                        triangles[i * 3 + 2] = indices[i + 2];
+                    }
+                    return triangles;
+                }
+                case MODE_TRIANGLES:
+                    return indices.length % 3 == 0 ? indices : Arrays.copyOf(indices, indices.length - indices.length % 3);
+                default:
+                    return indices;
+            }
+        }
+
+        /**
+         * Writes the vertices in the given order in the layout of {@link Mesh}: position, normal,
+         * then texture coordinates if any. Normals of triangles without vertex normals are those
+         * of the triangle.
+         */
+        private FloatBuffer interleave(int[] order, Accessor positions, Accessor normals, Accessor texCoords, double[] matrix,
+                                       boolean triangles) {
+            final int stride = texCoords != null ? 8 : 6;
+            final float[] data = new float[order.length * stride];
+            final double[] normalMatrix = matrix != null ? normalMatrix(matrix) : null;
+            final double[] v = new double[3];
+            for(int i = 0; i < order.length; i++) {
+                final int vertex = order[i];
+                final int at = i * stride;
+                v[0] = positions.getFloat(vertex, 0);
+                v[1] = positions.getFloat(vertex, 1);
+                v[2] = positions.getFloat(vertex, 2);
+                if(matrix != null)
+                    transform(matrix, v, 1.0);
+                data[at] = (float) v[0];
+                data[at + 1] = (float) v[1];
+                data[at + 2] = (float) v[2];
+
+                if(normals != null) {
+                    v[0] = normals.getFloat(vertex, 0);
+                    v[1] = normals.getFloat(vertex, 1);
+                    v[2] = normals.getFloat(vertex, 2);
+                    if(normalMatrix != null)
+                        transform(normalMatrix, v, 0.0);
+                    final double length = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+                    if(length > 0.0) {
+                        data[at + 3] = (float) (v[0] / length);
+                        data[at + 4] = (float) (v[1] / length);
+                        data[at + 5] = (float) (v[2] / length);
+                    }
+                }
+                if(texCoords != null) {
+                    // glTF's texture origin is the top left, as the rows of a decoded image
+                    data[at + 6] = texCoords.getFloat(vertex, 0);
+                    data[at + 7] = texCoords.getFloat(vertex, 1);
+                }
+            }
+            if(normals == null && triangles)
+                faceNormals(data, stride);
+            return FloatBuffer.wrap(data);
+        }
+
+        private void faceNormals(float[] data, int stride) {
+            for(int t = 0; t < data.length; t += stride * 3) {
+                final int b = t + stride;
+                final int c = t + stride * 2;
+                final float ux = data[b] - data[t], uy = data[b + 1] - data[t + 1], uz = data[b + 2] - data[t + 2];
+                final float vx = data[c] - data[t], vy = data[c + 1] - data[t + 1], vz = data[c + 2] - data[t + 2];
+                float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+                final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if(length == 0.0f)
+                    continue;
+                nx /= length;
+                ny /= length;
+                nz /= length;
+                for(int corner = t; corner <= c; corner += stride) {
+                    data[corner + 3] = nx;
+                    data[corner + 4] = ny;
+                    data[corner + 5] = nz;
+                }
+            }
+        }
+
+        private Accessor accessor(int index) throws IOException {
+            final Map<String, Object> accessor = map(get(list(document, "accessors"), index, "accessor"));
+            if(accessor.containsKey("sparse"))
+                throw new IOException(filePath + ": sparse accessor " + index + " isn't supported");
+            final int count = integer(accessor, "count", 0);
+            final int components = components(string(accessor, "type", "SCALAR"));
+            final int componentType = integer(accessor, "componentType", FLOAT);
+            final boolean normalized = Boolean.TRUE.equals(accessor.get("normalized"));
+            final int elementSize = components * componentSize(componentType);
+            if(!accessor.containsKey("bufferView"))
+                return new Accessor(ByteBuffer.allocate(count * elementSize), count, componentType, normalized, elementSize);
+
+            final Map<String, Object> view = map(get(list(document, "bufferViews"), integer(accessor, "bufferView", -1), "bufferView"));
+            final int stride = integer(view, "byteStride", elementSize);
+            final int viewOffset = integer(view, "byteOffset", 0);
+            final int viewLength = integer(view, "byteLength", 0);
+            final int offset = integer(accessor, "byteOffset", 0);
+            if(count > 0 && offset + (long) (count - 1) * stride + elementSize > viewLength)
+                throw new IOException(filePath + ": accessor " + index + " overruns its buffer view");
+            final ByteBuffer buffer = get(buffers, integer(view, "buffer", -1), "buffer");
+            if(viewOffset + (long) viewLength > buffer.capacity())
+                throw new IOException(filePath + ": buffer view overruns its buffer");
+            return new Accessor(slice(buffer, viewOffset + offset, viewLength - offset), count, componentType, normalized, stride);
+        }
+
+        private ByteBuffer bufferView(int index) throws IOException {
+            final Map<String, Object> view = map(get(list(document, "bufferViews"), index, "bufferView"));
+            final ByteBuffer buffer = get(buffers, integer(view, "buffer", -1), "buffer");
+            final int offset = integer(view, "byteOffset", 0);
+            final int length = integer(view, "byteLength", 0);
+            if(offset + (long) length > buffer.capacity())
+                throw new IOException(filePath + ": buffer view " + index + " overruns its buffer");
+            return slice(buffer, offset, length);
+        }
+
+        private Path resolve(String uri) throws IOException {
+            try {
+                return filePath.toAbsolutePath().getParent().resolve(new URI(null, null, uri, null).getPath());
+            } catch (URISyntaxException e) {
+                return filePath.toAbsolutePath().getParent().resolve(uri);
+            }
+        }
+
+        private byte[] decodeDataUri(String uri) throws IOException {
+            final int comma = uri.indexOf(',');
+            if(comma < 0 || !uri.substring(0, comma).endsWith(";base64"))
+                throw new IOException(filePath + ": only base64 data URIs are supported");
+            try {
+                return Base64.getDecoder().decode(uri.substring(comma + 1));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(filePath + ": bad base64 data URI", e);
+            }
+        }
+
+        private <T> T get(List<T> list, int index, String what) throws IOException {
+            if(index < 0 || index >= list.size())
+                throw new IOException(filePath + ": no " + what + " " + index);
+            return list.get(index);
+        }
+    }
+
+    /**
+     * Typed view of a glTF accessor over its buffer view.
+     */
+    private static final class Accessor {
+        final ByteBuffer data;              // little-endian, from the first element
+        final int count;
+        final int componentType;
+        final boolean normalized;
+        final int stride;                   // bytes between elements
+        final int componentSize;
+
+        Accessor(ByteBuffer data, int count, int componentType, boolean normalized, int stride) {
+            this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+            this.count = count;
+            this.componentType = componentType;
+            this.normalized = normalized;
+            this.stride = stride;
+            this.componentSize = componentSize(componentType);
+        }
+
+        float getFloat(int element, int component) {
+            final int at = element * stride + component * componentSize;
+            switch(componentType) {
+                case FLOAT:
+                    return data.getFloat(at);
+                case UNSIGNED_BYTE:
+                    return normalized ? (data.get(at) & 0xff) / 255.0f : data.get(at) & 0xff;
+                case BYTE:
+                    return normalized ? Math.max(data.get(at) / 127.0f, -1.0f) : data.get(at);
+                case UNSIGNED_SHORT:
+                    return normalized ? (data.getShort(at) & 0xffff) / 65535.0f : data.getShort(at) & 0xffff;
+                case SHORT:
+                    return normalized ? Math.max(data.getShort(at) / 32767.0f, -1.0f) : data.getShort(at);
+                default:
+                    return data.getInt(at);
+            }
+        }
+
+        int getIndex(int element) {
+            final int at = element * stride;
+            switch(componentType) {
+                case UNSIGNED_BYTE:
+                    return data.get(at) & 0xff;
+                case UNSIGNED_SHORT:
+                    return data.getShort(at) & 0xffff;
+                default:
+                    return data.getInt(at);
+            }
+        }
+    }
+
+    private static int componentSize(int componentType) {
+        switch(componentType) {
+            case BYTE:
+            case UNSIGNED_BYTE:
+                return 1;
+            case SHORT:
+            case UNSIGNED_SHORT:
+                return 2;
+            case UNSIGNED_INT:
+            case FLOAT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("unknown component type " + componentType);
+        }
+    }
+
+    private static int components(String type) {
+        switch(type) {
+            case "SCALAR": return 1;
+            case "VEC2": return 2;
+            case "VEC3": return 3;
+            case "VEC4":
+            case "MAT2": return 4;
+            case "MAT3": return 9;
+            case "MAT4": return 16;
+            default:
+                throw new IllegalArgumentException("unknown accessor type " + type);
+        }
+    }
+
+    /**
+     * @return the column-major matrix of a node's matrix or translation, rotation and scale, or
+     * null if the node isn't transformed
+     */
+    private static double[] localMatrix(Map<String, Object> node) {
+        final List<Object> matrix = list(node, "matrix");
+        if(matrix.size() == 16) {
+            final double[] m = new double[16];
+            for(int i = 0; i < 16; i++)
+                m[i] = ((Number) matrix.get(i)).doubleValue();
+            return m;
+        }
+        final List<Object> t = list(node, "translation");
+        final List<Object> r = list(node, "rotation");
+        final List<Object> s = list(node, "scale");
+        if(t.size() != 3 && r.size() != 4 && s.size() != 3)
+            return null;
+
+        final double tx = t.size() == 3 ? ((Number) t.get(0)).doubleValue() : 0.0;
+        final double ty = t.size() == 3 ? ((Number) t.get(1)).doubleValue() : 0.0;
+        final double tz = t.size() == 3 ? ((Number) t.get(2)).doubleValue() : 0.0;
+        final double qx = r.size() == 4 ? ((Number) r.get(0)).doubleValue() : 0.0;
+        final double qy = r.size() == 4 ? ((Number) r.get(1)).doubleValue() : 0.0;
+        final double qz = r.size() == 4 ? ((Number) r.get(2)).doubleValue() : 0.0;
+        final double qw = r.size() == 4 ? ((Number) r.get(3)).doubleValue() : 1.0;
+        final double sx = s.size() == 3 ? ((Number) s.get(0)).doubleValue() : 1.0;
+        final double sy = s.size() == 3 ? ((Number) s.get(1)).doubleValue() : 1.0;
+        final double sz = s.size() == 3 ? ((Number) s.get(2)).doubleValue() : 1.0;
+
+        // translation * rotation * scale
+        return new double[] {
+                (1 - 2 * (qy * qy + qz * qz)) * sx, 2 * (qx * qy + qz * qw) * sx, 2 * (qx * qz - qy * qw) * sx, 0,
+                2 * (qx * qy - qz * qw) * sy, (1 - 2 * (qx * qx + qz * qz)) * sy, 2 * (qy * qz + qx * qw) * sy, 0,
+                2 * (qx * qz + qy * qw) * sz, 2 * (qy * qz - qx * qw) * sz, (1 - 2 * (qx * qx + qy * qy)) * sz, 0,
+                tx, ty, tz, 1
+        };
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        final double[] m = new double[16];
+        for(int col = 0; col < 4; col++) {
+            for(int row = 0; row < 4; row++) {
+                double sum = 0.0;
+                for(int k = 0; k < 4; k++)
+                    sum += a[k * 4 + row] * b[col * 4 + k];
+                m[col * 4 + row] = sum;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return the inverse transpose of the upper 3x3 of a column-major matrix, as a column-major
+     * 4x4 matrix without translation
+     */
+    private static double[] normalMatrix(double[] m) {
+        final double a = m[0], b = m[4], c = m[8];
+        final double d = m[1], e = m[5], f = m[9];
+        final double g = m[2], h = m[6], i = m[10];
+        // the cofactor matrix is the inverse transpose times the determinant, normals are
+        // normalized afterwards so only its sign matters
+        final double sign = Math.signum(a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g));
+        return new double[] {
+                sign * (e * i - f * h), sign * (c * h - b * i), sign * (b * f - c * e), 0,
+                sign * (f * g - d * i), sign * (a * i - c * g), sign * (c * d - a * f), 0,
+                sign * (d * h - e * g), sign * (b * g - a * h), sign * (a * e - b * d), 0,
+                0, 0, 0, 1
+        };
+    }
+
+    private static void transform(double[] m, double[] v, double w) {
+        final double x = v[0], y = v[1], z = v[2];
+        v[0] = m[0] * x + m[4] * y + m[8] * z + m[12] * w;
+        v[1] = m[1] * x + m[5] * y + m[9] * z + m[13] * w;
+        v[2] = m[2] * x + m[6] * y + m[10] * z + m[14] * w;
+    }
+
+    private static Color color(List<Object> factor) {
+        final float[] c = new float[] {1.0f, 1.0f, 1.0f, 1.0f};
+        for(int i = 0; i < factor.size() && i < 4; i++)
+            c[i] = Math.max(0.0f, Math.min(1.0f, ((Number) factor.get(i)).floatValue()));
+        return new Color(c[0], c[1], c[2], c[3]);
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        if(path.getFileSystem() != FileSystems.getDefault())
+            return ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);    // e.g. in a JAR, can't be mapped
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(offset);
+        ((Buffer) view).limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String sha1(ByteBuffer data) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(data);
+            final StringBuilder hex = new StringBuilder();
+            for(byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JVM has SHA-1
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : Collections.emptyMap();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Map<String, Object> object, String name) {
+        final Object value = object.get(name);
+        return value instanceof List ? (List<Object>) value : Collections.emptyList();
+    }
+
+    private static String string(Map<String, Object> object, String name, String defaultValue) {
+        final Object value = object.get(name);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    private static double number(Map<String, Object> object, String name, double defaultValue) {
+        final Object value = object.get(name);
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    private static int integer(Map<String, Object> object, String name, int defaultValue) {
+        return (int) number(object, name, defaultValue);
+    }
+}
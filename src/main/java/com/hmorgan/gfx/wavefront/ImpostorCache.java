@@ -0,0 +1,588 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.jogamp.common.nio.Buffers;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.util.Logging;
+import gov.nasa.worldwind.util.OGLStackHandler;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import java.lang.ref.Reference;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws distant {@link ObjModel}s of an {@link ObjModelLayer} as impostors: camera facing quads
+ * textured with a picture of the model, two triangles per model however many meshes, materials
+ * and textures the model has.
+ * <p>
+ * The pictures are kept in one texture atlas per {@link ObjModel#getImpostorKey() appearance},
+ * shared by all models that look alike, e.g. a fleet loaded from one file. An atlas has a cell
+ * for each of {@value #BUCKET_COUNT} view directions around the model, {@value #COLUMNS} around
+ * its up axis times {@value #ROWS} elevations. A cell is rendered, through a framebuffer object,
+ * the first time a model is seen from its direction, and is only rendered again once the
+ * appearance changes, which gives the model a new atlas. Cells are rendered on the visible pass
+ * of the render thread, at most {@link #getCellsPerFrame()} per frame; models waiting for theirs
+ * are drawn in full meanwhile. An atlas is only kept once its first picture is rendered. When
+ * an atlas is made, those of appearances no model has anymore, whose key is a cleared
+ * {@link Reference}, are deleted, then the least recently used ones beyond
+ * {@link #getMaxAtlases()}.
+ * <p>
+ * Only opaque models smaller on screen than {@link #getScreenSizeThreshold()} are drawn as
+ * impostors, and only in the visible pass; picking draws them in full. Without framebuffer
+ * object support, all models are drawn in full.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ImpostorCache {
+
+    public static final int COLUMNS = 8;    // view directions around the model's up axis
+    public static final int ROWS = 4;       // view elevations, from below to above
+    public static final int BUCKET_COUNT = COLUMNS * ROWS;
+    public static final int DEFAULT_CELL_SIZE = 64;
+    public static final double DEFAULT_SCREEN_SIZE_THRESHOLD = 48.0;
+    public static final int DEFAULT_MAX_ATLASES = 64;
+    public static final int DEFAULT_CELLS_PER_FRAME = 8;
+
+    private static final int VERTICES_PER_QUAD = 6; // two triangles
+
+    private static final double[] BUCKET_UP = new double[3 * BUCKET_COUNT]; // up of each cell's camera, model coordinates
+
+    static {
+        for(int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            // fromViewLookAt towards the model's origin with its z axis up, as the cell is rendered
+            final Vec4 forward = bucketDirection(bucket).getNegative3();
+            final Vec4 right = forward.cross3(Vec4.UNIT_Z).normalize3();
+            final Vec4 up = right.cross3(forward);
+            BUCKET_UP[3 * bucket] = up.x;
+            BUCKET_UP[3 * bucket + 1] = up.y;
+            BUCKET_UP[3 * bucket + 2] = up.z;
+        }
+    }
+
+    /**
+     * Pictures of the models of one appearance.
+     */
+    private static final class Atlas {
+        final int textureId;
+        final boolean[] rendered = new boolean[BUCKET_COUNT];
+        final List<ObjModel> pending = new ArrayList<>(); // models to draw from this atlas this frame
+        int[] pendingBuckets = new int[16];
+
+        Atlas(int textureId) {
+            this.textureId = textureId;
+        }
+
+        void addPending(ObjModel model, int bucket) {
+            if(pending.size() == pendingBuckets.length)
+                pendingBuckets = Arrays.copyOf(pendingBuckets, 2 * pendingBuckets.length);
+            pendingBuckets[pending.size()] = bucket;
+            pending.add(model);
+        }
+    }
+
+    private final int cellSize;
+    private final int atlasWidth, atlasHeight;
+    private final Map<Object, Atlas> atlases = new LinkedHashMap<>(16, 0.75f, true); // least recently used first
+    private final List<Atlas> pendingAtlases = new ArrayList<>(); // atlases with models to draw this frame
+    private final OGLStackHandler stackHandler = new OGLStackHandler();
+    private final double[] matrixArray = new double[16];
+    private final int[] ids = new int[1];
+    private FloatBuffer vertices = Buffers.newDirectFloatBuffer(64 * VERTICES_PER_QUAD * 3);
+    private FloatBuffer texCoords = Buffers.newDirectFloatBuffer(64 * VERTICES_PER_QUAD * 2);
+    private int framebufferId;              // shared by all atlases, 0 until the first cell is rendered
+    private int depthBufferId;
+    private boolean unsupported;            // no framebuffer objects, nothing is drawn as an impostor
+    private long cellFrame = -1L;           // frame cellsRendered counts the cells of
+    private int cellsRendered;
+
+    private volatile double screenSizeThreshold = DEFAULT_SCREEN_SIZE_THRESHOLD;
+    private volatile int maxAtlases = DEFAULT_MAX_ATLASES;
+    private volatile int cellsPerFrame = DEFAULT_CELLS_PER_FRAME;
+
+    /**
+     * Creates a cache with {@value #DEFAULT_CELL_SIZE} pixel cells.
+     */
+    public ImpostorCache() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize width and height of the picture of a model from one direction, in pixels
+     */
+    public ImpostorCache(int cellSize) {
+        if(cellSize < 1)
+            throw new IllegalArgumentException("cellSize must be positive");
+        this.cellSize = cellSize;
+        this.atlasWidth = COLUMNS * cellSize;
+        this.atlasHeight = ROWS * cellSize;
+    }
+
+    /**
+     * Finds the cell of an atlas a model is pictured in when seen from a direction.
+     *
+     * @param x direction from the model to the eye, along the model's x (east) axis
+     * @param y direction from the model to the eye, along the model's y (north) axis
+     * @param z direction from the model to the eye, along the model's z (up) axis
+     * @return the cell, row by row from below the model to above it
+     */
+    public static int bucketOf(double x, double y, double z) {
+        final double horizontal = Math.sqrt(x * x + y * y);
+        int column = (int) Math.floor((Math.atan2(y, x) + Math.PI) / (2.0 * Math.PI) * COLUMNS);
+        int row = (int) Math.floor((Math.atan2(z, horizontal) + 0.5 * Math.PI) / Math.PI * ROWS);
+        column = Math.min(Math.max(column, 0), COLUMNS - 1);
+        row = Math.min(Math.max(row, 0), ROWS - 1);
+        return row * COLUMNS + column;
+    }
+
+    /**
+     * @param bucket a cell, see {@link #bucketOf(double, double, double)}
+     * @return unit direction from the model to the eye the cell is rendered from, in model
+     * coordinates
+     */
+    public static Vec4 bucketDirection(int bucket) {
+        final double azimuth = (bucket % COLUMNS + 0.5) / COLUMNS * 2.0 * Math.PI - Math.PI;
+        final double elevation = (bucket / COLUMNS + 0.5) / ROWS * Math.PI - 0.5 * Math.PI;
+        return new Vec4(Math.cos(elevation) * Math.cos(azimuth),
+                        Math.cos(elevation) * Math.sin(azimuth),
+                        Math.sin(elevation));
+    }
+
+    /**
+     * Takes a model of the visible pass to draw as an impostor in {@link #draw(DrawContext)},
+     * rendering its picture first if needed. The model must be opaque, culled and visible.
+     * Called by the layer on the render thread.
+     *
+     * @param dc    the current draw context
+     * @param model the model
+     * @return true if the model will be drawn as an impostor, false if it must be drawn in full
+     */
+    protected boolean add(DrawContext dc, ObjModel model) {
+        if(unsupported || model.getScreenSize() >= screenSizeThreshold)
+            return false;
+        final Matrix modelMatrix = model.getModelMatrix();
+        if(modelMatrix == null || model.getLocalRadius() <= 0.0)
+            return false;
+        final Object key = model.getImpostorKey();
+        if(key == null)
+            return false;
+
+        // eye in model coordinates, the model matrix is a rotation and a translation
+        final Vec4 eye = dc.getView().getEyePoint();
+        final double dx = eye.x - modelMatrix.m14;
+        final double dy = eye.y - modelMatrix.m24;
+        final double dz = eye.z - modelMatrix.m34;
+        final int bucket = bucketOf(modelMatrix.m11 * dx + modelMatrix.m21 * dy + modelMatrix.m31 * dz,
+                                    modelMatrix.m12 * dx + modelMatrix.m22 * dy + modelMatrix.m32 * dz,
+                                    modelMatrix.m13 * dx + modelMatrix.m23 * dy + modelMatrix.m33 * dz);
+
+        Atlas atlas = atlases.get(key);
+        if(atlas == null || !atlas.rendered[bucket]) {
+            if(dc.getFrameTimeStamp() != cellFrame) {
+                cellFrame = dc.getFrameTimeStamp();
+                cellsRendered = 0;
+            }
+            // a picture taken while meshes are missing would keep them missing
+            if(cellsRendered >= cellsPerFrame || model.hasMeshWaitingForUpload())
+                return false;
+            final boolean created = atlas == null;
+            if(created)
+                atlas = new Atlas(createAtlasTexture(dc));
+            boolean rendered = false;
+            try {
+                rendered = renderCell(dc, model, atlas.textureId, bucket);
+            } finally {
+                if(created && !rendered)
+                    deleteAtlasTexture(dc, atlas.textureId);
+            }
+            if(!rendered)
+                return false;
+            atlas.rendered[bucket] = true;
+            cellsRendered++;
+            RenderMetrics.getInstance().add(dc, RenderMetrics.Counter.IMPOSTOR_CELLS_RENDERED, 1);
+            if(created) {
+                evict(dc);
+                atlases.put(key, atlas);
+            }
+        }
+        if(atlas.pending.isEmpty())
+            pendingAtlases.add(atlas);
+        atlas.addPending(model, bucket);
+        return true;
+    }
+
+    /**
+     * Creates the texture of an atlas, {@link #COLUMNS} x {@link #ROWS} cells.
+     *
+     * @param dc the current draw context
+     * @return name of the GL texture
+     */
+    protected int createAtlasTexture(DrawContext dc) {
+        final GL2 gl = dc.getGL().getGL2();
+        gl.glGenTextures(1, ids, 0);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, ids[0]);
+        try {
+            gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, atlasWidth, atlasHeight, 0,
+                            GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        } finally {
+            gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        }
+        return ids[0];
+    }
+
+    /**
+     * @param dc        the current draw context
+     * @param textureId name of a texture {@link #createAtlasTexture(DrawContext) created} for an
+     *                  atlas
+     */
+    protected void deleteAtlasTexture(DrawContext dc, int textureId) {
+        ids[0] = textureId;
+        dc.getGL().glDeleteTextures(1, ids, 0);
+    }
+
+    /**
+     * Makes room for a new atlas: deletes the atlases of appearances no model has anymore, then
+     * the least recently used atlases beyond the limit, except those drawn this frame.
+     */
+    private void evict(DrawContext dc) {
+        Iterator<Map.Entry<Object, Atlas>> it = atlases.entrySet().iterator();
+        while(it.hasNext()) {
+            final Map.Entry<Object, Atlas> entry = it.next();
+            final Object key = entry.getKey();
+            if(key instanceof Reference && ((Reference<?>) key).get() == null) {
+                deleteAtlasTexture(dc, entry.getValue().textureId);
+                it.remove();
+            }
+        }
+        it = atlases.entrySet().iterator();
+        while(atlases.size() >= maxAtlases && it.hasNext()) {
+            final Atlas atlas = it.next().getValue();
+            if(!atlas.pending.isEmpty())
+                continue;
+            deleteAtlasTexture(dc, atlas.textureId);
+            it.remove();
+        }
+    }
+
+    /**
+     * Renders a model, unscaled and looking at its origin from a bucket's direction, into the
+     * bucket's cell of an atlas.
+     *
+     * @param dc        the current draw context
+     * @param model     the model
+     * @param textureId texture of the atlas
+     * @param bucket    the cell, see {@link #bucketOf(double, double, double)}
+     * @return false if framebuffer objects turned out not to be supported
+     */
+    protected boolean renderCell(DrawContext dc, ObjModel model, int textureId, int bucket) {
+        final GL2 gl = dc.getGL().getGL2();
+        final double radius = model.getLocalRadius();
+        final Matrix view = Matrix.fromViewLookAt(bucketDirection(bucket).multiply3(2.0 * radius), Vec4.ZERO, Vec4.UNIT_Z);
+
+        gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, ids, 0);
+        final int previousFramebuffer = ids[0];
+        stackHandler.clear();
+        stackHandler.pushAttrib(gl, GL2.GL_VIEWPORT_BIT | GL2.GL_SCISSOR_BIT | GL2.GL_ENABLE_BIT
+                | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
+        stackHandler.pushProjectionIdentity(gl);
+        stackHandler.pushModelview(gl);
+        try {
+            if(!bindFramebuffer(gl, textureId))
+                return false;
+            gl.glMatrixMode(GL2.GL_PROJECTION);
+            gl.glOrtho(-radius, radius, -radius, radius, 0.5 * radius, 3.5 * radius);
+            final int x = (bucket % COLUMNS) * cellSize;
+            final int y = (bucket / COLUMNS) * cellSize;
+            gl.glViewport(x, y, cellSize, cellSize);
+            gl.glScissor(x, y, cellSize, cellSize);
+            gl.glEnable(GL.GL_SCISSOR_TEST);
+            gl.glEnable(GL.GL_DEPTH_TEST);
+            gl.glDepthFunc(GL.GL_LESS);
+            gl.glDepthMask(true);
+            gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+            gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+
+            ObjModel.beginBatch(dc);
+            try {
+                gl.glLoadMatrixd(view.toArray(matrixArray, 0, false), 0);
+                model.drawImpostorView(dc);
+            } finally {
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+                gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+                ObjModel.endBatch(dc);
+            }
+        } finally {
+            gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, previousFramebuffer);
+            stackHandler.pop(gl);
+        }
+        return true;
+    }
+
+    /**
+     * Binds the framebuffer object, created on first use, with an atlas as its color buffer.
+     *
+     * @return false if framebuffer objects aren't supported
+     */
+    private boolean bindFramebuffer(GL2 gl, int textureId) {
+        if(framebufferId == 0) {
+            if(!gl.hasBasicFBOSupport()) {
+                Logging.logger().warning("framebuffer objects aren't supported, models are drawn without impostors");
+                unsupported = true;
+                return false;
+            }
+            gl.glGenFramebuffers(1, ids, 0);
+            framebufferId = ids[0];
+            gl.glGenRenderbuffers(1, ids, 0);
+            depthBufferId = ids[0];
+            gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, depthBufferId);
+            gl.glRenderbufferStorage(GL.GL_RENDERBUFFER, GL.GL_DEPTH_COMPONENT24, atlasWidth, atlasHeight);
+            gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, 0);
+            gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebufferId);
+            gl.glFramebufferRenderbuffer(GL.GL_FRAMEBUFFER, GL.GL_DEPTH_ATTACHMENT, GL.GL_RENDERBUFFER, depthBufferId);
+        } else {
+            gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebufferId);
+        }
+        gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0, GL.GL_TEXTURE_2D, textureId, 0);
+        if(gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER) != GL.GL_FRAMEBUFFER_COMPLETE) {
+            Logging.logger().warning("impostor framebuffer is incomplete, models are drawn without impostors");
+            unsupported = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Draws the models {@link #add(DrawContext, ObjModel) added} this frame, with one draw call
+     * per atlas.
+     *
+     * @param dc the current draw context
+     */
+    void draw(DrawContext dc) {
+        if(pendingAtlases.isEmpty())
+            return;
+        final GL2 gl = dc.getGL().getGL2();
+        final RenderMetrics metrics = RenderMetrics.getInstance();
+        final Vec4 eye = dc.getView().getEyePoint();
+        // vertices are relative to the eye, where floats are precise enough
+        final Matrix modelview = dc.getView().getModelviewMatrix();
+        matrixArray[0] = modelview.m11;
+        matrixArray[1] = modelview.m21;
+        matrixArray[2] = modelview.m31;
+        matrixArray[3] = modelview.m41;
+        matrixArray[4] = modelview.m12;
+        matrixArray[5] = modelview.m22;
+        matrixArray[6] = modelview.m32;
+        matrixArray[7] = modelview.m42;
+        matrixArray[8] = modelview.m13;
+        matrixArray[9] = modelview.m23;
+        matrixArray[10] = modelview.m33;
+        matrixArray[11] = modelview.m43;
+        matrixArray[12] = modelview.m11 * eye.x + modelview.m12 * eye.y + modelview.m13 * eye.z + modelview.m14;
+        matrixArray[13] = modelview.m21 * eye.x + modelview.m22 * eye.y + modelview.m23 * eye.z + modelview.m24;
+        matrixArray[14] = modelview.m31 * eye.x + modelview.m32 * eye.y + modelview.m33 * eye.z + modelview.m34;
+        matrixArray[15] = modelview.m41 * eye.x + modelview.m42 * eye.y + modelview.m43 * eye.z + modelview.m44;
+
+        stackHandler.clear();
+        stackHandler.pushAttrib(gl, GL2.GL_ENABLE_BIT | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT
+                | GL2.GL_TEXTURE_BIT | GL2.GL_CURRENT_BIT);
+        stackHandler.pushModelview(gl);
+        stackHandler.pushClientAttrib(gl, GL2.GL_CLIENT_VERTEX_ARRAY_BIT);
+        try {
+            gl.glMatrixMode(GL2.GL_MODELVIEW);
+            gl.glLoadMatrixd(matrixArray, 0);
+            gl.glDisable(GL2.GL_LIGHTING);
+            gl.glDisable(GL.GL_CULL_FACE);
+            gl.glDisable(GL.GL_BLEND);
+            gl.glEnable(GL.GL_DEPTH_TEST);
+            gl.glDepthMask(true);
+            // the empty parts of a cell are transparent
+            gl.glEnable(GL2.GL_ALPHA_TEST);
+            gl.glAlphaFunc(GL.GL_GREATER, 0.5f);
+            gl.glEnable(GL.GL_TEXTURE_2D);
+            gl.glTexEnvi(GL2.GL_TEXTURE_ENV, GL2.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE);
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+            gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+            gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+
+            for(int i = 0; i < pendingAtlases.size(); i++) {
+                final Atlas atlas = pendingAtlases.get(i);
+                final int count = atlas.pending.size();
+                fillQuads(atlas, eye);
+                gl.glBindTexture(GL.GL_TEXTURE_2D, atlas.textureId);
+                gl.glVertexPointer(3, GL.GL_FLOAT, 0, vertices);
+                gl.glTexCoordPointer(2, GL.GL_FLOAT, 0, texCoords);
+                gl.glDrawArrays(GL.GL_TRIANGLES, 0, VERTICES_PER_QUAD * count);
+                metrics.add(dc, RenderMetrics.Counter.DRAW_CALLS, 1);
+                metrics.add(dc, RenderMetrics.Counter.TRIANGLES_DRAWN, 2L * count);
+                metrics.add(dc, RenderMetrics.Counter.IMPOSTORS_DRAWN, count);
+            }
+        } finally {
+            gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+            stackHandler.pop(gl);
+            discardPending();
+        }
+    }
+
+    /**
+     * Fills the vertex and texture coordinate arrays with a quad per model to draw from an atlas,
+     * facing the eye and turned so its up is the up of the picture.
+     */
+    private void fillQuads(Atlas atlas, Vec4 eye) {
+        final int count = atlas.pending.size();
+        if(vertices.capacity() < count * VERTICES_PER_QUAD * 3) {
+            vertices = Buffers.newDirectFloatBuffer(2 * count * VERTICES_PER_QUAD * 3);
+            texCoords = Buffers.newDirectFloatBuffer(2 * count * VERTICES_PER_QUAD * 2);
+        }
+        ((Buffer) vertices).clear();
+        ((Buffer) texCoords).clear();
+        for(int i = 0; i < count; i++) {
+            final ObjModel model = atlas.pending.get(i);
+            final int bucket = atlas.pendingBuckets[i];
+            final Matrix m = model.getModelMatrix();
+            final double halfSize = model.getLocalRadius() * model.framePose.getScale();
+
+            // center relative to the eye, and the direction the eye looks at it in
+            final double cx = m.m14 - eye.x;
+            final double cy = m.m24 - eye.y;
+            final double cz = m.m34 - eye.z;
+            final double distance = Math.sqrt(cx * cx + cy * cy + cz * cz);
+            final double fx = cx / distance, fy = cy / distance, fz = cz / distance;
+
+            // up of the picture in world coordinates, made perpendicular to the view direction
+            final double bx = BUCKET_UP[3 * bucket], by = BUCKET_UP[3 * bucket + 1], bz = BUCKET_UP[3 * bucket + 2];
+            double ux = m.m11 * bx + m.m12 * by + m.m13 * bz;
+            double uy = m.m21 * bx + m.m22 * by + m.m23 * bz;
+            double uz = m.m31 * bx + m.m32 * by + m.m33 * bz;
+            final double along = ux * fx + uy * fy + uz * fz;
+            ux -= along * fx;
+            uy -= along * fy;
+            uz -= along * fz;
+            final double upLength = Math.sqrt(ux * ux + uy * uy + uz * uz);
+            ux *= halfSize / upLength;
+            uy *= halfSize / upLength;
+            uz *= halfSize / upLength;
+            // right = forward x up, as the cell's camera has it
+            final double rx = (fy * uz - fz * uy);
+            final double ry = (fz * ux - fx * uz);
+            final double rz = (fx * uy - fy * ux);
+
+            final float u0 = (float) (bucket % COLUMNS) / COLUMNS;
+            final float u1 = (float) (bucket % COLUMNS + 1) / COLUMNS;
+            final float v0 = (float) (bucket / COLUMNS) / ROWS;
+            final float v1 = (float) (bucket / COLUMNS + 1) / ROWS;
+            // two triangles: bottom left, bottom right, top right and bottom left, top right, top left
+            putCorner(cx - rx - ux, cy - ry - uy, cz - rz - uz, u0, v0);
+            putCorner(cx + rx - ux, cy + ry - uy, cz + rz - uz, u1, v0);
+            putCorner(cx + rx + ux, cy + ry + uy, cz + rz + uz, u1, v1);
+            putCorner(cx - rx - ux, cy - ry - uy, cz - rz - uz, u0, v0);
+            putCorner(cx + rx + ux, cy + ry + uy, cz + rz + uz, u1, v1);
+            putCorner(cx - rx + ux, cy - ry + uy, cz - rz + uz, u0, v1);
+        }
+        ((Buffer) vertices).flip();
+        ((Buffer) texCoords).flip();
+    }
+
+    private void putCorner(double x, double y, double z, float u, float v) {
+        vertices.put((float) x).put((float) y).put((float) z);
+        texCoords.put(u).put(v);
+    }
+
+    /**
+     * Forgets the models added this frame without drawing them. Called by the layer at the end
+     * of the visible pass.
+     */
+    protected void discardPending() {
+        for(int i = 0; i < pendingAtlases.size(); i++)
+            pendingAtlases.get(i).pending.clear();
+        pendingAtlases.clear();
+    }
+
+    /**
+     * Deletes the atlases and the framebuffer object, e.g. when the cache is no longer used.
+     * Pictures are rendered again when needed. Must be called on the render thread.
+     *
+     * @param dc the current draw context
+     */
+    public void release(DrawContext dc) {
+        final GL2 gl = dc.getGL().getGL2();
+        discardPending();
+        for(Atlas atlas : atlases.values())
+            deleteAtlasTexture(dc, atlas.textureId);
+        atlases.clear();
+        if(framebufferId != 0) {
+            ids[0] = framebufferId;
+            gl.glDeleteFramebuffers(1, ids, 0);
+            ids[0] = depthBufferId;
+            gl.glDeleteRenderbuffers(1, ids, 0);
+            framebufferId = 0;
+            depthBufferId = 0;
+        }
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public double getScreenSizeThreshold() {
+        return screenSizeThreshold;
+    }
+
+    /**
+     * @param screenSizeThreshold models smaller on screen than this many pixels across are drawn
+     *                            as impostors
+     */
+    public void setScreenSizeThreshold(double screenSizeThreshold) {
+        this.screenSizeThreshold = screenSizeThreshold;
+    }
+
+    public int getMaxAtlases() {
+        return maxAtlases;
+    }
+
+    /**
+     * @param maxAtlases most appearances to keep pictures of, each takes an atlas of
+     *                   {@link #COLUMNS} x {@link #ROWS} cells
+     */
+    public void setMaxAtlases(int maxAtlases) {
+        if(maxAtlases < 1)
+            throw new IllegalArgumentException("maxAtlases must be positive");
+        this.maxAtlases = maxAtlases;
+    }
+
+    public int getCellsPerFrame() {
+        return cellsPerFrame;
+    }
+
+    /**
+     * @param cellsPerFrame most pictures rendered per frame, bounding the cost of a frame in
+     *                      which many new appearances or directions come into view
+     */
+    public void setCellsPerFrame(int cellsPerFrame) {
+        if(cellsPerFrame < 0)
+            throw new IllegalArgumentException("cellsPerFrame must not be negative");
+        this.cellsPerFrame = cellsPerFrame;
+    }
+
+    /**
+     * @return number of appearances pictures are kept of, read on the render thread
+     */
+    public int getAtlasCount() {
+        return atlases.size();
+    }
+}
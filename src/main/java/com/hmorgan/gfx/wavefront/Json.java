@@ -0,0 +1,183 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for glTF documents. Objects are read as {@link Map}s, arrays as
+ * {@link List}s, numbers as {@link Double}s, and strings, booleans and null as themselves.
+ *
+ * @author Hunter N. Morgan
+ */
+final class Json {
+
+    private final CharSequence text;
+    private int pos;
+
+    private Json(CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * @param text a JSON document
+     * @return the value of the document
+     * @throws IOException if the document is malformed
+     */
+    static Object parse(CharSequence text) throws IOException {
+        final Json json = new Json(text);
+        final Object value = json.value();
+        json.skipSpace();
+        if(json.pos != text.length())
+            throw json.error("trailing characters");
+        return value;
+    }
+
+    private Object value() throws IOException {
+        skipSpace();
+        if(pos == text.length())
+            throw error("unexpected end");
+        final char c = text.charAt(pos);
+        switch(c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if(c == '-' || (c >= '0' && c <= '9'))
+                    return number();
+                throw error("unexpected '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() throws IOException {
+        final Map<String, Object> object = new LinkedHashMap<>();
+        pos++;
+        skipSpace();
+        if(peek() == '}') {
+            pos++;
+            return object;
+        }
+        while(true) {
+            skipSpace();
+            if(peek() != '"')
+                throw error("expected member name");
+            final String name = string();
+            skipSpace();
+            expect(':');
+            object.put(name, value());
+            skipSpace();
+            if(peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> array() throws IOException {
+        final List<Object> array = new ArrayList<>();
+        pos++;
+        skipSpace();
+        if(peek() == ']') {
+            pos++;
+            return array;
+        }
+        while(true) {
+            array.add(value());
+            skipSpace();
+            if(peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String string() throws IOException {
+        pos++;
+        final StringBuilder sb = new StringBuilder();
+        while(true) {
+            if(pos == text.length())
+                throw error("unterminated string");
+            final char c = text.charAt(pos++);
+            if(c == '"')
+                return sb.toString();
+            if(c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if(pos == text.length())
+                throw error("unterminated string");
+            final char escaped = text.charAt(pos++);
+            switch(escaped) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if(pos + 4 > text.length())
+                        throw error("bad unicode escape");
+                    try {
+                        sb.append((char) Integer.parseInt(text.subSequence(pos, pos + 4).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(escaped);     // quote, backslash and slash
+            }
+        }
+    }
+
+    private Double number() throws IOException {
+        final int start = pos;
+        while(pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+            pos++;
+        try {
+            return Double.valueOf(text.subSequence(start, pos).toString());
+        } catch (NumberFormatException e) {
+            throw error("bad number");
+        }
+    }
+
+    private Object literal(String word, Object value) throws IOException {
+        if(pos + word.length() > text.length() || !word.contentEquals(text.subSequence(pos, pos + word.length())))
+            throw error("unexpected token");
+        pos += word.length();
+        return value;
+    }
+
+    private void expect(char c) throws IOException {
+        if(peek() != c)
+            throw error("expected '" + c + "'");
+        pos++;
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+
+    private void skipSpace() {
+        while(pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+    }
+
+    private IOException error(String message) {
+        return new IOException("JSON offset " + pos + ": " + message);
+    }
+}
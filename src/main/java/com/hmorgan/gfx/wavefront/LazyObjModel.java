@@ -0,0 +1,286 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * An {@link ObjModel} that only loads the geometry it needs. Construction just indexes the .OBJ
+ * file (see {@link ObjFileIndex}); the geometry of a section is parsed from its byte range, off
+ * the render thread, the first time its bounds intersect the view frustum. Sections that haven't
+ * been visible for {@link #getEvictAfterMillis()} are dropped again, along with their GPU buffers.
+ * <p>
+ * Until a section's geometry arrives it is simply not drawn, and the model's bounds are drawn as
+ * a placeholder if enabled. A section that fails to load isn't tried again.
+ *
+ * @author Hunter N. Morgan
+ */
+public class LazyObjModel extends ObjModel {
+
+    public static final long DEFAULT_EVICT_AFTER_MILLIS = 30000L;
+
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+    private static ExecutorService defaultLoader;
+
+    private final ObjFileIndex index;
+    private final String meshNamePrefix;        // keeps GPU buffers of models of the same file apart
+    private final SectionState[] sections;
+    private ExecutorService loader;             // parses sections off the render thread
+    private volatile long evictAfterMillis;
+
+    // owned by the render thread
+    private int loadingCount;                   // sections being parsed
+    private int loadedCount;                    // sections in the mesh map
+    private int failedCount;                    // sections that failed to load
+    private Matrix boundsMatrix;                // model matrix the section bounds were computed for
+    private double boundsScale;
+
+    // handed from the loader threads to the render thread
+    private final Queue<SectionState> completed = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Load state of one section of the index.
+     */
+    private static final class SectionState {
+        final ObjFileIndex.Section section;
+        Box bounds;                 // world bounds for the current pose
+        Mesh mesh;                  // in the mesh map, null while not loaded
+        Mesh result;                // set by the loader, published through the completed queue
+        boolean loading;
+        boolean failed;             // loading threw, the section is never drawn
+        long lastVisibleNanos;
+
+        SectionState(ObjFileIndex.Section section) {
+            this.section = section;
+        }
+    }
+
+    /**
+     * Constructs a new LazyObjModel, indexing the given file. No geometry is loaded yet.
+     *
+     * @param filePath Path to .OBJ file
+     * @throws IOException if the file can't be indexed
+     */
+    public LazyObjModel(Path filePath) throws IOException {
+        this(ObjFileIndex.build(filePath));
+    }
+
+    /**
+     * Constructs a new LazyObjModel from an existing index.
+     *
+     * @param index index of the .OBJ file
+     */
+    public LazyObjModel(ObjFileIndex index) {
+        super(new HashMap<>());
+        this.index = index;
+        this.meshNamePrefix = index.getFilePath() + "@" + instanceCount.incrementAndGet() + "#";
+        this.sections = new SectionState[index.getSections().size()];
+        for(int i = 0; i < sections.length; i++)
+            sections[i] = new SectionState(index.getSections().get(i));
+        this.loader = getDefaultLoader();
+        this.evictAfterMillis = DEFAULT_EVICT_AFTER_MILLIS;
+    }
+
+    private static synchronized ExecutorService getDefaultLoader() {
+        if(defaultLoader == null) {
+            final AtomicInteger count = new AtomicInteger();
+            final int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            defaultLoader = Executors.newFixedThreadPool(workers, r -> {
+                final Thread t = new Thread(r, "obj-section-loader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            });
+        }
+        return defaultLoader;
+    }
+
+    @Override
+    public void render(DrawContext dc) {
+        // evict before culling, so sections of a model that left the view are dropped as well
+        if(!dc.isPickingMode() && !dc.isOrderedRenderingMode())
+            evictUnused(dc);
+        super.render(dc);
+    }
+
+    @Override
+    boolean isRenderedEveryFrame() {
+        return true;    // sections are evicted while the model is off screen
+    }
+
+    @Override
+    protected Box computeLocalBoundingBox() {
+        return index.getBounds();
+    }
+
+    @Override
+    protected void updateMeshes(DrawContext dc) {
+        if(dc.isPickingMode())
+            return;     // visibility is decided in the rendering pass
+
+        final long now = System.nanoTime();
+        SectionState state;
+        while((state = completed.poll()) != null) {
+            state.loading = false;
+            loadingCount--;
+            if(state.result != null) {
+                state.mesh = state.result;
+                state.result = null;
+                state.lastVisibleNanos = now;
+                getMeshes().put(state.mesh.getName(), state.mesh);
+                meshesChanged();
+                loadedCount++;
+            } else {
+                state.failed = true;
+                failedCount++;
+            }
+        }
+
+        updateSectionBounds();
+        if(boundsMatrix == null)
+            return;
+
+        final Frustum frustum = dc.getView().getFrustumInModelCoordinates();
+        for(SectionState s : sections) {
+            if(!frustum.intersects(s.bounds))
+                continue;
+            s.lastVisibleNanos = now;
+            if(s.mesh == null && !s.loading && !s.failed)
+                load(s);
+        }
+    }
+
+    @Override
+    protected boolean hasMeshWaitingForUpload() {
+        return loadingCount > 0 || super.hasMeshWaitingForUpload();
+    }
+
+    /**
+     * Transforms the local bounds of every section by the frame's scaled model matrix, if the
+     * pose changed since they were last computed.
+     */
+    private void updateSectionBounds() {
+        final Matrix modelMatrix = getModelMatrix();
+        if(modelMatrix == null || (modelMatrix == boundsMatrix && framePose.getScale() == boundsScale))
+            return;
+
+        final Matrix scaledModelMatrix = modelMatrix.multiply(Matrix.fromScale(framePose.getScale()));
+        final List<Vec4> transformedCorners = new ArrayList<>(8);
+        for(SectionState s : sections) {
+            transformedCorners.clear();
+            for(Vec4 corner : s.section.getLocalBounds().getCorners())
+                transformedCorners.add(corner.transformBy4(scaledModelMatrix));
+            s.bounds = Box.computeBoundingBox(transformedCorners);
+        }
+        boundsMatrix = modelMatrix;
+        boundsScale = framePose.getScale();
+    }
+
+    private void load(SectionState state) {
+        state.loading = true;
+        loadingCount++;
+        final String meshName = meshNamePrefix + state.section.getName();
+        loader.execute(() -> {
+            try {
+                state.result = index.loadSection(state.section, meshName);
+            } catch (IOException | RuntimeException e) {
+                Logging.logger().log(Level.WARNING, "can't load section " + state.section.getName()
+                                                    + " of " + index.getFilePath(), e);
+            }
+            completed.add(state);
+        });
+    }
+
+    /**
+     * Drops the geometry and GPU buffers of sections that weren't visible for the eviction time.
+     *
+     * @param dc the current draw context
+     */
+    private void evictUnused(DrawContext dc) {
+        if(loadedCount == 0)
+            return;
+        final long now = System.nanoTime();
+        final long evictAfterNanos = TimeUnit.MILLISECONDS.toNanos(evictAfterMillis);
+        for(SectionState s : sections) {
+            if(s.mesh == null || now - s.lastVisibleNanos < evictAfterNanos)
+                continue;
+            getMeshes().remove(s.mesh.getName());
+            meshesChanged();
+            getUploadScheduler().cancel(s.mesh);
+            if(s.mesh.isGlBufferReady())
+                s.mesh.releaseGlBuffers(dc);
+            s.mesh = null;
+            loadedCount--;
+        }
+    }
+
+    /**
+     * A lazy model has no part hierarchy, its meshes come and go as its sections are loaded and
+     * evicted. They are drawn as one part.
+     *
+     * @return null
+     */
+    @Override
+    public MeshTreeNode getMeshTree() {
+        return null;
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    public ObjFileIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return number of sections whose geometry is currently loaded
+     */
+    public int getLoadedSectionCount() {
+        return loadedCount;
+    }
+
+    /**
+     * @return number of sections that failed to load, and are left out of the model
+     */
+    public int getFailedSectionCount() {
+        return failedCount;
+    }
+
+    public long getEvictAfterMillis() {
+        return evictAfterMillis;
+    }
+
+    /**
+     * @param evictAfterMillis how long a section may stay out of view before its geometry is dropped
+     */
+    public void setEvictAfterMillis(long evictAfterMillis) {
+        this.evictAfterMillis = evictAfterMillis;
+    }
+
+    /**
+     * Sets the executor that parses sections, e.g. to bound the number of loader threads.
+     *
+     * @param loader the executor
+     */
+    public void setLoader(ExecutorService loader) {
+        this.loader = loader;
+    }
+}
@@ -0,0 +1,111 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Accumulates exclusive wall time and allocated bytes per {@link LoadReport.Phase} for a load
+ * running on a single thread. Phases nest: entering a phase pauses the enclosing one until the
+ * nested phase is exited.
+ * <p>
+ * Not thread-safe, each load uses its own timer.
+ *
+ * @author Hunter N. Morgan
+ */
+class LoadPhaseTimer {
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN;
+
+    static {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = null;
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            allocationBean = (com.sun.management.ThreadMXBean) bean;
+            try {
+                if(!allocationBean.isThreadAllocatedMemorySupported())
+                    allocationBean = null;
+                else if(!allocationBean.isThreadAllocatedMemoryEnabled())
+                    allocationBean.setThreadAllocatedMemoryEnabled(true);
+            } catch (UnsupportedOperationException | SecurityException e) {
+                allocationBean = null;
+            }
+        }
+        ALLOCATION_BEAN = allocationBean;
+    }
+
+    private final long threadId;
+    private final long[] nanos = new long[LoadReport.Phase.values().length];
+    private final long[] allocated = new long[LoadReport.Phase.values().length];
+    private final LoadReport.Phase[] stack = new LoadReport.Phase[LoadReport.Phase.values().length + 1];
+    private int depth;
+    private long markNanos;
+    private long markAllocated;
+    private final long startNanos;
+    private final long startAllocated;
+
+    LoadPhaseTimer() {
+        threadId = Thread.currentThread().getId();
+        startNanos = markNanos = System.nanoTime();
+        startAllocated = markAllocated = allocatedBytes();
+    }
+
+    /**
+     * Enters a phase, pausing the current one.
+     *
+     * @param phase the phase being entered
+     */
+    void enter(LoadReport.Phase phase) {
+        charge();
+        stack[depth++] = phase;
+    }
+
+    /**
+     * Exits the current phase, resuming the enclosing one.
+     */
+    void exit() {
+        charge();
+        depth--;
+    }
+
+    /**
+     * @return bytes allocated by this thread so far, or -1 if not measurable
+     */
+    static long allocatedBytes(long threadId) {
+        return (ALLOCATION_BEAN != null) ? ALLOCATION_BEAN.getThreadAllocatedBytes(threadId) : -1L;
+    }
+
+    static boolean isAllocationMeasurable() {
+        return ALLOCATION_BEAN != null;
+    }
+
+    /**
+     * Stores totals and per-phase measurements in the report builder.
+     *
+     * @param builder report builder to fill in
+     */
+    void finish(LoadReport.Builder builder) {
+        charge();
+        final boolean measurable = isAllocationMeasurable();
+        builder.setWallNanos(markNanos - startNanos);
+        builder.setAllocatedBytes(measurable ? markAllocated - startAllocated : -1L);
+        for(LoadReport.Phase phase : LoadReport.Phase.values())
+            builder.setPhase(phase, nanos[phase.ordinal()], measurable ? allocated[phase.ordinal()] : -1L);
+    }
+
+    private long allocatedBytes() {
+        return allocatedBytes(threadId);
+    }
+
+    // charges time and allocation since the last mark to the phase on top of the stack
+    private void charge() {
+        final long now = System.nanoTime();
+        final long alloc = allocatedBytes();
+        if(depth > 0) {
+            final int i = stack[depth - 1].ordinal();
+            nanos[i] += now - markNanos;
+            allocated[i] += alloc - markAllocated;
+        }
+        markNanos = now;
+        markAllocated = alloc;
+    }
+}
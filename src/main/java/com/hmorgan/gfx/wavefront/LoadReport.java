@@ -0,0 +1,232 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Structured telemetry for a single model load: what was read, what was built, and how long and
+ * how many bytes of heap each loading phase took.
+ * <p>
+ * Phase times are exclusive, e.g. the time spent parsing an MTL file referenced from an .OBJ file
+ * counts towards {@link Phase#MTL} and not towards {@link Phase#PARSE}.
+ * <p>
+ * This class is <i>immutable</i> and uses a builder class. This makes this class
+ * inheritly thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public class LoadReport {
+
+    public enum Phase {
+        PARSE,              // reading and tokenizing the .OBJ file
+        MTL,                // reading and parsing .MTL files
+        TEXTURE_DECODE,     // decoding texture images
+        MESH_BUILD          // assembling Mesh objects from the parsed attributes
+    }
+
+    private final Path source;
+    private final long bytesRead;
+    private final long lines;
+    private final long vertices;
+    private final long faces;
+    private final int meshes;
+    private final int reusedMeshes;             // meshes kept from the previous version by a reload
+    private final int materials;
+    private final int textures;
+    private final long wallNanos;
+    private final long allocatedBytes;          // -1 if the JVM can't measure allocation
+    private final long[] phaseNanos;
+    private final long[] phaseAllocatedBytes;   // -1 entries if the JVM can't measure allocation
+
+    public static final class Builder {
+        private Path source;
+        private long bytesRead;
+        private long lines;
+        private long vertices;
+        private long faces;
+        private int meshes;
+        private int reusedMeshes;
+        private int materials;
+        private int textures;
+        private long wallNanos;
+        private long allocatedBytes = -1L;
+        private final long[] phaseNanos = new long[Phase.values().length];
+        private final long[] phaseAllocatedBytes = new long[Phase.values().length];
+
+        public Builder() {
+            Arrays.fill(phaseAllocatedBytes, -1L);
+        }
+
+        public Builder setSource(Path val) {
+            source = val;
+            return this;
+        }
+
+        public Builder setBytesRead(long val) {
+            bytesRead = val;
+            return this;
+        }
+
+        public Builder setLines(long val) {
+            lines = val;
+            return this;
+        }
+
+        public Builder setVertices(long val) {
+            vertices = val;
+            return this;
+        }
+
+        public Builder setFaces(long val) {
+            faces = val;
+            return this;
+        }
+
+        public Builder setMeshes(int val) {
+            meshes = val;
+            return this;
+        }
+
+        public Builder setReusedMeshes(int val) {
+            reusedMeshes = val;
+            return this;
+        }
+
+        public Builder setMaterials(int val) {
+            materials = val;
+            return this;
+        }
+
+        public Builder setTextures(int val) {
+            textures = val;
+            return this;
+        }
+
+        public Builder setWallNanos(long val) {
+            wallNanos = val;
+            return this;
+        }
+
+        public Builder setAllocatedBytes(long val) {
+            allocatedBytes = val;
+            return this;
+        }
+
+        public Builder setPhase(Phase phase, long nanos, long allocatedBytes) {
+            phaseNanos[phase.ordinal()] = nanos;
+            phaseAllocatedBytes[phase.ordinal()] = allocatedBytes;
+            return this;
+        }
+
+        public LoadReport build() {
+            return new LoadReport(this);
+        }
+    }
+
+    private LoadReport(Builder builder) {
+        source = builder.source;
+        bytesRead = builder.bytesRead;
+        lines = builder.lines;
+        vertices = builder.vertices;
+        faces = builder.faces;
+        meshes = builder.meshes;
+        reusedMeshes = builder.reusedMeshes;
+        materials = builder.materials;
+        textures = builder.textures;
+        wallNanos = builder.wallNanos;
+        allocatedBytes = builder.allocatedBytes;
+        phaseNanos = builder.phaseNanos.clone();
+        phaseAllocatedBytes = builder.phaseAllocatedBytes.clone();
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getVertices() {
+        return vertices;
+    }
+
+    public long getFaces() {
+        return faces;
+    }
+
+    public int getMeshes() {
+        return meshes;
+    }
+
+    /**
+     * @return meshes a reload kept from the previous version of the file because they didn't
+     * change, included in {@link #getMeshes()}
+     */
+    public int getReusedMeshes() {
+        return reusedMeshes;
+    }
+
+    public int getMaterials() {
+        return materials;
+    }
+
+    public int getTextures() {
+        return textures;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return bytes allocated by the loading thread during the load, or -1 if not measurable on this JVM
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @param phase the loading phase
+     * @return bytes allocated during the phase, or -1 if not measurable on this JVM
+     */
+    public long getPhaseAllocatedBytes(Phase phase) {
+        return phaseAllocatedBytes[phase.ordinal()];
+    }
+
+    /**
+     * @return bytes read per second of wall time, or 0 if the load took no measurable time
+     */
+    public double getThroughputBytesPerSecond() {
+        return (wallNanos > 0) ? bytesRead * 1e9 / wallNanos : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("LoadReport{source=").append(source)
+          .append(", bytes=").append(bytesRead)
+          .append(", lines=").append(lines)
+          .append(", vertices=").append(vertices)
+          .append(", faces=").append(faces)
+          .append(", meshes=").append(meshes)
+          .append(", reusedMeshes=").append(reusedMeshes)
+          .append(", materials=").append(materials)
+          .append(", textures=").append(textures)
+          .append(", wallMs=").append(wallNanos / 1_000_000.0)
+          .append(", allocatedBytes=").append(allocatedBytes);
+        for(Phase phase : Phase.values()) {
+            sb.append(", ").append(phase).append("={ms=").append(getPhaseNanos(phase) / 1_000_000.0)
+              .append(", allocatedBytes=").append(getPhaseAllocatedBytes(phase)).append('}');
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,264 @@
+package com.hmorgan.gfx.wavefront;
+
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Plane;
+import gov.nasa.worldwind.geom.Vec4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loose octree of bounding spheres in Cartesian world coordinates. Each cell's bounds are
+ * doubled in every direction, so an item is stored in the cell containing its center at the
+ * depth whose cell size matches its radius, and an item that moves only changes cells when its
+ * center leaves the cell or its size changes by a factor of two. Moving an item is O(depth).
+ * <p>
+ * Items whose center is outside the root cell or which are bigger than it, including items of
+ * infinite radius, are kept in the root and tested one by one.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+final class LooseOctree<T extends LooseOctree.Item> {
+
+    static final int MAX_DEPTH = 20;
+
+    private final Node root;
+    private int size;
+    private final double[] planes = new double[6 * 4]; // frustum of the current query, reused
+
+    /**
+     * A bounding sphere stored in the tree. An item may be in one tree at a time.
+     */
+    static class Item {
+        double x, y, z;                     // center
+        double radius;
+        Node node;                          // null while not in a tree
+        int slot;                           // index in node.items
+    }
+
+    private static final class Node {
+        final double cx, cy, cz;            // center of the cell
+        final double half;                  // half the cell size, the loose bounds are twice that
+        final int depth;
+        final Node parent;
+        final Node[] children = new Node[8];
+        int childCount;
+        final List<Item> items = new ArrayList<>(2);
+
+        Node(Node parent, double cx, double cy, double cz, double half, int depth) {
+            this.parent = parent;
+            this.cx = cx;
+            this.cy = cy;
+            this.cz = cz;
+            this.half = half;
+            this.depth = depth;
+        }
+
+        boolean containsCenter(double x, double y, double z) {
+            return Math.abs(x - cx) <= half && Math.abs(y - cy) <= half && Math.abs(z - cz) <= half;
+        }
+
+        int childIndex(double x, double y, double z) {
+            return (x >= cx ? 1 : 0) | (y >= cy ? 2 : 0) | (z >= cz ? 4 : 0);
+        }
+    }
+
+    /**
+     * @param halfSize half the size of the root cell, centered on the origin
+     */
+    LooseOctree(double halfSize) {
+        root = new Node(null, 0.0, 0.0, 0.0, halfSize, 0);
+    }
+
+    /**
+     * Adds an item, or moves it if it is already in this tree.
+     *
+     * @param item   the item
+     * @param center center of its bounds
+     * @param radius radius of its bounds, may be infinite
+     */
+    void put(T item, Vec4 center, double radius) {
+        item.x = center.x;
+        item.y = center.y;
+        item.z = center.z;
+        item.radius = radius;
+
+        final int depth = targetDepth(item);
+        final Node current = item.node;
+        if(current != null) {
+            if(current.depth == depth && (depth == 0 || current.containsCenter(item.x, item.y, item.z)))
+                return;     // still fits its cell
+            unlink(item);
+        } else {
+            size++;
+        }
+
+        Node node = root;
+        while(node.depth < depth) {
+            final int i = node.childIndex(item.x, item.y, item.z);
+            Node child = node.children[i];
+            if(child == null) {
+                final double h = node.half / 2.0;
+                child = new Node(node,
+                                 node.cx + ((i & 1) != 0 ? h : -h),
+                                 node.cy + ((i & 2) != 0 ? h : -h),
+                                 node.cz + ((i & 4) != 0 ? h : -h),
+                                 h, node.depth + 1);
+                node.children[i] = child;
+                node.childCount++;
+            }
+            node = child;
+        }
+        item.node = node;
+        item.slot = node.items.size();
+        node.items.add(item);
+    }
+
+    /**
+     * @param item an item of this tree
+     */
+    void remove(T item) {
+        if(item.node == null)
+            return;
+        unlink(item);
+        size--;
+    }
+
+    /**
+     * @param item an item
+     * @return true if the item is in this tree
+     */
+    boolean contains(T item) {
+        return item.node != null;
+    }
+
+    /**
+     * @return number of items
+     */
+    int size() {
+        return size;
+    }
+
+    private void unlink(Item item) {
+        Node node = item.node;
+        final List<Item> items = node.items;
+        final Item last = items.remove(items.size() - 1);
+        if(last != item) {
+            items.set(item.slot, last);
+            last.slot = item.slot;
+        }
+        item.node = null;
+
+        // drop cells left empty so the tree doesn't keep the trail of moving items
+        while(node != root && node.items.isEmpty() && node.childCount == 0) {
+            final Node parent = node.parent;
+            parent.children[parent.childIndex(node.cx, node.cy, node.cz)] = null;
+            parent.childCount--;
+            node = parent;
+        }
+    }
+
+    /**
+     * @return the deepest depth whose cells fit the item, or 0 if it doesn't fit the root cell
+     */
+    private int targetDepth(Item item) {
+        if(!(item.radius <= root.half) || !root.containsCenter(item.x, item.y, item.z))
+            return 0;
+        if(item.radius <= 0.0)
+            return MAX_DEPTH;
+        final int depth = (int) Math.floor(Math.log(root.half / item.radius) / Math.log(2.0));
+        return Math.max(0, Math.min(MAX_DEPTH, depth));
+    }
+
+    /**
+     * Collects the items whose bounds may intersect a frustum. Cells outside the frustum are
+     * skipped with everything below them; items of cells inside it are collected without
+     * testing them.
+     *
+     * @param frustum the frustum, in the coordinates of the items
+     * @param result  receives the items
+     */
+    @SuppressWarnings("unchecked")
+    void query(Frustum frustum, List<? super T> result) {
+        final double[] p = this.planes;
+        setPlane(p, 0, frustum.getLeft());
+        setPlane(p, 1, frustum.getRight());
+        setPlane(p, 2, frustum.getBottom());
+        setPlane(p, 3, frustum.getTop());
+        setPlane(p, 4, frustum.getNear());
+        setPlane(p, 5, frustum.getFar());
+        // the root's items may lie outside its cell, so they are always tested
+        final List<Item> rootItems = root.items;
+        for(int i = 0; i < rootItems.size(); i++) {
+            if(intersects(p, rootItems.get(i)))
+                result.add((T) rootItems.get(i));
+        }
+        for(Node child : root.children) {
+            if(child != null)
+                query(p, child, result);
+        }
+    }
+
+    private static void setPlane(double[] p, int i, Plane plane) {
+        // normalized, so plane distances are in the units of the radii
+        final Vec4 v = plane.getVector();
+        final double length = Math.sqrt(v.x * v.x + v.y * v.y + v.z * v.z);
+        p[4 * i] = v.x / length;
+        p[4 * i + 1] = v.y / length;
+        p[4 * i + 2] = v.z / length;
+        p[4 * i + 3] = v.w / length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void query(double[] p, Node node, List<? super T> result) {
+        // loose bounds: the cell grown by half its size on every side
+        final double loose = 2.0 * node.half;
+        boolean inside = true;
+        for(int i = 0; i < p.length; i += 4) {
+            final double distance = p[i] * node.cx + p[i + 1] * node.cy + p[i + 2] * node.cz + p[i + 3];
+            final double extent = loose * (Math.abs(p[i]) + Math.abs(p[i + 1]) + Math.abs(p[i + 2]));
+            if(distance < -extent)
+                return;
+            if(distance < extent)
+                inside = false;
+        }
+        if(inside) {
+            collect(node, result);
+            return;
+        }
+        final List<Item> items = node.items;
+        for(int i = 0; i < items.size(); i++) {
+            if(intersects(p, items.get(i)))
+                result.add((T) items.get(i));
+        }
+        if(node.childCount > 0) {
+            for(Node child : node.children) {
+                if(child != null)
+                    query(p, child, result);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void collect(Node node, List<? super T> result) {
+        final List<Item> items = node.items;
+        for(int i = 0; i < items.size(); i++)
+            result.add((T) items.get(i));
+        if(node.childCount > 0) {
+            for(Node child : node.children) {
+                if(child != null)
+                    collect(child, result);
+            }
+        }
+    }
+
+    private static boolean intersects(double[] p, Item item) {
+        for(int i = 0; i < p.length; i += 4) {
+            if(p[i] * item.x + p[i + 1] * item.y + p[i + 2] * item.z + p[i + 3] < -item.radius)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,311 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.Vertex;
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Vec4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Node of the part hierarchy of an {@link ObjModel}: the root holds the meshes outside any
+ * object, its children are the file's objects ('o') and theirs the groups ('g') of each object.
+ * Each node has a local transform relative to its parent, so a part such as a control surface or
+ * a radar dish can be moved without touching the geometry or the other parts.
+ * <p>
+ * World matrices (relative to the model's origin) and bounds are cached. Setting a local
+ * transform only flags the node and its ancestors; at the next frame the matrices of that node's
+ * subtree and the bounds along its path to the root are recomputed, nothing else. Bounds are
+ * kept per node, so parts outside the view aren't drawn.
+ * <p>
+ * Local transforms may be set from any thread, they take effect at the next frame.
+ *
+ * @author Hunter N. Morgan
+ */
+public class MeshTreeNode {
+
+    private final String name;
+    private final MeshTreeNode parent;
+    private final List<MeshTreeNode> children = new ArrayList<>();
+    private final List<Mesh> meshes = new ArrayList<>();
+    private volatile Matrix localTransform = Matrix.IDENTITY;
+    private Runnable onChange;              // root only, tells the model to update the tree
+
+    private volatile boolean dirty = true;              // local transform changed since the last update
+    private volatile boolean descendantDirty = true;    // some node below changed since the last update
+
+    // owned by the render thread
+    private Matrix worldMatrix = Matrix.IDENTITY;       // node to model coordinates
+    private final double[] worldArray = new double[16]; // worldMatrix in column major order, for GL
+    private boolean identity = true;                    // worldMatrix is the identity, nothing to apply
+    private Box meshBounds;                 // own meshes in node coordinates, null if none
+    private boolean meshBoundsComputed;
+    private Box bounds;                     // subtree in model coordinates, null if it has no vertices
+    private double centerX, centerY, centerZ, radius; // sphere around bounds, for culling
+
+    private MeshTreeNode(String name, MeshTreeNode parent) {
+        this.name = name;
+        this.parent = parent;
+    }
+
+    /**
+     * Builds the hierarchy of a model's meshes from the objects and groups they were loaded
+     * from, see {@link Mesh#getObjectName()} and {@link Mesh#getGroupName()}. Children are
+     * ordered by name.
+     *
+     * @param meshes   the meshes
+     * @param onChange called when a local transform of the tree is set, may be null
+     * @return the root node
+     */
+    static MeshTreeNode build(Collection<Mesh> meshes, Runnable onChange) {
+        final MeshTreeNode root = new MeshTreeNode("", null);
+        root.onChange = onChange;
+        final List<Mesh> sorted = new ArrayList<>(meshes);
+        sorted.sort(Comparator.comparing(Mesh::getName));
+        for(Mesh mesh : sorted) {
+            MeshTreeNode node = root;
+            if(mesh.getObjectName() != null)
+                node = node.getOrAddChild(mesh.getObjectName());
+            if(mesh.getGroupName() != null)
+                node = node.getOrAddChild(mesh.getGroupName());
+            node.meshes.add(mesh);
+        }
+        root.sortChildren();
+        return root;
+    }
+
+    private MeshTreeNode getOrAddChild(String childName) {
+        MeshTreeNode child = getChild(childName);
+        if(child == null) {
+            child = new MeshTreeNode(childName, this);
+            children.add(child);
+        }
+        return child;
+    }
+
+    private void sortChildren() {
+        children.sort(Comparator.comparing(MeshTreeNode::getName));
+        for(MeshTreeNode child : children)
+            child.sortChildren();
+    }
+
+    /**
+     * @param childName name of a child
+     * @return the child of that name, or null if there is none
+     */
+    public MeshTreeNode getChild(String childName) {
+        for(MeshTreeNode child : children) {
+            if(child.name.equals(childName))
+                return child;
+        }
+        return null;
+    }
+
+    /**
+     * @param nodeName name of an object or group
+     * @return the first node of that name in this subtree, depth first, or null if there is none
+     */
+    public MeshTreeNode find(String nodeName) {
+        if(name.equals(nodeName))
+            return this;
+        for(MeshTreeNode child : children) {
+            final MeshTreeNode found = child.find(nodeName);
+            if(found != null)
+                return found;
+        }
+        return null;
+    }
+
+    /**
+     * Sets the transform of this node relative to its parent, moving the node's subtree.
+     *
+     * @param localTransform the transform, in the parent's coordinates
+     */
+    public void setLocalTransform(Matrix localTransform) {
+        this.localTransform = Objects.requireNonNull(localTransform);
+        dirty = true;
+        MeshTreeNode node = parent;
+        MeshTreeNode root = this;
+        while(node != null) {
+            node.descendantDirty = true;
+            root = node;
+            node = node.parent;
+        }
+        if(root.onChange != null)
+            root.onChange.run();
+    }
+
+    /**
+     * Carries the local transforms of another tree over to the nodes of the same path in this
+     * one, e.g. when a model's geometry was reloaded.
+     *
+     * @param other the tree to copy from
+     */
+    void copyTransformsFrom(MeshTreeNode other) {
+        if(other.localTransform != Matrix.IDENTITY) {
+            localTransform = other.localTransform;
+            dirty = true;
+        }
+        for(MeshTreeNode child : children) {
+            final MeshTreeNode otherChild = other.getChild(child.name);
+            if(otherChild != null)
+                child.copyTransformsFrom(otherChild);
+        }
+        descendantDirty = true;
+    }
+
+    /**
+     * Recomputes the world matrices of the nodes whose transform or an ancestor's changed, and
+     * the bounds of those nodes and their ancestors. Called on the render thread.
+     */
+    void update() {
+        update(Matrix.IDENTITY, false);
+    }
+
+    /**
+     * @return true if the bounds of this subtree were recomputed
+     */
+    private boolean update(Matrix parentWorld, boolean parentChanged) {
+        final boolean changed = parentChanged || dirty;
+        if(!changed && !descendantDirty)
+            return false;                   // untouched subtree
+        // cleared first, so a transform set while updating flags the node again
+        dirty = false;
+        descendantDirty = false;
+
+        if(changed) {
+            worldMatrix = parentWorld.multiply(localTransform);
+            worldMatrix.toArray(worldArray, 0, false);
+            identity = worldMatrix.equals(Matrix.IDENTITY);
+        }
+        boolean childChanged = false;
+        for(MeshTreeNode child : children)
+            childChanged |= child.update(worldMatrix, changed);
+        if(changed || childChanged) {
+            computeBounds();
+            return true;
+        }
+        return false;
+    }
+
+    private void computeBounds() {
+        if(!meshBoundsComputed) {
+            meshBounds = computeMeshBounds();
+            meshBoundsComputed = true;
+        }
+        final List<Vec4> corners = new ArrayList<>();
+        if(meshBounds != null) {
+            for(Vec4 corner : meshBounds.getCorners())
+                corners.add(corner.transformBy4(worldMatrix));
+        }
+        for(MeshTreeNode child : children) {
+            if(child.bounds != null)
+                Collections.addAll(corners, child.bounds.getCorners());
+        }
+        if(corners.isEmpty()) {
+            bounds = null;
+            return;
+        }
+        bounds = Box.computeBoundingBox(corners);
+        final Vec4 center = bounds.getCenter();
+        centerX = center.x;
+        centerY = center.y;
+        centerZ = center.z;
+        radius = bounds.getRadius();
+    }
+
+    private Box computeMeshBounds() {
+        final List<Vec4> points = new ArrayList<>();
+        for(Mesh mesh : meshes) {
+            for(Vertex vertex : mesh.getVertices())
+                points.add(new Vec4(vertex.getPosition().getX(), vertex.getPosition().getY(), vertex.getPosition().getZ(), 1.0));
+        }
+        return points.isEmpty() ? null : Box.computeBoundingBox(points);
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    /**
+     * @return name of the object or group, empty for the root
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the parent, null for the root
+     */
+    public MeshTreeNode getParent() {
+        return parent;
+    }
+
+    public List<MeshTreeNode> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * @return the meshes of this node, not those of its children
+     */
+    public List<Mesh> getMeshes() {
+        return Collections.unmodifiableList(meshes);
+    }
+
+    public Matrix getLocalTransform() {
+        return localTransform;
+    }
+
+    /**
+     * @return transform from this node's to the model's coordinates as of the last frame
+     */
+    public Matrix getWorldMatrix() {
+        return worldMatrix;
+    }
+
+    /**
+     * @return bounds of this subtree in the model's coordinates as of the last frame, or null if
+     * it has no vertices
+     */
+    public Box getBounds() {
+        return bounds;
+    }
+
+    List<MeshTreeNode> children() {
+        return children;
+    }
+
+    List<Mesh> meshes() {
+        return meshes;
+    }
+
+    double[] getWorldArray() {
+        return worldArray;
+    }
+
+    boolean isIdentity() {
+        return identity;
+    }
+
+    double getCenterX() {
+        return centerX;
+    }
+
+    double getCenterY() {
+        return centerY;
+    }
+
+    double getCenterZ() {
+        return centerZ;
+    }
+
+    double getRadius() {
+        return radius;
+    }
+}
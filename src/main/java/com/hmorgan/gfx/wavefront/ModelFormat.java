@@ -0,0 +1,56 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * File formats a {@link ModelLoader} can read.
+ *
+ * @author Hunter N. Morgan
+ */
+public enum ModelFormat {
+    /** Wavefront .OBJ text, with .MTL material libraries */
+    OBJ,
+    /** glTF 2.0 JSON, with external or embedded buffers and images */
+    GLTF,
+    /** glTF 2.0 binary container */
+    GLB;
+
+    /**
+     * Detects the format of a file from its first bytes, which a GLB file starts with its magic
+     * and a .gltf file with a JSON object; the file extension decides otherwise.
+     *
+     * @param filePath the model file
+     * @return the format, {@link #OBJ} unless the file looks like glTF
+     * @throws IOException if the file can't be read
+     */
+    public static ModelFormat detect(Path filePath) throws IOException {
+        final byte[] head = new byte[64];
+        int length = 0;
+        try(InputStream in = Files.newInputStream(filePath)) {
+            int read;
+            while(length < head.length && (read = in.read(head, length, head.length - length)) > 0)
+                length += read;
+        }
+        if(length >= 4 && head[0] == 'g' && head[1] == 'l' && head[2] == 'T' && head[3] == 'F')
+            return GLB;
+
+        int i = 0;
+        if(length >= 3 && (head[0] & 0xff) == 0xef && (head[1] & 0xff) == 0xbb && (head[2] & 0xff) == 0xbf)
+            i = 3;      // UTF-8 byte order mark
+        while(i < length && Character.isWhitespace(head[i]))
+            i++;
+        if(i < length && head[i] == '{')
+            return GLTF;    // no OBJ statement starts with a brace
+
+        final String name = filePath.getFileName().toString().toLowerCase(Locale.ROOT);
+        if(name.endsWith(".glb"))
+            return GLB;
+        if(name.endsWith(".gltf"))
+            return GLTF;
+        return OBJ;
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Loads the meshes of a model file, see {@link ObjLoader}, {@link GltfLoader}, and
+ * {@link FormatDetectingLoader} which picks one of them by the {@link ModelFormat} of the file.
+ * Implementations may be used by several threads at the same time.
+ *
+ * @author Hunter N. Morgan
+ */
+public interface ModelLoader {
+
+    /**
+     * Loads a file, naming its meshes after the given namespace. Meshes of the same name share
+     * GPU buffers, so loads of files that may have the same name, or of different versions of
+     * one file, must use distinct namespaces.
+     *
+     * @param filePath      Path to model file
+     * @param meshNamespace prefix of the mesh names
+     * @return the meshes and report of the load
+     * @throws IOException if the file can't be read or is malformed
+     */
+    ObjLoadResult load(Path filePath, String meshNamespace) throws IOException;
+
+    /**
+     * Loads a new version of a file that was loaded before, e.g. after it was edited. Loaders
+     * that can tell which meshes didn't change return those meshes of the previous version
+     * instead of building them again; others load the file anew.
+     *
+     * @param filePath      Path to model file
+     * @param meshNamespace prefix of the names of new meshes
+     * @param previous      meshes of the previous version keyed by name less its namespace
+     * @return the meshes and report of the load
+     * @throws IOException if the file can't be read or is malformed
+     */
+    default ObjLoadResult reload(Path filePath, String meshNamespace, Map<String, Mesh> previous) throws IOException {
+        return load(filePath, meshNamespace);
+    }
+
+    /**
+     * Loads a file, naming its meshes after the file name.
+     *
+     * @param filePath Path to model file
+     * @return the meshes keyed by name
+     * @throws IOException if the file can't be read or is malformed
+     */
+    default Map<String, Mesh> loadMeshes(Path filePath) throws IOException {
+        return load(filePath, filePath.getFileName().toString()).getMeshes();
+    }
+}
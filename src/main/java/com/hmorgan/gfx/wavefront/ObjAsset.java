@@ -0,0 +1,80 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The geometry of one version of a .OBJ file, shared by every {@link ObjModel} created from it.
+ * An asset is immutable; each model keeps its own pose, material override, opacity and texture
+ * switch. Obtain assets from an {@link ObjAssetRegistry}, which keeps them alive for as long as
+ * a model uses them.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class ObjAsset {
+
+    private final Path source;              // canonical path of the file
+    private final String version;           // identifies the file content the meshes were loaded from
+    private final Map<String, Mesh> meshes;
+    private final Map<String, Mesh> meshesByLocalName; // meshes keyed by name less the namespace they were loaded with
+    private final LoadReport loadReport;
+    private final ObjAssetRegistry registry; // registry holding this asset
+
+    ObjAsset(ObjAssetRegistry registry, Path source, String version, Map<String, Mesh> meshes,
+             Map<String, Mesh> meshesByLocalName, LoadReport loadReport) {
+        this.registry = registry;
+        this.source = source;
+        this.version = version;
+        this.meshes = Collections.unmodifiableMap(meshes);
+        this.meshesByLocalName = Collections.unmodifiableMap(meshesByLocalName);
+        this.loadReport = loadReport;
+    }
+
+    /**
+     * @return canonical path of the file
+     */
+    public Path getSource() {
+        return source;
+    }
+
+    /**
+     * @return identifies the file content the meshes were loaded from, changes when the file does
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the meshes keyed by name, unmodifiable
+     */
+    public Map<String, Mesh> getMeshes() {
+        return meshes;
+    }
+
+    /**
+     * @return the meshes keyed by name less the namespace of the load that built them, which is
+     * the same for a mesh in every version of the file
+     */
+    Map<String, Mesh> getMeshesByLocalName() {
+        return meshesByLocalName;
+    }
+
+    /**
+     * @return telemetry of the load that produced the meshes
+     */
+    public LoadReport getLoadReport() {
+        return loadReport;
+    }
+
+    ObjAssetRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public String toString() {
+        return source + "@" + version + " (" + meshes.size() + " meshes)";
+    }
+}
@@ -0,0 +1,262 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import gov.nasa.worldwind.render.DrawContext;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads each model file once and shares its geometry between all models placed from it. Assets
+ * are keyed by canonical path and content version (size and modification time), so a file that
+ * changed on disk is loaded again while models of the old version keep theirs.
+ * <p>
+ * The registry only holds its assets weakly: once the last model of an asset is garbage
+ * collected, so is its geometry, and its GPU buffers are deleted the next time a model of this
+ * registry is rendered. Assets {@link #reload(ObjAsset) reloaded} from an edited file share the
+ * meshes that didn't change with the previous version; their buffers are deleted once no asset
+ * uses them.
+ * <p>
+ * All methods are thread-safe. Concurrent requests for the same file wait for a single load.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjAssetRegistry {
+
+    private static ObjAssetRegistry defaultRegistry;
+
+    private final ModelLoader loader;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ObjAsset> collected = new ReferenceQueue<>();
+    private final Queue<String> meshesToRelease = new ConcurrentLinkedQueue<>(); // names whose GPU buffers are unused
+    private final Map<String, Integer> meshUsers = new HashMap<>(); // number of live assets using each mesh name, guarded by itself
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Registry slot of one file version. The reference is replaced if the asset was collected
+     * and the file is requested again.
+     */
+    private static final class Entry {
+        final String key;
+        AssetReference reference;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class AssetReference extends WeakReference<ObjAsset> {
+        final Entry entry;
+        final List<String> meshNames;       // kept to release GPU buffers after the asset is gone
+
+        AssetReference(ObjAsset asset, Entry entry, ReferenceQueue<ObjAsset> queue) {
+            super(asset, queue);
+            this.entry = entry;
+            this.meshNames = new ArrayList<>(asset.getMeshes().keySet());
+        }
+    }
+
+    /**
+     * @return the registry used by the {@link ObjModel} file constructors
+     */
+    public static synchronized ObjAssetRegistry getDefault() {
+        if(defaultRegistry == null)
+            defaultRegistry = new ObjAssetRegistry(new FormatDetectingLoader(new ObjLoader(), new GltfLoader()));
+        return defaultRegistry;
+    }
+
+    /**
+     * @param loader loads files not in the registry yet; an {@link ObjLoader} shares its parsed MTL
+     *               files as well
+     */
+    public ObjAssetRegistry(ModelLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the asset of the current version of a file, loading it if no live model uses it.
+     *
+     * @param filePath Path to .OBJ, .gltf or .glb file, as the registry's loader supports
+     * @return the shared asset
+     * @throws IOException if the file can't be read or is malformed
+     */
+    public ObjAsset get(Path filePath) throws IOException {
+        expungeCollected();
+
+        final Path source = filePath.toRealPath();
+        final String version = version(source);
+        final String key = key(source, version);
+
+        final Entry entry = entries.computeIfAbsent(key, Entry::new);
+        synchronized(entry) {
+            ObjAsset asset = entry.reference == null ? null : entry.reference.get();
+            if(asset != null) {
+                hitCount.incrementAndGet();
+                return asset;
+            }
+
+            // every load gets its own mesh names, so buffers released for a collected asset are
+            // never those of a later load of the same file
+            final String namespace = key + "#" + loadCount.incrementAndGet();
+            final ObjLoadResult result = loader.load(source, namespace);
+            asset = register(entry, source, version, namespace, result, null);
+            entries.putIfAbsent(key, entry);    // may have been expunged while loading
+            return asset;
+        }
+    }
+
+    /**
+     * Loads the current version of an asset's file, e.g. after it or one of its MTL files or
+     * textures was edited. Meshes that didn't change are taken over from the previous asset
+     * along with their GPU buffers, so only the changed ones are built and uploaded. The new
+     * asset replaces any other of the same file version for later {@link #get(Path)} calls;
+     * models keep their asset until given the new one, see {@link ObjModel#setAsset(ObjAsset)}.
+     *
+     * @param previous the asset to reload
+     * @return the asset of the current version
+     * @throws IOException if the file can't be read or is malformed
+     */
+    public ObjAsset reload(ObjAsset previous) throws IOException {
+        expungeCollected();
+
+        final Path source = previous.getSource();
+        final String version = version(source);
+        final String key = key(source, version);
+
+        final Entry entry = entries.computeIfAbsent(key, Entry::new);
+        synchronized(entry) {
+            final String namespace = key + "#" + loadCount.incrementAndGet();
+            final ObjLoadResult result = loader.reload(source, namespace, previous.getMeshesByLocalName());
+            final ObjAsset asset = register(entry, source, version, namespace, result, previous);
+            entries.putIfAbsent(key, entry);
+            return asset;
+        }
+    }
+
+    /**
+     * Creates the asset of a load and makes it the entry's asset. Caller holds the entry's lock.
+     */
+    private ObjAsset register(Entry entry, Path source, String version, String namespace,
+                              ObjLoadResult result, ObjAsset previous) {
+        // meshes kept from the previous version keep their names, and so their local names
+        final Map<Mesh, String> previousLocalNames = new IdentityHashMap<>();
+        if(previous != null)
+            previous.getMeshesByLocalName().forEach((localName, mesh) -> previousLocalNames.put(mesh, localName));
+        final Map<String, Mesh> byLocalName = new HashMap<>();
+        for(Mesh mesh : result.getMeshes().values()) {
+            final String localName = mesh.getName().startsWith(namespace)
+                    ? mesh.getName().substring(namespace.length())
+                    : previousLocalNames.get(mesh);
+            if(localName != null)
+                byLocalName.put(localName, mesh);
+        }
+
+        final ObjAsset asset = new ObjAsset(this, source, version, result.getMeshes(), byLocalName, result.getReport());
+        entry.reference = new AssetReference(asset, entry, collected);
+        synchronized(meshUsers) {
+            for(String name : entry.reference.meshNames)
+                meshUsers.merge(name, 1, Integer::sum);
+        }
+        return asset;
+    }
+
+    private static String version(Path source) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        return attributes.size() + "-" + attributes.lastModifiedTime().toMillis();
+    }
+
+    private static String key(Path source, String version) {
+        return source.toUri() + "@" + version;     // URI tells files of different JARs apart
+    }
+
+    /**
+     * Creates a model of the current version of a file, sharing its geometry with the other
+     * models of that file.
+     *
+     * @param filePath Path to .OBJ file
+     * @return a new model with its own pose
+     * @throws IOException if the file can't be read or is malformed
+     */
+    public ObjModel newModel(Path filePath) throws IOException {
+        return new ObjModel(get(filePath));
+    }
+
+    /**
+     * Deletes the GPU buffers of assets that were garbage collected. Called by models of this
+     * registry while rendering.
+     *
+     * @param dc the current draw context
+     */
+    void releaseCollected(DrawContext dc) {
+        expungeCollected();
+        String name;
+        while((name = meshesToRelease.poll()) != null)
+            Mesh.releaseGlBuffers(dc, name);
+    }
+
+    private void expungeCollected() {
+        AssetReference reference;
+        while((reference = (AssetReference) collected.poll()) != null) {
+            final Entry entry = reference.entry;
+            synchronized(entry) {
+                if(entry.reference == reference) {
+                    entry.reference = null;
+                    entries.remove(entry.key, entry);
+                }
+            }
+            synchronized(meshUsers) {
+                for(String name : reference.meshNames) {
+                    // a reloaded asset may still use meshes of the collected one
+                    if(meshUsers.merge(name, -1, Integer::sum) <= 0) {
+                        meshUsers.remove(name);
+                        meshesToRelease.add(name);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of file versions whose geometry is currently held by a model
+     */
+    public int size() {
+        expungeCollected();
+        int live = 0;
+        for(Entry entry : entries.values()) {
+            synchronized(entry) {
+                if(entry.reference != null && entry.reference.get() != null)
+                    live++;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * @return number of requests that loaded a file
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * @return number of requests that were served with an already loaded asset
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+}
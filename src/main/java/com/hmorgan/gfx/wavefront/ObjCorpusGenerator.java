@@ -0,0 +1,474 @@
+package com.hmorgan.gfx.wavefront;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates deterministic, synthetic Wavefront .OBJ/.MTL/texture sets for scale testing
+ * the loader and renderer. The same seed and settings always produce byte-identical output.
+ * <p>
+ * Output is streamed straight to disk, a single object's worth of state is all that is held
+ * in memory, so multi-gigabyte files can be produced. The generated layout is:
+ * <pre>
+ *     mtllib name.mtl
+ *     o object_0
+ *     v ... / vt ... / vn ...      (all attributes of the object)
+ *     g object_0_group_0
+ *     usemtl material_3
+ *     s off
+ *     f ...
+ * </pre>
+ * Texture images are written as PNG files next to the .MTL file.
+ * <p>
+ * This class is <i>immutable</i> and uses a builder class.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjCorpusGenerator {
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final long seed;
+    private final int objectCount;          // number of 'o' objects
+    private final int groupsPerObject;      // number of 'g' groups in each object
+    private final int verticesPerObject;    // number of 'v' records in each object
+    private final int facesPerGroup;        // number of 'f' records in each group
+    private final double quadFraction;      // fraction of faces written as quads, rest are triangles
+    private final boolean normals;          // true to write 'vn' records and reference them from faces
+    private final boolean textureCoords;    // true to write 'vt' records and reference them from faces
+    private final int materialCount;        // number of materials in the .MTL file (0 for no .MTL file)
+    private final int materialSwitchesPerGroup; // extra 'usemtl' records inside each group
+    private final int textureCount;         // number of materials that get a diffuse texture map
+    private final int textureSize;          // width and height of each texture, in pixels
+    private final double objectSpacing;     // distance between object origins
+    private final double objectSize;        // extent of each object
+
+    public static final class Builder {
+        private long seed;
+        private int objectCount;
+        private int groupsPerObject;
+        private int verticesPerObject;
+        private int facesPerGroup;
+        private double quadFraction;
+        private boolean normals;
+        private boolean textureCoords;
+        private int materialCount;
+        private int materialSwitchesPerGroup;
+        private int textureCount;
+        private int textureSize;
+        private double objectSpacing;
+        private double objectSize;
+
+        public Builder() {
+            seed = 0L;
+            objectCount = 1;
+            groupsPerObject = 1;
+            verticesPerObject = 8;
+            facesPerGroup = 12;
+            quadFraction = 0.0;
+            normals = true;
+            textureCoords = false;
+            materialCount = 0;
+            materialSwitchesPerGroup = 0;
+            textureCount = 0;
+            textureSize = 256;
+            objectSpacing = 4.0;
+            objectSize = 2.0;
+        }
+
+        public Builder setSeed(long val) {
+            seed = val;
+            return this;
+        }
+
+        public Builder setObjectCount(int val) {
+            objectCount = val;
+            return this;
+        }
+
+        public Builder setGroupsPerObject(int val) {
+            groupsPerObject = val;
+            return this;
+        }
+
+        public Builder setVerticesPerObject(int val) {
+            verticesPerObject = val;
+            return this;
+        }
+
+        public Builder setFacesPerGroup(int val) {
+            facesPerGroup = val;
+            return this;
+        }
+
+        public Builder setQuadFraction(double val) {
+            quadFraction = val;
+            return this;
+        }
+
+        public Builder setNormals(boolean val) {
+            normals = val;
+            return this;
+        }
+
+        public Builder setTextureCoords(boolean val) {
+            textureCoords = val;
+            return this;
+        }
+
+        public Builder setMaterialCount(int val) {
+            materialCount = val;
+            return this;
+        }
+
+        public Builder setMaterialSwitchesPerGroup(int val) {
+            materialSwitchesPerGroup = val;
+            return this;
+        }
+
+        public Builder setTextureCount(int val) {
+            textureCount = val;
+            return this;
+        }
+
+        public Builder setTextureSize(int val) {
+            textureSize = val;
+            return this;
+        }
+
+        public Builder setObjectSpacing(double val) {
+            objectSpacing = val;
+            return this;
+        }
+
+        public Builder setObjectSize(double val) {
+            objectSize = val;
+            return this;
+        }
+
+        /**
+         * @return the generator
+         * @throws IllegalArgumentException if a parameter is out of range, naming it
+         */
+        public ObjCorpusGenerator build() {
+            if(objectCount < 1)
+                throw new IllegalArgumentException("objectCount must be at least 1");
+            if(groupsPerObject < 1)
+                throw new IllegalArgumentException("groupsPerObject must be at least 1");
+            if(verticesPerObject < 4)
+                throw new IllegalArgumentException("verticesPerObject must be at least 4");
+            if(facesPerGroup < 0)
+                throw new IllegalArgumentException("facesPerGroup must not be negative");
+            if(quadFraction < 0.0 || quadFraction > 1.0)
+                throw new IllegalArgumentException("quadFraction must be within [0, 1]");
+            if(materialCount < 0)
+                throw new IllegalArgumentException("materialCount must not be negative");
+            if(materialSwitchesPerGroup < 0)
+                throw new IllegalArgumentException("materialSwitchesPerGroup must not be negative");
+            if(materialCount == 0 && materialSwitchesPerGroup > 0)
+                throw new IllegalArgumentException("material switches need at least one material");
+            if(textureCount < 0 || textureCount > materialCount)
+                throw new IllegalArgumentException("textureCount must be within [0, materialCount]");
+            if(textureSize < 1)
+                throw new IllegalArgumentException("textureSize must be at least 1");
+            return new ObjCorpusGenerator(this);
+        }
+    }
+
+    /**
+     * Summary of a generated corpus.
+     */
+    public static final class Corpus {
+        private final Path objPath;
+        private final Path mtlPath;
+        private final long vertexCount;
+        private final long faceCount;
+        private final long triangleCount;
+        private final long groupCount;
+        private final long usemtlCount;
+        private final long objBytes;
+
+        private Corpus(Path objPath, Path mtlPath, long vertexCount, long faceCount, long triangleCount,
+                       long groupCount, long usemtlCount, long objBytes) {
+            this.objPath = objPath;
+            this.mtlPath = mtlPath;
+            this.vertexCount = vertexCount;
+            this.faceCount = faceCount;
+            this.triangleCount = triangleCount;
+            this.groupCount = groupCount;
+            this.usemtlCount = usemtlCount;
+            this.objBytes = objBytes;
+        }
+
+        public Path getObjPath() {
+            return objPath;
+        }
+
+        /**
+         * @return path of the .MTL file, or null if the corpus has no materials
+         */
+        public Path getMtlPath() {
+            return mtlPath;
+        }
+
+        public long getVertexCount() {
+            return vertexCount;
+        }
+
+        public long getFaceCount() {
+            return faceCount;
+        }
+
+        /**
+         * @return number of triangles the faces amount to once quads are split
+         */
+        public long getTriangleCount() {
+            return triangleCount;
+        }
+
+        public long getGroupCount() {
+            return groupCount;
+        }
+
+        public long getUsemtlCount() {
+            return usemtlCount;
+        }
+
+        public long getObjBytes() {
+            return objBytes;
+        }
+    }
+
+    private ObjCorpusGenerator(Builder builder) {
+        seed = builder.seed;
+        objectCount = builder.objectCount;
+        groupsPerObject = builder.groupsPerObject;
+        verticesPerObject = builder.verticesPerObject;
+        facesPerGroup = builder.facesPerGroup;
+        quadFraction = builder.quadFraction;
+        normals = builder.normals;
+        textureCoords = builder.textureCoords;
+        materialCount = builder.materialCount;
+        materialSwitchesPerGroup = builder.materialSwitchesPerGroup;
+        textureCount = builder.textureCount;
+        textureSize = builder.textureSize;
+        objectSpacing = builder.objectSpacing;
+        objectSize = builder.objectSize;
+    }
+
+    /**
+     * Writes the corpus into the given directory as baseName.obj, baseName.mtl (if there are materials)
+     * and baseName_texN.png (if there are textures). Existing files are overwritten.
+     *
+     * @param directory directory to write into, created if it does not exist
+     * @param baseName  file name without extension
+     * @return summary of what was written
+     * @throws IOException if any file could not be written
+     */
+    public Corpus generate(Path directory, String baseName) throws IOException {
+        Files.createDirectories(directory);
+        // materials and textures draw from their own random sequence so that changing the geometry
+        // settings does not change the materials, and vice versa
+        final Random materialRandom = new Random(seed ^ 0x5DEECE66DL);
+        final Random geometryRandom = new Random(seed);
+
+        Path mtlPath = null;
+        if(materialCount > 0) {
+            mtlPath = directory.resolve(baseName + ".mtl");
+            writeMtl(mtlPath, baseName, materialRandom);
+            for(int i = 0; i < textureCount; i++)
+                writeTexture(directory.resolve(textureFileName(baseName, i)), materialRandom);
+        }
+
+        final Path objPath = directory.resolve(baseName + ".obj");
+        try(CountingOutputStream out = new CountingOutputStream(Files.newOutputStream(objPath));
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), WRITE_BUFFER_SIZE)) {
+            final Counts counts = writeObj(writer, mtlPath, geometryRandom);
+            writer.flush();
+            return new Corpus(objPath, mtlPath, counts.vertices, counts.faces, counts.triangles,
+                              counts.groups, counts.usemtls, out.count);
+        }
+    }
+
+    private static final class Counts {
+        long vertices;
+        long faces;
+        long triangles;
+        long groups;
+        long usemtls;
+    }
+
+    private Counts writeObj(BufferedWriter w, Path mtlPath, Random random) throws IOException {
+        final Counts counts = new Counts();
+        final int gridSide = (int) Math.ceil(Math.cbrt(objectCount));
+        int materialCursor = 0;
+
+        w.write("# synthetic corpus, seed " + seed + "\n");
+        if(mtlPath != null)
+            w.write("mtllib " + mtlPath.getFileName() + "\n");
+
+        for(int o = 0; o < objectCount; o++) {
+            // 1-based index of this object's first vertex; attributes are global in .OBJ files
+            final long base = counts.vertices + 1;
+            final double ox = (o % gridSide) * objectSpacing;
+            final double oy = ((o / gridSide) % gridSide) * objectSpacing;
+            final double oz = (o / (gridSide * gridSide)) * objectSpacing;
+
+            w.write("o object_" + o + "\n");
+            for(int v = 0; v < verticesPerObject; v++) {
+                writeVec(w, "v ",
+                         ox + random.nextDouble() * objectSize,
+                         oy + random.nextDouble() * objectSize,
+                         oz + random.nextDouble() * objectSize);
+            }
+            if(textureCoords) {
+                for(int v = 0; v < verticesPerObject; v++) {
+                    w.write("vt ");
+                    w.write(Float.toString(random.nextFloat()));
+                    w.write(' ');
+                    w.write(Float.toString(random.nextFloat()));
+                    w.write('\n');
+                }
+            }
+            if(normals) {
+                for(int v = 0; v < verticesPerObject; v++) {
+                    final double x = random.nextGaussian();
+                    final double y = random.nextGaussian();
+                    final double z = random.nextGaussian();
+                    final double len = Math.max(1e-9, Math.sqrt(x * x + y * y + z * z));
+                    writeVec(w, "vn ", x / len, y / len, z / len);
+                }
+            }
+            counts.vertices += verticesPerObject;
+
+            for(int g = 0; g < groupsPerObject; g++) {
+                w.write("g object_" + o + "_group_" + g + "\n");
+                counts.groups++;
+
+                // usemtl at the start of the group, then evenly spaced switches inside it
+                final int runs = (materialCount > 0) ? materialSwitchesPerGroup + 1 : 1;
+                final int facesPerRun = Math.max(1, facesPerGroup / runs);
+                for(int f = 0; f < facesPerGroup; f++) {
+                    if(materialCount > 0 && f % facesPerRun == 0 && f / facesPerRun < runs) {
+                        w.write("usemtl material_" + (materialCursor++ % materialCount) + "\n");
+                        counts.usemtls++;
+                        if(f == 0)
+                            w.write("s off\n");
+                    }
+                    final boolean quad = random.nextDouble() < quadFraction;
+                    final int corners = quad ? 4 : 3;
+                    w.write('f');
+                    for(int c = 0; c < corners; c++) {
+                        final long index = base + random.nextInt(verticesPerObject);
+                        w.write(' ');
+                        writeFaceIndex(w, index);
+                    }
+                    w.write('\n');
+                    counts.faces++;
+                    counts.triangles += corners - 2;
+                }
+            }
+        }
+        return counts;
+    }
+
+    private void writeFaceIndex(BufferedWriter w, long index) throws IOException {
+        // vertex, texture coord and normal of a generated vertex all share one index
+        final String s = Long.toString(index);
+        w.write(s);
+        if(textureCoords && normals) {
+            w.write('/');
+            w.write(s);
+            w.write('/');
+            w.write(s);
+        } else if(textureCoords) {
+            w.write('/');
+            w.write(s);
+        } else if(normals) {
+            w.write("//");
+            w.write(s);
+        }
+    }
+
+    private static void writeVec(BufferedWriter w, String prefix, double x, double y, double z) throws IOException {
+        w.write(prefix);
+        w.write(Float.toString((float) x));
+        w.write(' ');
+        w.write(Float.toString((float) y));
+        w.write(' ');
+        w.write(Float.toString((float) z));
+        w.write('\n');
+    }
+
+    private void writeMtl(Path mtlPath, String baseName, Random random) throws IOException {
+        try(BufferedWriter w = Files.newBufferedWriter(mtlPath, StandardCharsets.US_ASCII)) {
+            w.write("# synthetic corpus materials, seed " + seed + "\n");
+            for(int i = 0; i < materialCount; i++) {
+                w.write("\nnewmtl material_" + i + "\n");
+                w.write("Ns " + (float) (random.nextDouble() * 128.0) + "\n");
+                writeVec(w, "Ka ", 0.0, 0.0, 0.0);
+                writeVec(w, "Kd ", random.nextDouble(), random.nextDouble(), random.nextDouble());
+                writeVec(w, "Ks ", 0.5, 0.5, 0.5);
+                w.write("d 1.0\n");
+                w.write("illum 2\n");
+                if(i < textureCount)
+                    w.write("map_Kd " + textureFileName(baseName, i) + "\n");
+            }
+        }
+    }
+
+    private void writeTexture(Path texturePath, Random random) throws IOException {
+        // a few random colored cells, so the image compresses like a real texture rather than noise
+        final BufferedImage image = new BufferedImage(textureSize, textureSize, BufferedImage.TYPE_INT_RGB);
+        final int cells = 8;
+        final int cellSize = Math.max(1, textureSize / cells);
+        final int[] row = new int[textureSize];
+        final int[] palette = new int[cells * cells];
+        for(int i = 0; i < palette.length; i++)
+            palette[i] = random.nextInt(0x1000000);
+        for(int y = 0; y < textureSize; y++) {
+            final int cy = Math.min(cells - 1, y / cellSize);
+            for(int x = 0; x < textureSize; x++)
+                row[x] = palette[cy * cells + Math.min(cells - 1, x / cellSize)];
+            image.setRGB(0, y, textureSize, 1, row, 0, textureSize);
+        }
+        if(!ImageIO.write(image, "png", texturePath.toFile()))
+            throw new IOException("no PNG writer available for " + texturePath);
+    }
+
+    private static String textureFileName(String baseName, int i) {
+        return baseName + "_tex" + i + ".png";
+    }
+
+    /**
+     * Counts bytes on their way to disk, so the corpus size is known without another stat call.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hackoeur.jglm.Vec3;
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.Vertex;
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Vec4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Index of the sections of a Wavefront .OBJ file, built by a single pass that doesn't build any
+ * meshes. A section is a run of faces that share an object, group and material; for each one the
+ * index records its names, the byte range of its face lines and its bounds in model coordinates.
+ * The geometry of a section can then be parsed from just its byte range with
+ * {@link #loadSection(Section)}, e.g. once it becomes visible.
+ * <p>
+ * Face lines index into vertex attribute lists that are global to the file, so the index keeps
+ * the attributes as packed float arrays. What is deferred is everything built per face corner:
+ * the {@link Vertex} objects, meshes and their buffers.
+ * <p>
+ * An index is immutable once built and {@link #loadSection(Section)} may be called from any
+ * thread.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjFileIndex {
+
+    // w = 1 so box corners are points; with Vec4.UNIT_X etc. (w = 0) transforms drop the translation
+    private static final Vec4[] AXES = {new Vec4(1, 0, 0), new Vec4(0, 1, 0), new Vec4(0, 0, 1)};
+
+    private final Path filePath;
+    private final List<Section> sections;
+    private final Map<String, WavefrontMaterial> materials;
+    private final float[] positions;        // xyz per 'v' line
+    private final float[] normals;          // xyz per 'vn' line
+    private final float[] texCoords;        // uv per 'vt' line
+    private final int positionCount;
+    private final int normalCount;
+    private final int texCoordCount;
+    private final Box bounds;               // bounds of all sections, null if there are no faces
+
+    /**
+     * A run of faces of one object and group that use one material.
+     */
+    public static final class Section {
+        private final String name;
+        private final String objectName;
+        private final String groupName;
+        private final WavefrontMaterial material;
+        private long startOffset;           // first byte of the first face line
+        private long endOffset;             // one past the last byte of the last face line
+        private int faceCount;
+        private int positionBase;           // attribute counts before the first face line, to resolve
+        private int normalBase;             // relative (negative) indices
+        private int texCoordBase;
+        private final float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        private final float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        private Box localBounds;
+
+        private Section(String name, String objectName, String groupName, WavefrontMaterial material) {
+            this.name = name;
+            this.objectName = objectName;
+            this.groupName = groupName;
+            this.material = material;
+        }
+
+        /**
+         * @return name of the section, unique within its file
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getObjectName() {
+            return objectName;
+        }
+
+        /**
+         * @return name of the group, or null if the faces aren't in a group
+         */
+        public String getGroupName() {
+            return groupName;
+        }
+
+        /**
+         * @return the material of the faces, or null if none was set
+         */
+        public WavefrontMaterial getMaterial() {
+            return material;
+        }
+
+        public long getStartOffset() {
+            return startOffset;
+        }
+
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        public int getFaceCount() {
+            return faceCount;
+        }
+
+        /**
+         * @return bounds of the vertices used by the faces, in model coordinates
+         */
+        public Box getLocalBounds() {
+            return localBounds;
+        }
+    }
+
+    private ObjFileIndex(Path filePath, Builder builder) {
+        this.filePath = filePath;
+        this.sections = Collections.unmodifiableList(builder.sections);
+        this.materials = builder.materials;
+        this.positions = Arrays.copyOf(builder.positions, builder.positionCount * 3);
+        this.normals = Arrays.copyOf(builder.normals, builder.normalCount * 3);
+        this.texCoords = Arrays.copyOf(builder.texCoords, builder.texCoordCount * 2);
+        this.positionCount = builder.positionCount;
+        this.normalCount = builder.normalCount;
+        this.texCoordCount = builder.texCoordCount;
+
+        final float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        final float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for(Section section : sections) {
+            section.localBounds = toBox(section.min, section.max);
+            for(int i = 0; i < 3; i++) {
+                min[i] = Math.min(min[i], section.min[i]);
+                max[i] = Math.max(max[i], section.max[i]);
+            }
+        }
+        this.bounds = sections.isEmpty() ? null : toBox(min, max);
+    }
+
+    /**
+     * Indexes the given .OBJ file. Materials named by 'mtllib' are parsed as well, their textures
+     * are only decoded when a section using them is loaded.
+     *
+     * @param filePath Path to .OBJ file
+     * @return the index
+     * @throws IOException if the file can't be read or is malformed
+     */
+    public static ObjFileIndex build(Path filePath) throws IOException {
+        final Builder builder = new Builder(filePath);
+        try(InputStream in = Files.newInputStream(filePath)) {
+            final byte[] chunk = new byte[1 << 16];
+            byte[] line = new byte[256];
+            int length = 0;
+            long offset = 0;            // offset of chunk[0] in the file
+            long lineStart = 0;
+            int read;
+            while((read = in.read(chunk)) >= 0) {
+                for(int i = 0; i < read; i++) {
+                    final byte b = chunk[i];
+                    if(b == '\n') {
+                        final long lineEnd = offset + i + 1;
+                        builder.line(line, length, lineStart, lineEnd);
+                        length = 0;
+                        lineStart = lineEnd;
+                    } else {
+                        if(length == line.length)
+                            line = Arrays.copyOf(line, length * 2);
+                        line[length++] = b;
+                    }
+                }
+                offset += read;
+            }
+            if(length > 0)
+                builder.line(line, length, lineStart, offset);
+        }
+        return new ObjFileIndex(filePath, builder);
+    }
+
+    /**
+     * Parses the faces of a section from its byte range and builds them into a mesh. The mesh is
+     * named after the file and the section, so meshes of different files don't share GPU buffers.
+     *
+     * @param section a section of this index
+     * @return the section's mesh
+     * @throws IOException if the file can't be read or changed since it was indexed
+     */
+    public Mesh loadSection(Section section) throws IOException {
+        return loadSection(section, filePath + "#" + section.name);
+    }
+
+    /**
+     * Parses the faces of a section from its byte range and builds them into a mesh.
+     *
+     * @param section  a section of this index
+     * @param meshName name of the mesh, meshes of the same name share GPU buffers
+     * @return the section's mesh
+     * @throws IOException if the file can't be read or changed since it was indexed
+     */
+    public Mesh loadSection(Section section, String meshName) throws IOException {
+        final int length = (int) (section.endOffset - section.startOffset);
+        final ByteBuffer bytes = ByteBuffer.allocate(length);
+        try(FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            while(bytes.hasRemaining()) {
+                if(channel.read(bytes, section.startOffset + bytes.position()) < 0)
+                    throw new IOException(filePath + " is shorter than when it was indexed");
+            }
+        }
+
+        int positionBase = section.positionBase;
+        int normalBase = section.normalBase;
+        int texCoordBase = section.texCoordBase;
+        final List<Vertex> vertexList = new ArrayList<>();
+        final int[] corner = new int[3];
+        for(String line : new String(bytes.array(), StandardCharsets.UTF_8).split("\n")) {
+            final String[] tokens = line.trim().split("\\s+");
+            switch(tokens[0]) {
+                case "f":
+                    // triangle fan, so quads and larger polygons are drawn as GL_TRIANGLES
+                    final Vertex first = toVertex(tokens[1], positionBase, normalBase, texCoordBase, corner);
+                    Vertex previous = toVertex(tokens[2], positionBase, normalBase, texCoordBase, corner);
+                    for(int i = 3; i < tokens.length; i++) {
+                        final Vertex next = toVertex(tokens[i], positionBase, normalBase, texCoordBase, corner);
+                        vertexList.add(first);
+                        vertexList.add(previous);
+                        vertexList.add(next);
+                        previous = next;
+                    }
+                    break;
+                // attributes interleaved with the faces extend the global lists
+                case "v":
+                    positionBase++;
+                    break;
+                case "vn":
+                    normalBase++;
+                    break;
+                case "vt":
+                    texCoordBase++;
+                    break;
+            }
+        }
+
+        final IntBuffer indicesBuf = IntBuffer.allocate(vertexList.size());
+        for(int i = 0; i < vertexList.size(); i++)
+            indicesBuf.put(i);
+        indicesBuf.flip();
+
+        return new Mesh.Builder()
+                .setName(meshName)
+                .setMeshType(Mesh.MeshType.POLYGON_MESH)
+                .setMaterial(section.material)
+                .setVertices(vertexList)
+                .setIndices(indicesBuf)
+                .build();
+    }
+
+    private Vertex toVertex(String token, int positionBase, int normalBase, int texCoordBase, int[] corner) {
+        parseCorner(token, positionBase, normalBase, texCoordBase, corner);
+        final int p = corner[0] * 3;
+        final Vertex.Builder builder = new Vertex.Builder(new Vec3(positions[p], positions[p + 1], positions[p + 2]));
+        if(corner[1] >= 0)
+            builder.setTexCoord(new Vec3(texCoords[corner[1] * 2], texCoords[corner[1] * 2 + 1], 0.0f));
+        if(corner[2] >= 0) {
+            final int n = corner[2] * 3;
+            builder.setNormal(new Vec3(normals[n], normals[n + 1], normals[n + 2]));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Parses one face corner, 'v', 'v/t', 'v//n' or 'v/t/n', into zero based attribute indices.
+     *
+     * @param token  the corner
+     * @param corner receives the position, texture coordinate and normal index, -1 if absent
+     */
+    private static void parseCorner(String token, int positionCount, int normalCount, int texCoordCount, int[] corner) {
+        final int slash1 = token.indexOf('/');
+        final int slash2 = slash1 < 0 ? -1 : token.indexOf('/', slash1 + 1);
+        corner[0] = resolve(token, 0, slash1 < 0 ? token.length() : slash1, positionCount);
+        corner[1] = -1;
+        corner[2] = -1;
+        if(slash1 >= 0) {
+            final int texEnd = slash2 < 0 ? token.length() : slash2;
+            if(texEnd > slash1 + 1)
+                corner[1] = resolve(token, slash1 + 1, texEnd, texCoordCount);
+            if(slash2 >= 0 && slash2 + 1 < token.length())
+                corner[2] = resolve(token, slash2 + 1, token.length(), normalCount);
+        }
+    }
+
+    private static int resolve(String token, int begin, int end, int count) {
+        final int index = Integer.parseInt(token.substring(begin, end));
+        return index < 0 ? count + index : index - 1;
+    }
+
+    private static Box toBox(float[] min, float[] max) {
+        return new Box(AXES,
+                       min[0], max[0], min[1], max[1], min[2], max[2]);
+    }
+
+    ////////////////////////
+    // GETTERS
+    ////////////////////////
+
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * @return sections in file order
+     */
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    public Map<String, WavefrontMaterial> getMaterials() {
+        return Collections.unmodifiableMap(materials);
+    }
+
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    public int getNormalCount() {
+        return normalCount;
+    }
+
+    public int getTexCoordCount() {
+        return texCoordCount;
+    }
+
+    /**
+     * @return bounds of all faces in model coordinates, or null if the file has no faces
+     */
+    public Box getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Accumulates the index while the file is scanned.
+     */
+    private static final class Builder {
+        final Path filePath;
+        final List<Section> sections = new ArrayList<>();
+        final Set<String> sectionNames = new HashSet<>();
+        final Map<String, WavefrontMaterial> materials = new HashMap<>();
+        float[] positions = new float[3 * 1024];
+        float[] normals = new float[3 * 1024];
+        float[] texCoords = new float[2 * 1024];
+        int positionCount;
+        int normalCount;
+        int texCoordCount;
+        final int[] corner = new int[3];
+
+        // the section faces are currently added to, created lazily by the first face
+        String objectName = "";
+        String groupName;
+        WavefrontMaterial material;
+        Section current;
+
+        Builder(Path filePath) {
+            this.filePath = filePath;
+        }
+
+        void line(byte[] bytes, int length, long start, long end) throws IOException {
+            final String line = new String(bytes, 0, length, StandardCharsets.UTF_8).trim();
+            if(line.isEmpty() || line.charAt(0) == '#')
+                return;
+            final String[] tokens = line.split("\\s+");
+            switch(tokens[0]) {
+                case "v":
+                    positions = ensureCapacity(positions, (positionCount + 1) * 3);
+                    for(int i = 0; i < 3; i++)
+                        positions[positionCount * 3 + i] = Float.parseFloat(tokens[i + 1]);
+                    positionCount++;
+                    break;
+                case "vn":
+                    normals = ensureCapacity(normals, (normalCount + 1) * 3);
+                    for(int i = 0; i < 3; i++)
+                        normals[normalCount * 3 + i] = Float.parseFloat(tokens[i + 1]);
+                    normalCount++;
+                    break;
+                case "vt":
+                    texCoords = ensureCapacity(texCoords, (texCoordCount + 1) * 2);
+                    texCoords[texCoordCount * 2] = Float.parseFloat(tokens[1]);
+                    texCoords[texCoordCount * 2 + 1] = tokens.length > 2 ? Float.parseFloat(tokens[2]) : 0.0f;
+                    texCoordCount++;
+                    break;
+                case "f":
+                    face(tokens, start, end);
+                    break;
+                case "o":
+                    objectName = tokens.length > 1 ? tokens[1] : "";
+                    groupName = null;
+                    current = null;
+                    break;
+                case "g":
+                    groupName = tokens.length > 1 ? tokens[1] : null;
+                    current = null;
+                    break;
+                case "usemtl":
+                    material = materials.get(tokens[1]);
+                    if(material == null)
+                        throw new IOException("material " + tokens[1] + " not found in any of the MTL files");
+                    current = null;
+                    break;
+                case "mtllib":
+                    final String[] mtlTokens = line.replace("mtllib ", "").split("\\.mtl");
+                    for(String mtlToken : mtlTokens) {
+                        // filename is likely relative
+                        final Path mtlFilePath = filePath.resolveSibling(mtlToken.trim() + ".mtl");
+                        materials.putAll(ObjLoader.parseMtlFile(mtlFilePath));
+                    }
+                    break;
+                default:
+                    // smoothing groups, lines etc. aren't drawn
+                    break;
+            }
+        }
+
+        private void face(String[] tokens, long start, long end) {
+            if(current == null) {
+                String name = groupName == null ? objectName : objectName + "." + groupName;
+                if(!sectionNames.add(name)) {
+                    name = name + "." + sections.size();    // material switch within a group
+                    sectionNames.add(name);
+                }
+                current = new Section(name, objectName, groupName, material);
+                current.startOffset = start;
+                current.positionBase = positionCount;
+                current.normalBase = normalCount;
+                current.texCoordBase = texCoordCount;
+                sections.add(current);
+            }
+            current.endOffset = end;
+            current.faceCount++;
+            for(int i = 1; i < tokens.length; i++) {
+                parseCorner(tokens[i], positionCount, normalCount, texCoordCount, corner);
+                final int p = corner[0] * 3;
+                for(int axis = 0; axis < 3; axis++) {
+                    current.min[axis] = Math.min(current.min[axis], positions[p + axis]);
+                    current.max[axis] = Math.max(current.max[axis], positions[p + axis]);
+                }
+            }
+        }
+
+        private static float[] ensureCapacity(float[] array, int size) {
+            return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Outcome of loading one file of a batch, see {@link ObjLoader#loadAll(java.util.Collection, int)}.
+ * Either the meshes and load report, or the failure, are set.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class ObjLoadResult {
+
+    private final Path source;
+    private final Map<String, Mesh> meshes;
+    private final LoadReport report;
+    private final Exception failure;
+
+    private ObjLoadResult(Path source, Map<String, Mesh> meshes, LoadReport report, Exception failure) {
+        this.source = source;
+        this.meshes = meshes;
+        this.report = report;
+        this.failure = failure;
+    }
+
+    static ObjLoadResult success(Path source, Map<String, Mesh> meshes, LoadReport report) {
+        return new ObjLoadResult(source, meshes, report, null);
+    }
+
+    static ObjLoadResult failure(Path source, Exception failure) {
+        return new ObjLoadResult(source, null, null, failure);
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * @return the loaded meshes keyed by name, or null if the load failed
+     */
+    public Map<String, Mesh> getMeshes() {
+        return meshes;
+    }
+
+    /**
+     * @return telemetry of the load, or null if the load failed
+     */
+    public LoadReport getReport() {
+        return report;
+    }
+
+    /**
+     * @return why the load failed, or null if it succeeded
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess()
+                ? source + ": " + meshes.size() + " meshes"
+                : source + ": failed, " + failure;
+    }
+}
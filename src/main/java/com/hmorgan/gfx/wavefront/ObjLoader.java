@@ -2,36 +2,70 @@ package com.hmorgan.gfx.wavefront;
 
 import com.hackoeur.jglm.Vec3;
 import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.TexturePyramid;
 import com.hmorgan.gfx.Vertex;
 import gov.nasa.worldwind.render.Material;
-import gov.nasa.worldwind.render.WWTexture;
 
 import java.awt.*;
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Loads Wavefront .OBJ files into {@link Mesh}es.
+ * <p>
+ * A loader keeps no state of its own between loads other than the MTL files it has parsed, so
+ * one instance may be used by several threads at once. Loads through the same instance share
+ * parsed MTL files; decoded textures are shared by all loads.
+ * <p>
+ * Compressed files, e.g. .obj.gz, are read as they are: the compression is detected from the
+ * first bytes and the file is decompressed on a thread of its own while it is parsed, see
+ * {@link StreamCodec}.
+ *
  * @author Hunter N. Morgan
  */
-public class ObjLoader {
+public class ObjLoader implements ModelLoader {
 
-    private Map<String, Mesh> meshes;
-    private ParserState state;
-    private List<Vec3> vertices;
-    private List<Vec3> textureCoords;
-    private List<Vec3> normals;
-    private List<ObjIndex> indices;
-    private Map<String, WavefrontMaterial> materials;
-    private List<WWTexture> textures;
+    // MTL files parsed by this loader, shared by all of its loads. Keyed by absolute path.
+    private final ConcurrentMap<Path, MtlFile> mtlCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, Object> mtlLocks = new ConcurrentHashMap<>();
+    private volatile LoadReport lastLoadReport;
+
+    /**
+     * Materials of one version of a MTL file.
+     */
+    private static final class MtlFile {
+        final String version;               // size and modification time of the file when parsed
+        final Map<String, WavefrontMaterial> materials;
+
+        MtlFile(String version, Map<String, WavefrontMaterial> materials) {
+            this.version = version;
+            this.materials = materials;
+        }
+    }
 
     private enum ParserState {
         START,
@@ -45,24 +79,50 @@ public class ObjLoader {
 
     /**
      * Convenience method to find and return the Path of a filename from this project's
-     * resources folder.
+     * resources folder. Resources packaged in a JAR are returned as paths of the JAR's zip file
+     * system, so they load like files, MTL files and textures next to them included.
      *
      * @param filename filename to get a Path to
      * @return Path to filename
      * @throws IOException if file does not exist
      */
     public static Path getFilePathFromResources(String filename) throws IOException {
-        URI uri;
+        Optional<URL> url = Optional.ofNullable(ObjModel.class.getClassLoader().getResource(filename));
+        if(url.isPresent())
+            return getFilePathFromUrl(url.get());
+        else
+            throw new IOException(filename + " does not exist");
+    }
+
+    /**
+     * Returns the Path of a file: or jar: URL, opening the zip file system of the JAR if needed.
+     * JAR file systems stay open for the life of the JVM, as models may be loaded from them again.
+     *
+     * @param url URL of a file, or of an entry of a JAR
+     * @return Path to the file or entry
+     * @throws IOException if the URL isn't a file or JAR entry, or the JAR can't be opened
+     */
+    public static Path getFilePathFromUrl(URL url) throws IOException {
+        final URI uri;
         try {
-            Optional<URL> url = Optional.ofNullable(ObjModel.class.getClassLoader().getResource(filename));
-            if(url.isPresent()) {
-                uri = url.get().toURI();
-                return Paths.get(uri);
-            }
-            else
-                throw new IOException(filename + " does not exist");
+            uri = url.toURI();
         } catch (URISyntaxException e) {
-            throw new IOException(filename + " does not exist");
+            throw new IOException(url + " does not exist");
+        }
+        if("jar".equals(uri.getScheme()))
+            openJarFileSystem(uri);
+        try {
+            return Paths.get(uri);
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            throw new IOException(url + " is not a file", e);
+        }
+    }
+
+    private static synchronized void openJarFileSystem(URI uri) throws IOException {
+        try {
+            FileSystems.getFileSystem(uri);
+        } catch (FileSystemNotFoundException e) {
+            FileSystems.newFileSystem(uri, Collections.<String, Object>emptyMap());
         }
     }
 
@@ -274,222 +334,173 @@ public class ObjLoader {
      * @throws IOException
      */
     public Map<String, Mesh> loadObjMeshesV2(Path filePath) throws IOException {
-        meshes = new HashMap<>();
-        state = ParserState.INIT;
+        return parse(filePath).meshes;
+    }
 
-        vertices = new ArrayList<>();
-        textureCoords = new ArrayList<>();
-        normals = new ArrayList<>();
-        indices = new ArrayList<>();
-        materials = new HashMap<>();
+    /**
+     * Loads a .OBJ file from a stream, e.g. one read from the network or out of an archive. A
+     * compressed stream is decompressed as it is parsed, see {@link StreamCodec}.
+     *
+     * @param in            the .OBJ data, closed when the load is done
+     * @param name          name of the data, the prefix of the mesh names
+     * @param baseDirectory directory MTL files are resolved against, or null if the data refers
+     *                      to no MTL file
+     * @return the meshes keyed by name
+     * @throws IOException if the data can't be read or is malformed
+     */
+    public Map<String, Mesh> loadObjMeshes(InputStream in, String name, Path baseDirectory) throws IOException {
+        final Parse parse = new Parse(baseDirectory != null ? baseDirectory.resolve(name) : null, in, name);
+        return run(parse).meshes;
+    }
 
-        boolean builtFirstMesh = false;
-        Mesh.Builder meshBuilder = null;
-        final String fileName = filePath.getFileName().toString();
-        String currObjName = "";
+    /**
+     * Loads a .OBJ file from a channel, see {@link #loadObjMeshes(InputStream, String, Path)}.
+     *
+     * @param channel       the .OBJ data, closed when the load is done
+     * @param name          name of the data, the prefix of the mesh names
+     * @param baseDirectory directory MTL files are resolved against, or null if the data refers
+     *                      to no MTL file
+     * @return the meshes keyed by name
+     * @throws IOException if the data can't be read or is malformed
+     */
+    public Map<String, Mesh> loadObjMeshes(ReadableByteChannel channel, String name, Path baseDirectory) throws IOException {
+        return loadObjMeshes(Channels.newInputStream(channel), name, baseDirectory);
+    }
 
-        textures = new ArrayList<>();
+    /**
+     * Loads many .OBJ files concurrently. A failure to load one file doesn't affect the others.
+     * MTL files and textures that several of the files share are only parsed and decoded once.
+     * Blocks until every file is loaded or failed.
+     *
+     * @param filePaths   Paths to .OBJ files
+     * @param parallelism maximum number of files loaded at the same time
+     * @return one result per file, in the order of filePaths
+     * @throws InterruptedException if interrupted while waiting, loads still running are cancelled
+     */
+    public List<ObjLoadResult> loadAll(Collection<Path> filePaths, int parallelism) throws InterruptedException {
+        if(parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
 
-        try(BufferedReader bufferedReader = Files.newBufferedReader(filePath)) {
-            String line;
-            while((line = bufferedReader.readLine()) != null) {
-                final String[] tokens = line.split("\\s+");
-                if(tokens.length <= 0)
-                    continue;
-                final String firstToken = tokens[0];
-
-                if(firstToken.trim().length() <= 0)
-                    continue;
-                if(firstToken.trim().charAt(0) == '#') // ignore comments
-                    continue;
-
-                switch(state) {
-                    case INIT:
-                        switch(firstToken) {
-                            case "o":
-                                state = ParserState.PROCESS_VNT;
-//                                vertices = new ArrayList<>();
-//                                textureCoords = new ArrayList<>();
-//                                normals = new ArrayList<>();
-                                indices = new ArrayList<>();
-                                currObjName = fileName + ". " + tokens[1];
-                                break;
-                            case "mtllib":
-                                // load MTL files
-                                // mtllib filename1 filename2 . . .
-                                final String restLine = line.replace("mtllib ", "");
-                                final String[] mtlTokens = restLine.split("\\.mtl");
-
-                                for (String mtlToken : mtlTokens) {
-                                    final String mtlFileName = mtlToken + ".mtl";
-                                    // filename is likely relative
-                                    final Path mtlFilePath = Paths.get(filePath.getParent().toString(), mtlFileName);
-                                    Map<String, WavefrontMaterial> parsedMaterials = parseMtlFile(mtlFilePath);
-                                    materials.putAll(parsedMaterials);
-                                }
-                                break;
-                            default:
-                                throw new IOException("Illegal token " + firstToken);
-                        }
-                        break;
-                    case PROCESS_VNT:
-                        switch(firstToken) {
-                            case "v":
-                                vertices.add(new Vec3(Float.parseFloat(tokens[1]),
-                                                      Float.parseFloat(tokens[2]),
-                                                      Float.parseFloat(tokens[3])));
-                                break;
-                            case "vn":
-                                normals.add(new Vec3(Float.parseFloat(tokens[1]),
-                                                     Float.parseFloat(tokens[2]),
-                                                     Float.parseFloat(tokens[3])));
-                                break;
-                            case "vt":
-                                // u, v, w (optional)
-                                Vec3 texCoord = null;
-                                if (tokens.length == 3) {
-                                    texCoord = new Vec3(Float.parseFloat(tokens[1]),
-                                                        Float.parseFloat(tokens[2]),
-                                                        0.0f);
-                                } else {
-                                    new Vec3(Float.parseFloat(tokens[1]),
-                                             Float.parseFloat(tokens[2]),
-                                             Float.parseFloat(tokens[3]));
-                                }
-                                textureCoords.add(texCoord);
-                                break;
-                            case "f":
-                                state = ParserState.PROCESS_VERTS;
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName);
-                                meshBuilder.setMeshType(Mesh.MeshType.POLYGON_MESH);
-                                processVertLine(line, tokens);
-                                break;
-                            case "g":
-                                state = ParserState.PROCESS_VERTS;
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName + "." + tokens[1]);
-                                break;
-                            case "usemtl":
-                                state = ParserState.PROCESS_VERTS;
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName);
-                                final WavefrontMaterial material = materials.get(tokens[1]);
-                                if(material != null) {
-                                    meshBuilder.setMaterial(material);
-                                } else {
-                                    throw new IOException("material " + tokens[1] + " not found in any of the MTL files");
-                                }
-                                break;
-                            case "s":
-                                // ignore smoothing group
-                                break;
-                            default:
-                                throw new IOException("Illegal token " + firstToken);
-                        }
-                        break;
-                    case PROCESS_VERTS:
-                        switch(firstToken) {
-                            case "o": {
-                                state = ParserState.PROCESS_VNT;
-//                                vertices = new ArrayList<>();
-//                                textureCoords = new ArrayList<>();
-//                                normals = new ArrayList<>();
-
-                                // current mesh builder needs to be built and put in list
-                                final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
-//                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
-                                meshes.put(mesh.getName(), mesh);
-
-
-                                indices = new ArrayList<>();
-                                currObjName = fileName + ". " + tokens[1];
-
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName + "." + tokens[1]);
-                                break;
-                            }
-                            case "g": {
-                                // current mesh builder needs to be built and put in list
-                                final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
-//                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
-                                meshes.put(mesh.getName(), mesh);
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName + "." + tokens[1]);
-                                break;
-                            }
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, filePaths.size())), r -> {
+            final Thread t = new Thread(r, "obj-loader-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            final List<Future<ObjLoadResult>> futures = new ArrayList<>(filePaths.size());
+            for(Path filePath : filePaths) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        final Parse parse = parse(filePath);
+                        return ObjLoadResult.success(filePath, parse.meshes, parse.report);
+                    } catch (IOException | RuntimeException e) {
+                        return ObjLoadResult.failure(filePath, e);
+                    }
+                }));
+            }
 
-                            case "f":
-                                meshBuilder.setMeshType(Mesh.MeshType.POLYGON_MESH);
-                                processVertLine(line, tokens);
-                                break;
+            final List<ObjLoadResult> results = new ArrayList<>(futures.size());
+            for(Future<ObjLoadResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());   // parse() failures are caught above
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                            case "l":
-                                break;
+    /**
+     * @return the report of the last successful load by this loader, or null if there was none.
+     * With concurrent loads, use the reports of {@link #loadAll(Collection, int)} instead.
+     */
+    public LoadReport getLastLoadReport() {
+        return lastLoadReport;
+    }
 
-                            case "usemtl": {
-                                // current mesh builder needs to be built and put in list
-                                final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
-//                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
-                                meshes.put(mesh.getName(), mesh);
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName + "." + String.valueOf(meshes.size()));
-                                final WavefrontMaterial material = materials.get(tokens[1]);
-                                if(material != null) {
-                                    meshBuilder.setMaterial(material);
-                                } else {
-                                    throw new IOException("material " + tokens[1] + " not found in any of the MTL files");
-                                }
-                                break;
-                            }
+    /**
+     * Loads a file, naming its meshes after the given namespace instead of the file name. Meshes
+     * of the same name share GPU buffers, so loads of files that may have the same name, or of
+     * different versions of one file, must use distinct namespaces.
+     *
+     * @param filePath      Path to .OBJ file
+     * @param meshNamespace prefix of the mesh names
+     * @return the meshes and report of the load
+     * @throws IOException if the file can't be read or is malformed
+     */
+    @Override
+    public ObjLoadResult load(Path filePath, String meshNamespace) throws IOException {
+        final Parse parse = parse(filePath, meshNamespace);
+        return ObjLoadResult.success(filePath, parse.meshes, parse.report);
+    }
 
-                            case "s":
-                                // ignore smoothing groups
-                                break;
+    private Parse parse(Path filePath) throws IOException {
+        return parse(filePath, filePath.getFileName().toString());
+    }
 
-                            default:
-                                throw new IOException("Illegal token " + firstToken);
-                        }
-                        break;
-                    case READ_EOF:
-                        break;
-                }
-            }
+    private Parse parse(Path filePath, String meshNamespace) throws IOException {
+        return run(new Parse(filePath, null, meshNamespace));
+    }
 
-            state = ParserState.READ_EOF;
+    /**
+     * Loads a new version of a file, keeping the meshes of the previous version that didn't
+     * change. A mesh is kept if its name, less the namespace, and the hash of its faces, vertex
+     * attributes and material are the same; kept meshes keep their names, so their GPU buffers
+     * are reused as well. Only changed meshes are assembled.
+     *
+     * @param filePath      Path to .OBJ file
+     * @param meshNamespace prefix of the names of new meshes
+     * @param previous      meshes of the previous version keyed by name less its namespace
+     * @return the meshes and report of the load
+     * @throws IOException if the file can't be read or is malformed
+     */
+    @Override
+    public ObjLoadResult reload(Path filePath, String meshNamespace, Map<String, Mesh> previous) throws IOException {
+        final Parse parse = new Parse(filePath, null, meshNamespace);
+        parse.previous = previous;
+        run(parse);
+        return ObjLoadResult.success(filePath, parse.meshes, parse.report);
+    }
 
-            final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
-            meshes.put(mesh.getName(), mesh);
+    private Parse run(Parse parse) throws IOException {
+        try {
+            parse.run();
+        } catch (IOException | RuntimeException e) {
+            ObjLoaderStats.getInstance().recordFailure();
+            throw e;
         }
-
-        return meshes;
+        lastLoadReport = parse.report;
+        ObjLoaderStats.getInstance().record(parse.report);
+        return parse;
     }
 
-    private void processVertLine(String line, String[] tokens) {
-        // split each token with '/'
-        // f vi/ti/ni vi/ti/ni vi/ti/ni
-        // or
-        // f vi vi vi
-        if (line.contains("/")) {
-            for (int i = 1; i < tokens.length; i++) {
-                final String faceToken = tokens[i];
-                final String[] faceTokens = faceToken.split("/");
-                ObjIndex.Builder objIndexBuilder = new ObjIndex.Builder();
-                objIndexBuilder.setVertexIndex(Integer.valueOf(faceTokens[0]) - 1);
-                if (!faceTokens[1].isEmpty())
-                    objIndexBuilder.setTextureCoordIndex(Integer.valueOf(faceTokens[1]) - 1);
-                if (!faceTokens[2].isEmpty())
-                    objIndexBuilder.setNormalIndex(Integer.valueOf(faceTokens[2]) - 1);
-                indices.add(objIndexBuilder.build());
-            }
-        } else {
-            // uses spaces for each face vertex
-            for (int i = 1; i < tokens.length; i++) {
-                ObjIndex.Builder objIndexBuilder = new ObjIndex.Builder();
-                objIndexBuilder.setVertexIndex(Integer.valueOf(tokens[i]) - 1);
-                indices.add(objIndexBuilder.build());
+    /**
+     * Returns the materials of a MTL file, parsing it only the first time any load of this loader
+     * asks for the current version of it. Concurrent loads asking for the same file wait for one
+     * parse.
+     *
+     * @param mtlFilePath the {@link Path} to the MTL file
+     * @return the materials keyed by name
+     */
+    private Map<String, WavefrontMaterial> loadMtlFile(Path mtlFilePath) throws IOException {
+        final Path key = mtlFilePath.toAbsolutePath().normalize();
+        final String version = Files.size(key) + "-" + Files.getLastModifiedTime(key).toMillis();
+        MtlFile mtlFile = mtlCache.get(key);
+        if(mtlFile != null && mtlFile.version.equals(version))
+            return mtlFile.materials;
+
+        synchronized(mtlLocks.computeIfAbsent(key, k -> new Object())) {
+            mtlFile = mtlCache.get(key);
+            if(mtlFile == null || !mtlFile.version.equals(version)) {
+                mtlFile = new MtlFile(version, Collections.unmodifiableMap(parseMtlFile(mtlFilePath)));
+                mtlCache.put(key, mtlFile);
             }
         }
+        return mtlFile.materials;
     }
 
     /**
@@ -536,54 +547,13 @@ public class ObjLoader {
         return meshBuilder.build();
     }
 
-    /**
-     * Builds a new Mesh object and stores it in meshes map.
-     *
-     * @param meshBuilder   mesh builder to store rest of arguments into
-     * @param vertices      vertices list
-     * @param textureCoords texture coordinates list
-     * @param normals       normals list
-     * @param indices       indices list
-     * @return new Mesh object
-     */
-    private static Mesh buildMeshV2(Mesh.Builder meshBuilder,
-                                    List<Vec3> vertices,
-                                    List<Vec3> textureCoords,
-                                    List<Vec3> normals,
-                                    List<ObjIndex> indices) {
-
-        // TODO: Can optimize using element index buffer if we can remove all v/n/t duplicates
-
-        // build vertex list and index buffer
-        final List<Vertex> vertexList = new ArrayList<>();
-
-        for(ObjIndex index : indices) {
-            Vertex.Builder vertexBuilder = new Vertex.Builder(vertices.get(index.getVertexIndex()));
-            index.getNormalIndex()
-                 .ifPresent(ni -> vertexBuilder.setNormal(normals.get(ni)));
-            index.getTextureCoordIndex()
-                 .ifPresent(ti -> vertexBuilder.setTexCoord(textureCoords.get(ti)));
-            vertexList.add(vertexBuilder.build());
-        }
-
-        final IntBuffer indicesBuf = IntBuffer.allocate(vertexList.size());
-        for(int i = 0; i < vertexList.size(); i++) {
-            indicesBuf.put(i);
-        }
-        indicesBuf.flip();
-        meshBuilder.setVertices(vertexList);
-        meshBuilder.setIndices(indicesBuf);
-
-        return meshBuilder.build();
-    }
-
     /**
      * Parses a MTL file
      *
      * @param mtlFilePath the {@link Path} to the MTL file
      * @return the {@link Material}s parsed from the MTL file
      */
-    private static Map<String, WavefrontMaterial> parseMtlFile(Path mtlFilePath) throws IOException {
+    static Map<String, WavefrontMaterial> parseMtlFile(Path mtlFilePath) throws IOException {
         final Map<String, WavefrontMaterial> materials = new HashMap<>();
 
         String name = null;
@@ -677,7 +647,7 @@ public class ObjLoader {
                             if(Paths.get(textureFilename).isAbsolute())
                                 diffuseTextureMapFilepath = Paths.get(textureFilename);
                             else
-                                diffuseTextureMapFilepath = Paths.get(mtlFilePath.getParent().toString(), textureFilename);
+                                diffuseTextureMapFilepath = mtlFilePath.resolveSibling(textureFilename);
                             int abc = 123;
                             break;
                     }
@@ -699,4 +669,552 @@ public class ObjLoader {
         bufferedReader.close();
         return materials;
     }
+
+    /**
+     * State of a single load. Each load gets its own, so one loader may load several files at
+     * the same time.
+     */
+    private final class Parse {
+        private final Path filePath;            // file read, or that MTL files are resolved against, may be null
+        private final InputStream source;       // data read instead of the file, may be null
+        private Map<String, Mesh> previous;     // meshes of a previous version to keep if unchanged, may be null
+        private int reusedMeshes;
+        private final Map<WavefrontMaterial, Long> materialHashes = new IdentityHashMap<>();
+        private final String meshNamespace;     // prefix of mesh names, meshes of the same name share GPU buffers
+        private Map<String, Mesh> meshes;
+        private ParserState state;
+        private String objectName;              // current 'o', stamped on the meshes built, null before one
+        private String groupName;               // current 'g' within the object, null before one
+        private List<Vec3> vertices;
+        private List<Vec3> textureCoords;
+        private List<Vec3> normals;
+        private List<ObjIndex> indices;
+        private Map<String, WavefrontMaterial> materials;
+        private List<TexturePyramid> textures;
+        private LoadPhaseTimer timer;
+        private long lineCount;
+        private long faceCount;
+        private LoadReport report;
+
+        Parse(Path filePath, InputStream source, String meshNamespace) {
+            this.filePath = filePath;
+            this.source = source;
+            this.meshNamespace = meshNamespace;
+        }
+
+        Map<String, Mesh> run() throws IOException {
+            timer = new LoadPhaseTimer();
+            timer.enter(LoadReport.Phase.PARSE);
+            lineCount = 0;
+            faceCount = 0;
+            meshes = new HashMap<>();
+            state = ParserState.INIT;
+
+            vertices = new ArrayList<>();
+            textureCoords = new ArrayList<>();
+            normals = new ArrayList<>();
+            indices = new ArrayList<>();
+            materials = new HashMap<>();
+
+            boolean builtFirstMesh = false;
+            Mesh.Builder meshBuilder = null;
+            boolean pointMesh = false;          // true while the current mesh holds points
+            final String fileName = meshNamespace;
+            String currObjName = "";
+            objectName = null;
+            groupName = null;
+
+            textures = new ArrayList<>();
+
+            // bytes are counted before decompression, the way they are stored
+            final CountingInputStream countingStream = new CountingInputStream(source != null ? source : Files.newInputStream(filePath));
+            try(BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(StreamCodec.open(countingStream), StandardCharsets.UTF_8))) {
+                String line;
+                while((line = bufferedReader.readLine()) != null) {
+                    lineCount++;
+                    final String[] tokens = line.split("\\s+");
+                    if(tokens.length <= 0)
+                        continue;
+                    final String firstToken = tokens[0];
+
+                    if(firstToken.trim().length() <= 0)
+                        continue;
+                    if(firstToken.trim().charAt(0) == '#') // ignore comments
+                        continue;
+
+                    boolean reprocess;
+                    do {
+                        reprocess = false;
+                        switch(state) {
+                            case INIT:
+                                switch(firstToken) {
+                                    case "o":
+                                        state = ParserState.PROCESS_VNT;
+        //                                vertices = new ArrayList<>();
+        //                                textureCoords = new ArrayList<>();
+        //                                normals = new ArrayList<>();
+                                        indices = new ArrayList<>();
+                                        currObjName = fileName + ". " + tokens[1];
+                                        objectName = tokens[1];
+                                        break;
+                                    case "mtllib":
+                                        // load MTL files
+                                        // mtllib filename1 filename2 . . .
+                                        if(filePath == null)
+                                            throw new IOException("mtllib needs a base directory to resolve " + line);
+                                        final String restLine = line.replace("mtllib ", "");
+                                        final String[] mtlTokens = restLine.split("\\.mtl");
+
+                                        for (String mtlToken : mtlTokens) {
+                                            final String mtlFileName = mtlToken + ".mtl";
+                                            // filename is likely relative
+                                            final Path mtlFilePath = filePath.resolveSibling(mtlFileName);
+                                            timer.enter(LoadReport.Phase.MTL);
+                                            Map<String, WavefrontMaterial> parsedMaterials;
+                                            try {
+                                                parsedMaterials = loadMtlFile(mtlFilePath);
+                                            } finally {
+                                                timer.exit();
+                                            }
+                                            materials.putAll(parsedMaterials);
+                                            decodeTextures(parsedMaterials.values());
+                                        }
+                                        break;
+                                    case "v":
+                                    case "vn":
+                                    case "vt":
+                                    case "p":
+                                        // no 'o' line, e.g. a point cloud of bare vertices: the file is one object
+                                        state = ParserState.PROCESS_VNT;
+                                        indices = new ArrayList<>();
+                                        currObjName = fileName;
+                                        reprocess = true;   // the line is the implicit object's first element
+                                        break;
+                                    default:
+                                        throw new IOException("Illegal token " + firstToken);
+                                }
+                                break;
+                            case PROCESS_VNT:
+                                switch(firstToken) {
+                                    case "o":
+                                        // an object started before the implicit one has any elements
+                                        indices = new ArrayList<>();
+                                        currObjName = fileName + ". " + tokens[1];
+                                        objectName = tokens[1];
+                                        groupName = null;
+                                        break;
+                                    case "v":
+                                        vertices.add(new Vec3(Float.parseFloat(tokens[1]),
+                                                              Float.parseFloat(tokens[2]),
+                                                              Float.parseFloat(tokens[3])));
+                                        break;
+                                    case "vn":
+                                        normals.add(new Vec3(Float.parseFloat(tokens[1]),
+                                                             Float.parseFloat(tokens[2]),
+                                                             Float.parseFloat(tokens[3])));
+                                        break;
+                                    case "vt":
+                                        // u, v, w (optional)
+                                        Vec3 texCoord = null;
+                                        if (tokens.length == 3) {
+                                            texCoord = new Vec3(Float.parseFloat(tokens[1]),
+                                                                Float.parseFloat(tokens[2]),
+                                                                0.0f);
+                                        } else {
+                                            new Vec3(Float.parseFloat(tokens[1]),
+                                                     Float.parseFloat(tokens[2]),
+                                                     Float.parseFloat(tokens[3]));
+                                        }
+                                        textureCoords.add(texCoord);
+                                        break;
+                                    case "f":
+                                        state = ParserState.PROCESS_VERTS;
+                                        meshBuilder = new Mesh.Builder();
+                                        meshBuilder.setName(currObjName);
+                                        meshBuilder.setMeshType(Mesh.MeshType.POLYGON_MESH);
+                                        processVertLine(line, tokens);
+                                        break;
+                                    case "p":
+                                        state = ParserState.PROCESS_VERTS;
+                                        meshBuilder = new Mesh.Builder();
+                                        meshBuilder.setName(currObjName);
+                                        meshBuilder.setMeshType(Mesh.MeshType.POINTS_MESH);
+                                        pointMesh = true;
+                                        processPointLine(tokens);
+                                        break;
+                                    case "g":
+                                        state = ParserState.PROCESS_VERTS;
+                                        meshBuilder = new Mesh.Builder();
+                                        meshBuilder.setName(currObjName + "." + tokens[1]);
+                                        groupName = tokens[1];
+                                        break;
+                                    case "usemtl":
+                                        state = ParserState.PROCESS_VERTS;
+                                        meshBuilder = new Mesh.Builder();
+                                        meshBuilder.setName(currObjName);
+                                        final WavefrontMaterial material = materials.get(tokens[1]);
+                                        if(material != null) {
+                                            meshBuilder.setMaterial(material);
+                                        } else {
+                                            throw new IOException("material " + tokens[1] + " not found in any of the MTL files");
+                                        }
+                                        break;
+                                    case "s":
+                                        // ignore smoothing group
+                                        break;
+                                    default:
+                                        throw new IOException("Illegal token " + firstToken);
+                                }
+                                break;
+                            case PROCESS_VERTS:
+                                switch(firstToken) {
+                                    case "o": {
+                                        state = ParserState.PROCESS_VNT;
+        //                                vertices = new ArrayList<>();
+        //                                textureCoords = new ArrayList<>();
+        //                                normals = new ArrayList<>();
+
+                                        // current mesh builder needs to be built and put in list
+                                        final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
+        //                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
+                                        meshes.put(mesh.getName(), mesh);
+
+
+                                        indices = new ArrayList<>();
+                                        currObjName = fileName + ". " + tokens[1];
+                                        objectName = tokens[1];
+                                        groupName = null;
+                                        pointMesh = false;
+
+                                        meshBuilder = new Mesh.Builder();
+                                        meshBuilder.setName(currObjName + "." + tokens[1]);
+                                        break;
+                                    }
+                                    case "g": {
+                                        // current mesh builder needs to be built and put in list
+                                        final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
+        //                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
+                                        meshes.put(mesh.getName(), mesh);
+                                        indices = new ArrayList<>();
+                                        meshBuilder = new Mesh.Builder();
+                                        meshBuilder.setName(currObjName + "." + tokens[1]);
+                                        groupName = tokens[1];
+                                        pointMesh = false;
+                                        break;
+                                    }
+
+                                    case "f":
+                                        if(pointMesh) {
+                                            // faces after points of the same object go in a mesh of their own
+                                            meshBuilder = nextMesh(meshBuilder, currObjName);
+                                            pointMesh = false;
+                                        }
+                                        meshBuilder.setMeshType(Mesh.MeshType.POLYGON_MESH);
+                                        processVertLine(line, tokens);
+                                        break;
+
+                                    case "p":
+                                        if(!pointMesh && !indices.isEmpty()) {
+                                            // points after faces of the same object go in a mesh of their own
+                                            meshBuilder = nextMesh(meshBuilder, currObjName);
+                                        }
+                                        pointMesh = true;
+                                        meshBuilder.setMeshType(Mesh.MeshType.POINTS_MESH);
+                                        processPointLine(tokens);
+                                        break;
+
+                                    case "l":
+                                        break;
+
+                                    case "usemtl": {
+                                        // current mesh builder needs to be built and put in list
+                                        final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
+        //                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
+                                        meshes.put(mesh.getName(), mesh);
+                                        indices = new ArrayList<>();
+                                        meshBuilder = new Mesh.Builder();
+                                        meshBuilder.setName(currObjName + "." + String.valueOf(meshes.size()));
+                                        pointMesh = false;
+                                        final WavefrontMaterial material = materials.get(tokens[1]);
+                                        if(material != null) {
+                                            meshBuilder.setMaterial(material);
+                                        } else {
+                                            throw new IOException("material " + tokens[1] + " not found in any of the MTL files");
+                                        }
+                                        break;
+                                    }
+
+                                    case "s":
+                                        // ignore smoothing groups
+                                        break;
+
+                                    default:
+                                        throw new IOException("Illegal token " + firstToken);
+                                }
+                                break;
+                            case READ_EOF:
+                                break;
+                        }
+                    } while(reprocess);
+                }
+
+                state = ParserState.READ_EOF;
+
+                if(meshBuilder == null && !vertices.isEmpty()) {
+                    // only vertices, draw them as points
+                    meshBuilder = new Mesh.Builder();
+                    meshBuilder.setName(currObjName);
+                    meshBuilder.setMeshType(Mesh.MeshType.POINTS_MESH);
+                    for(int i = 0; i < vertices.size(); i++)
+                        indices.add(new ObjIndex.Builder().setVertexIndex(i).build());
+                }
+                final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
+                meshes.put(mesh.getName(), mesh);
+            }
+
+            timer.exit();
+            final LoadReport.Builder reportBuilder = new LoadReport.Builder()
+                    .setSource(filePath != null ? filePath : Paths.get(meshNamespace))
+                    .setBytesRead(countingStream.count)
+                    .setLines(lineCount)
+                    .setVertices(vertices.size())
+                    .setFaces(faceCount)
+                    .setMeshes(meshes.size())
+                    .setReusedMeshes(reusedMeshes)
+                    .setMaterials(materials.size())
+                    .setTextures(textures.size());
+            timer.finish(reportBuilder);
+            report = reportBuilder.build();
+            return meshes;
+        }
+
+        /**
+         * Decodes the diffuse texture maps of the given materials ahead of mesh building, so
+         * decoding is accounted to its own phase. Failures are left for {@link Mesh} to report.
+         *
+         * @param parsedMaterials materials whose textures to decode
+         */
+        private void decodeTextures(Collection<WavefrontMaterial> parsedMaterials) {
+            timer.enter(LoadReport.Phase.TEXTURE_DECODE);
+            try {
+                for(WavefrontMaterial material : parsedMaterials) {
+                    if(material.getDiffuseTextureMapPath() == null)
+                        continue;
+                    try {
+                        final TexturePyramid texture = Mesh.loadTexture(material.getDiffuseTextureMapPath());
+                        if(!textures.contains(texture))
+                            textures.add(texture);
+                    } catch (IOException e) {
+                        // Mesh reports unreadable textures when it is built
+                    }
+                }
+            } finally {
+                timer.exit();
+            }
+        }
+
+        /**
+         * Builds the current mesh and starts the next one of the same object and material.
+         *
+         * @param meshBuilder builder of the current mesh
+         * @param objName     name of the current object
+         * @return builder of the next mesh
+         */
+        private Mesh.Builder nextMesh(Mesh.Builder meshBuilder, String objName) {
+            final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
+            meshes.put(mesh.getName(), mesh);
+            indices = new ArrayList<>();
+            return new Mesh.Builder()
+                    .setName(objName + "." + meshes.size())
+                    .setMaterial(mesh.getMaterial().orElse(WavefrontMaterial.GRAY));
+        }
+
+        private void processPointLine(String[] tokens) {
+            // p v1 v2 v3 ..., negative indices count back from the last vertex
+            for(int i = 1; i < tokens.length; i++) {
+                final int index = Integer.parseInt(tokens[i]);
+                indices.add(new ObjIndex.Builder()
+                                    .setVertexIndex(index < 0 ? vertices.size() + index : index - 1)
+                                    .build());
+            }
+        }
+
+        private void processVertLine(String line, String[] tokens) {
+            faceCount++;
+            // split each token with '/'
+            // f vi/ti/ni vi/ti/ni vi/ti/ni
+            // or
+            // f vi vi vi
+            if (line.contains("/")) {
+                for (int i = 1; i < tokens.length; i++) {
+                    final String faceToken = tokens[i];
+                    final String[] faceTokens = faceToken.split("/");
+                    ObjIndex.Builder objIndexBuilder = new ObjIndex.Builder();
+                    objIndexBuilder.setVertexIndex(Integer.valueOf(faceTokens[0]) - 1);
+                    if (!faceTokens[1].isEmpty())
+                        objIndexBuilder.setTextureCoordIndex(Integer.valueOf(faceTokens[1]) - 1);
+                    if (!faceTokens[2].isEmpty())
+                        objIndexBuilder.setNormalIndex(Integer.valueOf(faceTokens[2]) - 1);
+                    indices.add(objIndexBuilder.build());
+                }
+            } else {
+                // uses spaces for each face vertex
+                for (int i = 1; i < tokens.length; i++) {
+                    ObjIndex.Builder objIndexBuilder = new ObjIndex.Builder();
+                    objIndexBuilder.setVertexIndex(Integer.valueOf(tokens[i]) - 1);
+                    indices.add(objIndexBuilder.build());
+                }
+            }
+        }
+
+        /**
+         * Builds a new Mesh object and stores it in meshes map.
+         *
+         * @param meshBuilder   mesh builder to store rest of arguments into
+         * @param vertices      vertices list
+         * @param textureCoords texture coordinates list
+         * @param normals       normals list
+         * @param indices       indices list
+         * @return new Mesh object
+         */
+        private Mesh buildMeshV2(Mesh.Builder meshBuilder,
+                                 List<Vec3> vertices,
+                                 List<Vec3> textureCoords,
+                                 List<Vec3> normals,
+                                 List<ObjIndex> indices) {
+            timer.enter(LoadReport.Phase.MESH_BUILD);
+            try {
+                meshBuilder.setObjectName(objectName).setGroupName(groupName);
+                final long hash = contentHash(meshBuilder, vertices, textureCoords, normals, indices);
+                if(previous != null && meshBuilder.getName() != null && meshBuilder.getName().startsWith(meshNamespace)) {
+                    final Mesh old = previous.get(meshBuilder.getName().substring(meshNamespace.length()));
+                    if(old != null && old.getContentHash() == hash) {
+                        reusedMeshes++;
+                        return old;
+                    }
+                }
+                meshBuilder.setContentHash(hash);
+
+                // TODO: Can optimize using element index buffer if we can remove all v/n/t duplicates
+
+                // build vertex list and index buffer
+                final List<Vertex> vertexList = new ArrayList<>();
+
+                for(ObjIndex index : indices) {
+                    Vertex.Builder vertexBuilder = new Vertex.Builder(vertices.get(index.getVertexIndex()));
+                    index.getNormalIndex()
+                         .ifPresent(ni -> vertexBuilder.setNormal(normals.get(ni)));
+                    index.getTextureCoordIndex()
+                         .ifPresent(ti -> vertexBuilder.setTexCoord(textureCoords.get(ti)));
+                    vertexList.add(vertexBuilder.build());
+                }
+
+                final IntBuffer indicesBuf = IntBuffer.allocate(vertexList.size());
+                for(int i = 0; i < vertexList.size(); i++) {
+                    indicesBuf.put(i);
+                }
+                indicesBuf.flip();
+                meshBuilder.setVertices(vertexList);
+                meshBuilder.setIndices(indicesBuf);
+
+                return meshBuilder.build();
+            } finally {
+                timer.exit();
+            }
+        }
+
+        /**
+         * @return hash of the type, material and face vertices of a mesh about to be built
+         */
+        private long contentHash(Mesh.Builder meshBuilder,
+                                 List<Vec3> vertices,
+                                 List<Vec3> textureCoords,
+                                 List<Vec3> normals,
+                                 List<ObjIndex> indices) {
+            long hash = mix(meshBuilder.getMeshType().ordinal());
+            hash = mix(hash ^ materialHash(meshBuilder.getMaterial()));
+            for(ObjIndex index : indices) {
+                hash = mix(hash ^ vec3Hash(vertices.get(index.getVertexIndex())));
+                final int normal = index.getNormalIndex().orElse(-1);
+                hash = mix(hash ^ (normal >= 0 ? vec3Hash(normals.get(normal)) : 1L));
+                final int texCoord = index.getTextureCoordIndex().orElse(-1);
+                hash = mix(hash ^ (texCoord >= 0 ? vec3Hash(textureCoords.get(texCoord)) : 2L));
+            }
+            return hash;
+        }
+
+        /**
+         * @return hash of a material's colors and of the current version of its texture image
+         */
+        private long materialHash(WavefrontMaterial material) {
+            if(material == null)
+                return 0L;
+            Long hash = materialHashes.get(material);
+            if(hash == null) {
+                long h = mix(material.getDiffuse().getRGB());
+                h = mix(h ^ material.getAmbient().getRGB());
+                h = mix(h ^ material.getSpecular().getRGB());
+                h = mix(h ^ material.getEmission().getRGB());
+                h = mix(h ^ Double.doubleToLongBits(material.getShininess()));
+                final Path texture = material.getDiffuseTextureMapPath();
+                if(texture != null) {
+                    h = mix(h ^ texture.toString().hashCode());
+                    try {
+                        h = mix(h ^ Files.size(texture) ^ Files.getLastModifiedTime(texture).toMillis() << 20);
+                    } catch (IOException e) {
+                        // missing image, Mesh reports it
+                    }
+                }
+                hash = h;
+                materialHashes.put(material, hash);
+            }
+            return hash;
+        }
+    }
+
+    private static long vec3Hash(Vec3 v) {
+        if(v == null)
+            return 3L;
+        return ((long) Float.floatToIntBits(v.getX()) << 32 | Float.floatToIntBits(v.getY()) & 0xffffffffL)
+                ^ (long) Float.floatToIntBits(v.getZ()) * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Mixes the bits of a running hash, the finalizer of MurmurHash3.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Counts the bytes read through it, for load reports.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;                // written by the decompressing thread of a compressed file
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if(b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = in.read(b, off, len);
+            if(n > 0)
+                count += n;
+            return n;
+        }
+    }
 }
@@ -0,0 +1,239 @@
+package com.hmorgan.gfx.wavefront;
+
+import gov.nasa.worldwind.util.Logging;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Aggregates {@link LoadReport}s from every {@link ObjLoader} in the JVM and publishes them through
+ * JMX as {@value #OBJECT_NAME}, so loader health can be watched on a running viewer with any JMX
+ * console.
+ * <p>
+ * Counters cover every load since the last reset; percentiles cover the last {@value #WINDOW_SIZE}
+ * loads. This class is thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjLoaderStats implements ObjLoaderStatsMBean {
+
+    public static final String OBJECT_NAME = "com.hmorgan.gfx.wavefront:type=ObjLoaderStats";
+    static final int WINDOW_SIZE = 1024;
+
+    private static final ObjLoaderStats INSTANCE = new ObjLoaderStats();
+
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalBytesRead = new AtomicLong();
+    private final AtomicLong totalVertices = new AtomicLong();
+    private final AtomicLong totalFaces = new AtomicLong();
+
+    // ring of the most recent reports, guarded by this
+    private final LoadReport[] window = new LoadReport[WINDOW_SIZE];
+    private int windowNext;
+    private int windowSize;
+    private LoadReport lastReport;
+
+    private volatile boolean registered;
+
+    /**
+     * @return the JVM-wide instance, registered with the platform MBean server on first use
+     */
+    public static ObjLoaderStats getInstance() {
+        INSTANCE.register();
+        return INSTANCE;
+    }
+
+    ObjLoaderStats() {
+
+    }
+
+    private void register() {
+        if(registered)
+            return;
+        synchronized(this) {
+            if(registered)
+                return;
+            registered = true;
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(this, new ObjectName(OBJECT_NAME));
+            } catch (InstanceAlreadyExistsException e) {
+                // registered by another class loader, nothing to do
+            } catch (JMException | SecurityException e) {
+                Logging.logger().log(Level.WARNING, "could not register " + OBJECT_NAME, e);
+            }
+        }
+    }
+
+    /**
+     * Records a successful load.
+     *
+     * @param report the report of the load
+     */
+    public void record(LoadReport report) {
+        loadCount.incrementAndGet();
+        totalBytesRead.addAndGet(report.getBytesRead());
+        totalVertices.addAndGet(report.getVertices());
+        totalFaces.addAndGet(report.getFaces());
+        synchronized(this) {
+            window[windowNext] = report;
+            windowNext = (windowNext + 1) % WINDOW_SIZE;
+            windowSize = Math.min(WINDOW_SIZE, windowSize + 1);
+            lastReport = report;
+        }
+    }
+
+    /**
+     * Records a load that failed with an exception.
+     */
+    public void recordFailure() {
+        failureCount.incrementAndGet();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public long getTotalBytesRead() {
+        return totalBytesRead.get();
+    }
+
+    @Override
+    public long getTotalVertices() {
+        return totalVertices.get();
+    }
+
+    @Override
+    public long getTotalFaces() {
+        return totalFaces.get();
+    }
+
+    @Override
+    public double getLoadTimeP50() {
+        return percentile(wallMillis(), 0.50);
+    }
+
+    @Override
+    public double getLoadTimeP90() {
+        return percentile(wallMillis(), 0.90);
+    }
+
+    @Override
+    public double getLoadTimeP99() {
+        return percentile(wallMillis(), 0.99);
+    }
+
+    @Override
+    public double getLoadTimeMax() {
+        return percentile(wallMillis(), 1.0);
+    }
+
+    @Override
+    public double getParseTimeP90() {
+        return percentile(phaseMillis(LoadReport.Phase.PARSE), 0.90);
+    }
+
+    @Override
+    public double getMtlTimeP90() {
+        return percentile(phaseMillis(LoadReport.Phase.MTL), 0.90);
+    }
+
+    @Override
+    public double getTextureDecodeTimeP90() {
+        return percentile(phaseMillis(LoadReport.Phase.TEXTURE_DECODE), 0.90);
+    }
+
+    @Override
+    public double getMeshBuildTimeP90() {
+        return percentile(phaseMillis(LoadReport.Phase.MESH_BUILD), 0.90);
+    }
+
+    @Override
+    public double getThroughputMBpsP50() {
+        final LoadReport[] reports = snapshot();
+        final double[] values = new double[reports.length];
+        for(int i = 0; i < reports.length; i++)
+            values[i] = reports[i].getThroughputBytesPerSecond() / 1e6;
+        return percentile(values, 0.50);
+    }
+
+    @Override
+    public double getAllocatedBytesP50() {
+        if(!LoadPhaseTimer.isAllocationMeasurable())
+            return -1.0;
+        final LoadReport[] reports = snapshot();
+        final double[] values = new double[reports.length];
+        for(int i = 0; i < reports.length; i++)
+            values[i] = reports[i].getAllocatedBytes();
+        return percentile(values, 0.50);
+    }
+
+    @Override
+    public synchronized String getLastReport() {
+        return (lastReport != null) ? lastReport.toString() : "";
+    }
+
+    @Override
+    public synchronized void reset() {
+        loadCount.set(0L);
+        failureCount.set(0L);
+        totalBytesRead.set(0L);
+        totalVertices.set(0L);
+        totalFaces.set(0L);
+        Arrays.fill(window, null);
+        windowNext = 0;
+        windowSize = 0;
+        lastReport = null;
+    }
+
+    private synchronized LoadReport[] snapshot() {
+        final LoadReport[] reports = new LoadReport[windowSize];
+        for(int i = 0; i < windowSize; i++)
+            reports[i] = window[(windowNext - windowSize + i + WINDOW_SIZE) % WINDOW_SIZE];
+        return reports;
+    }
+
+    private double[] wallMillis() {
+        final LoadReport[] reports = snapshot();
+        final double[] values = new double[reports.length];
+        for(int i = 0; i < reports.length; i++)
+            values[i] = reports[i].getWallNanos() / 1e6;
+        return values;
+    }
+
+    private double[] phaseMillis(LoadReport.Phase phase) {
+        final LoadReport[] reports = snapshot();
+        final double[] values = new double[reports.length];
+        for(int i = 0; i < reports.length; i++)
+            values[i] = reports[i].getPhaseNanos(phase) / 1e6;
+        return values;
+    }
+
+    /**
+     * Nearest-rank percentile.
+     *
+     * @param values samples, sorted in place
+     * @param p      percentile within [0, 1]
+     * @return the percentile, or 0 if there are no samples
+     */
+    static double percentile(double[] values, double p) {
+        if(values.length == 0)
+            return 0.0;
+        Arrays.sort(values);
+        final int rank = (int) Math.ceil(p * values.length);
+        return values[Math.max(0, Math.min(values.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmorgan.gfx.wavefront;
+
+/**
+ * JMX management interface of {@link ObjLoaderStats}. Times are in milliseconds, percentiles are
+ * computed over the most recent loads.
+ *
+ * @author Hunter N. Morgan
+ */
+public interface ObjLoaderStatsMBean {
+
+    long getLoadCount();
+
+    long getFailureCount();
+
+    long getTotalBytesRead();
+
+    long getTotalVertices();
+
+    long getTotalFaces();
+
+    double getLoadTimeP50();
+
+    double getLoadTimeP90();
+
+    double getLoadTimeP99();
+
+    double getLoadTimeMax();
+
+    double getParseTimeP90();
+
+    double getMtlTimeP90();
+
+    double getTextureDecodeTimeP90();
+
+    double getMeshBuildTimeP90();
+
+    /**
+     * @return median throughput in megabytes (10^6 bytes) per second
+     */
+    double getThroughputMBpsP50();
+
+    /**
+     * @return median bytes allocated per load, or -1 if not measurable on this JVM
+     */
+    double getAllocatedBytesP50();
+
+    String getLastReport();
+
+    void reset();
+}
@@ -1,9 +1,11 @@
 package com.hmorgan.gfx.wavefront;
 
+import com.hmorgan.gfx.GpuUploadScheduler;
 import com.hmorgan.gfx.Mesh;
 import com.jogamp.common.nio.Buffers;
 import gov.nasa.worldwind.geom.*;
 import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
 import gov.nasa.worldwind.pick.PickSupport;
 import gov.nasa.worldwind.render.DrawContext;
 import gov.nasa.worldwind.render.Material;
@@ -15,9 +17,12 @@ import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import java.awt.*;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
@@ -34,29 +39,135 @@ import java.util.stream.Collectors;
  *     <li>'vt' - texture coordinates</li>
  *     <li>'f' - faces</li>
  *     <li>'l' - lines</li>
+ *     <li>'p' - points, drawn as GL_POINTS</li>
  * </ul>
  * Each object in the .OBJ file are represented in this class as a {@link Mesh} object,
  * and are stored in a map keyed by their name.
+ * <p>
+ * The model's position, attitude and scale form a {@link Pose} that is replaced atomically,
+ * so they may be set from any thread while the model is being rendered. Each frame is drawn
+ * with one consistent pose. Fleets of models fed by high-rate telemetry can instead be bound to
+ * a slot of a shared {@link PoseBuffer}.
+ * <p>
+ * Mesh buffers are not uploaded all at once when the model first becomes visible; they are
+ * handed to a {@link GpuUploadScheduler}, which prepares them off the render thread and uploads
+ * them over the following frames. Meshes still waiting are skipped, optionally drawing the
+ * model's bounds as a placeholder.
+ * <p>
+ * Rendered on its own, a model is queued as an ordered renderable and drawn back to front with
+ * the others. In an {@link ObjModelLayer} only translucent models are; opaque ones are drawn in
+ * the layer's pass, in one batch that sets up the drawing state once. Models too small on screen
+ * to show their detail may be drawn as impostors instead, see {@link ImpostorCache}.
  *
  * @author Hunter N. Morgan
  */
 public class ObjModel implements OrderedRenderable {
 
     private Map<String, Mesh> meshes;       // collection of Meshes
+    private Mesh[] meshArray = NO_MESHES;   // meshes.values(), iterated each frame without allocating
+    private Map<String, Mesh> meshArraySource; // map meshArray was taken from, null once it changed
     private Material material;
+    private WavefrontMaterial appliedMaterial; // material, copied to apply without allocating
     private boolean textureDisabled;        // true to disable texture (if available)
     private float opacity;
-    private Position position;              // geographic position of the cube
-    private double roll;                    // roll (degrees)
-    private double pitch;                   // pitch (degrees)
-    private double yaw;                     // yaw (degrees)
-    private double scale;                   // scale (1.0 is normal)
+    private final AtomicReference<Pose> pose; // position, attitude and scale, replaced as a whole by writers
+    private volatile PoseBinding poseBinding; // if set, the pose is read from a PoseBuffer slot instead
+    private LoadReport loadReport;          // telemetry of the load that created the meshes, if loaded from file
+    private ObjAsset asset;                 // shared geometry the meshes belong to, if loaded from file
+    private final AtomicReference<ObjAsset> pendingAsset = new AtomicReference<>(); // replaces asset at the next frame
+    private GpuUploadScheduler uploadScheduler; // gets mesh buffers onto the GPU within a per-frame budget
+    private boolean drawPlaceholder;        // true to draw the bounds while meshes are waiting to upload
+    private volatile boolean occluder;      // bounds may hide other models from an OcclusionCuller
+    private volatile ObjModelLayer.Entry layerEntry; // spatial index entry, if the model is in an ObjModelLayer
+    private volatile RedrawScheduler redrawScheduler; // told about changes, if set
+    private volatile MeshTreeNode meshTree; // part hierarchy, built when first asked for
+    private volatile boolean meshTreeChanged; // a part moved, the tree is updated at the next frame
+    private volatile long visibleFrame = -1L; // timestamp of the last frame the model was drawn in
+    private volatile double localRadius = -1.0; // distance from the origin enclosing all mesh vertices, -1 if unknown
+    private volatile int appearanceVersion; // incremented when material, opacity or texturing change
+    private Object impostorKey;             // appearance shared with other models, render thread
+    private Object impostorGeometry;        // what impostorKey weakly refers to, kept as long as the key is current
+    private int impostorKeyVersion = -1;    // appearanceVersion impostorKey was built for
+    private boolean drawingImpostorView;    // parts aren't culled against the view, render thread
 
     // Determined each frame
     protected long frameTimestamp = -1L;    // frame timestamp, increments during each render cycle
-    protected Vec4 placePoint;              // cartesian position of the cube, computed from #position
-    protected double eyeDistance;           // distance from the eye point to the cube
+    protected Pose framePose;               // pose read once at the start of the frame, used for the whole frame
+    protected Vec4 placePoint;              // cartesian position of the model, computed from the pose's position
+    protected double eyeDistance;           // distance from the eye point to the model
     private Box boundingBox;                // extent of this model which is used to compute frustum intersection
+    private Matrix modelMatrix;             // surface orientation and attitude of the frame pose
+    private double screenSize;              // approximate diameter on screen in pixels, picks upload priority and texture level
+    private final double[] modelviewArray = new double[16]; // modelview matrix of the frame, without the scale
+    private long modelviewFrame = -1L;      // frame timestamp modelviewArray was computed for
+
+    // Derived from the pose, only recomputed when the pose version or the globe changes
+    private long derivedPoseVersion = -1L;
+    private Globe derivedGlobe;
+    private PoseBinding framePoseBinding;   // binding the frame pose was read from, null for #pose
+    private Box localBoundingBox;           // bounds of all mesh vertices in model coordinates
+    private float[] placeholderLines;       // edges of localBoundingBox as GL_LINES vertex pairs
+
+    /**
+     * Slot of a {@link PoseBuffer} a model reads its pose from.
+     */
+    private static final class PoseBinding {
+        final PoseBuffer buffer;
+        final int index;
+
+        PoseBinding(PoseBuffer buffer, int index) {
+            this.buffer = buffer;
+            this.index = index;
+        }
+    }
+
+    /**
+     * What a model looks like, equal for models that would render the same pictures. The
+     * geometry is only referred to weakly, so the pictures kept under the key don't keep the
+     * meshes of models that are gone; once cleared, the key only equals itself.
+     */
+    private static final class AppearanceKey extends WeakReference<Object> {
+        final Material material;
+        final float opacity;
+        final boolean textureDisabled;
+        final int hash;
+
+        AppearanceKey(Object geometry, Material material, float opacity, boolean textureDisabled) {
+            super(geometry);
+            this.material = material;
+            this.opacity = opacity;
+            this.textureDisabled = textureDisabled;
+            this.hash = Objects.hash(System.identityHashCode(geometry), material, opacity, textureDisabled);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof AppearanceKey))
+                return false;
+            final AppearanceKey other = (AppearanceKey) o;
+            // geometry is compared by identity
+            final Object geometry = get();
+            return geometry != null && geometry == other.get()
+                    && Objects.equals(material, other.material)
+                    && Float.compare(opacity, other.opacity) == 0
+                    && textureDisabled == other.textureDisabled;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final Mesh[] NO_MESHES = new Mesh[0];
+
+    // results of cull
+    static final int VISIBLE = 0;
+    static final int FRUSTUM_CULLED = 1;
+    static final int SMALL_CULLED = 2;
+    static final int OCCLUDED = 3;          // set by an OcclusionCuller, never returned by cull
 
     private static final OGLStackHandler oglStackHandler = new OGLStackHandler(); // used in beginDrawing/endDrawing
     protected PickSupport pickSupport = new PickSupport();
@@ -64,32 +175,44 @@ public class ObjModel implements OrderedRenderable {
 
     private ObjModel() {
         opacity = 1.0f;
-        scale = 1.0f;
-        position = Position.ZERO;
+        pose = new AtomicReference<>(Pose.DEFAULT);
+        uploadScheduler = GpuUploadScheduler.getDefault();
+        drawPlaceholder = true;
     }
 
     /**
-     * Constructs a new ObjModel.
+     * Constructs a new ObjModel. The file is only parsed if no other model of it is alive, see
+     * {@link ObjAssetRegistry#getDefault()}.
      *
      * @param fileName String filename of .OBJ file
      * @throws IOException
      */
     public ObjModel(String fileName) throws IOException {
-        this();
-        final ObjLoader objLoader = new ObjLoader();
-        this.meshes = objLoader.loadObjMeshes(fileName);
+        this(ObjAssetRegistry.getDefault().get(ObjLoader.getFilePathFromResources(fileName)));
     }
 
     /**
-     * Constructs a new ObjModel.
+     * Constructs a new ObjModel. The file is only parsed if no other model of it is alive, see
+     * {@link ObjAssetRegistry#getDefault()}.
      *
-     * @param filePath Path to .OBJ file
+     * @param filePath Path to .OBJ file, or glTF file (.gltf or .glb)
      * @throws IOException
      */
     public ObjModel(Path filePath) throws IOException {
+        this(ObjAssetRegistry.getDefault().get(filePath));
+    }
+
+    /**
+     * Constructs a new ObjModel that shares the geometry of an asset. The model has its own pose
+     * and overrides.
+     *
+     * @param asset the asset
+     */
+    public ObjModel(ObjAsset asset) {
         this();
-        final ObjLoader objLoader = new ObjLoader();
-        this.meshes = objLoader.loadObjMeshesV2(filePath);
+        this.asset = asset;
+        this.meshes = asset.getMeshes();
+        this.loadReport = asset.getLoadReport();
     }
 
     /**
@@ -111,16 +234,25 @@ public class ObjModel implements OrderedRenderable {
     public ObjModel(ObjModel other) {
         this.meshes = other.meshes;
         this.opacity = other.opacity;
-        this.position = other.position;
-        this.roll = other.roll;
-        this.pitch = other.pitch;
-        this.yaw = other.yaw;
-        this.scale = other.scale;
+        this.pose = new AtomicReference<>(other.pose.get());
         this.frameTimestamp = other.frameTimestamp;
+        this.framePose = other.framePose;
         this.placePoint = other.placePoint;
         this.eyeDistance = other.eyeDistance;
         this.pickSupport = other.pickSupport;
         this.boundingBox = other.boundingBox;
+        this.modelMatrix = other.modelMatrix;
+        this.derivedPoseVersion = other.derivedPoseVersion;
+        this.derivedGlobe = other.derivedGlobe;
+        this.localBoundingBox = other.localBoundingBox;
+        this.localRadius = other.localRadius;
+        this.loadReport = other.loadReport;
+        this.asset = other.asset;
+        this.uploadScheduler = other.uploadScheduler;
+        this.redrawScheduler = other.redrawScheduler;
+        this.drawPlaceholder = other.drawPlaceholder;
+        this.occluder = other.occluder;
+        this.placeholderLines = other.placeholderLines;
     }
 
     @Override
@@ -137,21 +269,116 @@ public class ObjModel implements OrderedRenderable {
         // 2) As a normal renderable. The cube is added to the ordered renderable queue.
         // 3) As an OrderedRenderable. The cube is drawn.
 
+        if(!isVisible(dc))
+            return;
+
+        final RenderMetrics metrics = RenderMetrics.getInstance();
+        final long start = System.nanoTime();
+        if(dc.isOrderedRenderingMode()) {
+            drawObjModel(dc);
+            metrics.addNanos(dc, dc.isPickingMode() ? RenderMetrics.Timer.DRAW_PICK : RenderMetrics.Timer.DRAW,
+                             System.nanoTime() - start);
+        } else {
+            makeOrderedRenderable(dc);
+            metrics.addNanos(dc, dc.isPickingMode() ? RenderMetrics.Timer.PREPARE_PICK : RenderMetrics.Timer.PREPARE,
+                             System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Brings the frame state up to date, outside ordered rendering, and culls this model.
+     *
+     * @param dc the current draw context
+     * @return false if the model is outside the view frustum or smaller than a pixel
+     */
+    boolean isVisible(DrawContext dc) {
+        final RenderMetrics metrics = RenderMetrics.getInstance();
+        final boolean visiblePass = !dc.isPickingMode() && !dc.isOrderedRenderingMode();
+        if(visiblePass)
+            metrics.add(dc, RenderMetrics.Counter.MODELS_CONSIDERED, 1);
+
+        final int visibility = cull(dc);
+        if(visiblePass && visibility == FRUSTUM_CULLED)
+            metrics.add(dc, RenderMetrics.Counter.MODELS_FRUSTUM_CULLED, 1);
+        else if(visiblePass && visibility == SMALL_CULLED)
+            metrics.add(dc, RenderMetrics.Counter.MODELS_SMALL_CULLED, 1);
+        return visibility == VISIBLE;
+    }
+
+    /**
+     * Does the CPU work of {@link #isVisible(DrawContext)} without taking measurements, so the
+     * models of a layer can be culled on several threads at once. Also computes the modelview
+     * matrix of visible models, so the render thread only has to load it.
+     * <p>
+     * Touches no state shared with other models, once {@link #acquirePoseBuffer(DrawContext)}
+     * was called on the render thread.
+     *
+     * @param dc the current draw context
+     * @return {@link #VISIBLE}, {@link #FRUSTUM_CULLED} or {@link #SMALL_CULLED}
+     */
+    int cull(DrawContext dc) {
+        // bring the bounding box up to date before culling, so a model that moved into view
+        // isn't culled with the bounds of where it used to be
+        if(!dc.isOrderedRenderingMode())
+            updateFrameState(dc);
+
         // if shape does not intersect with frustum or is smaller than a pixel in scale
         // don't render it
         if(boundingBox != null) {
             if(!this.intersectsFrustum(dc))
-                return;
-
+                return FRUSTUM_CULLED;
             if(dc.isSmall(boundingBox, 1))
-                return;
+                return SMALL_CULLED;
         }
+        updateModelviewMatrix(dc);
+        if(!dc.isPickingMode())
+            visibleFrame = dc.getFrameTimeStamp();
+        return VISIBLE;
+    }
 
-        if(dc.isOrderedRenderingMode()) {
-            drawObjModel(dc);
-        } else {
-            makeOrderedRenderable(dc);
+    /**
+     * Acquires this frame's snapshot of the pose buffer the model is bound to, if any. A pose
+     * buffer has one reader, so this must be called on the render thread before the model is
+     * culled on another thread.
+     *
+     * @param dc the current draw context
+     */
+    void acquirePoseBuffer(DrawContext dc) {
+        final PoseBinding binding = this.poseBinding;
+        if(binding != null)
+            binding.buffer.acquire(dc.getFrameTimeStamp());
+    }
+
+    /**
+     * Does the per-frame work of {@link #makeOrderedRenderable(DrawContext)} for a model
+     * {@link #cull(DrawContext)} found visible, without queuing the model, so a layer can draw it
+     * itself with {@link #drawBatched(DrawContext, PickSupport)}.
+     *
+     * @param dc the current draw context, not in ordered rendering mode
+     */
+    void prepare(DrawContext dc) {
+        final long start = System.nanoTime();
+        prepareMeshes(dc);
+        RenderMetrics.getInstance().addNanos(dc, dc.isPickingMode() ? RenderMetrics.Timer.PREPARE_PICK : RenderMetrics.Timer.PREPARE,
+                                             System.nanoTime() - start);
+    }
+
+    /**
+     * @return true if some of this model's geometry is drawn translucent, so it must be drawn
+     * back to front with the other ordered renderables
+     */
+    protected boolean isTranslucent() {
+        if(material != null || meshes.isEmpty())
+            return opacity < 1.0f;
+        for(Mesh mesh : meshArray()) {
+            // same opacity drawMeshes uses
+            final float meshOpacity = mesh.getMaterial().isPresent()
+                    ? mesh.getMaterial().get().getDiffuse().getAlpha() / 255.0f
+                    : opacity;
+            if(meshOpacity < 1.0f)
+                return true;
         }
+        return false;
     }
 
     @Override
@@ -184,15 +411,171 @@ public class ObjModel implements OrderedRenderable {
         if(dc.isPickingMode())
             return dc.getPickFrustums().intersectsAny(boundingBox);
 
-        return dc.getView().getFrustumInModelCoordinates().intersects(boundingBox);
+        return intersects(dc.getView().getFrustumInModelCoordinates(), boundingBox);
+    }
+
+    /**
+     * Tests a box against each plane of a frustum by its extent along the plane normal. Unlike
+     * {@link Frustum#intersects(Extent)}, which clips the box's axis against the planes, this
+     * doesn't allocate, and may keep boxes just outside a corner of the frustum.
+     *
+     * @return false if the box is entirely outside a plane of the frustum
+     */
+    static boolean intersects(Frustum frustum, Box box) {
+        return intersects(frustum.getNear(), box) && intersects(frustum.getFar(), box)
+                && intersects(frustum.getLeft(), box) && intersects(frustum.getRight(), box)
+                && intersects(frustum.getTop(), box) && intersects(frustum.getBottom(), box);
+    }
+
+    private static boolean intersects(Plane plane, Box box) {
+        final Vec4 n = plane.getVector();
+        final Vec4 c = box.getCenter();
+        return n.x * c.x + n.y * c.y + n.z * c.z + n.w > -box.getEffectiveRadius(plane);
+    }
+
+    /**
+     * Reads the pose for this frame and updates everything derived from it. Pose-derived state
+     * (place point, model matrix and bounding box) is only recomputed when the pose version or
+     * the globe changed since it was last computed. Called at most once per frame, by the model
+     * itself or by the {@link ObjModelLayer} indexing it.
+     *
+     * @param dc the current draw context
+     */
+    void updateFrameState(DrawContext dc) {
+        // This method is called twice each frame: once during picking and once during rendering. We only need to
+        // compute the placePoint and eye distance once per frame, so check the frame timestamp to see if this is a
+        // new frame.
+        if(dc.getFrameTimeStamp() == this.frameTimestamp)
+            return;
+
+        // a new asset is only swapped in between frames, so both passes draw the same meshes
+        final ObjAsset nextAsset = pendingAsset.getAndSet(null);
+        if(nextAsset != null)
+            swapAsset(nextAsset);
+
+        final MeshTreeNode tree = meshTree;
+        if(tree != null && meshTreeChanged) {
+            // only the moved parts' matrices and the bounds above them are recomputed
+            meshTreeChanged = false;
+            tree.update();
+            localBoundingBox = null;
+            placeholderLines = null;
+            derivedPoseVersion = -1L;
+        }
+
+        // Read the pose exactly once, the whole frame is drawn with this snapshot even if a
+        // producer thread publishes a new pose in the meantime.
+        this.framePose = readPose(dc);
+
+        if(framePose.getVersion() != derivedPoseVersion || dc.getGlobe() != derivedGlobe) {
+            // Convert the model's geographic position to a position in Cartesian coordinates.
+            this.placePoint = dc.getGlobe().computePointFromPosition(framePose.getPosition());
+
+            this.modelMatrix = computeModelMatrix(dc, framePose);
+
+            // Compute bounding box for frustum intersection calculation
+            this.boundingBox = computeBoundingBox(framePose);
+
+            this.derivedPoseVersion = framePose.getVersion();
+            this.derivedGlobe = dc.getGlobe();
+        }
+
+        // Compute the distance from the eye to the model's position.
+        this.eyeDistance = dc.getView().getEyePoint().distanceTo3(this.placePoint);
+        this.screenSize = computeScreenSize(dc);
+
+        this.frameTimestamp = dc.getFrameTimeStamp();
+    }
+
+    private void swapAsset(ObjAsset nextAsset) {
+        asset = nextAsset;
+        meshes = nextAsset.getMeshes();
+        final MeshTreeNode previousTree = meshTree;
+        if(previousTree != null) {
+            // the parts of the new geometry keep where they were moved to
+            final MeshTreeNode tree = MeshTreeNode.build(meshes.values(), this::meshTreeChanged);
+            tree.copyTransformsFrom(previousTree);
+            meshTree = tree;
+            meshTreeChanged = true;
+        }
+        loadReport = nextAsset.getLoadReport();
+        appearanceVersion++;
+        // bounds are recomputed for the new meshes
+        localBoundingBox = null;
+        localRadius = -1.0;
+        placeholderLines = null;
+        derivedPoseVersion = -1L;
+    }
+
+    /**
+     * @param dc the current draw context
+     * @return approximate diameter of this model on screen, in pixels
+     */
+    private double computeScreenSize(DrawContext dc) {
+        if(boundingBox == null)
+            return 0.0;
+        final double pixelSize = dc.getView().computePixelSizeAtDistance(Math.max(1.0, eyeDistance));
+        return 2.0 * boundingBox.getRadius() / pixelSize;
+    }
+
+    /**
+     * Reads the pose for this frame, either the published {@link Pose} or the bound
+     * {@link PoseBuffer} slot. A pose buffer slot is only turned into a {@link Pose} when
+     * its version changed.
+     *
+     * @param dc the current draw context
+     * @return the pose to draw this frame with
+     */
+    private Pose readPose(DrawContext dc) {
+        final PoseBinding binding = this.poseBinding;
+        if(binding != framePoseBinding) {
+            // switched pose source, versions of the old and new source aren't comparable
+            framePoseBinding = binding;
+            framePose = null;
+            derivedPoseVersion = -1L;
+        }
+        if(binding == null)
+            return pose.get();
+
+        final PoseBuffer.Snapshot snapshot = binding.buffer.acquire(dc.getFrameTimeStamp());
+        if(framePose != null && framePose.getVersion() == snapshot.getVersion(binding.index))
+            return framePose;
+        return snapshot.getPose(binding.index);
     }
 
     /**
      * Computes the bounding box of this ObjModel, which includes all of the meshes.
      *
-     * @param dc the active draw context
+     * @param framePose the pose to compute the bounding box for
+     */
+    private Box computeBoundingBox(Pose framePose) {
+        // the meshes don't change, so the bounds of their vertices only need computing once
+        if(localBoundingBox == null) {
+            final MeshTreeNode tree = meshTree;
+            localBoundingBox = tree != null ? tree.getBounds() : computeLocalBoundingBox();
+            if(localBoundingBox == null)
+                return null;
+            localRadius = localBoundingBox.getCenter().getLength3() + localBoundingBox.getRadius();
+        }
+
+        // compute the bounding box then transform the vertices by the modelview matrix
+        // instead of transforming all the coords, we can just transform the corners of
+        // the bounding box, much faster!
+        final Matrix scaledModelMatrix = modelMatrix.multiply(Matrix.fromScale(framePose.getScale()));
+        final Vec4[] corners = localBoundingBox.getCorners();
+        for(int i = 0; i < corners.length; i++)
+            corners[i] = corners[i].transformBy4(scaledModelMatrix);
+
+        return Box.computeBoundingBox(Arrays.asList(corners));
+    }
+
+    /**
+     * Computes the bounds of this model in model coordinates. Called once, the first time the
+     * model's bounding box is needed.
+     *
+     * @return the bounds of all mesh vertices, or null if there are none
      */
-    private Box computeBoundingBox(DrawContext dc) {
+    protected Box computeLocalBoundingBox() {
         // create a List<Vec4> from all of our meshs' vertices
         final List<Vec4> verts = meshes
                 .values()
@@ -200,43 +583,65 @@ public class ObjModel implements OrderedRenderable {
                 .flatMap(mesh -> mesh.getVertices().stream())
                 .map(vertex -> new Vec4(vertex.getPosition().getX(), vertex.getPosition().getY(), vertex.getPosition().getZ(), 1f))
                 .collect(Collectors.toList());
-
-        // compute the bounding box then transform the vertices by the modelview matrix
-        // instead of transforming all the coords, we can just transform the corners of
-        // the bounding box, much faster!
-        final Matrix modelMatrix = computeModelMatrix(dc).multiply(Matrix.fromScale(scale));
-        final List<Vec4> transformedCorners =
-                Arrays.stream(Box.computeBoundingBox(verts).getCorners())
-                        .map(vec4 -> vec4.transformBy4(modelMatrix))
-                        .collect(Collectors.toList());
-
-        return Box.computeBoundingBox(transformedCorners);
+        return Box.computeBoundingBox(verts);
     }
 
     /**
      * Computes the Model matrix
      *
      * @param dc the current draw context
+     * @param framePose the pose to compute the matrix for
      * @return the Model matrix
      */
-    private Matrix computeModelMatrix(DrawContext dc) {
-        final Matrix attitudeMatrix = Matrix.fromRotationZ(Angle.fromDegrees(-yaw))
-                .multiply(Matrix.fromRotationX(Angle.fromDegrees(pitch)))
-                .multiply(Matrix.fromRotationY(Angle.fromDegrees(roll)));
+    private Matrix computeModelMatrix(DrawContext dc, Pose framePose) {
+        final Matrix attitudeMatrix = Matrix.fromRotationZ(Angle.fromDegrees(-framePose.getYaw()))
+                .multiply(Matrix.fromRotationX(Angle.fromDegrees(framePose.getPitch())))
+                .multiply(Matrix.fromRotationY(Angle.fromDegrees(framePose.getRoll())));
 
         return dc.getGlobe()
-                .computeSurfaceOrientationAtPosition(this.position)
+                .computeSurfaceOrientationAtPosition(framePose.getPosition())
                 .multiply(attitudeMatrix);
     }
 
     /**
-     * Computes the Model-View matrix for this object.
+     * Computes the Model-View matrix for this object, once per frame.
      *
      * @param dc the active draw context
-     * @return the Model-View matrix
      */
-    private Matrix computeModelViewMatrix(DrawContext dc) {
-        return dc.getView().getModelviewMatrix().multiply(computeModelMatrix(dc));
+    private void updateModelviewMatrix(DrawContext dc) {
+        if(modelMatrix == null)
+            updateFrameState(dc);
+        if(modelviewFrame == dc.getFrameTimeStamp())
+            return;
+        multiplyColumnMajor(dc.getView().getModelviewMatrix(), modelMatrix, modelviewArray);
+        modelviewFrame = dc.getFrameTimeStamp();
+    }
+
+    /**
+     * Multiplies two matrices into an array in the column major order of glLoadMatrixd, without
+     * allocating a Matrix for the product.
+     *
+     * @param a      left matrix
+     * @param b      right matrix
+     * @param result receives a * b
+     */
+    static void multiplyColumnMajor(Matrix a, Matrix b, double[] result) {
+        result[0] = a.m11 * b.m11 + a.m12 * b.m21 + a.m13 * b.m31 + a.m14 * b.m41;
+        result[1] = a.m21 * b.m11 + a.m22 * b.m21 + a.m23 * b.m31 + a.m24 * b.m41;
+        result[2] = a.m31 * b.m11 + a.m32 * b.m21 + a.m33 * b.m31 + a.m34 * b.m41;
+        result[3] = a.m41 * b.m11 + a.m42 * b.m21 + a.m43 * b.m31 + a.m44 * b.m41;
+        result[4] = a.m11 * b.m12 + a.m12 * b.m22 + a.m13 * b.m32 + a.m14 * b.m42;
+        result[5] = a.m21 * b.m12 + a.m22 * b.m22 + a.m23 * b.m32 + a.m24 * b.m42;
+        result[6] = a.m31 * b.m12 + a.m32 * b.m22 + a.m33 * b.m32 + a.m34 * b.m42;
+        result[7] = a.m41 * b.m12 + a.m42 * b.m22 + a.m43 * b.m32 + a.m44 * b.m42;
+        result[8] = a.m11 * b.m13 + a.m12 * b.m23 + a.m13 * b.m33 + a.m14 * b.m43;
+        result[9] = a.m21 * b.m13 + a.m22 * b.m23 + a.m23 * b.m33 + a.m24 * b.m43;
+        result[10] = a.m31 * b.m13 + a.m32 * b.m23 + a.m33 * b.m33 + a.m34 * b.m43;
+        result[11] = a.m41 * b.m13 + a.m42 * b.m23 + a.m43 * b.m33 + a.m44 * b.m43;
+        result[12] = a.m11 * b.m14 + a.m12 * b.m24 + a.m13 * b.m34 + a.m14 * b.m44;
+        result[13] = a.m21 * b.m14 + a.m22 * b.m24 + a.m23 * b.m34 + a.m24 * b.m44;
+        result[14] = a.m31 * b.m14 + a.m32 * b.m24 + a.m33 * b.m34 + a.m34 * b.m44;
+        result[15] = a.m41 * b.m14 + a.m42 * b.m24 + a.m43 * b.m34 + a.m44 * b.m44;
     }
 
     /**
@@ -246,6 +651,17 @@ public class ObjModel implements OrderedRenderable {
      * @param dc Active draw context.
      */
     public void beginDrawing(DrawContext dc) {
+        beginBatch(dc);
+        loadModelviewMatrix(dc);
+    }
+
+    /**
+     * Sets up the drawing state shared by all models, so several models can be drawn with one
+     * state setup. Must be followed by {@link #endBatch(DrawContext)}.
+     *
+     * @param dc Active draw context.
+     */
+    static void beginBatch(DrawContext dc) {
         final GL2 gl = dc.getGL().getGL2();
         final int attrMask = GL2.GL_CURRENT_BIT
                 | GL2.GL_DEPTH_BUFFER_BIT
@@ -289,15 +705,21 @@ public class ObjModel implements OrderedRenderable {
         }
 
         gl.glDisable(GL.GL_CULL_FACE);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+    }
 
+    /**
+     * Loads this model's modelview matrix, without its scale.
+     *
+     * @param dc Active draw context.
+     */
+    private void loadModelviewMatrix(DrawContext dc) {
+        final GL2 gl = dc.getGL().getGL2();
         // Multiply the modelview matrix by a surface orientation matrix to set up a local coordinate system with the
         // origin at the cube's center position, the Y axis pointing North, the X axis pointing East, and the Z axis
         // normal to the globe.
-        gl.glMatrixMode(GL2.GL_MODELVIEW);
-        final Matrix matrix = computeModelViewMatrix(dc);
-        double[] matrixArray = new double[16];
-        matrix.toArray(matrixArray, 0, false);
-        gl.glLoadMatrixd(matrixArray, 0);
+        updateModelviewMatrix(dc);
+        gl.glLoadMatrixd(modelviewArray, 0);
     }
 
     /**
@@ -306,6 +728,15 @@ public class ObjModel implements OrderedRenderable {
      * @param dc Active draw context.
      */
     public void endDrawing(DrawContext dc) {
+        endBatch(dc);
+    }
+
+    /**
+     * Restores the drawing state changed by {@link #beginBatch(DrawContext)}.
+     *
+     * @param dc Active draw context.
+     */
+    static void endBatch(DrawContext dc) {
         final GL2 gl = dc.getGL().getGL2();
 
         if(!dc.isPickingMode()) {
@@ -335,26 +766,7 @@ public class ObjModel implements OrderedRenderable {
      * @param dc Current draw context.
      */
     protected void makeOrderedRenderable(DrawContext dc) {
-        meshes.values()
-                .stream()
-                .filter(mesh -> !mesh.isGeneratedGlBuffers())
-                .forEach(mesh -> mesh.genGlBuffers(dc));
-
-        // This method is called twice each frame: once during picking and once during rendering. We only need to
-        // compute the placePoint and eye distance once per frame, so check the frame timestamp to see if this is a
-        // new frame.
-        if(dc.getFrameTimeStamp() != this.frameTimestamp) {
-            // Convert the cube's geographic position to a position in Cartesian coordinates.
-            this.placePoint = dc.getGlobe().computePointFromPosition(this.position);
-
-            // Compute the distance from the eye to the cube's position.
-            this.eyeDistance = dc.getView().getEyePoint().distanceTo3(this.placePoint);
-
-            // Compute bounding box for frustum intersection calculation
-            this.boundingBox = computeBoundingBox(dc);
-
-            this.frameTimestamp = dc.getFrameTimeStamp();
-        }
+        prepareMeshes(dc);
 
         // Add the cube to the ordered renderable list. The SceneController sorts the ordered renderables by eye
         // distance, and then renders them back to front. render will be called again in ordered rendering mode, and at
@@ -362,6 +774,59 @@ public class ObjModel implements OrderedRenderable {
         dc.addOrderedRenderable(this);
     }
 
+    /**
+     * Updates the frame state and the meshes, and uploads the meshes that aren't on the GPU yet
+     * within the upload budget.
+     *
+     * @param dc Current draw context.
+     */
+    private void prepareMeshes(DrawContext dc) {
+        updateFrameState(dc);
+        updateMeshes(dc);
+        if(asset != null)
+            asset.getRegistry().releaseCollected(dc);   // buffers of assets no model uses anymore
+
+        // queue meshes that aren't on the GPU yet, the bigger the model is on screen the sooner
+        // they get uploaded
+        final double priority = screenSize;
+        for(Mesh mesh : meshArray()) {
+            if(!mesh.isGlBufferReady())
+                uploadScheduler.request(mesh, priority);
+        }
+        final int uploads = uploadScheduler.processUploads(dc);
+        if(uploads > 0)
+            RenderMetrics.getInstance().add(dc, RenderMetrics.Counter.BUFFER_UPLOADS, uploads);
+    }
+
+    /**
+     * Called once the frame state is up to date and before the meshes are queued for upload, so
+     * subclasses that manage their meshes, e.g. by loading them on demand, can update the mesh
+     * map. Called on the render thread, in both the picking and the rendering pass.
+     *
+     * @param dc Current draw context.
+     */
+    protected void updateMeshes(DrawContext dc) {
+    }
+
+    /**
+     * Must be called by subclasses after they add meshes to or remove meshes from the map of
+     * {@link #getMeshes()}, so the next frame draws the new set.
+     */
+    protected void meshesChanged() {
+        meshArraySource = null;
+    }
+
+    /**
+     * @return the meshes, as an array that is only rebuilt when they change
+     */
+    private Mesh[] meshArray() {
+        if(meshArraySource != meshes) {
+            meshArray = meshes.values().toArray(NO_MESHES);
+            meshArraySource = meshes;
+        }
+        return meshArray;
+    }
+
     /**
      * Draws this Obj model.
      *
@@ -371,53 +836,195 @@ public class ObjModel implements OrderedRenderable {
         final GL2 gl = dc.getGL().getGL2();
         beginDrawing(dc);
         try {
+            drawContents(dc, pickSupport);
+        } finally {
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+            endDrawing(dc);
+        }
+    }
 
-            if (dc.isPickingMode()) {
-                Color pickColor = dc.getUniquePickColor();
-                pickSupport.addPickableObject(pickColor.getRGB(), this, this.position);
-                gl.glColor3ub((byte) pickColor.getRed(), (byte) pickColor.getGreen(), (byte) pickColor.getBlue());
-            }
+    /**
+     * Draws this model between {@link #beginBatch(DrawContext)} and
+     * {@link #endBatch(DrawContext)}, along with other models that share the drawing state.
+     *
+     * @param dc          Current draw context.
+     * @param pickSupport collects the pick colors of the batch in picking mode
+     */
+    void drawBatched(DrawContext dc, PickSupport pickSupport) {
+        loadModelviewMatrix(dc);
+        drawContents(dc, pickSupport);
+    }
 
+    /**
+     * Draws the placeholder and the meshes, once the modelview matrix of this model is loaded.
+     */
+    private void drawContents(DrawContext dc, PickSupport pickSupport) {
+        final GL2 gl = dc.getGL().getGL2();
+        if(!dc.isPickingMode())
+            RenderMetrics.getInstance().add(dc, RenderMetrics.Counter.MODELS_DRAWN, 1);
 
-            gl.glScaled(scale, scale, scale);
-            // for each mesh, draw it
-            meshes.values().forEach(mesh -> {
-                final int strideCount = (mesh.getTexture().isPresent()) ? 8 : 6;
-                final int vboBufNumVerts = (mesh.getVboBuf().limit() / strideCount);
-                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, mesh.getVboIds()[0]);
-                gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, mesh.getEboIds()[0]);
+        if (dc.isPickingMode()) {
+            Color pickColor = dc.getUniquePickColor();
+            pickSupport.addPickableObject(pickColor.getRGB(), this, framePose.getPosition());
+            gl.glColor3ub((byte) pickColor.getRed(), (byte) pickColor.getGreen(), (byte) pickColor.getBlue());
+        }
 
-                final int stride = Buffers.SIZEOF_FLOAT * strideCount;
-                // VBO layout: vvvnnnttvvvnnntt or just vvvnnnvvvnnn (interleaved)
-                gl.glVertexPointer(3, GL.GL_FLOAT, stride, 0);
+        final double scale = framePose.getScale();
+        gl.glScaled(scale, scale, scale);
 
-                if (!dc.isPickingMode())
-                    gl.glNormalPointer(GL.GL_FLOAT, stride, Buffers.SIZEOF_FLOAT * 3);
+        if(drawPlaceholder && hasMeshWaitingForUpload())
+            drawPlaceholder(dc);
 
-                if (!dc.isPickingMode() && !textureDisabled && mesh.getTexture().isPresent() && mesh.getTexture().get().bind(dc)) {
-                    gl.glEnable(GL.GL_TEXTURE_2D);
-                    gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-                    gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
-                    gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_REPEAT);
-                    gl.glTexCoordPointer(2, GL.GL_FLOAT, stride, Buffers.SIZEOF_FLOAT * 6);
-                }
+        drawMeshes(dc);
+    }
 
-                float opacityToUse = opacity;
-                Material materialToUse = null;
-                if(this.material != null) {
-                    // use override material
-                    materialToUse = this.material;
-                } else if(mesh.getMaterial().isPresent()) {
-                    // use mesh material
-                    // use mesh opacity
-                    materialToUse = mesh.getMaterial().get();
-                    opacityToUse = materialToUse.getDiffuse().getAlpha() / 255.0f;
-                } else {
-                    // use fallback material
-                    materialToUse = Material.GRAY;
-                }
+    /**
+     * Draws the meshes of this model, in model coordinates scaled by the pose scale. Called by
+     * drawObjModel between beginDrawing and endDrawing, or in a batch of models sharing that
+     * state; subclasses that draw other geometry override this, and must restore the state they
+     * change so the next model of the batch isn't affected.
+     *
+     * @param dc Current draw context.
+     */
+    protected void drawMeshes(DrawContext dc) {
+        final GL2 gl = dc.getGL().getGL2();
+        final RenderMetrics metrics = RenderMetrics.getInstance();
+        final boolean countDraws = !dc.isPickingMode();
 
-                if (opacityToUse < 1.0f) {
+        // textures are bound at the resolution the model's size on screen calls for
+
+        // for each mesh, draw it, the parts of an articulated model in their own place
+        final MeshTreeNode tree = meshTree;
+        if(tree == null) {
+            for(Mesh mesh : meshArray())
+                drawMesh(dc, gl, mesh, metrics, countDraws);
+        } else {
+            drawNode(dc, gl, tree, metrics, countDraws);
+        }
+    }
+
+    /**
+     * Draws the meshes of a part and its sub-parts that are in view.
+     */
+    private void drawNode(DrawContext dc, GL2 gl, MeshTreeNode node, RenderMetrics metrics, boolean countDraws) {
+        if(node.getParent() != null && !dc.isPickingMode() && !drawingImpostorView && !isNodeInView(dc, node))
+            return;
+        final List<Mesh> nodeMeshes = node.meshes();
+        if(!nodeMeshes.isEmpty()) {
+            // node matrices are relative to the model's origin, not to the parent
+            final boolean transformed = !node.isIdentity();
+            if(transformed) {
+                gl.glPushMatrix();
+                gl.glMultMatrixd(node.getWorldArray(), 0);
+            }
+            for(int i = 0; i < nodeMeshes.size(); i++)
+                drawMesh(dc, gl, nodeMeshes.get(i), metrics, countDraws);
+            if(transformed)
+                gl.glPopMatrix();
+        }
+        final List<MeshTreeNode> children = node.children();
+        for(int i = 0; i < children.size(); i++)
+            drawNode(dc, gl, children.get(i), metrics, countDraws);
+    }
+
+    /**
+     * @return false if the bounds of the part are entirely outside the view frustum
+     */
+    private boolean isNodeInView(DrawContext dc, MeshTreeNode node) {
+        if(node.getBounds() == null)
+            return false;
+        // center in model coordinates to Cartesian, without allocating
+        final double scale = framePose.getScale();
+        final double x = node.getCenterX() * scale, y = node.getCenterY() * scale, z = node.getCenterZ() * scale;
+        final Matrix m = modelMatrix;
+        final double cx = m.m11 * x + m.m12 * y + m.m13 * z + m.m14;
+        final double cy = m.m21 * x + m.m22 * y + m.m23 * z + m.m24;
+        final double cz = m.m31 * x + m.m32 * y + m.m33 * z + m.m34;
+        final double r = node.getRadius() * Math.abs(scale);
+        final Frustum frustum = dc.getView().getFrustumInModelCoordinates();
+        return inFront(frustum.getNear(), cx, cy, cz, r) && inFront(frustum.getFar(), cx, cy, cz, r)
+                && inFront(frustum.getLeft(), cx, cy, cz, r) && inFront(frustum.getRight(), cx, cy, cz, r)
+                && inFront(frustum.getTop(), cx, cy, cz, r) && inFront(frustum.getBottom(), cx, cy, cz, r);
+    }
+
+    private static boolean inFront(Plane plane, double x, double y, double z, double radius) {
+        final Vec4 n = plane.getVector();
+        final double length = Math.sqrt(n.x * n.x + n.y * n.y + n.z * n.z);
+        return n.x * x + n.y * y + n.z * z + n.w > -radius * length;
+    }
+
+    /**
+     * Returns the vertex buffer a mesh is drawn from, by default the one uploaded for the mesh.
+     * Subclasses that compute vertices every frame, e.g. to animate them, return their own buffer
+     * of the mesh's layout. Called on the render thread once the mesh's buffers are uploaded.
+     *
+     * @param mesh the mesh about to be drawn
+     * @return name of the GL buffer
+     */
+    protected int getVertexBufferId(Mesh mesh) {
+        return mesh.getVboIds()[0];
+    }
+
+    /**
+     * Draws one mesh, with the modelview matrix of the model or of its part loaded.
+     */
+    private void drawMesh(DrawContext dc, GL2 gl, Mesh mesh, RenderMetrics metrics, boolean countDraws) {
+        if(!mesh.isGlBufferReady())
+            return;     // still waiting for the upload scheduler
+
+        final int strideCount = (mesh.getTexture().isPresent()) ? 8 : 6;
+        final int vboBufNumVerts = (mesh.getVboBuf().limit() / strideCount);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, getVertexBufferId(mesh));
+        final int[] eboIds = mesh.getEboIds();    // meshes built from a vertex buffer may have no indices
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, eboIds != null ? eboIds[0] : 0);
+
+        final int stride = Buffers.SIZEOF_FLOAT * strideCount;
+        // VBO layout: vvvnnnttvvvnnntt or just vvvnnnvvvnnn (interleaved)
+        gl.glVertexPointer(3, GL.GL_FLOAT, stride, 0);
+
+        if (!dc.isPickingMode())
+            gl.glNormalPointer(GL.GL_FLOAT, stride, Buffers.SIZEOF_FLOAT * 3);
+
+        if (!dc.isPickingMode() && !textureDisabled && mesh.getTexture().isPresent() && mesh.getTexture().get().bind(dc, screenSize)) {
+            gl.glEnable(GL.GL_TEXTURE_2D);
+            gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_REPEAT);
+            gl.glTexCoordPointer(2, GL.GL_FLOAT, stride, Buffers.SIZEOF_FLOAT * 6);
+        }
+
+        float opacityToUse = opacity;
+        WavefrontMaterial materialToUse = null;
+        if(this.appliedMaterial != null) {
+            // use override material
+            materialToUse = this.appliedMaterial;
+        } else if(mesh.getMaterial().isPresent()) {
+            // use mesh material
+            // use mesh opacity
+            materialToUse = mesh.getMaterial().get();
+            opacityToUse = materialToUse.getDiffuse().getAlpha() / 255.0f;
+        } else {
+            // use fallback material
+            materialToUse = WavefrontMaterial.GRAY;
+        }
+
+        if(mesh.getMeshType() == Mesh.MeshType.POINTS_MESH) {
+            // points have no normals to light, they are drawn in the diffuse color
+            if(!dc.isPickingMode()) {
+                final Color diffuse = materialToUse.getDiffuse();
+                gl.glDisable(GL2.GL_LIGHTING);
+                gl.glColor4f(diffuse.getRed() / 255.0f, diffuse.getGreen() / 255.0f,
+                             diffuse.getBlue() / 255.0f, opacityToUse);
+            }
+            gl.glDrawArrays(GL.GL_POINTS, 0, vboBufNumVerts);
+            if(!dc.isPickingMode())
+                gl.glEnable(GL2.GL_LIGHTING);
+            if(countDraws) {
+                metrics.add(dc, RenderMetrics.Counter.DRAW_CALLS, 1);
+                metrics.add(dc, RenderMetrics.Counter.POINTS_DRAWN, vboBufNumVerts);
+            }
+        } else if (opacityToUse < 1.0f) {
 //                    gl.glDepthMask(false);
 
 //                    final float f = 0.75f; // attenuation factor
@@ -461,32 +1068,158 @@ public class ObjModel implements OrderedRenderable {
 //
 //                    gl.glDisable(GL.GL_CULL_FACE);
 //                    gl.glDepthFunc(GL.GL_LEQUAL);
-                    // cheap trick to achieve transparency
-                    // need to render all back faces first then all front faces using culling
-                    if(!dc.isPickingMode())
-                        materialToUse.apply(gl, GL2.GL_FRONT_AND_BACK, opacityToUse);
-                    gl.glEnable(GL.GL_CULL_FACE);
-                    gl.glCullFace(GL.GL_FRONT);
-                    gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
-                    gl.glCullFace(GL.GL_BACK);
-                    gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
-                    gl.glDisable(GL.GL_CULL_FACE);
-                } else {
-                    if(!dc.isPickingMode())
-                        materialToUse.apply(gl, GL2.GL_FRONT_AND_BACK, opacityToUse);
-                    gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
-                }
+            // cheap trick to achieve transparency
+            // need to render all back faces first then all front faces using culling
+            if(!dc.isPickingMode())
+                materialToUse.apply(gl, GL2.GL_FRONT_AND_BACK, opacityToUse);
+            gl.glEnable(GL.GL_CULL_FACE);
+            gl.glCullFace(GL.GL_FRONT);
+            gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
+            gl.glCullFace(GL.GL_BACK);
+            gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
+            gl.glDisable(GL.GL_CULL_FACE);
+            if(countDraws) {
+                metrics.add(dc, RenderMetrics.Counter.DRAW_CALLS, 2);
+                metrics.add(dc, RenderMetrics.Counter.TRIANGLES_DRAWN, 2 * (vboBufNumVerts / 3));
+            }
+        } else {
+            if(!dc.isPickingMode())
+                materialToUse.apply(gl, GL2.GL_FRONT_AND_BACK, opacityToUse);
+            gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
+            if(countDraws) {
+                metrics.add(dc, RenderMetrics.Counter.DRAW_CALLS, 1);
+                metrics.add(dc, RenderMetrics.Counter.TRIANGLES_DRAWN, vboBufNumVerts / 3);
+            }
+        }
+        if(countDraws)
+            metrics.add(dc, RenderMetrics.Counter.MESHES_DRAWN, 1);
+
+        if (!textureDisabled && mesh.getTexture().isPresent() && !dc.isPickingMode()) {
+            gl.glDisable(GL.GL_TEXTURE_2D);
+            gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+        }
+//            gl.glDrawElements(GL.GL_TRIANGLES, mesh.getIndices().get().limit(), GL.GL_UNSIGNED_INT, 0);
+    }
 
-                if (!textureDisabled && mesh.getTexture().isPresent() && !dc.isPickingMode()) {
-                    gl.glDisable(GL.GL_TEXTURE_2D);
-                    gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+    /**
+     * @return true if some geometry of this model isn't ready to be drawn yet
+     */
+    protected boolean hasMeshWaitingForUpload() {
+        for(Mesh mesh : meshArray()) {
+            if(!mesh.isGlBufferReady())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Draws the edges of the model's bounds, in model coordinates, as a stand-in for meshes
+     * that haven't been uploaded yet.
+     *
+     * @param dc Current draw context.
+     */
+    private void drawPlaceholder(DrawContext dc) {
+        if(localBoundingBox == null)
+            return;
+        if(placeholderLines == null)
+            placeholderLines = computeBoxEdges(localBoundingBox.getCorners());
+
+        final GL2 gl = dc.getGL().getGL2();
+        final boolean lighting = !dc.isPickingMode();
+        if(lighting) {
+            gl.glDisable(GL2.GL_LIGHTING);
+            gl.glColor3f(0.7f, 0.7f, 0.7f);
+        }
+        gl.glBegin(GL.GL_LINES);
+        try {
+            for(int i = 0; i < placeholderLines.length; i += 3)
+                gl.glVertex3f(placeholderLines[i], placeholderLines[i + 1], placeholderLines[i + 2]);
+        } finally {
+            gl.glEnd();
+            if(lighting)
+                gl.glEnable(GL2.GL_LIGHTING);
+        }
+    }
+
+    /**
+     * Finds the 12 edges of a box given its 8 corners in any order: every corner is joined by an
+     * edge to its three nearest corners.
+     *
+     * @param corners the box corners
+     * @return edge endpoints, xyz of 2 vertices per edge
+     */
+    private static float[] computeBoxEdges(Vec4[] corners) {
+        final List<Float> lines = new ArrayList<>();
+        for(int i = 0; i < corners.length; i++) {
+            final Integer[] others = new Integer[corners.length - 1];
+            for(int j = 0, k = 0; j < corners.length; j++) {
+                if(j != i)
+                    others[k++] = j;
+            }
+            final Vec4 corner = corners[i];
+            Arrays.sort(others, Comparator.comparingDouble(j -> corner.distanceTo3(corners[j])));
+            for(int n = 0; n < 3; n++) {
+                final int j = others[n];
+                if(j < i)
+                    continue;   // added from the other end
+                for(Vec4 v : new Vec4[]{corners[i], corners[j]}) {
+                    lines.add((float) v.x);
+                    lines.add((float) v.y);
+                    lines.add((float) v.z);
                 }
-//                gl.glDrawElements(GL.GL_TRIANGLES, mesh.getIndices().get().limit(), GL.GL_UNSIGNED_INT, 0);
-            });
+            }
+        }
+        final float[] result = new float[lines.size()];
+        for(int i = 0; i < result.length; i++)
+            result[i] = lines.get(i);
+        return result;
+    }
+
+    /**
+     * @return true if {@link #render(DrawContext)} must be called every frame, even while the
+     * model is off screen, e.g. to release geometry it no longer needs. A spatially indexed
+     * layer doesn't cull such models.
+     */
+    boolean isRenderedEveryFrame() {
+        return false;
+    }
+
+    /**
+     * Returns the key an {@link ImpostorCache} shares the pictures of this model under. Models
+     * with equal keys look the same from the same direction: they draw the same meshes with the
+     * same material, opacity and texturing. A model whose parts were moved through its
+     * {@link #getMeshTree() mesh tree} looks like no other. The key refers to the meshes weakly
+     * and is cleared once no model has them, which lets the cache drop their pictures. Called on
+     * the render thread.
+     *
+     * @return the key, or null if the model can't be drawn as an impostor, e.g. because it
+     * changes every frame
+     */
+    protected Object getImpostorKey() {
+        // read the version first, a change made while the key is built is seen at the next call
+        final int version = appearanceVersion;
+        if(impostorKey == null || version != impostorKeyVersion) {
+            impostorGeometry = meshes.isEmpty() ? null : meshTree == null ? meshes : new Object();
+            impostorKey = impostorGeometry == null
+                    ? null
+                    : new AppearanceKey(impostorGeometry, material, opacity, textureDisabled);
+            impostorKeyVersion = version;
+        }
+        return impostorKey;
+    }
+
+    /**
+     * Draws the meshes of this model, without its pose and scale and without culling its parts
+     * against the view, into the atlas cell an {@link ImpostorCache} set up.
+     *
+     * @param dc the current draw context
+     */
+    void drawImpostorView(DrawContext dc) {
+        drawingImpostorView = true;
+        try {
+            drawMeshes(dc);
         } finally {
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
-            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
-            endDrawing(dc);
+            drawingImpostorView = false;
         }
     }
 
@@ -494,18 +1227,278 @@ public class ObjModel implements OrderedRenderable {
     // GETTERS AND SETTERS
     ////////////////////////
 
+    /**
+     * @return world bounds of this model for the current frame's pose, or null if they aren't
+     * known yet
+     */
+    Box getBoundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * @return approximate diameter of this model on screen in the current frame, in pixels
+     */
+    double getScreenSize() {
+        return screenSize;
+    }
+
+    /**
+     * @return true if the pose is read from a {@link PoseBuffer}
+     */
+    boolean isPoseBufferBound() {
+        return poseBinding != null;
+    }
+
+    ObjModelLayer.Entry getLayerEntry() {
+        return layerEntry;
+    }
+
+    void setLayerEntry(ObjModelLayer.Entry layerEntry) {
+        this.layerEntry = layerEntry;
+    }
+
+    /**
+     * @return surface orientation and attitude of this frame's pose, without its scale, or null
+     * before the model was first rendered
+     */
+    protected Matrix getModelMatrix() {
+        return modelMatrix;
+    }
+
+    public GpuUploadScheduler getUploadScheduler() {
+        return uploadScheduler;
+    }
+
+    /**
+     * Sets the scheduler that uploads this model's meshes. Models sharing a scheduler share its
+     * per-frame upload budget.
+     *
+     * @param uploadScheduler the scheduler
+     */
+    public void setUploadScheduler(GpuUploadScheduler uploadScheduler) {
+        this.uploadScheduler = uploadScheduler;
+    }
+
+    public boolean isDrawPlaceholder() {
+        return drawPlaceholder;
+    }
+
+    /**
+     * @param drawPlaceholder true to draw the model's bounds while some of its meshes are still
+     *                        waiting to be uploaded, false to just skip those meshes
+     */
+    public void setDrawPlaceholder(boolean drawPlaceholder) {
+        this.drawPlaceholder = drawPlaceholder;
+        markChanged();
+    }
+
+    public boolean isOccluder() {
+        return occluder;
+    }
+
+    /**
+     * @param occluder true if the model's bounds are about as solid as the model, e.g. of a
+     *                 building, so the {@link OcclusionCuller} of its layer may hide what they
+     *                 cover on screen
+     */
+    public void setOccluder(boolean occluder) {
+        this.occluder = occluder;
+    }
+
+    /**
+     * Makes this model read its pose from a slot of a {@link PoseBuffer}. While bound, the pose
+     * set through this model's setters is ignored for rendering.
+     *
+     * @param buffer the pose buffer
+     * @param index  the slot of this model
+     */
+    public void bindPoseBuffer(PoseBuffer buffer, int index) {
+        if(index < 0 || index >= buffer.capacity())
+            throw new IndexOutOfBoundsException("slot " + index + " of pose buffer with capacity " + buffer.capacity());
+        this.poseBinding = new PoseBinding(buffer, index);
+        markMoved();
+    }
+
+    /**
+     * Makes this model read its pose from its own setters again.
+     */
+    public void unbindPoseBuffer() {
+        this.poseBinding = null;
+        markMoved();
+    }
+
+    /**
+     * @return the most recently published pose set through this model's setters
+     */
+    public Pose getPose() {
+        return pose.get();
+    }
+
+    /**
+     * Atomically replaces position and attitude. Safe to call from any thread.
+     *
+     * @param position geographic position
+     * @param roll     roll (degrees)
+     * @param pitch    pitch (degrees)
+     * @param yaw      yaw (degrees)
+     */
+    public void setPose(Position position, double roll, double pitch, double yaw) {
+        updatePose(p -> p.withPosition(position).withAttitude(roll, pitch, yaw));
+    }
+
+    /**
+     * Atomically replaces position, attitude and scale with those of the given pose. The
+     * version of the given pose is ignored. Safe to call from any thread.
+     *
+     * @param newPose the pose to publish
+     */
+    public void setPose(Pose newPose) {
+        updatePose(p -> newPose);
+    }
+
+    /**
+     * Publishes a pose derived from the current one, retrying if another thread published in
+     * between. The published pose's version is one higher than the one it replaced.
+     *
+     * @param update computes the new pose from the current one
+     */
+    private void updatePose(UnaryOperator<Pose> update) {
+        Pose current;
+        Pose next;
+        do {
+            current = pose.get();
+            next = update.apply(current).withVersion(current.getVersion() + 1);
+        } while(!pose.compareAndSet(current, next));
+        markMoved();
+    }
+
+    /**
+     * Tells the layer indexing this model, if any, that its bounds may have changed.
+     */
+    private void markMoved() {
+        final ObjModelLayer.Entry entry = layerEntry;
+        if(entry != null)
+            entry.markDirty();
+        markChanged();
+    }
+
+    /**
+     * Tells the redraw scheduler, if any, that the model looks different.
+     */
+    void markChanged() {
+        final RedrawScheduler scheduler = redrawScheduler;
+        if(scheduler != null)
+            scheduler.modelChanged(this);
+    }
+
+    /**
+     * Returns the part hierarchy of this model, built from the objects and groups of its file
+     * on first call. Moving a part with {@link MeshTreeNode#setLocalTransform(Matrix)} takes
+     * effect at the next frame. When the geometry is reloaded the tree is rebuilt, keeping the
+     * transforms of the parts that are still there; get the nodes again after a reload.
+     * Models that never ask for the tree draw their meshes as one part. Subclasses whose meshes
+     * don't form a fixed hierarchy, e.g. {@link LazyObjModel}, may have no tree at all.
+     *
+     * @return the root node, or null if this model has no part hierarchy
+     */
+    public synchronized MeshTreeNode getMeshTree() {
+        if(meshTree == null) {
+            meshTree = MeshTreeNode.build(meshes.values(), this::meshTreeChanged);
+            meshTreeChanged = true;
+            appearanceChanged();
+            markMoved();
+        }
+        return meshTree;
+    }
+
+    private void meshTreeChanged() {
+        meshTreeChanged = true;
+        appearanceChanged();
+        markMoved();
+    }
+
+    /**
+     * Invalidates the impostors drawn for this model, see {@link #getImpostorKey()}.
+     */
+    private void appearanceChanged() {
+        appearanceVersion++;
+    }
+
+    /**
+     * @return timestamp of the last frame this model was found visible in, -1 if never
+     */
+    long getVisibleFrame() {
+        return visibleFrame;
+    }
+
+    /**
+     * @return radius around the model's origin enclosing its meshes, before scaling; -1 until
+     * the bounds were first computed
+     */
+    double getLocalRadius() {
+        return localRadius;
+    }
+
+    public RedrawScheduler getRedrawScheduler() {
+        return redrawScheduler;
+    }
+
+    /**
+     * Sets the scheduler this model reports its pose and appearance changes to, so the window
+     * is redrawn when a change can show.
+     *
+     * @param redrawScheduler the scheduler, or null to report nothing
+     */
+    public void setRedrawScheduler(RedrawScheduler redrawScheduler) {
+        this.redrawScheduler = redrawScheduler;
+    }
+
     public Position getPosition() {
-        return position;
+        return pose.get().getPosition();
     }
 
     public void setPosition(Position position) {
-        this.position = position;
+        updatePose(p -> p.withPosition(position));
     }
 
     public Map<String, Mesh> getMeshes() {
         return meshes;
     }
 
+    /**
+     * @return the shared geometry this model draws, or null if the model wasn't loaded from a file
+     */
+    public ObjAsset getAsset() {
+        return asset;
+    }
+
+    /**
+     * Replaces the geometry this model draws, e.g. with a {@link ObjAssetRegistry#reload(ObjAsset)
+     * reloaded} version of its file. The new asset is swapped in at the start of the next frame,
+     * never between the passes of a frame. May be called from any thread.
+     *
+     * @param asset the new geometry
+     */
+    public void setAsset(ObjAsset asset) {
+        pendingAsset.set(Objects.requireNonNull(asset));
+        markMoved();
+    }
+
+    /**
+     * @return the asset waiting to be swapped in at the next frame, or null if there is none
+     */
+    public ObjAsset getPendingAsset() {
+        return pendingAsset.get();
+    }
+
+    /**
+     * @return telemetry of the load that produced this model's meshes, or null if the model
+     * was not loaded from a file
+     */
+    public LoadReport getLoadReport() {
+        return loadReport;
+    }
+
     public Material getMaterial() {
         return material;
     }
@@ -517,6 +1510,10 @@ public class ObjModel implements OrderedRenderable {
      */
     public void setMaterial(Material material) {
         this.material = material;
+        this.appliedMaterial = material == null || material instanceof WavefrontMaterial
+                ? (WavefrontMaterial) material : new WavefrontMaterial(material);
+        appearanceChanged();
+        markChanged();
     }
 
     public boolean isTextureDisabled() {
@@ -525,6 +1522,8 @@ public class ObjModel implements OrderedRenderable {
 
     public void setTextureDisabled(boolean textureDisabled) {
         this.textureDisabled = textureDisabled;
+        appearanceChanged();
+        markChanged();
     }
 
     public float getOpacity() {
@@ -533,43 +1532,50 @@ public class ObjModel implements OrderedRenderable {
 
     public void setOpacity(float opacity) {
         this.opacity = opacity;
+        appearanceChanged();
+        markChanged();
     }
 
     public double getScale() {
-        return scale;
+        return pose.get().getScale();
     }
 
     public void setScale(double scale) {
-        this.scale = scale;
+        updatePose(p -> p.withScale(scale));
     }
 
+    /**
+     * Atomically sets roll, pitch and yaw. Safe to call from any thread.
+     *
+     * @param roll  roll (degrees)
+     * @param pitch pitch (degrees)
+     * @param yaw   yaw (degrees)
+     */
     public void setAttitude(double roll, double pitch, double yaw) {
-        setRoll(roll);
-        setPitch(pitch);
-        setYaw(yaw);
+        updatePose(p -> p.withAttitude(roll, pitch, yaw));
     }
 
     public double getRoll() {
-        return roll;
+        return pose.get().getRoll();
     }
 
     public void setRoll(double roll) {
-        this.roll = roll;
+        updatePose(p -> p.withAttitude(roll, p.getPitch(), p.getYaw()));
     }
 
     public double getPitch() {
-        return pitch;
+        return pose.get().getPitch();
     }
 
     public void setPitch(double pitch) {
-        this.pitch = pitch;
+        updatePose(p -> p.withAttitude(p.getRoll(), pitch, p.getYaw()));
     }
 
     public double getYaw() {
-        return yaw;
+        return pose.get().getYaw();
     }
 
     public void setYaw(double yaw) {
-        this.yaw = yaw;
+        updatePose(p -> p.withAttitude(p.getRoll(), p.getPitch(), yaw));
     }
 }
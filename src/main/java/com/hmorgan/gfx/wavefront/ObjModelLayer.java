@@ -0,0 +1,552 @@
+package com.hmorgan.gfx.wavefront;
+
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.layers.AbstractLayer;
+import gov.nasa.worldwind.pick.PickSupport;
+import gov.nasa.worldwind.render.DrawContext;
+
+import gov.nasa.worldwind.util.Logging;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Layer for scenes of many {@link ObjModel}s. Where a RenderableLayer hands every model to
+ * culling each frame, this layer keeps the models' world bounds in a loose octree and only
+ * renders the models in cells that intersect the view frustum, so the cost of a frame follows
+ * the number of models on screen rather than the number of models in the scene.
+ * <p>
+ * The index is updated incrementally: changing a model's pose, pose buffer binding or asset
+ * marks it, and at the start of the next frame only marked models have their bounds recomputed
+ * and, if they left their cell, are moved. Models bound to a {@link PoseBuffer}, whose slots
+ * change without notice, are checked every frame. Models whose bounds aren't known yet are
+ * always rendered.
+ * <p>
+ * Opaque models are drawn right in the layer's pass, as one batch that sets up the drawing state
+ * once, rather than each being queued as an ordered renderable, sorted by eye distance and
+ * setting up its own state. Only models with translucent geometry, which must be blended back to
+ * front, are queued.
+ * <p>
+ * Reading the models' poses, computing their place, orientation, modelview matrix, screen size
+ * and bounds, and culling them is the bulk of the CPU work of a frame. For scenes of many
+ * selected models it is split over all cores, see {@link #setParallelThreshold(int)}, and the
+ * render thread is left with queuing uploads and submitting draws.
+ * <p>
+ * In dense scenes, an {@link OcclusionCuller} set with {@link #setOcclusionCuller} keeps models
+ * hidden behind {@link ObjModel#isOccluder() occluders} from being drawn, and an
+ * {@link ImpostorCache} set with {@link #setImpostorCache} draws distant models as textured quads.
+ * <p>
+ * A model may be in one ObjModelLayer at a time. Models and their poses may be changed from any
+ * thread.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjModelLayer extends AbstractLayer {
+
+    /** half the size of the root cell, reaching beyond low and medium earth orbits */
+    static final double WORLD_HALF_SIZE = 1 << 25;
+
+    /** fewer selected models are culled on the render thread, splitting them isn't worth it */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1024;
+
+    private final LooseOctree<Entry> octree = new LooseOctree<>(WORLD_HALF_SIZE);
+    private final List<Entry> entries = new ArrayList<>();      // every model, guarded by this
+    private final List<Entry> pollEveryFrame = new ArrayList<>(); // pose buffer bound models, guarded by this
+    private final Queue<Entry> dirty = new ConcurrentLinkedQueue<>();
+    private final List<Entry> candidates = new ArrayList<>();   // reused by each query, guarded by this
+    private final List<Entry> reindexed = new ArrayList<>();    // entries updated by an index update, guarded by this
+    private final List<ObjModel> selected = new ArrayList<>();  // reused by each pass
+    private final List<ObjModel> culled = new ArrayList<>();    // selected models culled by this layer, reused
+    private int[] visibilities = new int[0];                    // cull results of the culled models, reused
+    private final List<ObjModel> batch = new ArrayList<>();     // opaque models drawn by this layer, reused
+    private final PickSupport pickSupport = new PickSupport();
+    private Globe indexedGlobe;             // globe the bounds were computed on
+    private long indexedFrame = -1L;        // frame the index was last brought up to date for
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile OcclusionCuller occlusionCuller; // null if occlusion culling is off
+    private volatile ImpostorCache impostorCache; // null if models are always drawn in full
+
+    private static ForkJoinPool preparers;  // prepares and culls the models of big scenes on all cores, created on first use
+
+    /**
+     * A model's place in the index.
+     */
+    static final class Entry extends LooseOctree.Item {
+        final ObjModel model;
+        final ObjModelLayer layer;
+        final AtomicBoolean dirty = new AtomicBoolean();
+        int index;                          // in layer.entries
+        boolean pollEveryFrame;
+        boolean removed;
+
+        Entry(ObjModel model, ObjModelLayer layer) {
+            this.model = model;
+            this.layer = layer;
+        }
+
+        /**
+         * Queues the model's bounds for recomputing at the next frame. May be called from any
+         * thread.
+         */
+        void markDirty() {
+            if(dirty.compareAndSet(false, true))
+                layer.dirty.add(this);
+        }
+    }
+
+    public ObjModelLayer() {
+        setName("OBJ Models");
+    }
+
+    /**
+     * Adds a model to this layer.
+     *
+     * @param model the model
+     * @throws IllegalArgumentException if the model is already in an ObjModelLayer
+     */
+    public synchronized void addModel(ObjModel model) {
+        if(model.getLayerEntry() != null)
+            throw new IllegalArgumentException("model is already in an ObjModelLayer");
+        final Entry entry = new Entry(model, this);
+        entry.index = entries.size();
+        entries.add(entry);
+        model.setLayerEntry(entry);
+        entry.markDirty();
+    }
+
+    /**
+     * Removes a model from this layer.
+     *
+     * @param model the model
+     * @return true if the model was in this layer
+     */
+    public synchronized boolean removeModel(ObjModel model) {
+        final Entry entry = model.getLayerEntry();
+        if(entry == null || entry.layer != this)
+            return false;
+        entry.removed = true;
+        model.setLayerEntry(null);
+        octree.remove(entry);
+        if(entry.pollEveryFrame)
+            pollEveryFrame.remove(entry);
+        final Entry last = entries.remove(entries.size() - 1);
+        if(last != entry) {
+            entries.set(entry.index, last);
+            last.index = entry.index;
+        }
+        return true;
+    }
+
+    /**
+     * Removes all models from this layer.
+     */
+    public synchronized void removeAllModels() {
+        for(Entry entry : entries) {
+            entry.removed = true;
+            entry.model.setLayerEntry(null);
+            octree.remove(entry);
+        }
+        entries.clear();
+        pollEveryFrame.clear();
+        dirty.clear();
+    }
+
+    /**
+     * @return the models of this layer, in no particular order
+     */
+    public synchronized List<ObjModel> getModels() {
+        final List<ObjModel> models = new ArrayList<>(entries.size());
+        for(Entry entry : entries)
+            models.add(entry.model);
+        return Collections.unmodifiableList(models);
+    }
+
+    /**
+     * @return number of models in this layer
+     */
+    public synchronized int getModelCount() {
+        return entries.size();
+    }
+
+    @Override
+    protected void doRender(DrawContext dc) {
+        renderSelected(dc);
+    }
+
+    @Override
+    protected void doPick(DrawContext dc, Point point) {
+        // batched models are picked here, queued ones pick themselves as ordered renderables
+        pickSupport.clearPickList();
+        pickSupport.beginPicking(dc);
+        try {
+            renderSelected(dc);
+        } finally {
+            pickSupport.endPicking(dc);
+            pickSupport.resolvePick(dc, point, this);
+        }
+    }
+
+    private void renderSelected(DrawContext dc) {
+        final int count;
+        synchronized(this) {
+            selectModels(dc, dc.getView().getFrustumInModelCoordinates(), selected);
+            count = entries.size();
+        }
+        final RenderMetrics metrics = RenderMetrics.getInstance();
+        final boolean visiblePass = !dc.isPickingMode();
+        if(visiblePass)
+            metrics.add(dc, RenderMetrics.Counter.MODELS_INDEX_CULLED, count - selected.size());
+        final ImpostorCache impostors = visiblePass ? impostorCache : null;
+        try {
+            for(int i = 0; i < selected.size(); i++) {
+                final ObjModel model = selected.get(i);
+                try {
+                    if(model.isRenderedEveryFrame()) {
+                        model.render(dc);           // culls and queues itself
+                    } else {
+                        model.acquirePoseBuffer(dc);
+                        culled.add(model);
+                    }
+                } catch (RuntimeException e) {
+                    // one broken model mustn't keep the rest of the layer from drawing
+                    Logging.logger().log(Level.SEVERE, "exception while rendering a model", e);
+                }
+            }
+
+            final long start = System.nanoTime();
+            cullModels(dc);
+            final OcclusionCuller occlusion = occlusionCuller;
+            if(occlusion != null && visiblePass)
+                occlusion.cull(dc, culled, visibilities, culled.size(), getPreparers());
+            metrics.addNanos(dc, visiblePass ? RenderMetrics.Timer.PREPARE : RenderMetrics.Timer.PREPARE_PICK,
+                             System.nanoTime() - start);
+
+            for(int i = 0; i < culled.size(); i++) {
+                final ObjModel model = culled.get(i);
+                final int visibility = visibilities[i];
+                if(visiblePass) {
+                    metrics.add(dc, RenderMetrics.Counter.MODELS_CONSIDERED, 1);
+                    if(visibility == ObjModel.FRUSTUM_CULLED)
+                        metrics.add(dc, RenderMetrics.Counter.MODELS_FRUSTUM_CULLED, 1);
+                    else if(visibility == ObjModel.SMALL_CULLED)
+                        metrics.add(dc, RenderMetrics.Counter.MODELS_SMALL_CULLED, 1);
+                    else if(visibility == ObjModel.OCCLUDED)
+                        metrics.add(dc, RenderMetrics.Counter.MODELS_OCCLUDED, 1);
+                }
+                if(visibility != ObjModel.VISIBLE)
+                    continue;
+                try {
+                    // impostors need neither meshes nor textures prepared
+                    final boolean translucent = model.isTranslucent();
+                    if(!translucent && impostors != null && impostors.add(dc, model))
+                        continue;
+                    model.prepare(dc);
+                    if(translucent)
+                        dc.addOrderedRenderable(model);
+                    else
+                        batch.add(model);
+                } catch (RuntimeException e) {
+                    Logging.logger().log(Level.SEVERE, "exception while rendering a model", e);
+                }
+            }
+            drawBatch(dc);
+            if(impostors != null)
+                drawImpostors(dc, impostors);
+        } finally {
+            if(impostors != null)
+                impostors.discardPending();
+            selected.clear();
+            culled.clear();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Brings the frame state of the models to cull up to date and culls them, filling
+     * {@link #visibilities}. Scenes of at least {@link #getParallelThreshold()} models are split
+     * over the cores.
+     */
+    private void cullModels(DrawContext dc) {
+        final int n = culled.size();
+        if(visibilities.length < n)
+            visibilities = new int[Math.max(n, 2 * visibilities.length)];
+        if(n < parallelThreshold) {
+            cull(dc, culled, visibilities, 0, n);
+        } else {
+            getPreparers().invoke(new CullTask(dc, culled, visibilities, 0, n));
+        }
+    }
+
+    private static void cull(DrawContext dc, List<ObjModel> models, int[] visibilities, int from, int to) {
+        for(int i = from; i < to; i++) {
+            try {
+                visibilities[i] = models.get(i).cull(dc);
+            } catch (RuntimeException e) {
+                Logging.logger().log(Level.SEVERE, "exception while culling a model", e);
+                visibilities[i] = ObjModel.FRUSTUM_CULLED;
+            }
+        }
+    }
+
+    /**
+     * Culls a range of models, splitting it until the pieces are small enough to be worth a
+     * task of their own.
+     */
+    private static final class CullTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int LEAF_SIZE = 64;
+
+        private final DrawContext dc;
+        private final List<ObjModel> models;
+        private final int[] visibilities;
+        private final int from, to;
+
+        CullTask(DrawContext dc, List<ObjModel> models, int[] visibilities, int from, int to) {
+            this.dc = dc;
+            this.models = models;
+            this.visibilities = visibilities;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= LEAF_SIZE) {
+                cull(dc, models, visibilities, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new CullTask(dc, models, visibilities, from, middle),
+                          new CullTask(dc, models, visibilities, middle, to));
+            }
+        }
+    }
+
+    /**
+     * @return the pool preparing and culling the models of all ObjModelLayers, created on first use
+     */
+    private static synchronized ForkJoinPool getPreparers() {
+        if(preparers == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            preparers = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+                final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("ObjModelLayer-preparer-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, null, false);
+        }
+        return preparers;
+    }
+
+    /**
+     * Draws the opaque models of this frame with one drawing state setup. Depth testing makes
+     * their order irrelevant, so they aren't sorted.
+     */
+    private void drawBatch(DrawContext dc) {
+        if(batch.isEmpty())
+            return;
+        final long start = System.nanoTime();
+        ObjModel.beginBatch(dc);
+        try {
+            for(int i = 0; i < batch.size(); i++) {
+                try {
+                    batch.get(i).drawBatched(dc, pickSupport);
+                } catch (RuntimeException e) {
+                    Logging.logger().log(Level.SEVERE, "exception while drawing a model", e);
+                }
+            }
+        } finally {
+            final GL2 gl = dc.getGL().getGL2();
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+            ObjModel.endBatch(dc);
+        }
+        RenderMetrics.getInstance().addNanos(dc, dc.isPickingMode() ? RenderMetrics.Timer.DRAW_PICK : RenderMetrics.Timer.DRAW,
+                                             System.nanoTime() - start);
+    }
+
+    /**
+     * Draws the models of this frame that were taken as impostors.
+     */
+    private static void drawImpostors(DrawContext dc, ImpostorCache impostors) {
+        final long start = System.nanoTime();
+        try {
+            impostors.draw(dc);
+        } catch (RuntimeException e) {
+            Logging.logger().log(Level.SEVERE, "exception while drawing impostors", e);
+        }
+        RenderMetrics.getInstance().addNanos(dc, RenderMetrics.Timer.DRAW, System.nanoTime() - start);
+    }
+
+    /**
+     * Brings the index up to date for the current frame, then collects the models that may be
+     * visible in a frustum.
+     *
+     * @param dc      the current draw context
+     * @param frustum the frustum, in model coordinates
+     * @param result  receives the models
+     */
+    protected synchronized void selectModels(DrawContext dc, Frustum frustum, List<? super ObjModel> result) {
+        if(dc.getFrameTimeStamp() != indexedFrame) {
+            updateIndex(dc);
+            indexedFrame = dc.getFrameTimeStamp();
+        }
+        octree.query(frustum, candidates);
+        for(int i = 0; i < candidates.size(); i++)
+            result.add(candidates.get(i).model);
+        candidates.clear();
+    }
+
+    /**
+     * Recomputes the bounds of the models that were marked since the last frame, and of those
+     * that are checked every frame. Many marked models, e.g. a scene of pose buffer bound ones,
+     * have their frame state computed on all cores, see {@link #setParallelThreshold(int)}.
+     */
+    private void updateIndex(DrawContext dc) {
+        if(dc.getGlobe() != indexedGlobe) {
+            // bounds depend on the globe, recompute all of them
+            indexedGlobe = dc.getGlobe();
+            for(Entry entry : entries)
+                entry.markDirty();
+        }
+        for(int i = 0; i < pollEveryFrame.size(); i++)
+            pollEveryFrame.get(i).markDirty();
+
+        Entry entry;
+        while((entry = dirty.poll()) != null) {
+            // cleared first, so a change made while the bounds are computed marks it again
+            entry.dirty.set(false);
+            if(!entry.removed) {
+                entry.model.acquirePoseBuffer(dc);
+                reindexed.add(entry);
+            }
+        }
+
+        final int n = reindexed.size();
+        try {
+            if(n < parallelThreshold)
+                updateFrameStates(dc, reindexed, 0, n);
+            else
+                getPreparers().invoke(new FrameStateTask(dc, reindexed, 0, n));
+            // the octree isn't thread safe, the models are moved in it here
+            for(int i = 0; i < n; i++)
+                reindex(reindexed.get(i));
+        } finally {
+            reindexed.clear();
+        }
+    }
+
+    private static void updateFrameStates(DrawContext dc, List<Entry> entries, int from, int to) {
+        for(int i = from; i < to; i++)
+            entries.get(i).model.updateFrameState(dc);
+    }
+
+    /**
+     * Brings the frame state of a range of marked models up to date, splitting it like
+     * {@link CullTask}.
+     */
+    private static final class FrameStateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final DrawContext dc;
+        private final List<Entry> entries;
+        private final int from, to;
+
+        FrameStateTask(DrawContext dc, List<Entry> entries, int from, int to) {
+            this.dc = dc;
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= CullTask.LEAF_SIZE) {
+                updateFrameStates(dc, entries, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new FrameStateTask(dc, entries, from, middle),
+                          new FrameStateTask(dc, entries, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Moves a model whose frame state is up to date to the cell of its bounds.
+     */
+    private void reindex(Entry entry) {
+        final ObjModel model = entry.model;
+        final boolean poll = model.isPoseBufferBound();
+        if(poll != entry.pollEveryFrame) {
+            entry.pollEveryFrame = poll;
+            if(poll)
+                pollEveryFrame.add(entry);
+            else
+                pollEveryFrame.remove(entry);
+        }
+
+        final Box box = model.getBoundingBox();
+        if(box == null || model.isRenderedEveryFrame())
+            octree.put(entry, Vec4.ZERO, Double.POSITIVE_INFINITY);   // never culled
+        else
+            octree.put(entry, box.getCenter(), box.getRadius());
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param parallelThreshold number of models, selected by the index or marked for reindexing
+     *                          in a frame, from which their frame state is computed and they are
+     *                          culled on all cores rather than on the render thread;
+     *                          {@link Integer#MAX_VALUE} to always stay on the render thread
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if(parallelThreshold < 0)
+            throw new IllegalArgumentException("parallelThreshold must not be negative");
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public OcclusionCuller getOcclusionCuller() {
+        return occlusionCuller;
+    }
+
+    /**
+     * @param occlusionCuller culls the models hidden behind occluders in the visible pass, null
+     *                        to turn occlusion culling off
+     */
+    public void setOcclusionCuller(OcclusionCuller occlusionCuller) {
+        this.occlusionCuller = occlusionCuller;
+    }
+
+    public ImpostorCache getImpostorCache() {
+        return impostorCache;
+    }
+
+    /**
+     * @param impostorCache draws the opaque models too small on screen to show their detail as
+     *                      impostors in the visible pass, null to always draw models in full. A
+     *                      cache that is replaced should be {@link ImpostorCache#release released}.
+     */
+    public void setImpostorCache(ImpostorCache impostorCache) {
+        this.impostorCache = impostorCache;
+    }
+}
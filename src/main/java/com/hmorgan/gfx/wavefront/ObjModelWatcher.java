@@ -0,0 +1,338 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+
+import gov.nasa.worldwind.util.Logging;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Reloads {@link ObjModel}s when their files are edited. A watched model's .OBJ file, the .MTL
+ * files next to it and the texture images of its materials are watched with a
+ * {@link WatchService}; once they have been quiet for {@link #getQuietMillis()}, so a save that
+ * writes a file in several steps causes one reload, the file is
+ * {@link ObjAssetRegistry#reload(ObjAsset) reloaded} and the new asset is handed to every
+ * watched model of the file, which swaps it in at its next frame.
+ * <p>
+ * Reloads keep the meshes that didn't change, with their GPU buffers, so editing one group of a
+ * large model only rebuilds and uploads that group. A reload that fails, e.g. because the file
+ * was read half-written, is logged and the models keep their geometry until the next change.
+ * <p>
+ * Models are held weakly, so watching a model doesn't keep it alive. A directory is watched
+ * while some watched file needs it. Reloads run on the watcher's own thread. Only files of the
+ * default file system can be watched.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjModelWatcher implements Closeable {
+
+    public static final long DEFAULT_QUIET_MILLIS = 250L;
+
+    private final WatchService watchService;
+    private final Thread thread;
+    private final Map<Path, Watched> watched = new HashMap<>();    // by source path, guarded by this
+    private final Map<Path, Directory> directories = new HashMap<>(); // guarded by this
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private volatile long quietMillis = DEFAULT_QUIET_MILLIS;
+
+    /**
+     * Models of one file and the files their geometry was loaded from.
+     */
+    private static final class Watched {
+        ObjAsset asset;                     // latest version
+        final List<WeakReference<ObjModel>> models = new ArrayList<>();
+        final Set<Path> textures = new HashSet<>();
+        final Set<Path> directories = new HashSet<>();  // registered for this file
+
+        Watched(ObjAsset asset) {
+            this.asset = asset;
+        }
+    }
+
+    /**
+     * A watched directory and the number of watched files that need it.
+     */
+    private static final class Directory {
+        final WatchKey key;
+        int users;
+
+        Directory(WatchKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Constructs a new watcher. Models are reloaded through the registry of their asset.
+     *
+     * @throws IOException if the file system can't be watched
+     */
+    public ObjModelWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, "obj-model-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts reloading a model when its files change.
+     *
+     * @param model a model loaded from a file
+     * @throws IOException if the model's directories can't be watched
+     * @throws IllegalArgumentException if the model wasn't loaded from a file
+     */
+    public synchronized void watch(ObjModel model) throws IOException {
+        final ObjAsset asset = model.getPendingAsset() != null ? model.getPendingAsset() : model.getAsset();
+        if(asset == null)
+            throw new IllegalArgumentException("model wasn't loaded from a file");
+
+        Watched w = watched.get(asset.getSource());
+        if(w == null) {
+            w = new Watched(asset);
+            try {
+                register(w, asset.getSource().getParent());
+                updateTextures(w);
+            } catch (IOException e) {
+                unregisterAll(w);
+                throw e;
+            }
+            watched.put(asset.getSource(), w);
+        } else if(w.asset != asset) {
+            model.setAsset(w.asset);        // the watcher already has a newer version
+        }
+        for(WeakReference<ObjModel> reference : w.models) {
+            if(reference.get() == model)
+                return;
+        }
+        w.models.add(new WeakReference<>(model));
+    }
+
+    /**
+     * Stops reloading a model.
+     *
+     * @param model a watched model
+     */
+    public synchronized void unwatch(ObjModel model) {
+        for(Iterator<Watched> it = watched.values().iterator(); it.hasNext(); ) {
+            final Watched w = it.next();
+            w.models.removeIf(reference -> reference.get() == null || reference.get() == model);
+            if(w.models.isEmpty()) {
+                it.remove();
+                unregisterAll(w);
+            }
+        }
+    }
+
+    /**
+     * Stops watching; no reloads happen afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+
+    /**
+     * Watches a directory for a file, unless the file already needs it.
+     */
+    private void register(Watched w, Path directory) throws IOException {
+        if(directory == null || !w.directories.add(directory))
+            return;
+        Directory d = directories.get(directory);
+        if(d == null) {
+            try {
+                d = new Directory(directory.register(watchService,
+                                                     StandardWatchEventKinds.ENTRY_CREATE,
+                                                     StandardWatchEventKinds.ENTRY_MODIFY));
+            } catch (IOException e) {
+                w.directories.remove(directory);
+                throw e;
+            }
+            directories.put(directory, d);
+        }
+        d.users++;
+    }
+
+    /**
+     * Stops watching a directory for a file, and cancels its key once no file needs it.
+     */
+    private void unregister(Path directory) {
+        final Directory d = directories.get(directory);
+        if(d != null && --d.users == 0) {
+            d.key.cancel();
+            directories.remove(directory);
+        }
+    }
+
+    private void unregisterAll(Watched w) {
+        for(Path directory : w.directories)
+            unregister(directory);
+        w.directories.clear();
+    }
+
+    private void updateTextures(Watched w) throws IOException {
+        w.textures.clear();
+        final Set<Path> needed = new HashSet<>();
+        needed.add(w.asset.getSource().getParent());
+        for(Mesh mesh : w.asset.getMeshes().values()) {
+            final WavefrontMaterial material = mesh.getMaterial().orElse(null);
+            if(material != null && material.getDiffuseTextureMapPath() != null) {
+                final Path texture = material.getDiffuseTextureMapPath().toAbsolutePath().normalize();
+                if(w.textures.add(texture)) {
+                    needed.add(texture.getParent());
+                    register(w, texture.getParent());
+                }
+            }
+        }
+        // directories of textures the file no longer uses
+        for(Iterator<Path> it = w.directories.iterator(); it.hasNext(); ) {
+            final Path directory = it.next();
+            if(!needed.contains(directory)) {
+                it.remove();
+                unregister(directory);
+            }
+        }
+    }
+
+    private void run() {
+        final Set<Path> changed = new HashSet<>();
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                // wait for the first change, then until the files have been quiet for a while
+                final WatchKey key = changed.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+                if(key == null) {
+                    reloadChanged(changed);
+                    changed.clear();
+                    continue;
+                }
+                final Path directory = (Path) key.watchable();
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    if(event.context() instanceof Path)
+                        changed.add(directory.resolve((Path) event.context()).toAbsolutePath().normalize());
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void reloadChanged(Set<Path> changed) {
+        final List<Watched> toReload = new ArrayList<>();
+        synchronized(this) {
+            for(Watched w : watched.values()) {
+                if(affects(w, changed))
+                    toReload.add(w);
+            }
+        }
+
+        for(Watched w : toReload) {
+            final ObjAsset previous;
+            synchronized(this) {
+                previous = w.asset;
+            }
+            final ObjAsset next;
+            try {
+                next = previous.getRegistry().reload(previous);
+            } catch (IOException | RuntimeException e) {
+                failureCount.incrementAndGet();
+                Logging.logger().log(Level.WARNING, "reloading " + previous.getSource() + " failed, keeping the previous version", e);
+                continue;
+            }
+            reloadCount.incrementAndGet();
+            Logging.logger().fine(() -> "reloaded " + next.getSource() + ", kept " + next.getLoadReport().getReusedMeshes()
+                    + " of " + next.getMeshes().size() + " meshes");
+
+            synchronized(this) {
+                if(watched.get(previous.getSource()) != w)
+                    continue;                   // unwatched while reloading
+                w.asset = next;
+                w.models.removeIf(reference -> reference.get() == null);
+                if(w.models.isEmpty()) {
+                    // every model of the file was collected
+                    watched.remove(previous.getSource());
+                    unregisterAll(w);
+                    continue;
+                }
+                for(WeakReference<ObjModel> reference : w.models) {
+                    final ObjModel model = reference.get();
+                    if(model != null)
+                        model.setAsset(next);
+                }
+                try {
+                    updateTextures(w);
+                } catch (IOException e) {
+                    Logging.logger().log(Level.WARNING, "can't watch the textures of " + next.getSource(), e);
+                }
+            }
+        }
+    }
+
+    private static boolean affects(Watched w, Set<Path> changed) {
+        final Path source = w.asset.getSource().toAbsolutePath().normalize();
+        for(Path path : changed) {
+            if(path.equals(source) || w.textures.contains(path))
+                return true;
+            // MTL files are resolved relative to the .OBJ file
+            if(path.getFileName().toString().toLowerCase().endsWith(".mtl") && path.startsWith(source.getParent()))
+                return true;
+        }
+        return false;
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    /**
+     * @return number of successful reloads
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * @return number of reloads that failed
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return number of directories currently watched
+     */
+    public synchronized int getWatchedDirectoryCount() {
+        return directories.size();
+    }
+
+    public long getQuietMillis() {
+        return quietMillis;
+    }
+
+    /**
+     * @param quietMillis how long the files of a model must be unchanged before it is reloaded
+     */
+    public void setQuietMillis(long quietMillis) {
+        this.quietMillis = quietMillis;
+    }
+}
@@ -0,0 +1,202 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.PointCloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads the vertices of a Wavefront .OBJ file as a {@link PointCloud}, e.g. a LiDAR scan exported
+ * as tens of millions of 'v' records. Every 'v' record becomes a point; faces, lines and point
+ * elements are skipped, so no {@link com.hmorgan.gfx.Vertex} or {@link com.hmorgan.gfx.Mesh} is
+ * built on the way. The common color extension, 'v x y z r g b' with components between 0 and 1,
+ * is read as the point color.
+ * <p>
+ * The file is scanned in 64K blocks and numbers are parsed straight from the bytes, so memory
+ * use is that of the point cloud being built. Compressed files are decompressed as they are read,
+ * see {@link StreamCodec}. A reader may read several files at the same time.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjPointCloudReader {
+
+    private static final double[] POW10 = new double[23];  // exact powers of ten
+
+    static {
+        POW10[0] = 1.0;
+        for(int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10.0;
+    }
+
+    private int leafPoints = PointCloud.DEFAULT_LEAF_POINTS;
+
+    /**
+     * @param leafPoints most points an octree leaf may hold before it is split
+     * @return this reader
+     */
+    public ObjPointCloudReader setLeafPoints(int leafPoints) {
+        this.leafPoints = leafPoints;
+        return this;
+    }
+
+    /**
+     * Reads the vertices of the given file. The cloud is named after the file, so clouds of
+     * different files don't share GPU buffers.
+     *
+     * @param filePath Path to .OBJ file
+     * @return the point cloud
+     * @throws IOException if the file can't be read or a vertex is malformed
+     */
+    public PointCloud read(Path filePath) throws IOException {
+        return read(filePath, filePath.toString());
+    }
+
+    /**
+     * Reads the vertices of the given file.
+     *
+     * @param filePath Path to .OBJ file
+     * @param name     name of the cloud, clouds of the same name share GPU buffers
+     * @return the point cloud
+     * @throws IOException if the file can't be read or a vertex is malformed
+     */
+    public PointCloud read(Path filePath, String name) throws IOException {
+        final PointCloud.Builder builder = new PointCloud.Builder()
+                .setName(name)
+                .setLeafPoints(leafPoints);
+        final double[] values = new double[7];
+        try(InputStream in = StreamCodec.open(filePath)) {
+            final byte[] chunk = new byte[1 << 16];
+            byte[] line = new byte[256];
+            int length = 0;
+            long lineNumber = 0;
+            int read;
+            while((read = in.read(chunk)) >= 0) {
+                for(int i = 0; i < read; i++) {
+                    final byte b = chunk[i];
+                    if(b == '\n') {
+                        line(builder, line, length, ++lineNumber, values);
+                        length = 0;
+                    } else {
+                        if(length == line.length)
+                            line = Arrays.copyOf(line, length * 2);
+                        line[length++] = b;
+                    }
+                }
+            }
+            if(length > 0)
+                line(builder, line, length, ++lineNumber, values);
+        }
+        return builder.build();
+    }
+
+    private static void line(PointCloud.Builder builder, byte[] line, int length, long lineNumber, double[] values) throws IOException {
+        int i = skipSpace(line, 0, length);
+        // only 'v' followed by whitespace, 'vn' and 'vt' are other records
+        if(i + 1 >= length || line[i] != 'v' || !isSpace(line[i + 1]))
+            return;
+        i++;
+
+        int count = 0;
+        while(count < values.length) {
+            i = skipSpace(line, i, length);
+            if(i == length)
+                break;
+            final int end = tokenEnd(line, i, length);
+            values[count++] = parseDouble(line, i, end, lineNumber);
+            i = end;
+        }
+        if(count < 3)
+            throw new IOException("line " + lineNumber + ": vertex needs 3 coordinates");
+
+        if(count >= 6) {
+            builder.addPoint(values[0], values[1], values[2],
+                             toByte(values[3]) << 24 | toByte(values[4]) << 16 | toByte(values[5]) << 8 | 0xff);
+        } else {
+            builder.addPoint(values[0], values[1], values[2]);
+        }
+    }
+
+    private static int toByte(double component) {
+        return (int) Math.round(Math.max(0.0, Math.min(1.0, component)) * 255.0);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static int skipSpace(byte[] line, int i, int length) {
+        while(i < length && isSpace(line[i]))
+            i++;
+        return i;
+    }
+
+    private static int tokenEnd(byte[] line, int i, int length) {
+        while(i < length && !isSpace(line[i]))
+            i++;
+        return i;
+    }
+
+    /**
+     * Parses a decimal number from bytes. Plain decimals with up to 18 significant digits and a
+     * small exponent are converted exactly without creating a String; anything else goes through
+     * {@link Double#parseDouble(String)}.
+     */
+    static double parseDouble(byte[] bytes, int begin, int end, long lineNumber) throws IOException {
+        int i = begin;
+        boolean negative = false;
+        if(i < end && (bytes[i] == '-' || bytes[i] == '+'))
+            negative = bytes[i++] == '-';
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fast = true;
+        boolean sawDigit = false;
+        for(; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, sawDigit = true) {
+            if(digits < 18) {
+                mantissa = mantissa * 10 + (bytes[i] - '0');
+                if(mantissa != 0)
+                    digits++;
+            } else {
+                scale++;
+            }
+        }
+        if(i < end && bytes[i] == '.') {
+            for(i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, sawDigit = true) {
+                if(digits < 18) {
+                    mantissa = mantissa * 10 + (bytes[i] - '0');
+                    if(mantissa != 0)
+                        digits++;
+                    scale--;
+                }
+            }
+        }
+        if(i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if(i < end && (bytes[i] == '-' || bytes[i] == '+'))
+                negativeExponent = bytes[i++] == '-';
+            int exponent = 0;
+            boolean sawExponent = false;
+            for(; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, sawExponent = true)
+                exponent = Math.min(10000, exponent * 10 + (bytes[i] - '0'));
+            fast = sawExponent;
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if(!sawDigit || i != end || mantissa >= (1L << 53) || Math.abs(scale) >= POW10.length)
+            fast = false;
+
+        if(fast) {
+            final double value = scale >= 0 ? mantissa * POW10[scale] : mantissa / POW10[-scale];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(bytes, begin, end - begin, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw new IOException("line " + lineNumber + ": bad number " + new String(bytes, begin, end - begin, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.hmorgan.gfx.wavefront;
+
+import gov.nasa.worldwind.View;
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Software occlusion culling for an {@link ObjModelLayer}, for dense scenes such as cities where
+ * most models are hidden behind closer ones. Each frame the bounds of the closest visible
+ * {@link ObjModel#isOccluder() occluders} are rasterized into a small depth buffer, in horizontal
+ * bands on worker threads, and a hierarchy of coarser levels is built on top of it, each texel
+ * holding the farthest depth of the four below. A model is occluded if the nearest point of its
+ * bounds is behind the farthest occluder depth over the screen rectangle its bounds cover, looked
+ * up at the level where that rectangle is a few texels wide.
+ * <p>
+ * Occluders are drawn from their bounds, so only models whose bounds are about as solid as the
+ * model, such as buildings, should be occluders. Occluders crossing the near plane are skipped
+ * and models crossing it are never occluded, so the test is conservative up to the resolution
+ * of the buffer. Pure Java, it needs no GL.
+ * <p>
+ * Used by the layer on the render thread, during the visible pass only.
+ *
+ * @author Hunter N. Morgan
+ */
+public class OcclusionCuller {
+
+    public static final int DEFAULT_WIDTH = 256;
+    public static final int DEFAULT_HEIGHT = 128;
+    public static final int DEFAULT_MAX_OCCLUDERS = 256;
+
+    private static final double MIN_W = 1e-6;      // clip w of points at or behind the eye
+    private static final int MIN_BAND_ROWS = 16;   // rows per rasterizing task
+    private static final int MIN_PARALLEL_OCCLUDERS = 16;
+
+    // triangles of the faces of a box, as indices of its corners: bottom, top, then the sides
+    private static final int[] BOX_TRIANGLES = {
+            0, 1, 2, 0, 2, 3,
+            4, 5, 6, 4, 6, 7,
+            0, 1, 5, 0, 5, 4,
+            1, 2, 6, 1, 6, 5,
+            2, 3, 7, 2, 7, 6,
+            3, 0, 4, 3, 4, 7
+    };
+
+    private final int width, height;
+    private final float[][] depth;          // per level, inverse view distance of the nearest occluder, 0 if none;
+                                            // above level 0 the least of the four texels below
+    private final double[] viewProjection = new double[16]; // column major
+    private final List<ObjModel> occluders = new ArrayList<>();
+    private float[] occluderCorners = new float[0]; // screen x, y and inverse w of 8 corners per occluder
+    private int occluderCount;
+    private final float[] corners = new float[24]; // projected corners of the model being tested
+    private volatile int maxOccluders = DEFAULT_MAX_OCCLUDERS;
+
+    // telemetry of the last frame
+    private volatile int lastOccluderCount;
+    private volatile int lastOccludedCount;
+
+    /**
+     * Creates a culler with a {@value #DEFAULT_WIDTH} by {@value #DEFAULT_HEIGHT} depth buffer.
+     */
+    public OcclusionCuller() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    /**
+     * @param width  width of the depth buffer, a power of two
+     * @param height height of the depth buffer, a power of two
+     */
+    public OcclusionCuller(int width, int height) {
+        if(width < 1 || Integer.bitCount(width) != 1 || height < 1 || Integer.bitCount(height) != 1)
+            throw new IllegalArgumentException("width and height must be powers of two");
+        this.width = width;
+        this.height = height;
+        final int levels = 1 + Math.max(Integer.numberOfTrailingZeros(width), Integer.numberOfTrailingZeros(height));
+        depth = new float[levels][];
+        for(int level = 0; level < levels; level++)
+            depth[level] = new float[levelWidth(level) * levelHeight(level)];
+    }
+
+    private int levelWidth(int level) {
+        return Math.max(1, width >> level);
+    }
+
+    private int levelHeight(int level) {
+        return Math.max(1, height >> level);
+    }
+
+    /**
+     * Marks the visible models of a frame that are hidden behind occluders as occluded.
+     *
+     * @param dc           the current draw context
+     * @param models       the culled models
+     * @param visibilities result of {@link ObjModel#cull(DrawContext)} of each model
+     * @param count        number of models
+     * @param pool         rasterizes on its threads, or null to rasterize on the calling thread
+     * @return number of models occluded
+     */
+    int cull(DrawContext dc, List<ObjModel> models, int[] visibilities, int count, ForkJoinPool pool) {
+        final View view = dc.getView();
+        final Matrix projection = view.getProjectionMatrix();
+        final Matrix modelview = view.getModelviewMatrix();
+        if(projection == null || modelview == null)
+            return 0;
+        ObjModel.multiplyColumnMajor(projection, modelview, viewProjection);
+
+        collectOccluders(models, visibilities, count);
+        rasterize(pool);
+        buildLevels();
+
+        int occluded = 0;
+        for(int i = 0; i < count; i++) {
+            if(visibilities[i] != ObjModel.VISIBLE)
+                continue;
+            final Box bounds = models.get(i).getBoundingBox();
+            if(bounds != null && isOccluded(bounds)) {
+                visibilities[i] = ObjModel.OCCLUDED;
+                occluded++;
+            }
+        }
+        occluders.clear();
+        lastOccluderCount = occluderCount;
+        lastOccludedCount = occluded;
+        return occluded;
+    }
+
+    /**
+     * Picks the closest visible occluders and projects the corners of their bounds.
+     */
+    private void collectOccluders(List<ObjModel> models, int[] visibilities, int count) {
+        for(int i = 0; i < count; i++) {
+            final ObjModel model = models.get(i);
+            if(visibilities[i] == ObjModel.VISIBLE && model.isOccluder() && model.getBoundingBox() != null)
+                occluders.add(model);
+        }
+        if(occluders.size() > maxOccluders) {
+            occluders.sort(Comparator.comparingDouble(model -> model.eyeDistance));
+            occluders.subList(maxOccluders, occluders.size()).clear();
+        }
+
+        if(occluderCorners.length < occluders.size() * 24)
+            occluderCorners = new float[occluders.size() * 48];
+        occluderCount = 0;
+        for(int i = 0; i < occluders.size(); i++) {
+            // an occluder crossing the near plane would need clipping, it is left out instead
+            if(projectCorners(occluders.get(i).getBoundingBox(), occluderCorners, occluderCount * 24))
+                occluderCount++;
+        }
+    }
+
+    /**
+     * Projects the corners of a box into screen coordinates of the depth buffer, in the order of
+     * {@link Box#getCorners()}, without allocating.
+     *
+     * @return false if a corner is at or behind the eye
+     */
+    private boolean projectCorners(Box box, float[] out, int offset) {
+        final Vec4 bottom = box.getBottomCenter();
+        final Vec4 top = box.getTopCenter();
+        final Vec4 s = box.getSAxis();
+        final Vec4 t = box.getTAxis();
+        final double[] m = viewProjection;
+        for(int corner = 0; corner < 8; corner++) {
+            final Vec4 center = corner < 4 ? bottom : top;
+            // ll, lr, ur, ul around the center, as Box.getCorners lays them out
+            final int c = corner & 3;
+            final double ss = (c == 0 || c == 1) ? -0.5 : 0.5;
+            final double ts = (c == 0 || c == 3) ? -0.5 : 0.5;
+            final double x = center.x + ss * s.x + ts * t.x;
+            final double y = center.y + ss * s.y + ts * t.y;
+            final double z = center.z + ss * s.z + ts * t.z;
+            final double w = m[3] * x + m[7] * y + m[11] * z + m[15];
+            if(w <= MIN_W)
+                return false;
+            final double clipX = m[0] * x + m[4] * y + m[8] * z + m[12];
+            final double clipY = m[1] * x + m[5] * y + m[9] * z + m[13];
+            out[offset + corner * 3] = (float) ((clipX / w * 0.5 + 0.5) * width);
+            out[offset + corner * 3 + 1] = (float) ((clipY / w * 0.5 + 0.5) * height);
+            out[offset + corner * 3 + 2] = (float) (1.0 / w);
+        }
+        return true;
+    }
+
+    private void rasterize(ForkJoinPool pool) {
+        if(pool == null || occluderCount < MIN_PARALLEL_OCCLUDERS || pool.getParallelism() < 2) {
+            rasterizeBand(depth[0], width, occluderCorners, occluderCount, 0, height);
+        } else {
+            final int rows = Math.max(MIN_BAND_ROWS, height / pool.getParallelism());
+            pool.invoke(new BandTask(depth[0], width, occluderCorners, occluderCount, 0, height, rows));
+        }
+    }
+
+    /**
+     * Rasterizes the rows of a band of the depth buffer, splitting it until the pieces are small
+     * enough to be worth a task of their own. Bands don't share texels, so no locking is needed.
+     */
+    private static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] buffer;
+        private final int width;
+        private final float[] occluderCorners;
+        private final int occluderCount;
+        private final int from, to, rows;
+
+        BandTask(float[] buffer, int width, float[] occluderCorners, int occluderCount, int from, int to, int rows) {
+            this.buffer = buffer;
+            this.width = width;
+            this.occluderCorners = occluderCorners;
+            this.occluderCount = occluderCount;
+            this.from = from;
+            this.to = to;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= rows) {
+                rasterizeBand(buffer, width, occluderCorners, occluderCount, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new BandTask(buffer, width, occluderCorners, occluderCount, from, middle, rows),
+                          new BandTask(buffer, width, occluderCorners, occluderCount, middle, to, rows));
+            }
+        }
+    }
+
+    /**
+     * Rasterizes the occluders into rows of the full resolution depth buffer.
+     */
+    private static void rasterizeBand(float[] buffer, int width, float[] v, int occluderCount, int fromRow, int toRow) {
+        Arrays.fill(buffer, fromRow * width, toRow * width, 0.0f);
+        for(int o = 0; o < occluderCount; o++) {
+            final int base = o * 24;
+            for(int i = 0; i < BOX_TRIANGLES.length; i += 3) {
+                rasterizeTriangle(buffer, width, v, base + BOX_TRIANGLES[i] * 3, base + BOX_TRIANGLES[i + 1] * 3,
+                                  base + BOX_TRIANGLES[i + 2] * 3, fromRow, toRow);
+            }
+        }
+    }
+
+    /**
+     * Writes the inverse depth of a triangle into the texels whose centers it covers, keeping the
+     * nearest. The inverse of view distance is linear in screen space, so it is interpolated
+     * exactly.
+     */
+    private static void rasterizeTriangle(float[] buffer, int width, float[] v, int a, int b, int c, int fromRow, int toRow) {
+        final float ax = v[a], ay = v[a + 1], az = v[a + 2];
+        final float bx = v[b], by = v[b + 1], bz = v[b + 2];
+        final float cx = v[c], cy = v[c + 1], cz = v[c + 2];
+        final float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        if(area == 0.0f)
+            return;
+
+        final int minX = Math.max(0, (int) Math.floor(Math.min(ax, Math.min(bx, cx))));
+        final int maxX = Math.min(width - 1, (int) Math.ceil(Math.max(ax, Math.max(bx, cx))));
+        final int minY = Math.max(fromRow, (int) Math.floor(Math.min(ay, Math.min(by, cy))));
+        final int maxY = Math.min(toRow - 1, (int) Math.ceil(Math.max(ay, Math.max(by, cy))));
+        final float inverseArea = 1.0f / area;
+        for(int y = minY; y <= maxY; y++) {
+            final float py = y + 0.5f;
+            for(int x = minX; x <= maxX; x++) {
+                final float px = x + 0.5f;
+                // edge functions, all of the sign of the area inside the triangle
+                final float w0 = ((cx - bx) * (py - by) - (cy - by) * (px - bx)) * inverseArea;
+                final float w1 = ((ax - cx) * (py - cy) - (ay - cy) * (px - cx)) * inverseArea;
+                final float w2 = ((bx - ax) * (py - ay) - (by - ay) * (px - ax)) * inverseArea;
+                if(w0 < 0.0f || w1 < 0.0f || w2 < 0.0f)
+                    continue;
+                final float z = w0 * az + w1 * bz + w2 * cz;
+                final int index = y * width + x;
+                if(z > buffer[index])
+                    buffer[index] = z;
+            }
+        }
+    }
+
+    private void buildLevels() {
+        for(int level = 1; level < depth.length; level++) {
+            final float[] below = depth[level - 1];
+            final float[] above = depth[level];
+            final int belowWidth = levelWidth(level - 1);
+            final int belowHeight = levelHeight(level - 1);
+            final int aboveWidth = levelWidth(level);
+            final int aboveHeight = levelHeight(level);
+            for(int y = 0; y < aboveHeight; y++) {
+                final int y0 = Math.min(2 * y, belowHeight - 1);
+                final int y1 = Math.min(2 * y + 1, belowHeight - 1);
+                for(int x = 0; x < aboveWidth; x++) {
+                    final int x0 = Math.min(2 * x, belowWidth - 1);
+                    final int x1 = Math.min(2 * x + 1, belowWidth - 1);
+                    above[y * aboveWidth + x] = Math.min(Math.min(below[y0 * belowWidth + x0], below[y0 * belowWidth + x1]),
+                                                         Math.min(below[y1 * belowWidth + x0], below[y1 * belowWidth + x1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param bounds bounds of a model in model coordinates
+     * @return true if every point of the bounds is behind the occluders drawn this frame
+     */
+    private boolean isOccluded(Box bounds) {
+        if(occluderCount == 0 || !projectCorners(bounds, corners, 0))
+            return false;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float nearest = 0.0f;
+        for(int i = 0; i < 24; i += 3) {
+            minX = Math.min(minX, corners[i]);
+            maxX = Math.max(maxX, corners[i]);
+            minY = Math.min(minY, corners[i + 1]);
+            maxY = Math.max(maxY, corners[i + 1]);
+            nearest = Math.max(nearest, corners[i + 2]);
+        }
+        // parts off screen can't be seen, only the rest needs to be hidden
+        if(maxX < 0.0f || maxY < 0.0f || minX >= width || minY >= height)
+            return false;
+        int x0 = (int) Math.max(0.0f, minX), x1 = (int) Math.min(width - 1, maxX);
+        int y0 = (int) Math.max(0.0f, minY), y1 = (int) Math.min(height - 1, maxY);
+        int level = 0;
+        while((x1 - x0 > 3 || y1 - y0 > 3) && level < depth.length - 1) {
+            x0 >>= 1;
+            x1 >>= 1;
+            y0 >>= 1;
+            y1 >>= 1;
+            level++;
+        }
+        final float[] buffer = depth[level];
+        final int levelWidth = levelWidth(level);
+        x1 = Math.min(x1, levelWidth - 1);
+        y1 = Math.min(y1, levelHeight(level) - 1);
+        for(int y = y0; y <= y1; y++) {
+            for(int x = x0; x <= x1; x++) {
+                if(nearest >= buffer[y * levelWidth + x])
+                    return false;           // in front of, or not covered by, the occluders here
+            }
+        }
+        return true;
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMaxOccluders() {
+        return maxOccluders;
+    }
+
+    /**
+     * @param maxOccluders most occluders to rasterize per frame, the closest ones are taken
+     */
+    public void setMaxOccluders(int maxOccluders) {
+        if(maxOccluders < 0)
+            throw new IllegalArgumentException("maxOccluders must not be negative");
+        this.maxOccluders = maxOccluders;
+    }
+
+    /**
+     * @return number of occluders rasterized in the last frame
+     */
+    public int getLastOccluderCount() {
+        return lastOccluderCount;
+    }
+
+    /**
+     * @return number of models found occluded in the last frame
+     */
+    public int getLastOccludedCount() {
+        return lastOccludedCount;
+    }
+}
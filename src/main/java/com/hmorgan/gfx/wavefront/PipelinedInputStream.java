@@ -0,0 +1,170 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a source stream on a thread of its own, e.g. to inflate a compressed file while the
+ * reader of this stream parses what was already inflated. Blocks of the source are handed over
+ * through a bounded queue, so the reading thread is at most a few blocks ahead, and the blocks
+ * are recycled, so a stream allocates nothing after its construction.
+ * <p>
+ * Failures of the source are thrown by this stream once the blocks read before them are
+ * consumed. Closing this stream stops the reading thread and closes the source.
+ *
+ * @author Hunter N. Morgan
+ */
+final class PipelinedInputStream extends InputStream {
+
+    static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+    static final int DEFAULT_QUEUE_BLOCKS = 8;
+
+    private static ExecutorService readers;
+
+    private final BlockingQueue<Block> filled;
+    private final BlockingQueue<Block> free;
+    private final Future<?> reader;
+    private Block current;                  // block being consumed, owned by the consuming thread
+    private boolean closed;
+
+    private static final class Block {
+        final byte[] data;
+        int length;                         // -1 at the end of the source
+        int position;
+        IOException failure;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+
+    /**
+     * @param source stream to read ahead, closed when this stream is closed or the source ends
+     */
+    PipelinedInputStream(InputStream source) {
+        this(source, DEFAULT_BLOCK_SIZE, DEFAULT_QUEUE_BLOCKS);
+    }
+
+    /**
+     * @param source      stream to read ahead, closed when this stream is closed or the source ends
+     * @param blockSize   bytes per block
+     * @param queueBlocks most blocks read ahead
+     */
+    PipelinedInputStream(InputStream source, int blockSize, int queueBlocks) {
+        filled = new ArrayBlockingQueue<>(queueBlocks + 1);
+        free = new ArrayBlockingQueue<>(queueBlocks + 1);
+        for(int i = 0; i < queueBlocks; i++)
+            free.add(new Block(blockSize));
+        reader = getReaders().submit(() -> readSource(source));
+    }
+
+    private void readSource(InputStream source) {
+        try(InputStream in = source) {
+            while(true) {
+                final Block block = free.take();
+                block.position = 0;
+                block.failure = null;
+                int length = 0;
+                int read = 0;
+                while(length < block.data.length && (read = in.read(block.data, length, block.data.length - length)) >= 0)
+                    length += read;
+                block.length = length;
+                if(length > 0)
+                    filled.put(block);
+                if(read < 0) {
+                    filled.put(endBlock(null));
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        } catch (IOException e) {
+            // handed to the consumer after the blocks read before it; the queue always has room
+            // for the end block, as there is one slot more than there are blocks
+            filled.offer(endBlock(e));
+        }
+    }
+
+    private static Block endBlock(IOException failure) {
+        final Block block = new Block(0);
+        block.length = -1;
+        block.failure = failure;
+        return block;
+    }
+
+    /**
+     * @return the current block with bytes left, or null at the end of the source
+     */
+    private Block block() throws IOException {
+        if(closed)
+            throw new IOException("stream closed");
+        if(current != null && current.position < current.length)
+            return current;
+        if(current != null && current.length >= 0)
+            free.offer(current);
+        if(current != null && current.length < 0)
+            return null;
+        try {
+            current = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for input");
+        }
+        if(current.failure != null)
+            throw new IOException(current.failure.getMessage(), current.failure);
+        return current.length < 0 ? null : current;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final Block block = block();
+        return block == null ? -1 : block.data[block.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0)
+            return 0;
+        final Block block = block();
+        if(block == null)
+            return -1;
+        final int n = Math.min(len, block.length - block.position);
+        System.arraycopy(block.data, block.position, b, off, n);
+        block.position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current != null && current.length > 0 ? current.length - current.position : 0;
+    }
+
+    @Override
+    public void close() {
+        if(closed)
+            return;
+        closed = true;
+        reader.cancel(true);                // wakes the reader if it is waiting for a free block
+        filled.clear();
+    }
+
+    private static synchronized ExecutorService getReaders() {
+        if(readers == null) {
+            final AtomicInteger count = new AtomicInteger();
+            // one thread per open stream, each is blocked on its source or its queue
+            readers = Executors.newCachedThreadPool(r -> {
+                final Thread t = new Thread(r, "obj-stream-reader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return readers;
+    }
+}
@@ -0,0 +1,199 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.PointCloud;
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.Material;
+
+import javax.media.opengl.GL2;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * An {@link ObjModel} that draws the vertices of a .OBJ file as a point cloud, for scans too big
+ * to draw as meshes. The points are read by {@link ObjPointCloudReader} into a {@link PointCloud}
+ * octree; each frame the leaves in the view frustum are selected, decimated by their distance to
+ * the eye and thinned to the {@link #getPointBudget() point budget}, and only the chunks holding
+ * selected leaves are uploaded, within {@link #getMaxUploadBytesPerFrame()}.
+ * <p>
+ * Points are drawn in their own colors if the file has them, otherwise in the diffuse color of
+ * the model's material, or white.
+ *
+ * @author Hunter N. Morgan
+ */
+public class PointCloudModel extends ObjModel {
+
+    public static final long DEFAULT_POINT_BUDGET = 2000000L;
+    public static final long DEFAULT_MAX_UPLOAD_BYTES_PER_FRAME = 32L * 1024L * 1024L;
+
+    private final PointCloud cloud;
+    private final PointCloud.Selection selection = new PointCloud.Selection(); // render thread
+    private long selectionFrame = -1L;
+    private volatile long pointBudget;
+    private volatile double pointsPerPixel;
+    private volatile float pointSize;
+    private volatile long maxUploadBytesPerFrame;
+
+    /**
+     * Constructs a new PointCloudModel, reading every vertex of the given file.
+     *
+     * @param filePath Path to .OBJ file
+     * @throws IOException if the file can't be read
+     */
+    public PointCloudModel(Path filePath) throws IOException {
+        this(new ObjPointCloudReader().read(filePath));
+    }
+
+    /**
+     * Constructs a new PointCloudModel drawing the given cloud.
+     *
+     * @param cloud the points
+     */
+    public PointCloudModel(PointCloud cloud) {
+        super(new HashMap<>());
+        this.cloud = cloud;
+        this.pointBudget = DEFAULT_POINT_BUDGET;
+        this.pointsPerPixel = 1.0;
+        this.pointSize = 1.0f;
+        this.maxUploadBytesPerFrame = DEFAULT_MAX_UPLOAD_BYTES_PER_FRAME;
+    }
+
+    @Override
+    protected Box computeLocalBoundingBox() {
+        return cloud.getBounds();
+    }
+
+    @Override
+    protected void updateMeshes(DrawContext dc) {
+        // the picking and the rendering pass draw the same selection
+        if(dc.getFrameTimeStamp() == selectionFrame || getModelMatrix() == null)
+            return;
+        selectionFrame = dc.getFrameTimeStamp();
+
+        // cull and decimate in model coordinates, so the octree never needs transforming
+        final Matrix scaledModelMatrix = getModelMatrix().multiply(Matrix.fromScale(framePose.getScale()));
+        final Frustum frustum = dc.getView().getFrustumInModelCoordinates().transformBy(scaledModelMatrix.getTranspose());
+        final Vec4 eye = dc.getView().getEyePoint().transformBy4(scaledModelMatrix.getInverse());
+        // pixel size grows linearly with distance, and the ratio is the same in model units
+        final double pixelSizePerUnit = dc.getView().computePixelSizeAtDistance(1.0);
+        cloud.select(frustum, eye, pixelSizePerUnit, pointsPerPixel, pointBudget, selection);
+
+        final int uploads = cloud.uploadChunks(dc, selection, maxUploadBytesPerFrame);
+        if(uploads > 0)
+            RenderMetrics.getInstance().add(dc, RenderMetrics.Counter.BUFFER_UPLOADS, uploads);
+    }
+
+    @Override
+    protected void drawMeshes(DrawContext dc) {
+        final GL2 gl = dc.getGL().getGL2();
+        final boolean picking = dc.isPickingMode();
+        final boolean colors = !picking && cloud.hasColors();
+        if(!picking) {
+            gl.glDisable(GL2.GL_LIGHTING);
+            gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+            if(colors) {
+                gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+            } else {
+                final Material material = getMaterial();
+                final Color color = material != null ? material.getDiffuse() : Color.WHITE;
+                gl.glColor4f(color.getRed() / 255.0f, color.getGreen() / 255.0f, color.getBlue() / 255.0f, getOpacity());
+            }
+        }
+        gl.glPointSize(pointSize);
+
+        try {
+            // point coordinates are stored relative to the cloud's origin
+            final Vec4 origin = cloud.getOrigin();
+            gl.glTranslated(origin.x, origin.y, origin.z);
+            final long drawn = cloud.draw(dc, selection, colors);
+            if(!picking) {
+                RenderMetrics.getInstance().add(dc, RenderMetrics.Counter.POINTS_DRAWN, drawn);
+                RenderMetrics.getInstance().add(dc, RenderMetrics.Counter.DRAW_CALLS, selection.size());
+            }
+        } finally {
+            if(colors)
+                gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
+            gl.glPointSize(1.0f);
+            if(!picking) {
+                // back to the state the next model of a batch expects
+                gl.glEnable(GL2.GL_LIGHTING);
+                gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+            }
+        }
+    }
+
+    /**
+     * Deletes the cloud's GPU buffers, e.g. when the model is discarded. Must be called on the
+     * render thread.
+     *
+     * @param dc the current draw context
+     */
+    public void releaseGlBuffers(DrawContext dc) {
+        cloud.releaseGlBuffers(dc);
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    public PointCloud getCloud() {
+        return cloud;
+    }
+
+    /**
+     * @return the points selected for the current frame, render thread only
+     */
+    public PointCloud.Selection getSelection() {
+        return selection;
+    }
+
+    public long getPointBudget() {
+        return pointBudget;
+    }
+
+    /**
+     * @param pointBudget most points to draw per frame
+     */
+    public void setPointBudget(long pointBudget) {
+        this.pointBudget = pointBudget;
+    }
+
+    public double getPointsPerPixel() {
+        return pointsPerPixel;
+    }
+
+    /**
+     * @param pointsPerPixel point density to aim for on screen, lower draws fewer distant points
+     */
+    public void setPointsPerPixel(double pointsPerPixel) {
+        this.pointsPerPixel = pointsPerPixel;
+    }
+
+    public float getPointSize() {
+        return pointSize;
+    }
+
+    /**
+     * @param pointSize diameter of a point, in pixels
+     */
+    public void setPointSize(float pointSize) {
+        this.pointSize = pointSize;
+    }
+
+    public long getMaxUploadBytesPerFrame() {
+        return maxUploadBytesPerFrame;
+    }
+
+    /**
+     * @param maxUploadBytesPerFrame most vertex data to upload per frame, at least one chunk is
+     *                               uploaded when any is missing
+     */
+    public void setMaxUploadBytesPerFrame(long maxUploadBytesPerFrame) {
+        this.maxUploadBytesPerFrame = maxUploadBytesPerFrame;
+    }
+}
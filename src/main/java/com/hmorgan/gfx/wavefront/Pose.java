@@ -0,0 +1,89 @@
+package com.hmorgan.gfx.wavefront;
+
+import gov.nasa.worldwind.geom.Position;
+
+/**
+ * Geographic position, attitude and scale of a model, published as one unit so readers never
+ * see half of an update.
+ * <p>
+ * Every pose published to an {@link ObjModel} gets a version one higher than the pose it replaced,
+ * which lets the renderer skip recomputing anything derived from the pose when it hasn't changed.
+ * <p>
+ * This class is <i>immutable</i>. This makes this class inheritly thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class Pose {
+
+    public static final Pose DEFAULT = new Pose(Position.ZERO, 0.0, 0.0, 0.0, 1.0);
+
+    private final Position position;        // geographic position
+    private final double roll;              // roll (degrees)
+    private final double pitch;             // pitch (degrees)
+    private final double yaw;               // yaw (degrees)
+    private final double scale;             // scale (1.0 is normal)
+    private final long version;             // increments each time a pose is published to a model
+
+    public Pose(Position position, double roll, double pitch, double yaw, double scale) {
+        this(position, roll, pitch, yaw, scale, 0L);
+    }
+
+    private Pose(Position position, double roll, double pitch, double yaw, double scale, long version) {
+        this.position = position;
+        this.roll = roll;
+        this.pitch = pitch;
+        this.yaw = yaw;
+        this.scale = scale;
+        this.version = version;
+    }
+
+    public Pose withPosition(Position val) {
+        return new Pose(val, roll, pitch, yaw, scale, version);
+    }
+
+    public Pose withAttitude(double roll, double pitch, double yaw) {
+        return new Pose(position, roll, pitch, yaw, scale, version);
+    }
+
+    public Pose withScale(double val) {
+        return new Pose(position, roll, pitch, yaw, val, version);
+    }
+
+    /**
+     * @param val the version
+     * @return a copy of this pose with the given version
+     */
+    Pose withVersion(long val) {
+        return new Pose(position, roll, pitch, yaw, scale, val);
+    }
+
+    public Position getPosition() {
+        return position;
+    }
+
+    public double getRoll() {
+        return roll;
+    }
+
+    public double getPitch() {
+        return pitch;
+    }
+
+    public double getYaw() {
+        return yaw;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "Pose{position=" + position + ", roll=" + roll + ", pitch=" + pitch + ", yaw=" + yaw
+                + ", scale=" + scale + ", version=" + version + '}';
+    }
+}
@@ -0,0 +1,232 @@
+package com.hmorgan.gfx.wavefront;
+
+import gov.nasa.worldwind.geom.Position;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Struct-of-arrays pose store for a fleet of models fed by high-rate telemetry. Poses are kept in
+ * primitive arrays (latitude, longitude, altitude, roll, pitch, yaw, scale), so writing a pose
+ * costs a handful of array stores and allocates nothing.
+ * <p>
+ * The store is triple buffered: a producer writes a batch of poses into its back buffer and makes
+ * the whole batch visible with one {@link #publish()}; the renderer {@link #acquire(long) acquires}
+ * the last published {@link Snapshot} once per frame. Neither side ever waits for the other, and
+ * the renderer never sees a partially written batch.
+ * <p>
+ * There may be one writing thread and one reading thread at a time. Models are bound to a slot
+ * with {@link ObjModel#bindPoseBuffer(PoseBuffer, int)}.
+ *
+ * @author Hunter N. Morgan
+ */
+public class PoseBuffer {
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int DIRTY = 0x4;      // set in #middle when it holds a buffer the reader hasn't seen
+
+    /**
+     * One complete set of poses. Snapshots handed to the reader must be treated as read-only.
+     */
+    public static final class Snapshot {
+        private final double[] latitudes;       // degrees
+        private final double[] longitudes;      // degrees
+        private final double[] altitudes;       // meters
+        private final double[] rolls;           // degrees
+        private final double[] pitches;         // degrees
+        private final double[] yaws;            // degrees
+        private final double[] scales;
+        private final long[] versions;          // per slot, increments with every write to the slot
+        private long generation;                // number of publishes this snapshot reflects
+
+        private Snapshot(int capacity) {
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            altitudes = new double[capacity];
+            rolls = new double[capacity];
+            pitches = new double[capacity];
+            yaws = new double[capacity];
+            scales = new double[capacity];
+            versions = new long[capacity];
+            Arrays.fill(scales, 1.0);
+        }
+
+        private void copyFrom(Snapshot other) {
+            final int n = versions.length;
+            System.arraycopy(other.latitudes, 0, latitudes, 0, n);
+            System.arraycopy(other.longitudes, 0, longitudes, 0, n);
+            System.arraycopy(other.altitudes, 0, altitudes, 0, n);
+            System.arraycopy(other.rolls, 0, rolls, 0, n);
+            System.arraycopy(other.pitches, 0, pitches, 0, n);
+            System.arraycopy(other.yaws, 0, yaws, 0, n);
+            System.arraycopy(other.scales, 0, scales, 0, n);
+            System.arraycopy(other.versions, 0, versions, 0, n);
+            generation = other.generation;
+        }
+
+        public double getLatitude(int i) {
+            return latitudes[i];
+        }
+
+        public double getLongitude(int i) {
+            return longitudes[i];
+        }
+
+        public double getAltitude(int i) {
+            return altitudes[i];
+        }
+
+        public double getRoll(int i) {
+            return rolls[i];
+        }
+
+        public double getPitch(int i) {
+            return pitches[i];
+        }
+
+        public double getYaw(int i) {
+            return yaws[i];
+        }
+
+        public double getScale(int i) {
+            return scales[i];
+        }
+
+        public long getVersion(int i) {
+            return versions[i];
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * @param i slot index
+         * @return the slot as a {@link Pose} carrying the slot's version (allocates)
+         */
+        public Pose getPose(int i) {
+            return new Pose(Position.fromDegrees(latitudes[i], longitudes[i], altitudes[i]),
+                            rolls[i], pitches[i], yaws[i], scales[i]).withVersion(versions[i]);
+        }
+    }
+
+    private final int capacity;
+    private final Snapshot[] buffers = new Snapshot[3];
+    private final AtomicInteger middle;         // buffer exchanged between writer and reader, plus DIRTY
+    private int back;                           // owned by the writer
+    private int front;                          // owned by the reader
+    private long frontFrame = Long.MIN_VALUE;   // frame timestamp the front buffer was acquired for
+
+    /**
+     * @param capacity number of pose slots
+     */
+    public PoseBuffer(int capacity) {
+        if(capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        this.capacity = capacity;
+        for(int i = 0; i < buffers.length; i++)
+            buffers[i] = new Snapshot(capacity);
+        front = 0;
+        middle = new AtomicInteger(1);
+        back = 2;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    ////////////////////////
+    // WRITER
+    ////////////////////////
+
+    /**
+     * Writes a complete pose into the back buffer. Not visible to the reader until {@link #publish()}.
+     */
+    public void set(int i, double latitude, double longitude, double altitude,
+                    double roll, double pitch, double yaw, double scale) {
+        final Snapshot b = buffers[back];
+        b.latitudes[i] = latitude;
+        b.longitudes[i] = longitude;
+        b.altitudes[i] = altitude;
+        b.rolls[i] = roll;
+        b.pitches[i] = pitch;
+        b.yaws[i] = yaw;
+        b.scales[i] = scale;
+        b.versions[i]++;
+    }
+
+    /**
+     * Writes a position into the back buffer, keeping the slot's attitude and scale.
+     */
+    public void setPosition(int i, double latitude, double longitude, double altitude) {
+        final Snapshot b = buffers[back];
+        b.latitudes[i] = latitude;
+        b.longitudes[i] = longitude;
+        b.altitudes[i] = altitude;
+        b.versions[i]++;
+    }
+
+    /**
+     * Writes an attitude into the back buffer, keeping the slot's position and scale.
+     */
+    public void setAttitude(int i, double roll, double pitch, double yaw) {
+        final Snapshot b = buffers[back];
+        b.rolls[i] = roll;
+        b.pitches[i] = pitch;
+        b.yaws[i] = yaw;
+        b.versions[i]++;
+    }
+
+    /**
+     * Writes a contiguous run of positions into the back buffer.
+     *
+     * @param offset     first slot to write
+     * @param count      number of slots to write
+     * @param latitudes  latitudes in degrees, read from index 0
+     * @param longitudes longitudes in degrees, read from index 0
+     * @param altitudes  altitudes in meters, read from index 0
+     */
+    public void setPositions(int offset, int count, double[] latitudes, double[] longitudes, double[] altitudes) {
+        final Snapshot b = buffers[back];
+        System.arraycopy(latitudes, 0, b.latitudes, offset, count);
+        System.arraycopy(longitudes, 0, b.longitudes, offset, count);
+        System.arraycopy(altitudes, 0, b.altitudes, offset, count);
+        for(int i = offset; i < offset + count; i++)
+            b.versions[i]++;
+    }
+
+    /**
+     * Makes everything written since the last publish visible to the reader as one batch.
+     * <p>
+     * The new back buffer is brought up to date with the published one, so partial updates
+     * (writing only some slots) keep the other slots' latest poses. This copy is the only part of
+     * publishing proportional to capacity; individual writes stay constant time.
+     */
+    public void publish() {
+        final Snapshot published = buffers[back];
+        published.generation++;
+        back = middle.getAndSet(back | DIRTY) & INDEX_MASK;
+        // the reader may be reading 'published' concurrently, which is fine, we only read it too
+        buffers[back].copyFrom(published);
+    }
+
+    ////////////////////////
+    // READER
+    ////////////////////////
+
+    /**
+     * Returns the last complete published snapshot. Calls with the same frame timestamp return the
+     * same snapshot, so every model bound to this buffer sees the same batch within a frame.
+     *
+     * @param frameTimestamp timestamp of the current frame
+     * @return the snapshot to read for this frame
+     */
+    public Snapshot acquire(long frameTimestamp) {
+        if(frameTimestamp != frontFrame) {
+            if((middle.get() & DIRTY) != 0)
+                front = middle.getAndSet(front) & INDEX_MASK;
+            frontFrame = frameTimestamp;
+        }
+        return buffers[front];
+    }
+}
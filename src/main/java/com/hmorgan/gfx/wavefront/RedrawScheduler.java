@@ -0,0 +1,218 @@
+package com.hmorgan.gfx.wavefront;
+
+import gov.nasa.worldwind.WorldWindow;
+import gov.nasa.worldwind.event.RenderingEvent;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Sphere;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.render.DrawContext;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Requests redraws of a WorldWindow when {@link ObjModel}s change, instead of the producer of the
+ * changes calling redraw after every update. Models given this scheduler with
+ * {@link ObjModel#setRedrawScheduler(RedrawScheduler)} report pose and appearance changes to it,
+ * and a redraw is only requested if the change can show: the model was drawn in the last frame,
+ * or its new bounds reach into the last frame's view frustum. Redraws are coalesced, at most one
+ * is requested per {@link #getMinIntervalMillis() interval} however many changes arrive in it.
+ * <p>
+ * Models bound to a {@link PoseBuffer} don't see the poses written to it; the writer calls
+ * {@link #requestRedraw()} after publishing.
+ * <p>
+ * Changes may be reported from any thread.
+ *
+ * @author Hunter N. Morgan
+ */
+public class RedrawScheduler {
+
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 16L;   // about one frame at 60 Hz
+
+    private static ScheduledExecutorService defaultTimer;
+
+    private final Runnable redraw;
+    private final ScheduledExecutorService timer;   // delays redraws to the end of the interval
+    private final LongSupplier nanoClock;           // System.nanoTime, unless time is driven by a test
+    private volatile long minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_INTERVAL_MILLIS);
+    private volatile FrameView lastFrame;   // view of the last rendered frame, null before the first
+    private final AtomicBoolean scheduled = new AtomicBoolean();    // a redraw is waiting for its turn
+    private volatile long lastRedrawNanos;  // time of the last redraw, if there was one
+
+    // telemetry
+    private final AtomicLong changeCount = new AtomicLong();       // changes reported
+    private final AtomicLong hiddenCount = new AtomicLong();       // changes that couldn't show
+    private final AtomicLong redrawCount = new AtomicLong();       // redraws requested
+
+    /**
+     * What the last frame saw, to tell whether a change can show.
+     */
+    private static final class FrameView {
+        final long frameTimestamp;
+        final Frustum frustum;              // in model coordinates
+        final Globe globe;
+
+        FrameView(long frameTimestamp, Frustum frustum, Globe globe) {
+            this.frameTimestamp = frameTimestamp;
+            this.frustum = frustum;
+            this.globe = globe;
+        }
+    }
+
+    /**
+     * Creates a scheduler redrawing a WorldWindow, which tells it about every frame it renders.
+     *
+     * @param wwd the window
+     */
+    public RedrawScheduler(WorldWindow wwd) {
+        this(wwd::redraw);
+        wwd.addRenderingListener(event -> {
+            if(RenderingEvent.BEFORE_BUFFER_SWAP.equals(event.getStage()))
+                frameRendered(wwd.getSceneController().getDrawContext());
+        });
+    }
+
+    /**
+     * Creates a scheduler for a renderer that calls {@link #frameRendered(DrawContext)} after
+     * each frame.
+     *
+     * @param redraw requests a redraw, called from the scheduler's timer thread
+     */
+    public RedrawScheduler(Runnable redraw) {
+        this(redraw, getDefaultTimer(), System::nanoTime);
+    }
+
+    /**
+     * Creates a scheduler for a renderer that calls {@link #frameRendered(DrawContext)} after
+     * each frame, with its own timer and clock, e.g. to drive time in a test.
+     *
+     * @param redraw    requests a redraw, called from the timer's thread
+     * @param timer     runs redraws once their interval has passed
+     * @param nanoClock current time in nanoseconds, like {@link System#nanoTime()}
+     */
+    public RedrawScheduler(Runnable redraw, ScheduledExecutorService timer, LongSupplier nanoClock) {
+        this.redraw = redraw;
+        this.timer = timer;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Records the view of a frame that was just rendered, which the changes reported until the
+     * next frame are tested against. Called on the render thread.
+     *
+     * @param dc the draw context of the frame
+     */
+    public void frameRendered(DrawContext dc) {
+        if(dc == null || dc.getView() == null || dc.getGlobe() == null)
+            return;
+        lastFrame = new FrameView(dc.getFrameTimeStamp(), dc.getView().getFrustumInModelCoordinates(), dc.getGlobe());
+    }
+
+    /**
+     * Reports a change of a model, requesting a redraw if the change can show.
+     *
+     * @param model the changed model
+     */
+    void modelChanged(ObjModel model) {
+        changeCount.incrementAndGet();
+        if(canShow(model)) {
+            requestRedraw();
+        } else {
+            hiddenCount.incrementAndGet();
+        }
+    }
+
+    private boolean canShow(ObjModel model) {
+        final FrameView frame = lastFrame;
+        if(frame == null || frame.frustum == null)
+            return true;                    // nothing rendered yet
+        if(model.getVisibleFrame() == frame.frameTimestamp)
+            return true;                    // on screen, its old look is out of date
+        if(model.isPoseBufferBound())
+            return false;                   // the pose set on the model isn't drawn
+        final double localRadius = model.getLocalRadius();
+        if(localRadius < 0.0)
+            return true;                    // bounds unknown until the model is first drawn
+
+        final Pose pose = model.getPose();
+        final Vec4 point = frame.globe.computePointFromPosition(pose.getPosition());
+        final double radius = Math.max(localRadius * Math.abs(pose.getScale()), 1.0);
+        return frame.frustum.intersects(new Sphere(point, radius));
+    }
+
+    /**
+     * Requests a redraw, unless one is already waiting. It is made right away if the last one was
+     * at least the minimum interval ago, otherwise once the interval has passed.
+     */
+    public void requestRedraw() {
+        if(!scheduled.compareAndSet(false, true))
+            return;                         // coalesced with the waiting one
+        final long delay = (redrawCount.get() == 0) ? 0L : lastRedrawNanos + minIntervalNanos - nanoClock.getAsLong();
+        timer.schedule(this::fire, Math.max(0L, delay), TimeUnit.NANOSECONDS);
+    }
+
+    private void fire() {
+        // changes from here on need another redraw
+        scheduled.set(false);
+        lastRedrawNanos = nanoClock.getAsLong();
+        redrawCount.incrementAndGet();
+        redraw.run();
+    }
+
+    private static synchronized ScheduledExecutorService getDefaultTimer() {
+        if(defaultTimer == null) {
+            final AtomicInteger count = new AtomicInteger();
+            defaultTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "obj-redraw-scheduler-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return defaultTimer;
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    public long getMinIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(minIntervalNanos);
+    }
+
+    /**
+     * @param minIntervalMillis least time between two redraws, in milliseconds
+     */
+    public void setMinIntervalMillis(long minIntervalMillis) {
+        if(minIntervalMillis < 0)
+            throw new IllegalArgumentException("minIntervalMillis must not be negative");
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+    }
+
+    /**
+     * @return number of model changes reported
+     */
+    public long getChangeCount() {
+        return changeCount.get();
+    }
+
+    /**
+     * @return number of reported changes that didn't request a redraw because the model was off
+     * screen before and after the change
+     */
+    public long getHiddenChangeCount() {
+        return hiddenCount.get();
+    }
+
+    /**
+     * @return number of redraws requested
+     */
+    public long getRedrawCount() {
+        return redrawCount.get();
+    }
+}
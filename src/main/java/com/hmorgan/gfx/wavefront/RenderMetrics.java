@@ -0,0 +1,363 @@
+package com.hmorgan.gfx.wavefront;
+
+import gov.nasa.worldwind.render.DrawContext;
+
+import gov.nasa.worldwind.util.Logging;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+/**
+ * Per-frame counters and CPU timing histograms for the {@link ObjModel} render path, readable
+ * programmatically through {@link #getLastFrame()} and over JMX as {@value #OBJECT_NAME}.
+ * <p>
+ * Counters are accumulated for the frame identified by {@link DrawContext#getFrameTimeStamp()}
+ * and published when the first measurement of the next frame arrives. Model and mesh counters are
+ * taken during the visible (non-picking) pass only; times are kept separately for the picking and
+ * visible passes.
+ * <p>
+ * Measurements must come from the render thread. Reads are thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+
+    public static final String OBJECT_NAME = "com.hmorgan.gfx.wavefront:type=RenderMetrics";
+
+    public enum Counter {
+        MODELS_CONSIDERED,      // models that reached render in the visible pass
+        MODELS_FRUSTUM_CULLED,  // models rejected by the view frustum
+        MODELS_SMALL_CULLED,    // models rejected for being smaller than a pixel
+        MODELS_DRAWN,           // models drawn in the visible pass
+        MESHES_DRAWN,           // meshes drawn in the visible pass
+        TRIANGLES_DRAWN,        // triangles submitted in the visible pass
+        DRAW_CALLS,             // draw calls submitted in the visible pass
+        BUFFER_UPLOADS,         // vertex/element buffers uploaded to the GPU
+        POINTS_DRAWN,           // points submitted in the visible pass
+        MODELS_INDEX_CULLED,    // models an ObjModelLayer's spatial index kept from reaching render
+        STREAMED_BYTES,         // vertex data animated models streamed to the GPU
+        MODELS_OCCLUDED,        // models an ObjModelLayer's OcclusionCuller found hidden
+        IMPOSTORS_DRAWN,        // models drawn as an impostor quad in the visible pass
+        IMPOSTOR_CELLS_RENDERED // views of a model rendered into an impostor atlas
+    }
+
+    public enum Timer {
+        PREPARE,                // makeOrderedRenderable, visible pass
+        PREPARE_PICK,           // makeOrderedRenderable, picking pass
+        DRAW,                   // drawObjModel, visible pass
+        DRAW_PICK,              // drawObjModel, picking pass
+        ANIMATE                 // interpolating and streaming the vertices of animated models
+    }
+
+    /**
+     * Immutable snapshot of one frame's counters and times.
+     */
+    public static final class FrameStats {
+        private final long frameTimestamp;
+        private final long[] counters;
+        private final long[] nanos;
+
+        private FrameStats(long frameTimestamp, long[] counters, long[] nanos) {
+            this.frameTimestamp = frameTimestamp;
+            this.counters = counters;
+            this.nanos = nanos;
+        }
+
+        public long getFrameTimestamp() {
+            return frameTimestamp;
+        }
+
+        public long get(Counter counter) {
+            return counters[counter.ordinal()];
+        }
+
+        public long getNanos(Timer timer) {
+            return nanos[timer.ordinal()];
+        }
+
+        public long getTotalNanos() {
+            long total = 0;
+            for(long n : nanos)
+                total += n;
+            return total;
+        }
+    }
+
+    // log2 buckets of microseconds: bucket i holds times in [2^(i-1), 2^i) us, last bucket is open
+    private static final int BUCKETS = 24;
+    private static final int TOTAL = Timer.values().length;    // histogram index of the per-frame total
+
+    private static final RenderMetrics INSTANCE = new RenderMetrics();
+
+    private volatile boolean enabled = true;
+    private volatile boolean registered;
+
+    // current frame, written by the render thread only
+    private long currentFrame = Long.MIN_VALUE;
+    private final long[] counters = new long[Counter.values().length];
+    private final long[] nanos = new long[Timer.values().length];
+
+    // last completed frame, guarded by this
+    private long publishedFrame = Long.MIN_VALUE;
+    private final long[] publishedCounters = new long[Counter.values().length];
+    private final long[] publishedNanos = new long[Timer.values().length];
+    private long frameCount;
+
+    private final AtomicLongArray[] histograms = new AtomicLongArray[Timer.values().length + 1];
+
+    /**
+     * @return the JVM-wide instance, registered with the platform MBean server on first use
+     */
+    public static RenderMetrics getInstance() {
+        if(!INSTANCE.registered)
+            INSTANCE.register();
+        return INSTANCE;
+    }
+
+    RenderMetrics() {
+        for(int i = 0; i < histograms.length; i++)
+            histograms[i] = new AtomicLongArray(BUCKETS);
+    }
+
+    private synchronized void register() {
+        if(registered)
+            return;
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // registered by another class loader, nothing to do
+        } catch (JMException | SecurityException e) {
+            Logging.logger().log(Level.WARNING, "could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Adds to a counter of the current frame.
+     *
+     * @param dc      the current draw context
+     * @param counter the counter
+     * @param n       amount to add
+     */
+    public void add(DrawContext dc, Counter counter, long n) {
+        if(!enabled)
+            return;
+        rollOver(dc.getFrameTimeStamp());
+        counters[counter.ordinal()] += n;
+    }
+
+    /**
+     * Adds CPU time to a timer of the current frame.
+     *
+     * @param dc    the current draw context
+     * @param timer the timer
+     * @param n     nanoseconds to add
+     */
+    public void addNanos(DrawContext dc, Timer timer, long n) {
+        if(!enabled)
+            return;
+        rollOver(dc.getFrameTimeStamp());
+        nanos[timer.ordinal()] += n;
+    }
+
+    /**
+     * @return counters and times of the last completed frame
+     */
+    public synchronized FrameStats getLastFrame() {
+        return new FrameStats(publishedFrame, publishedCounters.clone(), publishedNanos.clone());
+    }
+
+    /**
+     * @param timer the timer
+     * @param p     percentile within [0, 1]
+     * @return the percentile of per-frame time of the timer, in milliseconds (bucket upper bound)
+     */
+    public double getPercentileMillis(Timer timer, double p) {
+        return percentileMillis(histograms[timer.ordinal()], p);
+    }
+
+    // publishes the current frame if a measurement for a new frame arrives
+    private void rollOver(long frameTimestamp) {
+        if(frameTimestamp == currentFrame)
+            return;
+        if(currentFrame != Long.MIN_VALUE) {
+            long total = 0;
+            for(int i = 0; i < nanos.length; i++) {
+                histograms[i].incrementAndGet(bucket(nanos[i]));
+                total += nanos[i];
+            }
+            histograms[TOTAL].incrementAndGet(bucket(total));
+            synchronized(this) {
+                publishedFrame = currentFrame;
+                System.arraycopy(counters, 0, publishedCounters, 0, counters.length);
+                System.arraycopy(nanos, 0, publishedNanos, 0, nanos.length);
+                frameCount++;
+            }
+        }
+        Arrays.fill(counters, 0L);
+        Arrays.fill(nanos, 0L);
+        currentFrame = frameTimestamp;
+    }
+
+    private static int bucket(long nanos) {
+        final long micros = nanos / 1000L;
+        final int b = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(BUCKETS - 1, b);
+    }
+
+    private static double percentileMillis(AtomicLongArray histogram, double p) {
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++)
+            count += histogram.get(i);
+        if(count == 0)
+            return 0.0;
+        final long rank = Math.max(1L, (long) Math.ceil(p * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if(seen >= rank)
+                return (1L << i) / 1000.0;
+        }
+        return (1L << (BUCKETS - 1)) / 1000.0;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public synchronized long getModelsConsidered() {
+        return publishedCounters[Counter.MODELS_CONSIDERED.ordinal()];
+    }
+
+    @Override
+    public synchronized long getModelsFrustumCulled() {
+        return publishedCounters[Counter.MODELS_FRUSTUM_CULLED.ordinal()];
+    }
+
+    @Override
+    public synchronized long getModelsSmallCulled() {
+        return publishedCounters[Counter.MODELS_SMALL_CULLED.ordinal()];
+    }
+
+    @Override
+    public synchronized long getModelsDrawn() {
+        return publishedCounters[Counter.MODELS_DRAWN.ordinal()];
+    }
+
+    @Override
+    public synchronized long getMeshesDrawn() {
+        return publishedCounters[Counter.MESHES_DRAWN.ordinal()];
+    }
+
+    @Override
+    public synchronized long getTrianglesDrawn() {
+        return publishedCounters[Counter.TRIANGLES_DRAWN.ordinal()];
+    }
+
+    @Override
+    public synchronized long getDrawCalls() {
+        return publishedCounters[Counter.DRAW_CALLS.ordinal()];
+    }
+
+    @Override
+    public synchronized long getBufferUploads() {
+        return publishedCounters[Counter.BUFFER_UPLOADS.ordinal()];
+    }
+
+    @Override
+    public synchronized long getPointsDrawn() {
+        return publishedCounters[Counter.POINTS_DRAWN.ordinal()];
+    }
+
+    @Override
+    public synchronized long getModelsIndexCulled() {
+        return publishedCounters[Counter.MODELS_INDEX_CULLED.ordinal()];
+    }
+
+    @Override
+    public synchronized long getStreamedBytes() {
+        return publishedCounters[Counter.STREAMED_BYTES.ordinal()];
+    }
+
+    @Override
+    public synchronized long getModelsOccluded() {
+        return publishedCounters[Counter.MODELS_OCCLUDED.ordinal()];
+    }
+
+    @Override
+    public synchronized long getImpostorsDrawn() {
+        return publishedCounters[Counter.IMPOSTORS_DRAWN.ordinal()];
+    }
+
+    @Override
+    public synchronized long getImpostorCellsRendered() {
+        return publishedCounters[Counter.IMPOSTOR_CELLS_RENDERED.ordinal()];
+    }
+
+    @Override
+    public double getPrepareTimeP50() {
+        return getPercentileMillis(Timer.PREPARE, 0.50);
+    }
+
+    @Override
+    public double getPrepareTimeP99() {
+        return getPercentileMillis(Timer.PREPARE, 0.99);
+    }
+
+    @Override
+    public double getPreparePickTimeP99() {
+        return getPercentileMillis(Timer.PREPARE_PICK, 0.99);
+    }
+
+    @Override
+    public double getDrawTimeP50() {
+        return getPercentileMillis(Timer.DRAW, 0.50);
+    }
+
+    @Override
+    public double getDrawTimeP99() {
+        return getPercentileMillis(Timer.DRAW, 0.99);
+    }
+
+    @Override
+    public double getDrawPickTimeP99() {
+        return getPercentileMillis(Timer.DRAW_PICK, 0.99);
+    }
+
+    @Override
+    public double getAnimateTimeP99() {
+        return getPercentileMillis(Timer.ANIMATE, 0.99);
+    }
+
+    @Override
+    public double getTotalTimeP99() {
+        return percentileMillis(histograms[TOTAL], 0.99);
+    }
+
+    @Override
+    public synchronized void reset() {
+        for(AtomicLongArray histogram : histograms) {
+            for(int i = 0; i < BUCKETS; i++)
+                histogram.set(i, 0L);
+        }
+        Arrays.fill(publishedCounters, 0L);
+        Arrays.fill(publishedNanos, 0L);
+        frameCount = 0;
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmorgan.gfx.wavefront;
+
+/**
+ * JMX management interface of {@link RenderMetrics}. Counters are those of the last completed
+ * frame, times are in milliseconds and percentiles are over every frame since the last reset.
+ *
+ * @author Hunter N. Morgan
+ */
+public interface RenderMetricsMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getFrameCount();
+
+    long getModelsConsidered();
+
+    long getModelsFrustumCulled();
+
+    long getModelsSmallCulled();
+
+    long getModelsDrawn();
+
+    long getMeshesDrawn();
+
+    long getTrianglesDrawn();
+
+    long getDrawCalls();
+
+    long getBufferUploads();
+
+    long getPointsDrawn();
+
+    long getModelsIndexCulled();
+
+    long getStreamedBytes();
+
+    long getModelsOccluded();
+
+    long getImpostorsDrawn();
+
+    long getImpostorCellsRendered();
+
+    double getPrepareTimeP50();
+
+    double getPrepareTimeP99();
+
+    double getPreparePickTimeP99();
+
+    double getDrawTimeP50();
+
+    double getDrawTimeP99();
+
+    double getDrawPickTimeP99();
+
+    double getAnimateTimeP99();
+
+    double getTotalTimeP99();
+
+    void reset();
+}
@@ -0,0 +1,151 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Compressions of model files that loaders read transparently, all of them decoded by the JDK.
+ * {@link #open(InputStream)} detects the compression of a stream from its first bytes and
+ * decompresses it on a thread of its own, so inflating and parsing overlap.
+ *
+ * @author Hunter N. Morgan
+ */
+public enum StreamCodec {
+    /** not compressed */
+    NONE,
+    /** gzip, e.g. .obj.gz */
+    GZIP,
+    /** zip archive, the first file in it is read */
+    ZIP,
+    /** zlib-wrapped deflate */
+    DEFLATE;
+
+    private static final int HEAD_LENGTH = 4;
+
+    /**
+     * @param head   first bytes of a stream
+     * @param length number of bytes in head
+     * @return the compression the bytes start with
+     */
+    public static StreamCodec detect(byte[] head, int length) {
+        if(length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b)
+            return GZIP;
+        if(length >= 4 && head[0] == 'P' && head[1] == 'K' && head[2] == 3 && head[3] == 4)
+            return ZIP;
+        // zlib header of the default window, with one of the levels zlib writes; "x" followed by
+        // one of these bytes doesn't start any OBJ statement
+        if(length >= 2 && (head[0] & 0xff) == 0x78) {
+            final int flags = head[1] & 0xff;
+            if(flags == 0x01 || flags == 0x5e || flags == 0x9c || flags == 0xda)
+                return DEFLATE;
+        }
+        return NONE;
+    }
+
+    /**
+     * @param in stream of data in this compression
+     * @return stream of the decompressed data
+     * @throws IOException if a zip archive has no file in it
+     */
+    public InputStream decode(InputStream in) throws IOException {
+        switch(this) {
+            case GZIP:
+                return new GZIPInputStream(in, 1 << 16);
+            case ZIP: {
+                final ZipInputStream zip = new ZipInputStream(in);
+                ZipEntry entry;
+                while((entry = zip.getNextEntry()) != null) {
+                    if(!entry.isDirectory())
+                        return zip;
+                }
+                zip.close();
+                throw new IOException("zip archive has no file in it");
+            }
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * Opens a stream of the data of a possibly compressed source. A compressed source is
+     * decompressed on a thread of its own, a few blocks ahead of the reader of the returned
+     * stream. Closing the returned stream closes the source.
+     *
+     * @param in the source
+     * @return stream of the decompressed data
+     * @throws IOException if the source can't be read
+     */
+    public static InputStream open(InputStream in) throws IOException {
+        final BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        final byte[] head = new byte[HEAD_LENGTH];
+        buffered.mark(HEAD_LENGTH);
+        int length = 0;
+        int read;
+        while(length < HEAD_LENGTH && (read = buffered.read(head, length, HEAD_LENGTH - length)) > 0)
+            length += read;
+        buffered.reset();
+
+        final StreamCodec codec = detect(head, length);
+        if(codec == NONE)
+            return buffered;
+        // the codec's headers are read on the pipeline's thread as well
+        return new PipelinedInputStream(new LazyDecodingStream(codec, buffered));
+    }
+
+    /**
+     * @param filePath a possibly compressed file
+     * @return stream of the decompressed data of the file
+     * @throws IOException if the file can't be read
+     */
+    public static InputStream open(Path filePath) throws IOException {
+        return open(Files.newInputStream(filePath));
+    }
+
+    /**
+     * Decoding stream created on its first read, so the compression headers are read by
+     * whichever thread reads the stream.
+     */
+    private static final class LazyDecodingStream extends InputStream {
+        private final StreamCodec codec;
+        private final InputStream source;
+        private InputStream decoded;
+
+        LazyDecodingStream(StreamCodec codec, InputStream source) {
+            this.codec = codec;
+            this.source = source;
+        }
+
+        private InputStream decoded() throws IOException {
+            if(decoded == null)
+                decoded = codec.decode(source);
+            return decoded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decoded().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return decoded().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(decoded != null)
+                decoded.close();
+            else
+                source.close();
+        }
+    }
+}
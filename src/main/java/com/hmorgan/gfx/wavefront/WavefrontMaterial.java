@@ -3,17 +3,23 @@ package com.hmorgan.gfx.wavefront;
 import gov.nasa.worldwind.render.Material;
 import gov.nasa.worldwind.util.Logging;
 
+import javax.media.opengl.GL2;
 import java.awt.*;
 import java.nio.file.Path;
 
 /**
- * A {@link Material} that has some extra properties that a Wavefront MTL file has.
+ * A {@link Material} that has some extra properties that a Wavefront MTL file has. Its colors are
+ * kept as the float arrays GL takes, so applying it doesn't allocate.
  *
  * @author Hunter N. Morgan
  */
 public class WavefrontMaterial extends Material {
 
     private Path diffuseTextureMapPath;
+    private final float[] ambientRgba = rgba(getAmbient());
+    private final float[] diffuseRgba = rgba(getDiffuse());     // alpha set by each apply
+    private final float[] specularRgba = rgba(getSpecular());
+    private final float[] emissionRgba = rgba(getEmission());
 
     public static final WavefrontMaterial WHITE;
     public static final WavefrontMaterial LIGHT_GRAY;
@@ -78,6 +84,45 @@ public class WavefrontMaterial extends Material {
         super(diffuse);
     }
 
+    /**
+     * Copies a material as is, e.g. one of WorldWind's, to apply it without allocating.
+     *
+     * @param material material to copy
+     */
+    public WavefrontMaterial(Material material) {
+        super(material.getSpecular(), material.getDiffuse(), material.getAmbient(), material.getEmission(),
+              (float) material.getShininess());
+    }
+
+    /**
+     * Color components of a color for glMaterialfv, with the alpha {@link Material#apply(GL2, int, float)}
+     * gives every color but the diffuse one.
+     */
+    private static float[] rgba(Color color) {
+        final float[] rgba = color.getRGBComponents(null);
+        rgba[3] = 0.0f;
+        return rgba;
+    }
+
+    /**
+     * Applies this material as {@link Material#apply(GL2, int, float)} does, from the arrays
+     * computed when the material was made. Called on the render thread only.
+     */
+    @Override
+    public void apply(GL2 gl, int face, float alpha) {
+        if(gl == null) {
+            String message = Logging.getMessage("nullValue.GLIsNull");
+            Logging.logger().severe(message);
+            throw new IllegalArgumentException(message);
+        }
+        diffuseRgba[3] = alpha;
+        gl.glMaterialfv(face, GL2.GL_AMBIENT, ambientRgba, 0);
+        gl.glMaterialfv(face, GL2.GL_DIFFUSE, diffuseRgba, 0);
+        gl.glMaterialfv(face, GL2.GL_SPECULAR, specularRgba, 0);
+        gl.glMaterialfv(face, GL2.GL_EMISSION, emissionRgba, 0);
+        gl.glMaterialf(face, GL2.GL_SHININESS, (float) getShininess());
+    }
+
     public Path getDiffuseTextureMapPath() {
         return diffuseTextureMapPath;
     }
@@ -7,6 +7,7 @@
 package com.hmorgan.worldwind;
 
 
+import com.jogamp.common.nio.Buffers;
 import gov.nasa.worldwind.Configuration;
 import gov.nasa.worldwind.avlist.AVKey;
 import gov.nasa.worldwind.geom.*;
@@ -26,6 +27,9 @@ import java.awt.*;
  * <p/>
  * 1) Scene controller calls render in picking mode. 2) Scene controller calls render in normal rendering mode. 3) Scene
  * controller calls render in ordered rendering mode.
+ * <p/>
+ * All cubes draw from one shared unit cube vertex buffer. Large numbers of cubes, such as sensor or volume markers,
+ * should be added to a {@link CubeCollection} instead, which draws them in a few draw calls.
  *
  * @author pabercrombie
  * @version $Id: Cube.java 691 2012-07-12 19:17:17Z pabercrombie $
@@ -36,6 +40,10 @@ public class Cube implements OrderedRenderable
     protected Position position;
     /** Length of each face, in meters. */
     protected double size;
+    /** Color of the cube, or null to draw it with the current material. */
+    protected Color color;
+    /** Collection that draws this cube, told about changes. Null if the cube draws itself. */
+    volatile CubeCollection collection;
 
     /** Support object to help with pick resolution. */
     protected PickSupport pickSupport = new PickSupport();
@@ -47,6 +55,8 @@ public class Cube implements OrderedRenderable
     /** Distance from the eye point to the cube. */
     protected double eyeDistance;
     protected Extent extent;
+    /** Modelview matrix of the cube, in the column major order of glLoadMatrixd. */
+    protected final double[] matrixArray = new double[16];
 
     public Cube(Position position, double sizeInMeters)
     {
@@ -116,7 +126,7 @@ public class Cube implements OrderedRenderable
     {
         GL2 gl = dc.getGL().getGL2(); // GL initialization checks for GL2 compatibility.
 
-        int attrMask = GL2.GL_CURRENT_BIT | GL2.GL_COLOR_BUFFER_BIT;
+        int attrMask = GL2.GL_CURRENT_BIT | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_ENABLE_BIT | GL2.GL_LIGHTING_BIT;
 
         gl.glPushAttrib(attrMask);
 
@@ -129,6 +139,15 @@ public class Cube implements OrderedRenderable
             // Were applying a scale transform on the modelview matrix, so the normal vectors must be re-normalized
             // before lighting is computed.
             gl.glEnable(GL2.GL_NORMALIZE);
+
+            if (this.color != null)
+            {
+                // the color replaces the ambient and diffuse reflectance of the current material
+                gl.glEnable(GL2.GL_COLOR_MATERIAL);
+                gl.glColorMaterial(GL.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE);
+                gl.glColor4ub((byte) this.color.getRed(), (byte) this.color.getGreen(), (byte) this.color.getBlue(),
+                    (byte) this.color.getAlpha());
+            }
         }
 
         // Multiply the modelview matrix by a surface orientation matrix to set up a local coordinate system with the
@@ -139,9 +158,8 @@ public class Cube implements OrderedRenderable
         Matrix matrix = dc.getGlobe().computeSurfaceOrientationAtPosition(this.position);
         matrix = dc.getView().getModelviewMatrix().multiply(matrix);
 
-        double[] matrixArray = new double[16];
-        matrix.toArray(matrixArray, 0, false);
-        gl.glLoadMatrixd(matrixArray, 0);
+        matrix.toArray(this.matrixArray, 0, false);
+        gl.glLoadMatrixd(this.matrixArray, 0);
     }
 
     /**
@@ -220,44 +238,82 @@ public class Cube implements OrderedRenderable
     }
 
     /**
-     * Draw a unit cube, using the active modelview matrix to orient the shape.
+     * Draw a unit cube, using the active modelview matrix to orient the shape. The cube is drawn from a vertex buffer
+     * shared by all cubes.
      *
      * @param dc Current draw context.
      */
     protected void drawUnitCube(DrawContext dc)
     {
-        // Vertices of a unit cube, centered on the origin.
-        float[][] v = {{-0.5f, 0.5f, -0.5f}, {-0.5f, 0.5f, 0.5f}, {0.5f, 0.5f, 0.5f}, {0.5f, 0.5f, -0.5f},
-                {-0.5f, -0.5f, 0.5f}, {0.5f, -0.5f, 0.5f}, {0.5f, -0.5f, -0.5f}, {-0.5f, -0.5f, -0.5f}};
-
-        // Array to group vertices into faces
-        int[][] faces = {{0, 1, 2, 3}, {2, 5, 6, 3}, {1, 4, 5, 2}, {0, 7, 4, 1}, {0, 7, 6, 3}, {4, 7, 6, 5}};
-
-        // Normal vectors for each face
-        float[][] n = {{0, 1, 0}, {1, 0, 0}, {0, 0, 1}, {-1, 0, 0}, {0, 0, -1}, {0, -1, 0}};
-
-        // Note: draw the cube in OpenGL immediate mode for simplicity. Real applications should use vertex arrays
-        // or vertex buffer objects to achieve better performance.
         GL2 gl = dc.getGL().getGL2(); // GL initialization checks for GL2 compatibility.
-        gl.glBegin(GL2.GL_QUADS);
+        int vboId = UnitCube.getVboId(dc);
+
+        gl.glPushClientAttrib(GL2.GL_CLIENT_VERTEX_ARRAY_BIT);
         try
         {
-            for (int i = 0; i < faces.length; i++)
-            {
-                gl.glNormal3f(n[i][0], n[i][1], n[i][2]);
-
-                for (int j = 0; j < faces[0].length; j++)
-                {
-                    gl.glVertex3f(v[faces[i][j]][0], v[faces[i][j]][1], v[faces[i][j]][2]);
-                }
-            }
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboId);
+            gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+            gl.glVertexPointer(3, GL.GL_FLOAT, UnitCube.STRIDE, 0);
+            gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+            gl.glNormalPointer(GL.GL_FLOAT, UnitCube.STRIDE, 3 * Buffers.SIZEOF_FLOAT);
+            gl.glDrawArrays(GL.GL_TRIANGLES, 0, UnitCube.VERTEX_COUNT);
         }
         finally
         {
-            gl.glEnd();
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+            gl.glPopClientAttrib();
         }
     }
 
+    public Position getPosition()
+    {
+        return this.position;
+    }
+
+    public void setPosition(Position position)
+    {
+        this.position = position;
+        this.frameTimestamp = -1L;
+        this.changed();
+    }
+
+    public double getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param sizeInMeters length of each face, in meters
+     */
+    public void setSize(double sizeInMeters)
+    {
+        this.size = sizeInMeters;
+        this.frameTimestamp = -1L;
+        this.changed();
+    }
+
+    public Color getColor()
+    {
+        return this.color;
+    }
+
+    /**
+     * @param color color of the cube, or null to draw it with the current material
+     */
+    public void setColor(Color color)
+    {
+        this.color = color;
+        this.changed();
+    }
+
+    /** Tells the collection drawing this cube, if any, to rebuild its geometry. */
+    protected void changed()
+    {
+        CubeCollection collection = this.collection;
+        if (collection != null)
+            collection.cubeChanged();
+    }
+
 //    protected static class AppFrame extends ApplicationTemplate.AppFrame
 //    {
 //        public AppFrame()
@@ -0,0 +1,421 @@
+package com.hmorgan.worldwind;
+
+import com.jogamp.common.nio.Buffers;
+import gov.nasa.worldwind.cache.GpuResourceCache;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Sphere;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.pick.PickSupport;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.OrderedRenderable;
+import gov.nasa.worldwind.util.OGLUtil;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import java.awt.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws many {@link Cube}s, e.g. thousands of sensor or volume markers, in a few draw calls
+ * instead of one ordered renderable and one draw per cube.
+ * <p>
+ * The cubes are baked into one vertex buffer, each a copy of the shared unit cube scaled to its
+ * size, turned to the surface at its position and colored with its color, so size, position and
+ * color are per instance without any per-cube state changes. The buffer is only rebuilt when
+ * cubes are added, removed or changed. Nearby cubes are grouped into chunks of at most
+ * {@value #CHUNK_SIZE}, ordered along a space filling curve over latitude and longitude; each
+ * frame the chunks in view are drawn with one draw call each, relative to the chunk's center so
+ * the float vertices stay precise.
+ * <p>
+ * The collection is drawn as one ordered renderable, at the distance of its closest chunk in
+ * view. Picking resolves the cube under the cursor. Cubes may be added, removed and changed from
+ * any thread; a cube may be in one collection at a time and shouldn't also draw itself.
+ *
+ * @author Hunter N. Morgan
+ */
+public class CubeCollection implements OrderedRenderable {
+
+    /** most cubes drawn by one draw call */
+    public static final int CHUNK_SIZE = 256;
+
+    /** color of cubes without one, the diffuse reflectance of the default GL material */
+    public static final Color DEFAULT_COLOR = new Color(204, 204, 204);
+
+    private static final int BYTES_PER_VERTEX = UnitCube.STRIDE + 4; // position and normal floats, rgba bytes
+    private static final int BYTES_PER_CUBE = UnitCube.VERTEX_COUNT * BYTES_PER_VERTEX;
+    private static final int COLOR_OFFSET = UnitCube.STRIDE;
+    private static final int NORMAL_OFFSET = 3 * Buffers.SIZEOF_FLOAT;
+
+    /**
+     * Nearby cubes drawn by one draw call.
+     */
+    private static final class Chunk {
+        final int first, count;             // range of the baked cubes
+        final Vec4 center;                  // vertices are relative to it
+        final Sphere extent;
+
+        Chunk(int first, int count, Vec4 center, double radius) {
+            this.first = first;
+            this.count = count;
+            this.center = center;
+            this.extent = new Sphere(center, radius);
+        }
+    }
+
+    private final List<Cube> cubes = new ArrayList<>();   // guarded by this
+    private final String vboKey = getClass().getName() + ".vbo@" + System.identityHashCode(this);
+    private volatile boolean changed = true;            // cubes changed since they were baked
+    private final PickSupport pickSupport = new PickSupport();
+
+    // render thread
+    private Cube[] bakedCubes = new Cube[0];            // in buffer order
+    private Chunk[] chunks = new Chunk[0];
+    private ByteBuffer vertices;                        // baked cubes, kept to upload again if the GPU copy is evicted
+    private Globe bakedGlobe;
+    private int bakedVersion;
+    private int uploadedVersion = -1;
+    private final List<Chunk> visible = new ArrayList<>(); // chunks in view in the current pass
+    private double eyeDistance;
+    private final double[] matrixArray = new double[16];
+    private ByteBuffer pickColors = Buffers.newDirectByteBuffer(CHUNK_SIZE * UnitCube.VERTEX_COUNT * 4);
+
+    private volatile int lastVisibleCubeCount;
+
+    /**
+     * Adds a cube to this collection.
+     *
+     * @param cube the cube
+     * @throws IllegalArgumentException if the cube is already in a collection
+     */
+    public synchronized void addCube(Cube cube) {
+        if(cube.collection != null)
+            throw new IllegalArgumentException("cube is already in a CubeCollection");
+        cube.collection = this;
+        cubes.add(cube);
+        changed = true;
+    }
+
+    /**
+     * Removes a cube from this collection.
+     *
+     * @param cube the cube
+     * @return true if the cube was in this collection
+     */
+    public synchronized boolean removeCube(Cube cube) {
+        if(cube.collection != this)
+            return false;
+        cube.collection = null;
+        cubes.remove(cube);
+        changed = true;
+        return true;
+    }
+
+    public synchronized int getCubeCount() {
+        return cubes.size();
+    }
+
+    /**
+     * Called by a cube of this collection whose size, position or color changed.
+     */
+    void cubeChanged() {
+        changed = true;
+    }
+
+    @Override
+    public void render(DrawContext dc) {
+        if(dc.isOrderedRenderingMode()) {
+            draw(dc);
+            return;
+        }
+        if(changed || dc.getGlobe() != bakedGlobe)
+            bake(dc);
+        selectVisible(dc);
+        if(!visible.isEmpty())
+            dc.addOrderedRenderable(this);
+    }
+
+    @Override
+    public void pick(DrawContext dc, Point pickPoint) {
+        try {
+            pickSupport.beginPicking(dc);
+            render(dc);
+        } finally {
+            pickSupport.endPicking(dc);
+            pickSupport.resolvePick(dc, pickPoint, dc.getCurrentLayer());
+        }
+    }
+
+    @Override
+    public double getDistanceFromEye() {
+        return eyeDistance;
+    }
+
+    /**
+     * Rebuilds the vertices of all cubes and groups them into chunks.
+     */
+    private void bake(DrawContext dc) {
+        final Cube[] snapshot;
+        synchronized(this) {
+            // cleared first, a change made while baking is baked at the next frame
+            changed = false;
+            snapshot = cubes.toArray(new Cube[0]);
+        }
+        final Globe globe = dc.getGlobe();
+
+        // order the cubes along a Z-order curve, so the cubes of a chunk are close to each other
+        final long[] order = new long[snapshot.length];
+        for(int i = 0; i < snapshot.length; i++) {
+            final Position position = snapshot[i].getPosition();
+            final int lat = (int) ((position.getLatitude().degrees + 90.0) / 180.0 * 0xffff);
+            final int lon = (int) ((position.getLongitude().degrees + 180.0) / 360.0 * 0xffff);
+            order[i] = (interleave(lat) | interleave(lon) << 1) << 31 | i;
+        }
+        Arrays.sort(order);
+
+        final Cube[] baked = new Cube[snapshot.length];
+        final Matrix[] orientations = new Matrix[snapshot.length];
+        for(int i = 0; i < order.length; i++) {
+            baked[i] = snapshot[(int) (order[i] & Integer.MAX_VALUE)];
+            orientations[i] = globe.computeSurfaceOrientationAtPosition(baked[i].getPosition());
+        }
+
+        final ByteBuffer buffer = Buffers.newDirectByteBuffer(baked.length * BYTES_PER_CUBE);
+        final Chunk[] bakedChunks = new Chunk[(baked.length + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        for(int c = 0; c < bakedChunks.length; c++) {
+            final int first = c * CHUNK_SIZE;
+            final int count = Math.min(CHUNK_SIZE, baked.length - first);
+
+            double cx = 0.0, cy = 0.0, cz = 0.0;
+            for(int i = first; i < first + count; i++) {
+                cx += orientations[i].m14;
+                cy += orientations[i].m24;
+                cz += orientations[i].m34;
+            }
+            final Vec4 center = new Vec4(cx / count, cy / count, cz / count);
+
+            double radius = 0.0;
+            for(int i = first; i < first + count; i++) {
+                final Matrix m = orientations[i];
+                final double size = baked[i].getSize();
+                final double dx = m.m14 - center.x, dy = m.m24 - center.y, dz = m.m34 - center.z;
+                radius = Math.max(radius, Math.sqrt(dx * dx + dy * dy + dz * dz) + Math.sqrt(3.0) * size / 2.0);
+                putCube(buffer, m, size, baked[i].getColor(), center);
+            }
+            bakedChunks[c] = new Chunk(first, count, center, radius);
+        }
+        ((Buffer) buffer).flip();
+
+        bakedCubes = baked;
+        chunks = bakedChunks;
+        vertices = buffer;
+        bakedGlobe = globe;
+        bakedVersion++;
+    }
+
+    /**
+     * Appends the vertices of a cube, relative to the center of its chunk.
+     *
+     * @param m surface orientation at the cube's position
+     */
+    private static void putCube(ByteBuffer buffer, Matrix m, double size, Color color, Vec4 center) {
+        final Color c = color != null ? color : DEFAULT_COLOR;
+        final float[] unit = UnitCube.VERTICES;
+        for(int k = 0; k < unit.length; k += UnitCube.FLOATS_PER_VERTEX) {
+            final double x = unit[k] * size, y = unit[k + 1] * size, z = unit[k + 2] * size;
+            buffer.putFloat((float) (m.m11 * x + m.m12 * y + m.m13 * z + m.m14 - center.x));
+            buffer.putFloat((float) (m.m21 * x + m.m22 * y + m.m23 * z + m.m24 - center.y));
+            buffer.putFloat((float) (m.m31 * x + m.m32 * y + m.m33 * z + m.m34 - center.z));
+            final double nx = unit[k + 3], ny = unit[k + 4], nz = unit[k + 5];
+            buffer.putFloat((float) (m.m11 * nx + m.m12 * ny + m.m13 * nz));
+            buffer.putFloat((float) (m.m21 * nx + m.m22 * ny + m.m23 * nz));
+            buffer.putFloat((float) (m.m31 * nx + m.m32 * ny + m.m33 * nz));
+            buffer.put((byte) c.getRed()).put((byte) c.getGreen()).put((byte) c.getBlue()).put((byte) c.getAlpha());
+        }
+    }
+
+    /**
+     * Spreads the low 16 bits of a value over the even bits of the result.
+     */
+    private static long interleave(int value) {
+        long x = value & 0xffffL;
+        x = (x | x << 8) & 0x00ff00ffL;
+        x = (x | x << 4) & 0x0f0f0f0fL;
+        x = (x | x << 2) & 0x33333333L;
+        x = (x | x << 1) & 0x55555555L;
+        return x;
+    }
+
+    /**
+     * Collects the chunks in the view frustum, or in the pick frustums while picking, that are
+     * at least a pixel in size.
+     */
+    private void selectVisible(DrawContext dc) {
+        visible.clear();
+        int cubeCount = 0;
+        double nearest = Double.MAX_VALUE;
+        final Vec4 eye = dc.getView().getEyePoint();
+        for(Chunk chunk : chunks) {
+            final boolean inView = dc.isPickingMode()
+                    ? dc.getPickFrustums().intersectsAny(chunk.extent)
+                    : dc.getView().getFrustumInModelCoordinates().intersects(chunk.extent);
+            if(!inView || dc.isSmall(chunk.extent, 1))
+                continue;
+            visible.add(chunk);
+            cubeCount += chunk.count;
+            nearest = Math.min(nearest, Math.max(0.0, eye.distanceTo3(chunk.center) - chunk.extent.getRadius()));
+        }
+        eyeDistance = nearest;
+        if(!dc.isPickingMode())
+            lastVisibleCubeCount = cubeCount;
+    }
+
+    /**
+     * Returns the vertex buffer of the baked cubes, uploading them if they changed or the GPU
+     * resource cache dropped the buffer.
+     */
+    private int getVboId(DrawContext dc) {
+        final GpuResourceCache cache = dc.getGpuResourceCache();
+        int[] ids = (int[]) cache.get(vboKey);
+        if(ids != null) {
+            if(uploadedVersion == bakedVersion)
+                return ids[0];
+            // putting the key again would delete the buffer being put, a changed bake gets a new one
+            cache.remove(vboKey);
+        }
+
+        final GL gl = dc.getGL();
+        ids = new int[1];
+        gl.glGenBuffers(1, ids, 0);
+        ((Buffer) vertices).rewind();
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, ids[0]);
+        try {
+            gl.glBufferData(GL.GL_ARRAY_BUFFER, vertices.limit(), vertices, GL.GL_STATIC_DRAW);
+        } finally {
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        }
+        cache.put(vboKey, ids, GpuResourceCache.VBO_BUFFERS, vertices.limit());
+        uploadedVersion = bakedVersion;
+        return ids[0];
+    }
+
+    /**
+     * Draws the chunks in view, one draw call each.
+     */
+    private void draw(DrawContext dc) {
+        if(visible.isEmpty())
+            return;
+        final GL2 gl = dc.getGL().getGL2();
+        final boolean picking = dc.isPickingMode();
+        final int vboId = getVboId(dc);
+
+        gl.glPushAttrib(GL2.GL_CURRENT_BIT | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_ENABLE_BIT | GL2.GL_LIGHTING_BIT);
+        gl.glPushClientAttrib(GL2.GL_CLIENT_VERTEX_ARRAY_BIT);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+        try {
+            if(!picking) {
+                dc.beginStandardLighting();
+                gl.glEnable(GL.GL_BLEND);
+                OGLUtil.applyBlending(gl, false);
+                // the vertex colors replace the ambient and diffuse reflectance of the material
+                gl.glEnable(GL2.GL_COLOR_MATERIAL);
+                gl.glColorMaterial(GL.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE);
+                gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+            }
+            gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+            gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+
+            for(int i = 0; i < visible.size(); i++) {
+                final Chunk chunk = visible.get(i);
+                loadChunkModelview(dc, gl, chunk);
+
+                // the chunk's cubes start at vertex 0 of the pointers
+                final long offset = (long) chunk.first * BYTES_PER_CUBE;
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboId);
+                gl.glVertexPointer(3, GL.GL_FLOAT, BYTES_PER_VERTEX, offset);
+                if(picking) {
+                    fillPickColors(dc, chunk);
+                    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+                    gl.glColorPointer(4, GL.GL_UNSIGNED_BYTE, 0, pickColors);
+                } else {
+                    gl.glNormalPointer(GL.GL_FLOAT, BYTES_PER_VERTEX, offset + NORMAL_OFFSET);
+                    gl.glColorPointer(4, GL.GL_UNSIGNED_BYTE, BYTES_PER_VERTEX, offset + COLOR_OFFSET);
+                }
+                gl.glDrawArrays(GL.GL_TRIANGLES, 0, chunk.count * UnitCube.VERTEX_COUNT);
+            }
+        } finally {
+            if(!picking)
+                dc.endStandardLighting();
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+            gl.glPopMatrix();
+            gl.glPopClientAttrib();
+            gl.glPopAttrib();
+        }
+    }
+
+    /**
+     * Loads the view's modelview matrix translated to the center of a chunk.
+     */
+    private void loadChunkModelview(DrawContext dc, GL2 gl, Chunk chunk) {
+        final Matrix mv = dc.getView().getModelviewMatrix();
+        final Vec4 c = chunk.center;
+        matrixArray[0] = mv.m11;
+        matrixArray[1] = mv.m21;
+        matrixArray[2] = mv.m31;
+        matrixArray[3] = mv.m41;
+        matrixArray[4] = mv.m12;
+        matrixArray[5] = mv.m22;
+        matrixArray[6] = mv.m32;
+        matrixArray[7] = mv.m42;
+        matrixArray[8] = mv.m13;
+        matrixArray[9] = mv.m23;
+        matrixArray[10] = mv.m33;
+        matrixArray[11] = mv.m43;
+        matrixArray[12] = mv.m11 * c.x + mv.m12 * c.y + mv.m13 * c.z + mv.m14;
+        matrixArray[13] = mv.m21 * c.x + mv.m22 * c.y + mv.m23 * c.z + mv.m24;
+        matrixArray[14] = mv.m31 * c.x + mv.m32 * c.y + mv.m33 * c.z + mv.m34;
+        matrixArray[15] = mv.m41 * c.x + mv.m42 * c.y + mv.m43 * c.z + mv.m44;
+        gl.glLoadMatrixd(matrixArray, 0);
+    }
+
+    /**
+     * Gives each cube of a chunk a unique pick color, for all of its vertices.
+     */
+    private void fillPickColors(DrawContext dc, Chunk chunk) {
+        ((Buffer) pickColors).clear();
+        for(int i = chunk.first; i < chunk.first + chunk.count; i++) {
+            final Cube cube = bakedCubes[i];
+            final Color pickColor = dc.getUniquePickColor();
+            pickSupport.addPickableObject(pickColor.getRGB(), cube, cube.getPosition());
+            for(int v = 0; v < UnitCube.VERTEX_COUNT; v++) {
+                pickColors.put((byte) pickColor.getRed()).put((byte) pickColor.getGreen())
+                          .put((byte) pickColor.getBlue()).put((byte) 255);
+            }
+        }
+        ((Buffer) pickColors).flip();
+    }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    /**
+     * @return number of cubes in the chunks drawn in the last visible pass
+     */
+    public int getLastVisibleCubeCount() {
+        return lastVisibleCubeCount;
+    }
+
+    /**
+     * @return number of draw calls a frame showing every cube takes
+     */
+    public int getChunkCount() {
+        return chunks.length;
+    }
+}
@@ -0,0 +1,109 @@
+package com.hmorgan.worldwind;
+
+import com.hmorgan.gfx.wavefront.RenderMetrics;
+import com.jogamp.opengl.util.awt.TextRenderer;
+import gov.nasa.worldwind.layers.AbstractLayer;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.util.OGLTextRenderer;
+
+import java.awt.*;
+
+/**
+ * Screen overlay that shows the {@link RenderMetrics} of the last completed frame in the upper
+ * left corner of the window. Add it last to the layer list so it draws over everything else.
+ *
+ * @author Hunter N. Morgan
+ */
+public class RenderMetricsLayer extends AbstractLayer {
+
+    private Font font = Font.decode("Monospaced-PLAIN-12");
+    private Color color = Color.YELLOW;
+    private int margin = 10;                // distance from the window edges, in pixels
+
+    public RenderMetricsLayer() {
+        setName("Render Metrics");
+        setPickEnabled(false);
+    }
+
+    @Override
+    protected void doRender(DrawContext dc) {
+        if(dc.isPickingMode())
+            return;
+
+        final RenderMetrics metrics = RenderMetrics.getInstance();
+        final RenderMetrics.FrameStats frame = metrics.getLastFrame();
+        final String[] lines = {
+                String.format("models   %6d index-culled %6d considered %6d frustum-culled %6d small-culled %6d occluded %6d drawn",
+                              frame.get(RenderMetrics.Counter.MODELS_INDEX_CULLED),
+                              frame.get(RenderMetrics.Counter.MODELS_CONSIDERED),
+                              frame.get(RenderMetrics.Counter.MODELS_FRUSTUM_CULLED),
+                              frame.get(RenderMetrics.Counter.MODELS_SMALL_CULLED),
+                              frame.get(RenderMetrics.Counter.MODELS_OCCLUDED),
+                              frame.get(RenderMetrics.Counter.MODELS_DRAWN)),
+                String.format("meshes   %6d drawn %9d triangles %9d points %6d draw calls %4d uploads",
+                              frame.get(RenderMetrics.Counter.MESHES_DRAWN),
+                              frame.get(RenderMetrics.Counter.TRIANGLES_DRAWN),
+                              frame.get(RenderMetrics.Counter.POINTS_DRAWN),
+                              frame.get(RenderMetrics.Counter.DRAW_CALLS),
+                              frame.get(RenderMetrics.Counter.BUFFER_UPLOADS)),
+                String.format("cpu ms   prepare %6.2f (pick %6.2f)  draw %6.2f (pick %6.2f)  animate %6.2f",
+                              frame.getNanos(RenderMetrics.Timer.PREPARE) / 1e6,
+                              frame.getNanos(RenderMetrics.Timer.PREPARE_PICK) / 1e6,
+                              frame.getNanos(RenderMetrics.Timer.DRAW) / 1e6,
+                              frame.getNanos(RenderMetrics.Timer.DRAW_PICK) / 1e6,
+                              frame.getNanos(RenderMetrics.Timer.ANIMATE) / 1e6),
+                String.format("streamed %9d bytes  impostors %6d drawn %4d cells rendered",
+                              frame.get(RenderMetrics.Counter.STREAMED_BYTES),
+                              frame.get(RenderMetrics.Counter.IMPOSTORS_DRAWN),
+                              frame.get(RenderMetrics.Counter.IMPOSTOR_CELLS_RENDERED)),
+                String.format("p99 ms   prepare %6.2f  draw %6.2f  total %6.2f",
+                              metrics.getPrepareTimeP99(),
+                              metrics.getDrawTimeP99(),
+                              metrics.getTotalTimeP99())
+        };
+
+        final Rectangle viewport = dc.getView().getViewport();
+        final TextRenderer textRenderer = OGLTextRenderer.getOrCreateTextRenderer(dc.getTextRendererCache(), font);
+        textRenderer.beginRendering(viewport.width, viewport.height);
+        try {
+            textRenderer.setColor(color);
+            final int lineHeight = (int) Math.ceil(textRenderer.getBounds("Mg").getHeight()) + 2;
+            int y = viewport.height - margin - lineHeight;
+            for(String line : lines) {
+                textRenderer.draw(line, margin, y);
+                y -= lineHeight;
+            }
+        } finally {
+            textRenderer.endRendering();
+        }
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public void setFont(Font font) {
+        this.font = font;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public void setColor(Color color) {
+        this.color = color;
+    }
+
+    public int getMargin() {
+        return margin;
+    }
+
+    public void setMargin(int margin) {
+        this.margin = margin;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
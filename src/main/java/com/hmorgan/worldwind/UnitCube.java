@@ -0,0 +1,77 @@
+package com.hmorgan.worldwind;
+
+import com.jogamp.common.nio.Buffers;
+import gov.nasa.worldwind.cache.GpuResourceCache;
+import gov.nasa.worldwind.render.DrawContext;
+
+import javax.media.opengl.GL;
+
+/**
+ * Geometry of a unit cube centered on the origin, shared by {@link Cube} and
+ * {@link CubeCollection}: 6 faces of 2 triangles, each vertex an interleaved position and face
+ * normal. The vertex buffer holding it is created once per GL context and kept in the draw
+ * context's GPU resource cache.
+ *
+ * @author Hunter N. Morgan
+ */
+final class UnitCube {
+
+    static final int VERTEX_COUNT = 36;
+    static final int FLOATS_PER_VERTEX = 6;             // xyz, then the normal
+    static final int STRIDE = FLOATS_PER_VERTEX * Buffers.SIZEOF_FLOAT;
+    static final float[] VERTICES = new float[VERTEX_COUNT * FLOATS_PER_VERTEX];
+
+    private static final String VBO_KEY = UnitCube.class.getName() + ".vbo";
+
+    static {
+        // corners of the cube
+        final float[][] v = {{-0.5f, 0.5f, -0.5f}, {-0.5f, 0.5f, 0.5f}, {0.5f, 0.5f, 0.5f}, {0.5f, 0.5f, -0.5f},
+                {-0.5f, -0.5f, 0.5f}, {0.5f, -0.5f, 0.5f}, {0.5f, -0.5f, -0.5f}, {-0.5f, -0.5f, -0.5f}};
+        // corners of each face, and its normal
+        final int[][] faces = {{0, 1, 2, 3}, {2, 5, 6, 3}, {1, 4, 5, 2}, {0, 7, 4, 1}, {0, 7, 6, 3}, {4, 7, 6, 5}};
+        final float[][] n = {{0, 1, 0}, {1, 0, 0}, {0, 0, 1}, {-1, 0, 0}, {0, 0, -1}, {0, -1, 0}};
+        final int[] quadTriangles = {0, 1, 2, 0, 2, 3};
+
+        int k = 0;
+        for(int i = 0; i < faces.length; i++) {
+            for(int corner : quadTriangles) {
+                final float[] vertex = v[faces[i][corner]];
+                VERTICES[k++] = vertex[0];
+                VERTICES[k++] = vertex[1];
+                VERTICES[k++] = vertex[2];
+                VERTICES[k++] = n[i][0];
+                VERTICES[k++] = n[i][1];
+                VERTICES[k++] = n[i][2];
+            }
+        }
+    }
+
+    private UnitCube() {
+    }
+
+    /**
+     * Returns the vertex buffer of the unit cube, uploading it if the current GL context doesn't
+     * have it yet.
+     *
+     * @param dc the current draw context
+     * @return name of the GL buffer
+     */
+    static int getVboId(DrawContext dc) {
+        final GpuResourceCache cache = dc.getGpuResourceCache();
+        int[] ids = (int[]) cache.get(VBO_KEY);
+        if(ids == null) {
+            final GL gl = dc.getGL();
+            final long bytes = (long) VERTICES.length * Buffers.SIZEOF_FLOAT;
+            ids = new int[1];
+            gl.glGenBuffers(1, ids, 0);
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, ids[0]);
+            try {
+                gl.glBufferData(GL.GL_ARRAY_BUFFER, bytes, Buffers.newDirectFloatBuffer(VERTICES), GL.GL_STATIC_DRAW);
+            } finally {
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+            }
+            cache.put(VBO_KEY, ids, GpuResourceCache.VBO_BUFFERS, bytes);
+        }
+        return ids[0];
+    }
+}
@@ -0,0 +1,45 @@
+package hmorgan.benchmarks;
+
+import com.hmorgan.gfx.wavefront.ObjCorpusGenerator;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Times {@link ObjLoader} against a synthetic corpus. Sizes are given on the command line:
+ * <pre>
+ *     ObjLoaderBenchmark [objects] [groupsPerObject] [facesPerGroup] [iterations]
+ * </pre>
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjLoaderBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        final int objects = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        final int groups = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        final int faces = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        final int iterations = (args.length > 3) ? Integer.parseInt(args[3]) : 5;
+
+        final Path dir = Files.createTempDirectory("obj-benchmark");
+        final ObjCorpusGenerator.Corpus corpus = new ObjCorpusGenerator.Builder()
+                .setSeed(1L)
+                .setObjectCount(objects)
+                .setGroupsPerObject(groups)
+                .setVerticesPerObject(Math.max(4, faces))
+                .setFacesPerGroup(faces)
+                .build()
+                .generate(dir, "benchmark");
+        System.out.printf("corpus: %d bytes, %d vertices, %d faces, %d groups%n",
+                          corpus.getObjBytes(), corpus.getVertexCount(), corpus.getFaceCount(), corpus.getGroupCount());
+
+        for(int i = 0; i < iterations; i++) {
+            final long start = System.nanoTime();
+            new ObjLoader().loadObjMeshesV2(corpus.getObjPath());
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("load %d: %.3f s, %.1f MB/s%n", i, seconds, corpus.getObjBytes() / 1e6 / seconds);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package hmorgan.benchmarks;
+
+import com.hmorgan.gfx.wavefront.PoseBuffer;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures {@link PoseBuffer} updates per second and bytes allocated per update for a fleet of
+ * tracked objects, each batch updating every object once and then publishing.
+ * <pre>
+ *     PoseBufferBenchmark [objects] [seconds]
+ * </pre>
+ *
+ * @author Hunter N. Morgan
+ */
+public class PoseBufferBenchmark {
+
+    public static void main(String[] args) {
+        final int objects = (args.length > 0) ? Integer.parseInt(args[0]) : 20_000;
+        final double seconds = (args.length > 1) ? Double.parseDouble(args[1]) : 5.0;
+        final PoseBuffer buffer = new PoseBuffer(objects);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        // warm up
+        runBatches(buffer, objects, 2_000);
+
+        final long startAllocated = threads.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        final long deadline = start + (long) (seconds * 1e9);
+        long batches = 0;
+        while(System.nanoTime() < deadline) {
+            runBatches(buffer, objects, 10);
+            batches += 10;
+        }
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - startAllocated;
+        final long updates = batches * objects;
+
+        System.out.printf("%d objects: %.1f M updates/s, %.0f batches/s, %.4f bytes allocated/update%n",
+                          objects, updates / elapsed / 1e6, batches / elapsed, (double) allocated / updates);
+    }
+
+    private static void runBatches(PoseBuffer buffer, int objects, int batches) {
+        for(int b = 0; b < batches; b++) {
+            final double t = b * 1e-6;
+            for(int i = 0; i < objects; i++)
+                buffer.set(i, 35.0 + t, -120.0 + i * 1e-4, 3000.0, 0.0, 0.0, t, 1.0);
+            buffer.publish();
+        }
+    }
+}
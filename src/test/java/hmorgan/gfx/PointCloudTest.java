@@ -0,0 +1,84 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.PointCloud;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Vec4;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class PointCloudTest {
+
+    // the default frustum is the cube from -1 to 1
+    private static final Frustum UNIT_FRUSTUM = new Frustum();
+
+    private static PointCloud randomCloud(int count, int leafPoints) {
+        final Random random = new Random(7L);
+        final PointCloud.Builder builder = new PointCloud.Builder()
+                .setName("random")
+                .setLeafPoints(leafPoints);
+        for(int i = 0; i < count; i++)
+            builder.addPoint(random.nextDouble() * 1.8 - 0.9, random.nextDouble() * 1.8 - 0.9, random.nextDouble() * 0.2);
+        return builder.build();
+    }
+
+    @Test
+    public void testOctreeHoldsEveryPointOnce() throws Exception {
+        final PointCloud cloud = randomCloud(100000, 1000);
+
+        assertEquals(100000, cloud.getPointCount());
+        assertEquals(100000, cloud.getRoot().getCount());
+        long leafTotal = 0;
+        for(int i = 0; i < cloud.getLeafCount(); i++) {
+            assertTrue(cloud.getLeaf(i).getCount() <= 1000);
+            final ByteBuffer points = cloud.getLeafPoints(i);
+            assertEquals(cloud.getLeaf(i).getCount() * PointCloud.BYTES_PER_POINT, points.remaining());
+            // every stored point lies in its leaf's bounds
+            final Vec4 origin = cloud.getOrigin();
+            final Vec4 p = new Vec4(origin.x + points.getFloat(0), origin.y + points.getFloat(4), origin.z + points.getFloat(8));
+            assertTrue(cloud.getLeaf(i).getBounds().getCenter().distanceTo3(p) <= cloud.getLeaf(i).getBounds().getRadius() + 1e-5);
+            leafTotal += cloud.getLeaf(i).getCount();
+        }
+        assertEquals(100000, leafTotal);
+        assertEquals(1, cloud.getChunkCount());
+    }
+
+    @Test
+    public void testDistantLeavesAreDecimated() throws Exception {
+        final PointCloud cloud = randomCloud(100000, 1000);
+        final PointCloud.Selection near = new PointCloud.Selection();
+        final PointCloud.Selection far = new PointCloud.Selection();
+
+        cloud.select(UNIT_FRUSTUM, new Vec4(0, 0, 1), 0.001, 1.0, Long.MAX_VALUE, near);
+        cloud.select(UNIT_FRUSTUM, new Vec4(0, 0, 1000), 0.001, 1.0, Long.MAX_VALUE, far);
+
+        assertEquals(cloud.getLeafCount(), near.size());
+        assertEquals(100000, near.getPointCount());
+        assertEquals(cloud.getLeafCount(), far.size());
+        assertTrue(far.getPointCount() < near.getPointCount() / 10);
+        assertTrue(far.getPointCount() >= far.size());    // every visible leaf keeps a point
+    }
+
+    @Test
+    public void testSelectionHonorsBudgetAndFrustum() throws Exception {
+        final PointCloud cloud = randomCloud(100000, 1000);
+        final PointCloud.Selection selection = new PointCloud.Selection();
+
+        cloud.select(UNIT_FRUSTUM, new Vec4(0, 0, 1), 0.001, 1.0, 5000, selection);
+        assertEquals(100000, selection.getRequestedCount());
+        assertTrue(selection.getPointCount() <= 5000);
+        assertTrue(selection.getPointCount() > 4000);
+
+        // a frustum holding only the x < 0 half of the cloud
+        final Frustum half = UNIT_FRUSTUM.transformBy(gov.nasa.worldwind.geom.Matrix.fromTranslation(1.0, 0.0, 0.0).getTranspose());
+        cloud.select(half, new Vec4(0, 0, 1), 0.001, 1.0, Long.MAX_VALUE, selection);
+        assertTrue(selection.size() < cloud.getLeafCount());
+        assertTrue(selection.getPointCount() < 100000);
+    }
+}
@@ -0,0 +1,272 @@
+package hmorgan.gfx;
+
+import com.jogamp.common.util.VersionNumber;
+import com.jogamp.gluegen.runtime.ProcAddressTable;
+import jogamp.opengl.GLContextImpl;
+import jogamp.opengl.gl4.GL4bcImpl;
+import sun.misc.Unsafe;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.TraceGL4bc;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * A GL2 that needs no GL context nor native libraries, for tests that draw: the calls the
+ * renderers make do nothing but record what a test checks, buffer names and draw calls. Any
+ * other call fails, naming itself. Recording doesn't allocate, so it can be used to measure the
+ * allocations of a frame.
+ * <p>
+ * Draw contexts get it through its {@link #getContext() context}, which can also be made
+ * current, so WorldWind code that asks for the current context, e.g. the GPU resource cache
+ * deleting the buffers of the entries it drops, calls it too.
+ *
+ * @author Hunter N. Morgan
+ */
+public class RecordingGL extends TraceGL4bc {
+
+    /** fails any call this class doesn't stand in for, after the trace names it */
+    private static final PrintStream UNEXPECTED = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            final String call = new String(b, off, len).trim();
+            if(!call.isEmpty())
+                throw new UnsupportedOperationException("unexpected GL call " + call);
+        }
+    });
+
+    /**
+     * The context of a recording GL: a GL2 compatibility context without a drawable, that can
+     * still be made current on a thread.
+     */
+    public static final class Context extends GLContextImpl {
+
+        private Context() {
+            super(null, null);
+        }
+
+        /**
+         * GLContextImpl's constructor loads the natives of its debug message handler, so the
+         * context is allocated without it, with only the fields a GL2 reads set.
+         */
+        private static Context newContext() {
+            final Context context;
+            try {
+                final Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                context = (Context) ((Unsafe) theUnsafe.get(null)).allocateInstance(Context.class);
+            } catch(ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+            context.ctxOptions = CTX_PROFILE_COMPAT;
+            context.ctxVersion = new VersionNumber(2, 1, 0);
+            return context;
+        }
+
+        private void gl(GL gl) {
+            this.gl = gl;
+        }
+
+        /**
+         * Makes this the current context of the calling thread, until {@link #release()}.
+         */
+        public void makeCurrentWithoutDrawable() {
+            setCurrent(this);
+        }
+
+        @Override
+        public void release() {
+            setCurrent(null);
+        }
+
+        @Override public boolean isGLReadDrawableAvailable() { return false; }
+        @Override public Object getPlatformGLExtensions() { return null; }
+        @Override protected void releaseImpl() { }
+        @Override protected void destroyImpl() { }
+        @Override protected void copyImpl(GLContext source, int mask) { throw new UnsupportedOperationException(); }
+        @Override protected void makeCurrentImpl() { throw new UnsupportedOperationException(); }
+        @Override protected boolean createImpl(long shareWithHandle) { throw new UnsupportedOperationException(); }
+        @Override protected long createContextARBImpl(long share, boolean direct, int ctxOptionFlags, int major, int minor) { throw new UnsupportedOperationException(); }
+        @Override protected void destroyContextARBImpl(long context) { }
+        @Override public ProcAddressTable getPlatformExtProcAddressTable() { return null; }
+        @Override public ByteBuffer glAllocateMemoryNV(int size, float readFrequency, float writeFrequency, float priority) { throw new UnsupportedOperationException(); }
+        @Override public void glFreeMemoryNV(ByteBuffer pointer) { throw new UnsupportedOperationException(); }
+        @Override protected Map<String, String> getFunctionNameMap() { return null; }
+        @Override protected Map<String, String> getExtensionNameMap() { return null; }
+        @Override protected void updateGLXProcAddressTable() { }
+        @Override protected StringBuilder getPlatformExtensionsStringImpl() { return new StringBuilder(); }
+    }
+
+    private final Context context;
+    private int nextName = 1;
+    private final BitSet deleted = new BitSet();
+    private int arrayBuffer, elementArrayBuffer;
+    private int drawCalls;
+    private int drawsFromDeletedBuffers;
+    private float[] materialDiffuse;
+    private int materialDiffuseOffset;
+
+    public RecordingGL() {
+        this(Context.newContext());
+    }
+
+    private RecordingGL(Context context) {
+        // the downstream GL only answers what kind of GL this is, the calls of the renderers are answered here
+        super(new GL4bcImpl(null, context), UNEXPECTED);
+        this.context = context;
+        context.gl(this);
+    }
+
+    @Override
+    public Context getContext() {
+        return context;
+    }
+
+    // buffers
+
+    private void genNames(int n, int[] names, int offset) {
+        for(int i = 0; i < n; i++)
+            names[offset + i] = nextName++;
+    }
+
+    @Override public void glGenBuffers(int n, int[] buffers, int offset) { genNames(n, buffers, offset); }
+    @Override public void glGenTextures(int n, int[] textures, int offset) { genNames(n, textures, offset); }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        for(int i = 0; i < n; i++)
+            deleted.set(buffers[offset + i]);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        for(int i = 0; i < n; i++)
+            deleted.set(textures[offset + i]);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if(target == GL.GL_ARRAY_BUFFER)
+            arrayBuffer = buffer;
+        else if(target == GL.GL_ELEMENT_ARRAY_BUFFER)
+            elementArrayBuffer = buffer;
+    }
+
+    @Override public void glBufferData(int target, long size, Buffer data, int usage) { }
+    @Override public void glBufferSubData(int target, long offset, long size, Buffer data) { }
+    @Override public boolean glIsBuffer(int buffer) { return buffer > 0 && buffer < nextName && !deleted.get(buffer); }
+
+    // draws
+
+    private void draw() {
+        drawCalls++;
+        if(deleted.get(arrayBuffer) || deleted.get(elementArrayBuffer))
+            drawsFromDeletedBuffers++;
+    }
+
+    @Override public void glDrawArrays(int mode, int first, int count) { draw(); }
+    @Override public void glDrawElements(int mode, int count, int type, long offset) { draw(); }
+    @Override public void glDrawElements(int mode, int count, int type, Buffer indices) { draw(); }
+    @Override public void glDrawRangeElements(int mode, int start, int end, int count, int type, long offset) { draw(); }
+
+    @Override
+    public void glMaterialfv(int face, int pname, float[] params, int offset) {
+        // kept like a GL reads it, so an array made just for the call can't be optimized away
+        if(pname == GL2.GL_DIFFUSE) {
+            materialDiffuse = params;
+            materialDiffuseOffset = offset;
+        }
+    }
+
+    // state that only matters to a real GL
+
+    @Override public void glVertexPointer(int size, int type, int stride, long offset) { }
+    @Override public void glVertexPointer(int size, int type, int stride, Buffer pointer) { }
+    @Override public void glNormalPointer(int type, int stride, long offset) { }
+    @Override public void glNormalPointer(int type, int stride, Buffer pointer) { }
+    @Override public void glColorPointer(int size, int type, int stride, long offset) { }
+    @Override public void glColorPointer(int size, int type, int stride, Buffer pointer) { }
+    @Override public void glTexCoordPointer(int size, int type, int stride, long offset) { }
+    @Override public void glTexCoordPointer(int size, int type, int stride, Buffer pointer) { }
+    @Override public void glEnableClientState(int array) { }
+    @Override public void glDisableClientState(int array) { }
+    @Override public void glEnable(int cap) { }
+    @Override public void glDisable(int cap) { }
+    @Override public void glPushAttrib(int mask) { }
+    @Override public void glPopAttrib() { }
+    @Override public void glPushClientAttrib(int mask) { }
+    @Override public void glPopClientAttrib() { }
+    @Override public void glMatrixMode(int mode) { }
+    @Override public void glPushMatrix() { }
+    @Override public void glPopMatrix() { }
+    @Override public void glLoadIdentity() { }
+    @Override public void glLoadMatrixd(double[] m, int offset) { }
+    @Override public void glMultMatrixd(double[] m, int offset) { }
+    @Override public void glScaled(double x, double y, double z) { }
+    @Override public void glTranslated(double x, double y, double z) { }
+    @Override public void glBlendFunc(int sfactor, int dfactor) { }
+    @Override public void glColorMaterial(int face, int mode) { }
+    @Override public void glColor4f(float red, float green, float blue, float alpha) { }
+    @Override public void glColor4ub(byte red, byte green, byte blue, byte alpha) { }
+    @Override public void glColor3ub(byte red, byte green, byte blue) { }
+    @Override public void glMaterialf(int face, int pname, float param) { }
+    @Override public void glLightfv(int light, int pname, float[] params, int offset) { }
+    @Override public void glLightModeli(int pname, int param) { }
+    @Override public void glLightModelfv(int pname, float[] params, int offset) { }
+    @Override public void glShadeModel(int mode) { }
+    @Override public void glCullFace(int mode) { }
+    @Override public void glFrontFace(int mode) { }
+    @Override public void glDepthMask(boolean flag) { }
+    @Override public void glDepthFunc(int func) { }
+    @Override public void glLineWidth(float width) { }
+    @Override public void glHint(int target, int mode) { }
+    @Override public void glPolygonMode(int face, int mode) { }
+    @Override public void glBindTexture(int target, int texture) { }
+    @Override public void glTexEnvi(int target, int pname, int param) { }
+    @Override public void glActiveTexture(int texture) { }
+    @Override public void glAlphaFunc(int func, float ref) { }
+
+    ////////////////////////
+    // GETTERS AND SETTERS
+    ////////////////////////
+
+    /**
+     * @return number of draw calls made
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * @return number of draw calls made with a deleted buffer bound
+     */
+    public int getDrawsFromDeletedBuffers() {
+        return drawsFromDeletedBuffers;
+    }
+
+    /**
+     * @return alpha of the diffuse color of the last material set
+     */
+    public float getMaterialDiffuseAlpha() {
+        return materialDiffuse[materialDiffuseOffset + 3];
+    }
+
+    /**
+     * @param name a buffer or texture name
+     * @return true if the name was deleted
+     */
+    public boolean isDeleted(int name) {
+        return deleted.get(name);
+    }
+}
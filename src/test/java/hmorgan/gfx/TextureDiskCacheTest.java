@@ -0,0 +1,91 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.TextureDiskCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class TextureDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path writeSource(String name) throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve(name);
+        Files.write(path, name.getBytes());
+        return path;
+    }
+
+    private static byte[] texels(int width, int height, int seed) {
+        final byte[] texels = new byte[4 * width * height];
+        for(int i = 0; i < texels.length; i++)
+            texels[i] = (byte) (i + seed);
+        return texels;
+    }
+
+    private static long entryCount(TextureDiskCache cache) throws Exception {
+        try(Stream<Path> files = Files.list(cache.getDirectory())) {
+            return files.filter(p -> p.toString().endsWith(".rgba")).count();
+        }
+    }
+
+    @Test
+    public void testEntryRoundTrip() throws Exception {
+        final TextureDiskCache cache = new TextureDiskCache(tempFolder.newFolder("cache").toPath(), 1L << 20);
+        final Path source = writeSource("round.png");
+        assertNull(cache.get(source));
+
+        final byte[] level0 = texels(4, 2, 1);
+        final byte[] level1 = texels(2, 1, 7);
+        cache.put(source, new int[]{4, 2}, new int[]{2, 1}, new byte[][]{level0, level1});
+        final TextureDiskCache.Entry entry = cache.get(source);
+
+        assertNotNull(entry);
+        assertEquals(2, entry.getLevelCount());
+        assertEquals(4, entry.getWidth(0));
+        assertEquals(1, entry.getHeight(1));
+        final ByteBuffer mapped = entry.getTexels(1);
+        final byte[] read = new byte[mapped.remaining()];
+        mapped.get(read);
+        assertArrayEquals(level1, read);
+        assertEquals(level0.length, entry.getTexels(0).remaining());
+    }
+
+    @Test
+    public void testChangedSourceInvalidatesEntry() throws Exception {
+        final TextureDiskCache cache = new TextureDiskCache(tempFolder.newFolder("cache").toPath(), 1L << 20);
+        final Path source = writeSource("stale.png");
+        cache.put(source, new int[]{1}, new int[]{1}, new byte[][]{texels(1, 1, 0)});
+
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 2000));
+        assertNull(cache.get(source));
+
+        cache.put(source, new int[]{1}, new int[]{1}, new byte[][]{texels(1, 1, 3)});
+        assertNotNull(cache.get(source));
+        assertEquals(1, entryCount(cache));             // the old version was deleted
+    }
+
+    @Test
+    public void testCacheSizeIsBounded() throws Exception {
+        final int entryBytes = 4 * 32 * 32;
+        final TextureDiskCache cache = new TextureDiskCache(tempFolder.newFolder("cache").toPath(), 3L * entryBytes + 200);
+        for(int i = 0; i < 10; i++) {
+            final Path source = writeSource("bounded" + i + ".png");
+            cache.put(source, new int[]{32}, new int[]{32}, new byte[][]{texels(32, 32, i)});
+        }
+
+        assertTrue(entryCount(cache) <= 3);
+        assertNotNull(cache.get(tempFolder.getRoot().toPath().resolve("bounded9.png")));
+    }
+}
@@ -0,0 +1,84 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.TexturePyramid;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class TexturePyramidTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path writeImage(String name, int width, int height) throws Exception {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++)
+                image.setRGB(x, y, ((x ^ y) & 1) == 0 ? 0xffffffff : 0xff000000);
+        }
+        final Path path = tempFolder.getRoot().toPath().resolve(name);
+        ImageIO.write(image, "png", path.toFile());
+        return path;
+    }
+
+    @Test
+    public void testOnlySmallLevelsAreResident() throws Exception {
+        final TexturePyramid pyramid = TexturePyramid.build(writeImage("checker.png", 256, 128));
+
+        assertEquals(9, pyramid.getLevelCount());      // 256x128 down to 1x1
+        assertEquals(256, pyramid.getWidth());
+        assertEquals(128, pyramid.getHeight());
+        assertFalse(pyramid.isResident(0));
+        assertFalse(pyramid.isResident(1));
+        assertTrue(pyramid.isResident(2));              // 64x32
+        assertTrue(pyramid.isResident(8));
+    }
+
+    @Test
+    public void testSelectLevelFromScreenSize() throws Exception {
+        final TexturePyramid pyramid = TexturePyramid.build(writeImage("select.png", 512, 512));
+
+        assertEquals(0, pyramid.selectLevel(2000.0));
+        assertEquals(0, pyramid.selectLevel(512.0));
+        assertEquals(1, pyramid.selectLevel(256.0));
+        assertEquals(4, pyramid.selectLevel(20.0));     // 32 texels for 20 pixels
+        assertEquals(pyramid.getLevelCount() - 1, pyramid.selectLevel(0.0));
+    }
+
+    @Test
+    public void testRebuildReusesDiskCache() throws Exception {
+        final Path path = writeImage("cached.png", 128, 128);
+        final TexturePyramid first = TexturePyramid.build(path);
+        final TexturePyramid second = TexturePyramid.build(path);
+
+        assertEquals(first.getLevelCount(), second.getLevelCount());
+        assertEquals(first.getWidth(), second.getWidth());
+        assertTrue(second.isResident(first.getLevelCount() - 1));
+        assertFalse(second.isResident(0));
+    }
+
+    @Test
+    public void testChangedImageReplacesCachedPyramid() throws Exception {
+        final Path path = writeImage("changed.png", 32, 32);
+        final TexturePyramid first = Mesh.loadTexture(path);
+        assertSame(first, Mesh.loadTexture(path));
+        assertTrue(Mesh.isTextureCached(path));
+
+        writeImage("changed.png", 16, 16);
+        assertFalse(Mesh.isTextureCached(path));
+        final TexturePyramid second = Mesh.loadTexture(path);
+        assertNotSame(first, second);
+        assertEquals(16, second.getWidth());
+        assertSame(second, Mesh.loadTexture(path));
+    }
+}
@@ -0,0 +1,75 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.KeyframeAnimation;
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.wavefront.AnimatedObjModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class AnimatedObjModelTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** a triangle moved along x by 2 units per frame */
+    private List<Path> writeFrames(int count) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        for(int f = 0; f < count; f++) {
+            final double x = 2.0 * f;
+            final String obj = "o tri\n" +
+                    "v " + x + " 0 0\nv " + (x + 1) + " 0 0\nv " + x + " 1 0\n" +
+                    "vn 0 0 1\nf 1//1 2//1 3//1\n";
+            paths.add(Files.write(tempFolder.getRoot().toPath().resolve("frame" + f + ".obj"), obj.getBytes()));
+        }
+        return paths;
+    }
+
+    @Test
+    public void testInterpolatesBetweenKeyframes() throws Exception {
+        final AnimatedObjModel model = new AnimatedObjModel(writeFrames(3));
+        final KeyframeAnimation animation = model.getAnimation();
+        assertEquals(3, animation.getFrameCount());
+        // deltas of two frames, 3 vertices of 6 shorts each
+        assertEquals(2 * 3 * 6 * 2, animation.getDeltaBytes());
+
+        final Mesh mesh = animation.getMeshes()[0];
+        final FloatBuffer base = mesh.getVboBuf();
+        final FloatBuffer out = FloatBuffer.allocate(base.limit());
+        animation.interpolate(0, 0.5, out);
+        for(int i = 0; i < base.limit(); i += 6) {
+            assertEquals(base.get(i) + 1.0f, out.get(i), 1e-3f);
+            assertEquals(base.get(i + 1), out.get(i + 1), 1e-3f);
+            assertEquals(1.0f, out.get(i + 5), 1e-6f);
+        }
+
+        // past the last frame it blends back into the first
+        animation.interpolate(0, 2.5, out);
+        assertEquals(base.get(0) + 2.0f, out.get(0), 1e-3f);
+        animation.interpolate(0, -1.0, out);
+        assertEquals(base.get(0) + 4.0f, out.get(0), 1e-3f);
+
+        // bounds cover every frame, from x = 0 to x = 5
+        assertEquals(2.5, animation.getBounds().getCenter().x, 1e-3);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsFramesOfAnotherTopology() throws Exception {
+        final List<Path> paths = writeFrames(2);
+        paths.add(Files.write(tempFolder.getRoot().toPath().resolve("quad.obj"),
+                              "o tri\nv 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nvn 0 0 1\nf 1//1 2//1 3//1\nf 1//1 3//1 4//1\n".getBytes()));
+        new AnimatedObjModel(paths);
+    }
+}
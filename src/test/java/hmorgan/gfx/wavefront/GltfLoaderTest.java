@@ -0,0 +1,114 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.Vertex;
+import com.hmorgan.gfx.wavefront.FormatDetectingLoader;
+import com.hmorgan.gfx.wavefront.GltfLoader;
+import com.hmorgan.gfx.wavefront.ModelFormat;
+import com.hmorgan.gfx.wavefront.ObjLoadResult;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class GltfLoaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** one triangle in the xy plane, counterclockwise, with 16-bit indices */
+    private static byte[] triangleBuffer() {
+        final ByteBuffer buf = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putFloat(0).putFloat(0).putFloat(0);
+        buf.putFloat(1).putFloat(0).putFloat(0);
+        buf.putFloat(0).putFloat(1).putFloat(0);
+        buf.putShort((short) 0).putShort((short) 1).putShort((short) 2).putShort((short) 0);
+        return buf.array();
+    }
+
+    private static String triangleJson(String bufferUri) {
+        return "{\"asset\":{\"version\":\"2.0\"},\"scene\":0,\"scenes\":[{\"nodes\":[0]}]," +
+               "\"nodes\":[{\"mesh\":0,\"translation\":[10,0,0]}]," +
+               "\"meshes\":[{\"name\":\"tri\",\"primitives\":[{\"attributes\":{\"POSITION\":0},\"indices\":1,\"material\":0}]}]," +
+               "\"materials\":[{\"pbrMetallicRoughness\":{\"baseColorFactor\":[1,0,0,0.5]}}]," +
+               "\"buffers\":[{" + (bufferUri != null ? "\"uri\":\"" + bufferUri + "\"," : "") + "\"byteLength\":44}]," +
+               "\"bufferViews\":[{\"buffer\":0,\"byteOffset\":0,\"byteLength\":36},{\"buffer\":0,\"byteOffset\":36,\"byteLength\":6}]," +
+               "\"accessors\":[{\"bufferView\":0,\"componentType\":5126,\"count\":3,\"type\":\"VEC3\"}," +
+               "{\"bufferView\":1,\"componentType\":5123,\"count\":3,\"type\":\"SCALAR\"}]}";
+    }
+
+    private Path writeGlb(String name) throws Exception {
+        byte[] json = triangleJson(null).getBytes(StandardCharsets.UTF_8);
+        final int jsonLength = (json.length + 3) & ~3;
+        final byte[] bin = triangleBuffer();
+        final ByteBuffer glb = ByteBuffer.allocate(12 + 8 + jsonLength + 8 + bin.length).order(ByteOrder.LITTLE_ENDIAN);
+        glb.putInt(0x46546C67).putInt(2).putInt(glb.capacity());
+        glb.putInt(jsonLength).putInt(0x4E4F534A).put(json);
+        for(int i = json.length; i < jsonLength; i++)
+            glb.put((byte) ' ');
+        glb.putInt(bin.length).putInt(0x004E4942).put(bin);
+        return Files.write(tempFolder.getRoot().toPath().resolve(name), glb.array());
+    }
+
+    @Test
+    public void testLoadsGlb() throws Exception {
+        final Path glb = writeGlb("triangle.glb");
+        final ObjLoadResult result = new GltfLoader(tempFolder.newFolder("images").toPath()).load(glb, "glb");
+
+        final Map<String, Mesh> meshes = result.getMeshes();
+        assertEquals(1, meshes.size());
+        final Mesh mesh = meshes.values().iterator().next();
+        assertEquals(Mesh.MeshType.POLYGON_MESH, mesh.getMeshType());
+        assertEquals(new Color(1.0f, 0.0f, 0.0f, 0.5f), mesh.getMaterial().get().getDiffuse());
+
+        // the node's translation is applied, and the missing normals are those of the face
+        final List<Vertex> vertices = mesh.getVertices();
+        assertEquals(3, vertices.size());
+        assertEquals(11.0f, vertices.get(1).getPosition().getX(), 1e-6f);
+        assertEquals(1.0f, vertices.get(2).getPosition().getY(), 1e-6f);
+        assertEquals(1.0f, vertices.get(0).getNormal().get().getZ(), 1e-6f);
+        assertEquals(3, result.getReport().getVertices());
+        assertEquals(1, result.getReport().getFaces());
+    }
+
+    @Test
+    public void testLoadsGltfWithDataUri() throws Exception {
+        final String uri = "data:application/octet-stream;base64," + Base64.getEncoder().encodeToString(triangleBuffer());
+        final Path gltf = Files.write(tempFolder.getRoot().toPath().resolve("triangle.gltf"),
+                                      triangleJson(uri).getBytes(StandardCharsets.UTF_8));
+        final Map<String, Mesh> meshes = new GltfLoader().loadMeshes(gltf);
+        assertEquals(1, meshes.size());
+        assertEquals(3, meshes.values().iterator().next().getVertices().size());
+    }
+
+    @Test
+    public void testDetectsFormat() throws Exception {
+        final Path root = tempFolder.getRoot().toPath();
+        final Path obj = Files.write(root.resolve("a.obj"), "o a\nv 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes(StandardCharsets.UTF_8));
+        final Path gltf = Files.write(root.resolve("a.txt"), "  {\"asset\":{\"version\":\"2.0\"}}".getBytes(StandardCharsets.UTF_8));
+        final Path glb = writeGlb("a.bin");
+        assertEquals(ModelFormat.OBJ, ModelFormat.detect(obj));
+        assertEquals(ModelFormat.GLTF, ModelFormat.detect(gltf));
+        assertEquals(ModelFormat.GLB, ModelFormat.detect(glb));
+
+        final FormatDetectingLoader loader = new FormatDetectingLoader(new ObjLoader(), new GltfLoader());
+        assertEquals(1, loader.load(obj, "obj").getMeshes().size());
+        assertEquals(1, loader.load(glb, "bin").getMeshes().size());
+        assertTrue(loader.load(gltf, "empty").getMeshes().isEmpty());
+    }
+}
@@ -0,0 +1,210 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.GpuUploadScheduler;
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.Vertex;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.util.Logging;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class GpuUploadSchedulerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * Loads triangles of the same size, with vertex buffers already prepared so requests don't
+     * wait for the preparer.
+     */
+    private List<Mesh> loadTriangles(String namespace, int count) throws Exception {
+        final StringBuilder obj = new StringBuilder("vn 0 0 1\n");
+        for(int i = 0; i < count; i++) {
+            obj.append("o tri").append(i).append('\n');
+            obj.append("v ").append(i).append(" 0 0\nv ").append(i + 1).append(" 0 0\nv ").append(i).append(" 1 0\n");
+            obj.append("f ").append(3 * i + 1).append("//1 ").append(3 * i + 2).append("//1 ").append(3 * i + 3).append("//1\n");
+        }
+        final Path path = Files.write(tempFolder.getRoot().toPath().resolve(namespace + ".obj"), obj.toString().getBytes());
+        final Map<String, Mesh> meshes = new ObjLoader().load(path, namespace).getMeshes();
+        final List<Mesh> triangles = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            final Mesh mesh = meshes.values().stream().filter(m -> m.getVertices().get(0).getPosition().getX() == triangles.size())
+                                    .findFirst().get();
+            mesh.prepareVboBuffer();
+            triangles.add(mesh);
+        }
+        return triangles;
+    }
+
+    /** records uploads instead of making them */
+    private static final class RecordingScheduler extends GpuUploadScheduler {
+        final List<Mesh> uploaded = new ArrayList<>();
+
+        RecordingScheduler(long bytesPerFrame) {
+            super(RenderFixtures.idleExecutor(), bytesPerFrame);
+        }
+
+        @Override
+        protected int upload(DrawContext dc, Mesh mesh) {
+            uploaded.add(mesh);
+            return 1;
+        }
+    }
+
+    private static DrawContext frame(DrawContextImpl dc, long timestamp) {
+        dc.setFrameTimeStamp(timestamp);
+        return dc;
+    }
+
+    @Test
+    public void testSpendsTheBudgetOfAFrame() throws Exception {
+        final List<Mesh> meshes = loadTriangles("upload-budget", 5);
+        final long size = meshes.get(0).getUploadSizeBytes();
+        final RecordingScheduler scheduler = new RecordingScheduler(2 * size + size / 2);
+        final DrawContextImpl dc = new DrawContextImpl();
+        for(Mesh mesh : meshes)
+            scheduler.request(mesh, 1.0);
+        assertEquals(5, scheduler.getPendingCount());
+
+        // two meshes fit the budget, later calls in the same frame do nothing
+        assertEquals(2, scheduler.processUploads(frame(dc, 1L)));
+        assertEquals(0, scheduler.processUploads(frame(dc, 1L)));
+        assertEquals(2, scheduler.uploaded.size());
+        assertEquals(3, scheduler.getPendingCount());
+
+        assertEquals(2, scheduler.processUploads(frame(dc, 2L)));
+        assertEquals(1, scheduler.getPendingCount());
+
+        // a budget smaller than a mesh still uploads one per frame
+        scheduler.setBytesPerFrame(1L);
+        assertEquals(1, scheduler.processUploads(frame(dc, 3L)));
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(0, scheduler.processUploads(frame(dc, 4L)));
+        assertEquals(meshes.size(), scheduler.uploaded.size());
+        for(Mesh mesh : meshes)
+            assertTrue(scheduler.uploaded.contains(mesh));
+    }
+
+    @Test
+    public void testUploadsMostImportantFirst() throws Exception {
+        final List<Mesh> meshes = loadTriangles("upload-order", 3);
+        final RecordingScheduler scheduler = new RecordingScheduler(meshes.get(0).getUploadSizeBytes());
+        final DrawContextImpl dc = new DrawContextImpl();
+        scheduler.request(meshes.get(0), 1.0);
+        scheduler.request(meshes.get(1), 3.0);
+        scheduler.request(meshes.get(2), 2.0);
+        // a second request in the same frame only raises the priority
+        scheduler.request(meshes.get(0), 0.5);
+        scheduler.request(meshes.get(2), 4.0);
+
+        for(long frame = 1L; frame <= 3L; frame++) {
+            for(Mesh mesh : meshes)
+                if(!scheduler.uploaded.contains(mesh))
+                    scheduler.request(mesh, 1.0 + meshes.indexOf(mesh));
+            scheduler.processUploads(frame(dc, frame));
+        }
+        assertEquals(3, scheduler.uploaded.size());
+        assertSame(meshes.get(2), scheduler.uploaded.get(0));
+        assertSame(meshes.get(1), scheduler.uploaded.get(1));
+        assertSame(meshes.get(0), scheduler.uploaded.get(2));
+    }
+
+    @Test
+    public void testMeshesThatLeftTheViewWait() throws Exception {
+        final List<Mesh> meshes = loadTriangles("upload-aging", 4);
+        final Mesh first = meshes.get(0);
+        final Mesh shrinking = meshes.get(1);
+        final Mesh visible = meshes.get(2);
+        final Mesh gone = meshes.get(3);
+        final RecordingScheduler scheduler = new RecordingScheduler(first.getUploadSizeBytes());
+        final DrawContextImpl dc = new DrawContextImpl();
+        scheduler.request(first, 30.0);
+        scheduler.request(gone, 20.0);
+        scheduler.request(shrinking, 10.0);
+        scheduler.request(visible, 5.0);
+        scheduler.processUploads(frame(dc, 1L));
+
+        // the shrinking model's new priority replaces its old one, the gone model isn't requested
+        scheduler.request(shrinking, 1.0);
+        scheduler.request(visible, 5.0);
+        scheduler.processUploads(frame(dc, 2L));
+        scheduler.request(shrinking, 1.0);
+        scheduler.processUploads(frame(dc, 3L));
+        // with nothing else waiting it is uploaded after all
+        scheduler.processUploads(frame(dc, 4L));
+
+        assertEquals(4, scheduler.uploaded.size());
+        assertSame(first, scheduler.uploaded.get(0));
+        assertSame(visible, scheduler.uploaded.get(1));
+        assertSame(shrinking, scheduler.uploaded.get(2));
+        assertSame(gone, scheduler.uploaded.get(3));
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testMeshesThatFailToPrepareAreNotTriedAgain() throws Exception {
+        // a vertex without a position can't be put in a vertex buffer
+        final Mesh broken = new Mesh.Builder().setName("upload-broken")
+                                              .setVertices(Collections.singletonList(new Vertex.Builder(null).build()))
+                                              .build();
+        final List<LogRecord> logged = new ArrayList<>();
+        final Handler handler = new Handler() {
+            @Override
+            public synchronized void publish(LogRecord record) {
+                if(record.getMessage().contains("upload-broken"))
+                    logged.add(record);
+            }
+
+            @Override public void flush() { }
+            @Override public void close() { }
+        };
+        final ThreadPoolExecutor preparer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        final GpuUploadScheduler scheduler = new GpuUploadScheduler(preparer, GpuUploadScheduler.DEFAULT_BYTES_PER_FRAME);
+        final DrawContextImpl dc = new DrawContextImpl();
+        Logging.logger().addHandler(handler);
+        try {
+            scheduler.request(broken, 1.0);
+            preparer.shutdown();
+            assertTrue(preparer.awaitTermination(10L, TimeUnit.SECONDS));
+            assertEquals(0, scheduler.processUploads(frame(dc, 1L)));
+            assertEquals(0, scheduler.getPendingCount());
+            assertEquals(1, scheduler.getFailedCount());
+
+            // the shut down preparer would reject another try
+            for(long frame = 2L; frame <= 4L; frame++) {
+                scheduler.request(broken, 1.0);
+                assertEquals(0, scheduler.processUploads(frame(dc, frame)));
+            }
+            assertEquals(0, scheduler.getPendingCount());
+            assertEquals(1, preparer.getTaskCount());
+            synchronized(handler) {
+                assertEquals(1, logged.size());
+            }
+
+            scheduler.cancel(broken);
+            assertEquals(0, scheduler.getFailedCount());
+        } finally {
+            Logging.logger().removeHandler(handler);
+        }
+    }
+}
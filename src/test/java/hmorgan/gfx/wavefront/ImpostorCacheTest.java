@@ -0,0 +1,344 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.wavefront.ImpostorCache;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.render.Material;
+import gov.nasa.worldwind.view.BasicView;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.*;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ImpostorCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** exposes the impostor key */
+    private static class KeyedModel extends ObjModel {
+        KeyedModel(Map<String, Mesh> meshes) {
+            super(meshes);
+        }
+
+        Object key() {
+            return getImpostorKey();
+        }
+    }
+
+    /** a model whose meshes count as uploaded, though the idle scheduler never uploads them */
+    private static final class UploadedModel extends KeyedModel {
+        UploadedModel(Map<String, Mesh> meshes) {
+            super(meshes);
+            setUploadScheduler(RenderFixtures.idleUploadScheduler());
+        }
+
+        @Override
+        protected boolean hasMeshWaitingForUpload() {
+            return false;
+        }
+    }
+
+    /** records the atlases and pictures instead of making them with a GL */
+    private static final class RecordingCache extends ImpostorCache {
+        final List<Integer> created = new ArrayList<>();
+        final List<Integer> deleted = new ArrayList<>();
+        int cellsRendered;
+        boolean framebuffersSupported = true;
+
+        boolean take(DrawContext dc, ObjModel model) {
+            return add(dc, model);
+        }
+
+        void endFrame() {
+            discardPending();
+        }
+
+        @Override
+        protected int createAtlasTexture(DrawContext dc) {
+            created.add(created.size() + 1);
+            return created.size();
+        }
+
+        @Override
+        protected void deleteAtlasTexture(DrawContext dc, int textureId) {
+            deleted.add(textureId);
+        }
+
+        @Override
+        protected boolean renderCell(DrawContext dc, ObjModel model, int textureId, int bucket) {
+            if(!framebuffersSupported)
+                return false;
+            cellsRendered++;
+            return true;
+        }
+    }
+
+    /** perspective view from an eye point towards a target, a thousand pixels across at a distance */
+    private static final class LookAtView extends BasicView {
+        private final Vec4 eye;
+        private final Matrix modelview;
+        private final Frustum frustum;
+
+        LookAtView(Vec4 eye, Vec4 target) {
+            this.eye = eye;
+            this.modelview = Matrix.fromViewLookAt(eye, target, eye.normalize3());
+            this.frustum = Frustum.fromPerspective(Angle.fromDegrees(45.0), 800, 400, 1.0, 100000.0)
+                                  .transformBy(modelview.getTranspose());
+        }
+
+        @Override public Vec4 getEyePoint() { return eye; }
+        @Override public Matrix getModelviewMatrix() { return modelview; }
+        @Override public Frustum getFrustumInModelCoordinates() { return frustum; }
+        @Override public double computePixelSizeAtDistance(double distance) { return distance / 1000.0; }
+    }
+
+    /** a draw context looking east along the parallel of 10 degrees north from 19.99 degrees east */
+    private static DrawContextImpl lookingEast() {
+        final DrawContextImpl dc = RenderFixtures.newDrawContext();
+        final Globe globe = dc.getGlobe();
+        dc.setView(new LookAtView(globe.computePointFromPosition(Position.fromDegrees(10.0, 19.99, 50.0)),
+                                  globe.computePointFromPosition(Position.fromDegrees(10.0, 20.0, 50.0))));
+        return dc;
+    }
+
+    private Map<String, Mesh> loadBlock() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("block.obj");
+        if(!Files.exists(path)) {
+            final StringBuilder obj = new StringBuilder("o block\n");
+            for(int i = 0; i < 8; i++) {
+                obj.append("v ").append((i & 1) == 0 ? -10 : 10).append(' ')
+                   .append((i & 2) == 0 ? -8 : 8).append(' ')
+                   .append((i & 4) == 0 ? -6 : 6).append('\n');
+            }
+            obj.append("f 1 2 4 3\nf 5 6 8 7\nf 1 2 6 5\nf 3 4 8 7\nf 1 3 7 5\nf 2 4 8 6\n");
+            Files.write(path, obj.toString().getBytes());
+        }
+        return new ObjLoader().load(path, "impostors").getMeshes();
+    }
+
+    /** an opaque block of a color, about a kilometer ahead of the eye and 30 pixels across */
+    private static UploadedModel far(Map<String, Mesh> meshes, Color color, double northOffset) {
+        final UploadedModel model = new UploadedModel(meshes);
+        model.setMaterial(new Material(color));
+        model.setPosition(Position.fromDegrees(10.0 + northOffset, 20.0, 50.0));
+        return model;
+    }
+
+    /** brings the frame state of models up to date for a new frame, as the layer culling them does */
+    private static void beginFrame(DrawContextImpl dc, long timestamp, ObjModel... models) {
+        dc.setFrameTimeStamp(timestamp);
+        for(ObjModel model : models)
+            model.render(dc);
+        while(dc.pollOrderedRenderables() != null) {
+        }
+    }
+
+    @Test
+    public void testBucketsCoverEveryDirection() {
+        for(int bucket = 0; bucket < ImpostorCache.BUCKET_COUNT; bucket++) {
+            final Vec4 direction = ImpostorCache.bucketDirection(bucket);
+            assertEquals(1.0, direction.getLength3(), 1e-9);
+            assertEquals(bucket, ImpostorCache.bucketOf(direction.x, direction.y, direction.z));
+        }
+        // from straight above and below, from east and west
+        assertEquals(ImpostorCache.ROWS - 1, ImpostorCache.bucketOf(0.0, 0.0, 1.0) / ImpostorCache.COLUMNS);
+        assertEquals(0, ImpostorCache.bucketOf(0.0, 0.0, -1.0) / ImpostorCache.COLUMNS);
+        assertNotEquals(ImpostorCache.bucketOf(1.0, 0.0, 0.1), ImpostorCache.bucketOf(-1.0, 0.0, 0.1));
+        // the distance doesn't matter
+        assertEquals(ImpostorCache.bucketOf(3.0, -2.0, 1.0), ImpostorCache.bucketOf(300.0, -200.0, 100.0));
+    }
+
+    @Test
+    public void testModelsThatLookAlikeShareImpostors() throws Exception {
+        final Path path = Files.write(tempFolder.getRoot().toPath().resolve("tri.obj"),
+                                      "o tri\nv 0 0 0\nv 1 0 0\nv 0 1 0\nvn 0 0 1\nf 1//1 2//1 3//1\n".getBytes());
+        final Map<String, Mesh> meshes = new ObjLoader().load(path, "impostors").getMeshes();
+        final KeyedModel first = new KeyedModel(meshes);
+        final KeyedModel second = new KeyedModel(meshes);
+        assertEquals(first.key(), second.key());
+
+        // appearance changes give the model other pictures, changing back shares them again
+        first.setMaterial(Material.RED);
+        assertNotEquals(second.key(), first.key());
+        second.setMaterial(Material.RED);
+        assertEquals(first.key(), second.key());
+        second.setTextureDisabled(true);
+        assertNotEquals(first.key(), second.key());
+        second.setTextureDisabled(false);
+        assertEquals(first.key(), second.key());
+
+        // moving the pose doesn't
+        final Object key = first.key();
+        first.setScale(3.0);
+        assertSame(key, first.key());
+
+        // parts that can move make the model look like no other
+        first.getMeshTree();
+        assertNotEquals(second.key(), first.key());
+    }
+
+    @Test
+    public void testSmallModelsSwitchToImpostors() throws Exception {
+        final RecordingCache cache = new RecordingCache();
+        final DrawContextImpl dc = lookingEast();
+        final UploadedModel model = far(loadBlock(), Color.RED, 0.0);
+
+        // close by, the model is drawn in full
+        model.setPosition(Position.fromDegrees(10.0, 19.9905, 50.0));
+        beginFrame(dc, 1L, model);
+        assertFalse(cache.take(dc, model));
+        assertEquals(0, cache.getAtlasCount());
+        cache.endFrame();
+
+        // far away, its picture is rendered once and drawn from then on
+        model.setPosition(Position.fromDegrees(10.0, 20.0, 50.0));
+        beginFrame(dc, 2L, model);
+        assertTrue(cache.take(dc, model));
+        cache.endFrame();
+        beginFrame(dc, 3L, model);
+        assertTrue(cache.take(dc, model));
+        cache.endFrame();
+        assertEquals(1, cache.cellsRendered);
+        assertEquals(1, cache.getAtlasCount());
+
+        // a model that looks the same shares the picture
+        final UploadedModel alike = far(model.getMeshes(), Color.RED, 0.0);
+        beginFrame(dc, 4L, model, alike);
+        assertTrue(cache.take(dc, model));
+        assertTrue(cache.take(dc, alike));
+        cache.endFrame();
+        assertEquals(1, cache.cellsRendered);
+        assertEquals(1, cache.getAtlasCount());
+    }
+
+    @Test
+    public void testAtlasIsOnlyKeptOnceAPictureIsRendered() throws Exception {
+        final RecordingCache cache = new RecordingCache();
+        cache.framebuffersSupported = false;
+        final DrawContextImpl dc = lookingEast();
+        final UploadedModel model = far(loadBlock(), Color.RED, 0.0);
+
+        beginFrame(dc, 1L, model);
+        assertFalse(cache.take(dc, model));
+        assertEquals(0, cache.getAtlasCount());
+        assertEquals(cache.created, cache.deleted);
+    }
+
+    @Test
+    public void testCellsRenderedPerFrameAreBounded() throws Exception {
+        final RecordingCache cache = new RecordingCache();
+        cache.setCellsPerFrame(2);
+        final DrawContextImpl dc = lookingEast();
+        final Map<String, Mesh> meshes = loadBlock();
+        final Color[] colors = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW};
+        final UploadedModel[] models = new UploadedModel[colors.length];
+        for(int i = 0; i < models.length; i++)
+            models[i] = far(meshes, colors[i], 0.0005 * i);
+
+        // each appearance needs a picture, two are rendered per frame and the rest wait in full
+        final int[] impostors = new int[3];
+        for(int frame = 0; frame < impostors.length; frame++) {
+            beginFrame(dc, frame + 1L, models);
+            for(UploadedModel model : models) {
+                if(cache.take(dc, model))
+                    impostors[frame]++;
+            }
+            cache.endFrame();
+        }
+        assertArrayEquals(new int[]{2, 4, 4}, impostors);
+        assertEquals(4, cache.cellsRendered);
+        assertEquals(4, cache.getAtlasCount());
+
+        // no budget, no new pictures, but the rendered ones are still drawn
+        cache.setCellsPerFrame(0);
+        final UploadedModel other = far(meshes, Color.CYAN, 0.0);
+        beginFrame(dc, 4L, models[0], other);
+        assertTrue(cache.take(dc, models[0]));
+        assertFalse(cache.take(dc, other));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAtlasesAreEvicted() throws Exception {
+        final RecordingCache cache = new RecordingCache();
+        cache.setMaxAtlases(2);
+        final DrawContextImpl dc = lookingEast();
+        final Map<String, Mesh> meshes = loadBlock();
+        final UploadedModel red = far(meshes, Color.RED, 0.0);
+        final UploadedModel green = far(meshes, Color.GREEN, 0.0005);
+        final UploadedModel blue = far(meshes, Color.BLUE, 0.001);
+
+        beginFrame(dc, 1L, red, green, blue);
+        assertTrue(cache.take(dc, red));        // atlas 1
+        assertTrue(cache.take(dc, green));      // atlas 2
+        cache.endFrame();
+
+        // red was drawn since green, so green makes room for blue
+        beginFrame(dc, 2L, red, green, blue);
+        assertTrue(cache.take(dc, red));
+        assertTrue(cache.take(dc, blue));       // atlas 3
+        cache.endFrame();
+        assertEquals(2, cache.getAtlasCount());
+        assertEquals(singletonList(2), cache.deleted);
+
+        // atlases drawn this frame are kept even beyond the limit
+        beginFrame(dc, 3L, red, green, blue);
+        assertTrue(cache.take(dc, red));
+        assertTrue(cache.take(dc, blue));
+        assertTrue(cache.take(dc, green));      // atlas 4, its picture rendered again
+        cache.endFrame();
+        assertEquals(3, cache.getAtlasCount());
+        assertEquals(singletonList(2), cache.deleted);
+        assertEquals(4, cache.cellsRendered);
+    }
+
+    @Test
+    public void testAtlasesOfModelsThatAreGoneAreDeleted() throws Exception {
+        final RecordingCache cache = new RecordingCache();
+        final DrawContextImpl dc = lookingEast();
+        UploadedModel gone = far(loadBlock(), Color.RED, 0.0);
+        beginFrame(dc, 1L, gone);
+        assertTrue(cache.take(dc, gone));
+        cache.endFrame();
+
+        // the cache keeps neither the model nor its meshes
+        final WeakReference<Map<String, Mesh>> meshes = new WeakReference<>(gone.getMeshes());
+        gone = null;
+        for(int i = 0; i < 50 && meshes.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(meshes.get());
+        assertEquals(1, cache.getAtlasCount());
+
+        // its atlas goes when the next one is made
+        final UploadedModel model = far(loadBlock(), Color.RED, 0.0);
+        beginFrame(dc, 2L, model);
+        assertTrue(cache.take(dc, model));
+        cache.endFrame();
+        assertEquals(1, cache.getAtlasCount());
+        assertEquals(singletonList(1), cache.deleted);
+    }
+}
@@ -0,0 +1,162 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.LazyObjModel;
+import com.hmorgan.gfx.wavefront.ObjFileIndex;
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.view.BasicView;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class LazyObjModelTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** perspective view from an eye point towards a target */
+    private static final class LookAtView extends BasicView {
+        private final Vec4 eye;
+        private final Matrix modelview;
+        private final Frustum frustum;
+
+        LookAtView(Vec4 eye, Vec4 target) {
+            this.eye = eye;
+            this.modelview = Matrix.fromViewLookAt(eye, target, eye.normalize3());
+            this.frustum = Frustum.fromPerspective(Angle.fromDegrees(45.0), 800, 400, 1.0, 100000.0)
+                                  .transformBy(modelview.getTranspose());
+        }
+
+        @Override public Vec4 getEyePoint() { return eye; }
+        @Override public Matrix getModelviewMatrix() { return modelview; }
+        @Override public Frustum getFrustumInModelCoordinates() { return frustum; }
+        @Override public double computePixelSizeAtDistance(double distance) { return 0.0; }
+    }
+
+    /** runs section loads on the calling thread, and counts them */
+    private static final class InlineLoader extends AbstractExecutorService {
+        int executed;
+
+        @Override
+        public void execute(Runnable command) {
+            executed++;
+            command.run();
+        }
+
+        @Override public void shutdown() { }
+        @Override public List<Runnable> shutdownNow() { return Collections.emptyList(); }
+        @Override public boolean isShutdown() { return false; }
+        @Override public boolean isTerminated() { return false; }
+        @Override public boolean awaitTermination(long timeout, TimeUnit unit) { return true; }
+    }
+
+    /**
+     * Writes a triangle at the origin and one 5 km west of it; the model's local x axis points
+     * east.
+     */
+    private Path writeTwoSections() throws Exception {
+        return Files.write(tempFolder.getRoot().toPath().resolve("sections.obj"),
+                           ("o here\nv 0 0 0\nv 10 0 0\nv 0 10 0\nf 1 2 3\n"
+                            + "o west\nv -5000 0 0\nv -4990 0 0\nv -5000 10 0\nf 4 5 6\n").getBytes());
+    }
+
+    private static LazyObjModel newModel(ObjFileIndex index, InlineLoader loader) {
+        final LazyObjModel model = new LazyObjModel(index);
+        model.setLoader(loader);
+        model.setUploadScheduler(RenderFixtures.idleUploadScheduler());
+        model.setPosition(Position.fromDegrees(10.0, 20.0, 500.0));
+        return model;
+    }
+
+    /** looks east at a longitude from 0.01 degrees west of it */
+    private static LookAtView lookingEastAt(Globe globe, double longitude) {
+        return new LookAtView(globe.computePointFromPosition(Position.fromDegrees(10.0, longitude - 0.01, 500.0)),
+                              globe.computePointFromPosition(Position.fromDegrees(10.0, longitude, 500.0)));
+    }
+
+    /** looks west at a longitude from 0.01 degrees east of it */
+    private static LookAtView lookingWestAt(Globe globe, double longitude) {
+        return new LookAtView(globe.computePointFromPosition(Position.fromDegrees(10.0, longitude + 0.01, 500.0)),
+                              globe.computePointFromPosition(Position.fromDegrees(10.0, longitude, 500.0)));
+    }
+
+    private static void render(DrawContextImpl dc, LazyObjModel model, long frame) {
+        dc.setFrameTimeStamp(frame);
+        model.render(dc);
+        while(dc.pollOrderedRenderables() != null)
+            ;
+    }
+
+    private static boolean hasMesh(LazyObjModel model, String section) {
+        return model.getMeshes().keySet().stream().anyMatch(name -> name.endsWith("#" + section));
+    }
+
+    @Test
+    public void testLoadsVisibleSectionsAndEvictsOthers() throws Exception {
+        final ObjFileIndex index = ObjFileIndex.build(writeTwoSections());
+        assertEquals(2, index.getSections().size());
+        final InlineLoader loader = new InlineLoader();
+        final LazyObjModel model = newModel(index, loader);
+        final DrawContextImpl dc = RenderFixtures.newDrawContext();
+        assertEquals(0, model.getLoadedSectionCount());
+
+        // the west section is behind the eye, a loaded section shows up the frame after
+        dc.setView(lookingEastAt(dc.getGlobe(), 20.0));
+        render(dc, model, 1L);
+        assertEquals(1, loader.executed);
+        assertEquals(0, model.getLoadedSectionCount());
+        render(dc, model, 2L);
+        assertEquals(1, model.getLoadedSectionCount());
+        assertTrue(hasMesh(model, "here"));
+        render(dc, model, 3L);
+        assertEquals(1, loader.executed);
+        // the loaded sections form no part hierarchy, asking for one leaves the model as it is
+        assertNull(model.getMeshTree());
+
+        // turning to the west section loads it, and the one left behind is dropped
+        model.setEvictAfterMillis(0L);
+        dc.setView(lookingWestAt(dc.getGlobe(), 19.95));
+        render(dc, model, 4L);
+        render(dc, model, 5L);
+        assertEquals(2, loader.executed);
+        assertEquals(1, model.getLoadedSectionCount());
+        assertTrue(hasMesh(model, "west"));
+        assertFalse(hasMesh(model, "here"));
+        assertEquals(0, model.getFailedSectionCount());
+    }
+
+    @Test
+    public void testDoesNotRetryFailedSections() throws Exception {
+        final Path path = writeTwoSections();
+        final ObjFileIndex index = ObjFileIndex.build(path);
+        Files.delete(path);
+        final InlineLoader loader = new InlineLoader();
+        final LazyObjModel model = newModel(index, loader);
+        final DrawContextImpl dc = RenderFixtures.newDrawContext();
+
+        dc.setView(lookingEastAt(dc.getGlobe(), 20.0));
+        for(long frame = 1L; frame <= 5L; frame++)
+            render(dc, model, frame);
+        assertEquals(1, loader.executed);
+        assertEquals(1, model.getFailedSectionCount());
+        assertEquals(0, model.getLoadedSectionCount());
+        assertTrue(model.getMeshes().isEmpty());
+    }
+}
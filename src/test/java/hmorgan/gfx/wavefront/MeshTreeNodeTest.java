@@ -0,0 +1,88 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.MeshTreeNode;
+import com.hmorgan.gfx.wavefront.ObjAssetRegistry;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import gov.nasa.worldwind.geom.Box;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Plane;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.render.Material;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class MeshTreeNodeTest {
+
+    private static final String PARTS = "o plane\n" +
+            "v 0 0 0\nv 1 0 0\nv 0 1 0\n" +
+            "v 2 0 0\nv 3 0 0\nv 2 1 0\n" +
+            "g body\nf 1 2 3\n" +
+            "g aileron\nf 4 5 6\n";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static DrawContextImpl drawContext(Frustum frustum, long frame) {
+        final DrawContextImpl dc = RenderFixtures.newDrawContext();
+        dc.setView(RenderFixtures.view(frustum));
+        dc.setFrameTimeStamp(frame);
+        return dc;
+    }
+
+    @Test
+    public void testMovesOnlyTheDirtyPart() throws Exception {
+        final Path path = Files.write(tempFolder.getRoot().toPath().resolve("plane.obj"), PARTS.getBytes());
+        final ObjModel model = new ObjAssetRegistry(new ObjLoader()).newModel(path);
+
+        final MeshTreeNode root = model.getMeshTree();
+        final MeshTreeNode plane = root.getChild("plane");
+        assertNotNull(plane);
+        assertEquals(2, plane.getChildren().size());
+        final MeshTreeNode body = plane.getChild("body");
+        final MeshTreeNode aileron = root.find("aileron");
+        assertSame(plane, aileron.getParent());
+        assertEquals(1, body.getMeshes().size());
+        assertEquals(1, aileron.getMeshes().size());
+        assertEquals("aileron", aileron.getMeshes().get(0).getGroupName());
+
+        // translucent and never uploaded, so rendering needs no GL
+        model.setUploadScheduler(RenderFixtures.idleUploadScheduler());
+        model.setMaterial(Material.RED);
+        model.setOpacity(0.5f);
+        model.setPosition(Position.fromDegrees(10.0, 20.0, 0.0));
+        final Vec4 point = drawContext(null, 0L).getGlobe().computePointFromPosition(model.getPosition());
+        final double half = 1000.0;
+        final Frustum frustum = new Frustum(
+                new Plane(1, 0, 0, -(point.x - half)), new Plane(-1, 0, 0, point.x + half),
+                new Plane(0, 1, 0, -(point.y - half)), new Plane(0, -1, 0, point.y + half),
+                new Plane(0, 0, 1, -(point.z - half)), new Plane(0, 0, -1, point.z + half));
+
+        model.render(drawContext(frustum, 1L));
+        final Box aileronBounds = aileron.getBounds();
+        final Matrix bodyWorld = body.getWorldMatrix();
+        assertEquals(2.0, aileronBounds.getCenter().x, 0.5);
+
+        aileron.setLocalTransform(Matrix.fromTranslation(0.0, 0.0, 10.0));
+        // nothing moves before the next frame
+        assertSame(aileronBounds, aileron.getBounds());
+        model.render(drawContext(frustum, 2L));
+
+        assertSame(bodyWorld, body.getWorldMatrix());
+        assertEquals(aileronBounds.getCenter().z + 10.0, aileron.getBounds().getCenter().z, 1e-9);
+        assertTrue(plane.getBounds().getCenter().z > 4.0);
+        assertTrue(root.getBounds().getCenter().z > 4.0);
+    }
+}
@@ -0,0 +1,183 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.wavefront.ObjAsset;
+import com.hmorgan.gfx.wavefront.ObjAssetRegistry;
+import com.hmorgan.gfx.wavefront.ObjCorpusGenerator;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import com.hmorgan.gfx.wavefront.ObjModelWatcher;
+import gov.nasa.worldwind.geom.Position;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjAssetRegistryTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path generate(String name) throws Exception {
+        return new ObjCorpusGenerator.Builder()
+                .setObjectCount(2)
+                .setGroupsPerObject(2)
+                .setFacesPerGroup(10)
+                .build()
+                .generate(tempFolder.getRoot().toPath(), name)
+                .getObjPath();
+    }
+
+    @Test
+    public void testInstancesShareGeometry() throws Exception {
+        final Path path = generate("shared");
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+
+        final List<ObjModel> models = new ArrayList<>();
+        for(int i = 0; i < 5000; i++) {
+            final ObjModel model = registry.newModel(path);
+            model.setPosition(Position.fromDegrees(i * 0.001, 0.0, 0.0));
+            models.add(model);
+        }
+
+        assertEquals(1, registry.getLoadCount());
+        assertEquals(4999, registry.getHitCount());
+        assertSame(models.get(0).getMeshes(), models.get(4999).getMeshes());
+        assertNotEquals(models.get(0).getPosition(), models.get(1).getPosition());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testChangedFileIsLoadedAgain() throws Exception {
+        final Path path = generate("changed");
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final ObjModel before = registry.newModel(path);
+
+        Files.write(path, "# edited\n".getBytes(), StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2000));
+        final ObjModel after = registry.newModel(path);
+
+        assertEquals(2, registry.getLoadCount());
+        assertNotSame(before.getAsset(), after.getAsset());
+        assertNotEquals(before.getAsset().getVersion(), after.getAsset().getVersion());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testGeometryIsReleasedWithLastInstance() throws Exception {
+        final Path path = generate("released");
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        ObjModel model = registry.newModel(path);
+        assertEquals(1, registry.size());
+
+        model = null;
+        for(int i = 0; i < 50 && registry.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, registry.size());
+        registry.newModel(path);
+        assertEquals(2, registry.getLoadCount());
+    }
+
+    private static final String THREE_GROUPS = "o parts\n"
+            + "v 0 0 0\nv 1 0 0\nv 0 1 0\nv 2 0 0\nv 3 0 0\nv 2 1 0\nv 4 0 0\nv 5 0 0\nv 4 1 0\n"
+            + "g a\nf 1 2 3\ng b\nf 4 5 6\ng c\nf 7 8 9\n";
+
+    @Test
+    public void testReloadKeepsUnchangedMeshes() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("parts.obj");
+        Files.write(path, THREE_GROUPS.getBytes());
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final ObjAsset before = registry.get(path);
+
+        // move a vertex of group b only
+        Files.write(path, THREE_GROUPS.replace("v 3 0 0", "v 3 0 1").getBytes());
+        final ObjAsset after = registry.reload(before);
+
+        assertEquals(3, after.getMeshes().size());
+        assertEquals(2, after.getLoadReport().getReusedMeshes());
+        int kept = 0;
+        for(Mesh mesh : after.getMeshes().values()) {
+            if(before.getMeshes().containsValue(mesh))
+                kept++;
+            else
+                assertTrue(mesh.getName().endsWith(".b"));
+        }
+        assertEquals(2, kept);
+
+        // later requests get the reloaded version
+        assertSame(after, registry.get(path));
+    }
+
+    @Test
+    public void testWatcherReloadsEditedFile() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("watched.obj");
+        Files.write(path, THREE_GROUPS.getBytes());
+        final ObjModel model = new ObjAssetRegistry(new ObjLoader()).newModel(path);
+
+        try(ObjModelWatcher watcher = new ObjModelWatcher()) {
+            watcher.setQuietMillis(50L);
+            watcher.watch(model);
+            Files.write(path, THREE_GROUPS.replace("v 5 0 0", "v 5 0 1").getBytes());
+
+            final long deadline = System.currentTimeMillis() + 20000L;
+            while(model.getPendingAsset() == null && System.currentTimeMillis() < deadline)
+                Thread.sleep(20L);
+            assertNotNull(model.getPendingAsset());
+            assertEquals(1, watcher.getReloadCount());
+            assertEquals(2, model.getPendingAsset().getLoadReport().getReusedMeshes());
+        }
+    }
+
+    @Test
+    public void testWatcherReloadsOnceAfterTheQuietPeriod() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("saved.obj");
+        Files.write(path, THREE_GROUPS.getBytes());
+        final ObjModel model = new ObjAssetRegistry(new ObjLoader()).newModel(path);
+        final long quietMillis = 300L;
+
+        try(ObjModelWatcher watcher = new ObjModelWatcher()) {
+            watcher.setQuietMillis(quietMillis);
+            watcher.watch(model);
+            assertEquals(1, watcher.getWatchedDirectoryCount());
+
+            // an editor saving in several steps, each well within the quiet period
+            long lastWrite = 0L;
+            for(int i = 1; i <= 5; i++) {
+                Thread.sleep(20L);
+                lastWrite = System.nanoTime();
+                Files.write(path, THREE_GROUPS.replace("v 5 0 0", "v 5 0 " + i).getBytes());
+            }
+
+            final long deadline = System.currentTimeMillis() + 20000L;
+            while(watcher.getReloadCount() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10L);
+            assertEquals(1, watcher.getReloadCount());
+            assertTrue(System.nanoTime() - lastWrite >= TimeUnit.MILLISECONDS.toNanos(quietMillis));
+
+            // nothing changed since, so no more reloads
+            Thread.sleep(3 * quietMillis);
+            assertEquals(1, watcher.getReloadCount());
+            assertEquals(0, watcher.getFailureCount());
+            assertTrue(model.getPendingAsset().getMeshes().size() > 0);
+
+            // the directory is let go of with its last model
+            watcher.unwatch(model);
+            assertEquals(0, watcher.getWatchedDirectoryCount());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.ObjCorpusGenerator;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjCorpusGeneratorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testSameSeedIsByteIdentical() throws Exception {
+        final ObjCorpusGenerator generator = new ObjCorpusGenerator.Builder()
+                .setSeed(42L)
+                .setObjectCount(5)
+                .setGroupsPerObject(3)
+                .setFacesPerGroup(20)
+                .setQuadFraction(0.5)
+                .setTextureCoords(true)
+                .setMaterialCount(4)
+                .setMaterialSwitchesPerGroup(2)
+                .setTextureCount(1)
+                .setTextureSize(16)
+                .build();
+
+        final Path a = generator.generate(tempFolder.newFolder("a").toPath(), "corpus").getObjPath();
+        final Path b = generator.generate(tempFolder.newFolder("b").toPath(), "corpus").getObjPath();
+
+        assertArrayEquals(Files.readAllBytes(a), Files.readAllBytes(b));
+        assertArrayEquals(Files.readAllBytes(a.resolveSibling("corpus.mtl")),
+                          Files.readAllBytes(b.resolveSibling("corpus.mtl")));
+    }
+
+    @Test
+    public void testCountsMatchOutput() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = new ObjCorpusGenerator.Builder()
+                .setSeed(7L)
+                .setObjectCount(4)
+                .setGroupsPerObject(6)
+                .setVerticesPerObject(50)
+                .setFacesPerGroup(30)
+                .setQuadFraction(0.25)
+                .build()
+                .generate(tempFolder.getRoot().toPath(), "counts");
+
+        assertEquals(200, corpus.getVertexCount());
+        assertEquals(24, corpus.getGroupCount());
+        assertEquals(720, corpus.getFaceCount());
+        assertTrue(corpus.getTriangleCount() > corpus.getFaceCount());
+        assertNull(corpus.getMtlPath());
+        assertEquals(Files.size(corpus.getObjPath()), corpus.getObjBytes());
+    }
+
+    @Test
+    public void testGeneratedCorpusLoads() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = new ObjCorpusGenerator.Builder()
+                .setSeed(1L)
+                .setObjectCount(3)
+                .setGroupsPerObject(4)
+                .setFacesPerGroup(10)
+                .build()
+                .generate(tempFolder.getRoot().toPath(), "loadable");
+
+        final ObjModel model = new ObjModel(corpus.getObjPath());
+
+        assertEquals(12, model.getMeshes().size());
+    }
+
+    /**
+     * Asserts that building with one parameter out of range fails with a message naming it.
+     */
+    private static void assertRejected(String parameter, UnaryOperator<ObjCorpusGenerator.Builder> invalid) {
+        try {
+            invalid.apply(new ObjCorpusGenerator.Builder()).build();
+            fail(parameter + " was accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(parameter + " "));
+        }
+    }
+
+    @Test
+    public void testRejectsNoObjects() {
+        assertRejected("objectCount", b -> b.setObjectCount(0));
+    }
+
+    @Test
+    public void testRejectsNoGroups() {
+        assertRejected("groupsPerObject", b -> b.setGroupsPerObject(0));
+    }
+
+    @Test
+    public void testRejectsTooFewVertices() {
+        assertRejected("verticesPerObject", b -> b.setVerticesPerObject(3));
+    }
+
+    @Test
+    public void testRejectsNegativeFaceCount() {
+        assertRejected("facesPerGroup", b -> b.setFacesPerGroup(-1));
+    }
+
+    @Test
+    public void testRejectsQuadFractionOutOfRange() {
+        assertRejected("quadFraction", b -> b.setQuadFraction(1.5));
+    }
+
+    @Test
+    public void testRejectsNegativeMaterialCount() {
+        assertRejected("materialCount", b -> b.setMaterialCount(-1));
+    }
+
+    @Test
+    public void testRejectsNegativeMaterialSwitches() {
+        assertRejected("materialSwitchesPerGroup", b -> b.setMaterialCount(2).setMaterialSwitchesPerGroup(-1));
+    }
+
+    @Test
+    public void testRejectsMaterialSwitchesWithoutMaterials() {
+        assertRejected("material", b -> b.setMaterialSwitchesPerGroup(1));
+    }
+
+    @Test
+    public void testRejectsMoreTexturesThanMaterials() {
+        assertRejected("textureCount", b -> b.setMaterialCount(1).setTextureCount(2));
+    }
+
+    @Test
+    public void testRejectsEmptyTextures() {
+        assertRejected("textureSize", b -> b.setTextureSize(0));
+    }
+}
@@ -0,0 +1,69 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.wavefront.ObjCorpusGenerator;
+import com.hmorgan.gfx.wavefront.ObjFileIndex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjFileIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testIndexesEveryGroup() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = new ObjCorpusGenerator.Builder()
+                .setSeed(3L)
+                .setObjectCount(3)
+                .setGroupsPerObject(4)
+                .setFacesPerGroup(10)
+                .build()
+                .generate(tempFolder.getRoot().toPath(), "indexed");
+
+        final ObjFileIndex index = ObjFileIndex.build(corpus.getObjPath());
+        final byte[] bytes = Files.readAllBytes(corpus.getObjPath());
+
+        assertEquals(12, index.getSections().size());
+        assertEquals(corpus.getVertexCount(), index.getPositionCount());
+        int faces = 0;
+        for(ObjFileIndex.Section section : index.getSections()) {
+            faces += section.getFaceCount();
+            final String range = new String(Arrays.copyOfRange(bytes, (int) section.getStartOffset(),
+                                                               (int) section.getEndOffset()), StandardCharsets.UTF_8);
+            assertTrue(range.startsWith("f "));
+            assertTrue(range.endsWith("\n"));
+            assertNotNull(section.getLocalBounds());
+        }
+        assertEquals(corpus.getFaceCount(), faces);
+        assertEquals("object_0.object_0_group_0", index.getSections().get(0).getName());
+    }
+
+    @Test
+    public void testLoadSectionTriangulatesItsFaces() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = new ObjCorpusGenerator.Builder()
+                .setSeed(5L)
+                .setObjectCount(1)
+                .setGroupsPerObject(1)
+                .setFacesPerGroup(40)
+                .setQuadFraction(0.5)
+                .build()
+                .generate(tempFolder.getRoot().toPath(), "section");
+
+        final ObjFileIndex index = ObjFileIndex.build(corpus.getObjPath());
+        final Mesh mesh = index.loadSection(index.getSections().get(0));
+
+        assertEquals(corpus.getTriangleCount() * 3, mesh.getVertices().size());
+        mesh.getVertices().forEach(v -> assertTrue(v.getNormal().isPresent()));
+    }
+}
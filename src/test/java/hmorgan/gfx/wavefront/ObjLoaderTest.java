@@ -0,0 +1,234 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.wavefront.LoadReport;
+import com.hmorgan.gfx.wavefront.ObjCorpusGenerator;
+import com.hmorgan.gfx.wavefront.ObjLoadResult;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjLoaderStats;
+import com.hmorgan.gfx.wavefront.WavefrontMaterial;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.ObjectName;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjLoaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testLoadReport() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = new ObjCorpusGenerator.Builder()
+                .setSeed(3L)
+                .setObjectCount(2)
+                .setGroupsPerObject(2)
+                .setFacesPerGroup(25)
+                .setTextureCoords(true)
+                .setMaterialCount(2)
+                .setTextureCount(1)
+                .setTextureSize(8)
+                .build()
+                .generate(tempFolder.getRoot().toPath(), "report");
+
+        final ObjLoader loader = new ObjLoader();
+        loader.loadObjMeshesV2(corpus.getObjPath());
+        final LoadReport report = loader.getLastLoadReport();
+
+        assertEquals(corpus.getObjPath(), report.getSource());
+        assertEquals(Files.size(corpus.getObjPath()), report.getBytesRead());
+        assertEquals(Files.readAllLines(corpus.getObjPath()).size(), report.getLines());
+        assertEquals(corpus.getVertexCount(), report.getVertices());
+        assertEquals(corpus.getFaceCount(), report.getFaces());
+        assertEquals(2, report.getMaterials());
+        assertEquals(1, report.getTextures());
+        assertTrue(report.getWallNanos() > 0);
+        long phaseNanos = 0;
+        for(LoadReport.Phase phase : LoadReport.Phase.values())
+            phaseNanos += report.getPhaseNanos(phase);
+        assertTrue(phaseNanos <= report.getWallNanos());
+        assertTrue(report.getPhaseNanos(LoadReport.Phase.TEXTURE_DECODE) > 0);
+    }
+
+    @Test
+    public void testStatsPublishedOverJmx() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = new ObjCorpusGenerator.Builder()
+                .build()
+                .generate(tempFolder.getRoot().toPath(), "jmx");
+        final long before = ObjLoaderStats.getInstance().getLoadCount();
+
+        new ObjLoader().loadObjMeshesV2(corpus.getObjPath());
+
+        final Object count = ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(ObjLoaderStats.OBJECT_NAME), "LoadCount");
+        assertEquals(before + 1, ((Long) count).longValue());
+        assertTrue(ObjLoaderStats.getInstance().getLoadTimeP99() > 0.0);
+    }
+
+    @Test
+    public void testLoadAllSharesMaterialsAndReportsFailures() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = new ObjCorpusGenerator.Builder()
+                .setSeed(11L)
+                .setObjectCount(2)
+                .setGroupsPerObject(2)
+                .setFacesPerGroup(10)
+                .setTextureCoords(true)
+                .setMaterialCount(1)
+                .setTextureCount(1)
+                .setTextureSize(8)
+                .build()
+                .generate(tempFolder.getRoot().toPath(), "shared");
+
+        // copies of one file, all referencing the same MTL file
+        final List<Path> paths = new ArrayList<>();
+        for(int i = 0; i < 8; i++)
+            paths.add(Files.copy(corpus.getObjPath(), corpus.getObjPath().resolveSibling("copy" + i + ".obj")));
+        final Path missing = corpus.getObjPath().resolveSibling("missing.obj");
+        paths.add(3, missing);
+
+        final int meshCount = new ObjLoader().loadObjMeshesV2(corpus.getObjPath()).size();
+        final List<ObjLoadResult> results = new ObjLoader().loadAll(paths, 4);
+
+        assertEquals(paths.size(), results.size());
+        final Set<Object> materials = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(int i = 0; i < results.size(); i++) {
+            final ObjLoadResult result = results.get(i);
+            assertEquals(paths.get(i), result.getSource());
+            if(result.getSource().equals(missing)) {
+                assertFalse(result.isSuccess());
+                assertNotNull(result.getFailure());
+                continue;
+            }
+            assertTrue(result.toString(), result.isSuccess());
+            assertEquals(meshCount, result.getMeshes().size());
+            assertEquals(corpus.getFaceCount(), result.getReport().getFaces());
+            for(Mesh mesh : result.getMeshes().values())
+                materials.add(mesh.getMaterial().get());
+        }
+        // meshes before the first 'usemtl' get the default material
+        materials.remove(WavefrontMaterial.GRAY);
+        assertEquals(1, materials.size());
+    }
+
+    @Test
+    public void testPointElementsBuildPointMeshes() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("points.obj");
+        Files.write(path, ("v 0 0 0\nv 1 0 0\nv 0 1 0\nv 0 0 1\n"
+                + "o scan\np 1 2\np -1\n").getBytes());
+
+        final List<Mesh> meshes = new ArrayList<>(new ObjLoader().loadObjMeshesV2(path).values());
+
+        assertEquals(1, meshes.size());
+        assertEquals(Mesh.MeshType.POINTS_MESH, meshes.get(0).getMeshType());
+        assertEquals(3, meshes.get(0).getVertices().size());
+        assertEquals(1.0f, meshes.get(0).getVertices().get(2).getPosition().getZ(), 0.0f);
+    }
+
+    @Test
+    public void testBareVerticesLoadAsPoints() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("bare.obj");
+        Files.write(path, "# scan\nv 0 0 0\nv 1 2 3\nv 4 5 6\n".getBytes());
+
+        final List<Mesh> meshes = new ArrayList<>(new ObjLoader().loadObjMeshesV2(path).values());
+
+        assertEquals(1, meshes.size());
+        assertEquals(Mesh.MeshType.POINTS_MESH, meshes.get(0).getMeshType());
+        assertEquals(3, meshes.get(0).getVertices().size());
+    }
+
+    private ObjCorpusGenerator.Corpus texturedCorpus(String name) throws Exception {
+        return new ObjCorpusGenerator.Builder()
+                .setSeed(5L)
+                .setObjectCount(2)
+                .setGroupsPerObject(2)
+                .setFacesPerGroup(200)
+                .setTextureCoords(true)
+                .setMaterialCount(2)
+                .setTextureCount(1)
+                .setTextureSize(8)
+                .build()
+                .generate(tempFolder.getRoot().toPath(), name);
+    }
+
+    private static int vertexCount(Map<String, Mesh> meshes) {
+        int count = 0;
+        for(Mesh mesh : meshes.values())
+            count += mesh.getVertices().size();
+        return count;
+    }
+
+    @Test
+    public void testLoadsCompressedFile() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = texturedCorpus("packed");
+        final Path gz = corpus.getObjPath().resolveSibling("packed.obj.gz");
+        try(OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            Files.copy(corpus.getObjPath(), out);
+        }
+
+        final ObjLoader loader = new ObjLoader();
+        final Map<String, Mesh> plain = loader.loadObjMeshesV2(corpus.getObjPath());
+        final Map<String, Mesh> packed = loader.loadObjMeshesV2(gz);
+
+        assertEquals(plain.size(), packed.size());
+        assertEquals(vertexCount(plain), vertexCount(packed));
+        assertEquals(Files.size(gz), loader.getLastLoadReport().getBytesRead());
+        assertEquals(corpus.getFaceCount(), loader.getLastLoadReport().getFaces());
+    }
+
+    @Test
+    public void testLoadsFromChannel() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = texturedCorpus("channel");
+        final ObjLoader loader = new ObjLoader();
+        final Map<String, Mesh> meshes;
+        try(FileChannel channel = FileChannel.open(corpus.getObjPath())) {
+            meshes = loader.loadObjMeshes(channel, "channel.obj", corpus.getObjPath().getParent());
+        }
+
+        assertEquals(loader.loadObjMeshesV2(corpus.getObjPath()).size(), meshes.size());
+        assertTrue(meshes.values().stream().allMatch(m -> m.getMaterial().isPresent()));
+    }
+
+    @Test
+    public void testLoadsFromJar() throws Exception {
+        final ObjCorpusGenerator.Corpus corpus = texturedCorpus("jarred");
+        final Path jar = tempFolder.getRoot().toPath().resolve("models.jar");
+        try(JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar));
+            DirectoryStream<Path> files = Files.newDirectoryStream(corpus.getObjPath().getParent(), "jarred*")) {
+            for(Path file : files) {
+                out.putNextEntry(new JarEntry("models/" + file.getFileName()));
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+        }
+
+        final Path inJar = ObjLoader.getFilePathFromUrl(new URL("jar:" + jar.toUri() + "!/models/jarred.obj"));
+        final ObjLoader loader = new ObjLoader();
+        final Map<String, Mesh> meshes = loader.loadObjMeshesV2(inJar);
+
+        assertEquals(loader.loadObjMeshesV2(corpus.getObjPath()).size(), meshes.size());
+        assertEquals(2, loader.getLastLoadReport().getMaterials());
+        assertEquals(1, loader.getLastLoadReport().getTextures());
+    }
+}
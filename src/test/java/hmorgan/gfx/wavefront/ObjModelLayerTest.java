@@ -0,0 +1,222 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.GpuUploadScheduler;
+import com.hmorgan.gfx.wavefront.ObjAssetRegistry;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import com.hmorgan.gfx.wavefront.ObjModelLayer;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Plane;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.render.Material;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjModelLayerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** exposes the index query and the render pass */
+    private static final class IndexedLayer extends ObjModelLayer {
+        List<ObjModel> select(DrawContext dc, Frustum frustum) {
+            final List<ObjModel> result = new ArrayList<>();
+            selectModels(dc, frustum, result);
+            return result;
+        }
+
+        void draw(DrawContext dc) {
+            doRender(dc);
+        }
+    }
+
+    private static DrawContext drawContext() {
+        return drawContext(null);
+    }
+
+    /**
+     * @param frustum frustum of the view, in model coordinates
+     */
+    private static DrawContextImpl drawContext(Frustum frustum) {
+        final DrawContextImpl dc = RenderFixtures.newDrawContext();
+        dc.setView(RenderFixtures.view(frustum));
+        dc.setFrameTimeStamp(1L);
+        return dc;
+    }
+
+    /** axis aligned cube around a point */
+    private static Frustum cube(Vec4 center, double half) {
+        return new Frustum(new Plane(1, 0, 0, -(center.x - half)), new Plane(-1, 0, 0, center.x + half),
+                           new Plane(0, 1, 0, -(center.y - half)), new Plane(0, -1, 0, center.y + half),
+                           new Plane(0, 0, 1, -(center.z - half)), new Plane(0, 0, -1, center.z + half));
+    }
+
+    @Test
+    public void testSelectsOnlyModelsNearFrustum() throws Exception {
+        final Path path = Files.write(tempFolder.getRoot().toPath().resolve("tri.obj"),
+                                      "o tri\nv 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes());
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final IndexedLayer layer = new IndexedLayer();
+        final List<ObjModel> models = new ArrayList<>();
+        for(int i = 0; i < 40; i++) {
+            for(int j = 0; j < 25; j++) {
+                final ObjModel model = registry.newModel(path);
+                model.setPosition(Position.fromDegrees(-60.0 + 5.0 * j, -180.0 + 9.0 * i, 100.0));
+                layer.addModel(model);
+                models.add(model);
+            }
+        }
+
+        final DrawContext dc = drawContext();
+        final ObjModel target = models.get(0);
+        final Vec4 point = dc.getGlobe().computePointFromPosition(target.getPosition());
+        final Frustum frustum = cube(point, 1000.0);
+
+        List<ObjModel> selected = layer.select(dc, frustum);
+        assertTrue(selected.contains(target));
+        assertTrue("selected " + selected.size(), selected.size() < 10);
+
+        // moved models are found at their new place in the next frame
+        final ObjModel mover = models.get(500);
+        assertFalse(selected.contains(mover));
+        mover.setPosition(Position.fromDegrees(-60.0, -180.0 + 0.001, 100.0));
+        dc.setFrameTimeStamp(2L);
+        selected = layer.select(dc, frustum);
+        assertTrue(selected.contains(mover));
+        assertTrue(selected.contains(target));
+
+        assertTrue(layer.removeModel(target));
+        dc.setFrameTimeStamp(3L);
+        selected = layer.select(dc, frustum);
+        assertFalse(selected.contains(target));
+        assertEquals(models.size() - 1, layer.getModelCount());
+    }
+
+    /** exposes the translucency test */
+    private static final class ProbedModel extends ObjModel {
+        ProbedModel(ObjModel other) {
+            super(other);
+        }
+
+        boolean translucent() {
+            return isTranslucent();
+        }
+    }
+
+    @Test
+    public void testQueuesOnlyTranslucentModels() throws Exception {
+        final Path path = Files.write(tempFolder.getRoot().toPath().resolve("tri.obj"),
+                                      "o tri\nv 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes());
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final ProbedModel opaque = new ProbedModel(registry.newModel(path));
+        assertFalse(opaque.translucent());
+        // the opacity applies to the material override, meshes otherwise use their own
+        opaque.setOpacity(0.5f);
+        assertFalse(opaque.translucent());
+        opaque.setMaterial(Material.RED);
+        assertTrue(opaque.translucent());
+
+        // never prepares a mesh, so nothing needs a GL
+        final GpuUploadScheduler scheduler = RenderFixtures.idleUploadScheduler();
+
+        final IndexedLayer layer = new IndexedLayer();
+        final ObjModel translucent = registry.newModel(path);
+        translucent.setUploadScheduler(scheduler);
+        translucent.setMaterial(Material.RED);
+        translucent.setOpacity(0.5f);
+        translucent.setPosition(Position.fromDegrees(10.0, 20.0, 0.0));
+        layer.addModel(translucent);
+
+        final Vec4 point = drawContext().getGlobe().computePointFromPosition(translucent.getPosition());
+        final DrawContextImpl dc = drawContext(cube(point, 1000.0));
+        layer.draw(dc);
+
+        // blended back to front with the other ordered renderables, not in the layer's batch
+        assertSame(translucent, dc.pollOrderedRenderables());
+        assertNull(dc.pollOrderedRenderables());
+    }
+
+    /** 3000 translucent models on a grid, so every visible model is queued and none needs a GL */
+    private static IndexedLayer grid(ObjAssetRegistry registry, Path path, GpuUploadScheduler scheduler) throws Exception {
+        final IndexedLayer layer = new IndexedLayer();
+        for(int i = 0; i < 3000; i++) {
+            final ObjModel model = registry.newModel(path);
+            model.setUploadScheduler(scheduler);
+            model.setMaterial(Material.RED);
+            model.setOpacity(0.5f);
+            model.setPosition(Position.fromDegrees(10.0 + 0.0001 * (i % 60), 20.0 + 0.0001 * (i / 60), 0.0));
+            layer.addModel(model);
+        }
+        return layer;
+    }
+
+    @Test
+    public void testParallelCullingMatchesRenderThreadCulling() throws Exception {
+        final Path path = Files.write(tempFolder.getRoot().toPath().resolve("tri.obj"),
+                                      "o tri\nv 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes());
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final GpuUploadScheduler scheduler = RenderFixtures.idleUploadScheduler();
+
+        final IndexedLayer serialLayer = grid(registry, path, scheduler);
+        serialLayer.setParallelThreshold(Integer.MAX_VALUE);
+        final IndexedLayer parallelLayer = grid(registry, path, scheduler);
+        parallelLayer.setParallelThreshold(0);
+        final Vec4 point = drawContext().getGlobe().computePointFromPosition(Position.fromDegrees(10.003, 20.0025, 0.0));
+        final Frustum frustum = cube(point, 200.0);
+
+        Set<Position> previous = Collections.emptySet();
+        for(long frame = 1L; frame <= 2L; frame++) {
+            if(frame == 2L) {
+                // every model moves, so the parallel pass computes the frame state of all of them before reindexing
+                for(IndexedLayer layer : Arrays.asList(serialLayer, parallelLayer)) {
+                    for(ObjModel model : layer.getModels())
+                        model.setPosition(model.getPosition().add(Position.fromDegrees(0.001, 0.0, 0.0)));
+                }
+            }
+            final Set<Position> serial = positions(drawQueued(serialLayer, frustum, frame));
+            final Set<Position> parallel = positions(drawQueued(parallelLayer, frustum, frame));
+
+            assertFalse(serial.isEmpty());
+            assertTrue(serial.size() < serialLayer.getModelCount());
+            assertEquals(serial, parallel);
+            assertNotEquals(previous, serial);
+            previous = serial;
+        }
+    }
+
+    private static Set<Position> positions(List<Object> models) {
+        final Set<Position> positions = new HashSet<>();
+        for(Object model : models)
+            positions.add(((ObjModel) model).getPosition());
+        return positions;
+    }
+
+    private static List<Object> drawQueued(IndexedLayer layer, Frustum frustum, long frame) {
+        final DrawContextImpl dc = drawContext(frustum);
+        dc.setFrameTimeStamp(frame);
+        layer.draw(dc);
+        final List<Object> queued = new ArrayList<>();
+        Object renderable;
+        while((renderable = dc.pollOrderedRenderables()) != null)
+            queued.add(renderable);
+        return queued;
+    }
+}
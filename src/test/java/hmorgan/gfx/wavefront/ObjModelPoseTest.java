@@ -0,0 +1,62 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.ObjModel;
+import com.hmorgan.gfx.wavefront.Pose;
+import gov.nasa.worldwind.geom.Position;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjModelPoseTest {
+
+    @Test
+    public void testSettersBumpVersion() {
+        final ObjModel model = new ObjModel(new HashMap<>());
+        final long v0 = model.getPose().getVersion();
+
+        model.setPosition(Position.fromDegrees(1.0, 2.0, 3.0));
+        model.setAttitude(10.0, 20.0, 30.0);
+        model.setScale(5.0);
+
+        final Pose pose = model.getPose();
+        assertEquals(v0 + 3, pose.getVersion());
+        assertEquals(1.0, pose.getPosition().getLatitude().degrees, 1e-9);
+        assertEquals(20.0, pose.getPitch(), 0.0);
+        assertEquals(5.0, model.getScale(), 0.0);
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreNeverTorn() throws Exception {
+        final ObjModel model = new ObjModel(new HashMap<>());
+        final AtomicBoolean done = new AtomicBoolean();
+
+        // the writer keeps latitude, roll, pitch and yaw equal, a torn read would break that
+        final Thread writer = new Thread(() -> {
+            for(int i = 0; i < 200_000; i++) {
+                final double d = i % 80;
+                model.setPose(Position.fromDegrees(d, 0.0, 0.0), d, d, d);
+            }
+            done.set(true);
+        });
+        writer.start();
+
+        long lastVersion = -1L;
+        while(!done.get()) {
+            final Pose pose = model.getPose();
+            final double lat = pose.getPosition().getLatitude().degrees;
+            assertEquals(lat, pose.getRoll(), 1e-9);
+            assertEquals(lat, pose.getPitch(), 1e-9);
+            assertEquals(lat, pose.getYaw(), 1e-9);
+            assertTrue(pose.getVersion() >= lastVersion);
+            lastVersion = pose.getVersion();
+        }
+        writer.join();
+        assertEquals(200_000, model.getPose().getVersion());
+    }
+}
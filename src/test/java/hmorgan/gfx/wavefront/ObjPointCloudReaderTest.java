@@ -0,0 +1,66 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.PointCloud;
+import com.hmorgan.gfx.wavefront.ObjPointCloudReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjPointCloudReaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadsVerticesAsPoints() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("scan.obj");
+        Files.write(path, ("# scan\n"
+                + "v 500000.25 4100000.5 12.75 1 0 0\n"
+                + "v 500001.25 4100000.5 -1.5e1 0 1 0.5\n"
+                + "vn 0 0 1\n"
+                + "v\t500000.25 4100002.5 +3.0 0 0 1\r\n"
+                + "p 1 2 3\n"
+                + "f 1 2 3").getBytes());
+
+        final PointCloud cloud = new ObjPointCloudReader().read(path);
+
+        assertEquals(3, cloud.getPointCount());
+        assertTrue(cloud.hasColors());
+        assertEquals(500000.25, cloud.getOrigin().x, 0.0);
+        assertEquals(4100000.5, cloud.getOrigin().y, 0.0);
+        assertEquals(500000.25, cloud.getBounds().getCenter().x, 1.0);
+        assertEquals(-15.0, cloud.getBounds().getCenter().z - cloud.getBounds().getTLength() / 2, 1e-3);
+
+        // colors are stored as rgba bytes after the coordinates
+        boolean sawGreen = false;
+        final ByteBuffer points = cloud.getLeafPoints(0);
+        for(int i = 0; i < 3; i++) {
+            final int base = i * PointCloud.BYTES_PER_POINT;
+            if(points.get(base + 13) == (byte) 255 && points.get(base + 14) == (byte) 128)
+                sawGreen = true;
+            assertEquals((byte) 255, points.get(base + 15));
+        }
+        assertTrue(sawGreen);
+    }
+
+    @Test
+    public void testMalformedVertexIsReported() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("bad.obj");
+        Files.write(path, "v 1 2 3\nv 1 x 3\n".getBytes());
+        try {
+            new ObjPointCloudReader().read(path);
+            fail("expected an IOException");
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage().contains("line 2"));
+        }
+    }
+}
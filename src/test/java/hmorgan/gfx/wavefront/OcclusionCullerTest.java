@@ -0,0 +1,218 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.GpuUploadScheduler;
+import com.hmorgan.gfx.wavefront.ObjAssetRegistry;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import com.hmorgan.gfx.wavefront.ObjModelLayer;
+import com.hmorgan.gfx.wavefront.OcclusionCuller;
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.render.Material;
+import gov.nasa.worldwind.view.BasicView;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class OcclusionCullerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** perspective view from an eye point towards a target, level with the ground */
+    private static final class LookAtView extends BasicView {
+        private final Vec4 eye;
+        private final Matrix modelview;
+        private final Matrix projection;
+        private final Frustum frustum;
+
+        LookAtView(Vec4 eye, Vec4 target) {
+            this.eye = eye;
+            this.modelview = Matrix.fromViewLookAt(eye, target, eye.normalize3());
+            this.projection = Matrix.fromPerspective(Angle.fromDegrees(45.0), 800, 400, 1.0, 100000.0);
+            this.frustum = Frustum.fromPerspective(Angle.fromDegrees(45.0), 800, 400, 1.0, 100000.0)
+                                  .transformBy(modelview.getTranspose());
+        }
+
+        @Override public Vec4 getEyePoint() { return eye; }
+        @Override public Matrix getModelviewMatrix() { return modelview; }
+        @Override public Matrix getProjectionMatrix() { return projection; }
+        @Override public Frustum getFrustumInModelCoordinates() { return frustum; }
+        @Override public double computePixelSizeAtDistance(double distance) { return 0.0; }
+    }
+
+    private static final class TestLayer extends ObjModelLayer {
+        List<Object> draw(DrawContextImpl dc) {
+            doRender(dc);
+            final List<Object> queued = new ArrayList<>();
+            Object renderable;
+            while((renderable = dc.pollOrderedRenderables()) != null)
+                queued.add(renderable);
+            return queued;
+        }
+    }
+
+    private static String cube(double half) {
+        return box(half, half, half);
+    }
+
+    private static String box(double halfX, double halfY, double halfZ) {
+        final StringBuilder obj = new StringBuilder("o cube\n");
+        for(int i = 0; i < 8; i++) {
+            obj.append("v ").append((i & 1) == 0 ? -halfX : halfX).append(' ')
+               .append((i & 2) == 0 ? -halfY : halfY).append(' ')
+               .append((i & 4) == 0 ? -halfZ : halfZ).append('\n');
+        }
+        return obj.append("f 1 2 4 3\nf 5 6 8 7\nf 1 2 6 5\nf 3 4 8 7\nf 1 3 7 5\nf 2 4 8 6\n").toString();
+    }
+
+    @Test
+    public void testCullsModelsBehindOccluders() throws Exception {
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final Path wallPath = Files.write(tempFolder.getRoot().toPath().resolve("wall.obj"), cube(100.0).getBytes());
+        final Path boxPath = Files.write(tempFolder.getRoot().toPath().resolve("box.obj"), cube(1.0).getBytes());
+        // translucent and never uploaded, so the layer only queues them and needs no GL
+        final GpuUploadScheduler scheduler = RenderFixtures.idleUploadScheduler();
+
+        final TestLayer layer = new TestLayer();
+        final List<ObjModel> walls = new ArrayList<>();
+        // enough occluders to rasterize on the worker threads
+        for(int i = 0; i < 20; i++) {
+            final ObjModel wall = registry.newModel(wallPath);
+            wall.setOccluder(true);
+            walls.add(wall);
+        }
+        final ObjModel hidden = registry.newModel(boxPath);
+        final ObjModel beside = registry.newModel(boxPath);
+        for(ObjModel model : walls)
+            model.setPosition(Position.fromDegrees(10.0, 20.0, 50.0));
+        hidden.setPosition(Position.fromDegrees(10.0, 20.01, 50.0));
+        beside.setPosition(Position.fromDegrees(10.006, 20.01, 50.0));
+        final List<ObjModel> models = new ArrayList<>(walls);
+        models.add(hidden);
+        models.add(beside);
+        for(ObjModel model : models) {
+            model.setUploadScheduler(scheduler);
+            model.setMaterial(Material.RED);
+            model.setOpacity(0.5f);
+            layer.addModel(model);
+        }
+
+        final DrawContextImpl dc = RenderFixtures.newDrawContext();
+        final Globe globe = dc.getGlobe();
+        dc.setView(new LookAtView(globe.computePointFromPosition(Position.fromDegrees(10.0, 19.99, 50.0)),
+                                  globe.computePointFromPosition(Position.fromDegrees(10.0, 20.0, 50.0))));
+
+        dc.setFrameTimeStamp(1L);
+        List<Object> queued = layer.draw(dc);
+        assertEquals(models.size(), queued.size());
+
+        final OcclusionCuller culler = new OcclusionCuller();
+        layer.setOcclusionCuller(culler);
+        dc.setFrameTimeStamp(2L);
+        queued = layer.draw(dc);
+        assertFalse(queued.contains(hidden));
+        assertTrue(queued.contains(beside));
+        assertTrue(queued.containsAll(walls));
+        assertEquals(walls.size(), culler.getLastOccluderCount());
+        assertEquals(1, culler.getLastOccludedCount());
+
+        // without occluders nothing is hidden
+        for(ObjModel wall : walls)
+            wall.setOccluder(false);
+        dc.setFrameTimeStamp(3L);
+        assertTrue(layer.draw(dc).contains(hidden));
+        assertEquals(0, culler.getLastOccludedCount());
+    }
+
+    /** a translucent model that needs no GL, added to the layer */
+    private static ObjModel addModel(TestLayer layer, ObjAssetRegistry registry, Path path, Position position) throws Exception {
+        final ObjModel model = registry.newModel(path);
+        model.setUploadScheduler(RenderFixtures.idleUploadScheduler());
+        model.setMaterial(Material.RED);
+        model.setOpacity(0.5f);
+        model.setPosition(position);
+        layer.addModel(model);
+        return model;
+    }
+
+    /** a draw context looking east along the parallel of 10 degrees north from 19.99 degrees east */
+    private static DrawContextImpl lookingEast() {
+        final DrawContextImpl dc = RenderFixtures.newDrawContext();
+        final Globe globe = dc.getGlobe();
+        dc.setView(new LookAtView(globe.computePointFromPosition(Position.fromDegrees(10.0, 19.99, 50.0)),
+                                  globe.computePointFromPosition(Position.fromDegrees(10.0, 20.0, 50.0))));
+        return dc;
+    }
+
+    @Test
+    public void testPartlyOccludedModelsAreDrawn() throws Exception {
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        // the bounds of a cube have no principal axes and may come out turned, those of this box fit it
+        final Path wallPath = Files.write(tempFolder.getRoot().toPath().resolve("wall.obj"), box(60.0, 70.0, 100.0).getBytes());
+        final Path boxPath = Files.write(tempFolder.getRoot().toPath().resolve("box.obj"), cube(1.0).getBytes());
+        final Path blockPath = Files.write(tempFolder.getRoot().toPath().resolve("block.obj"), cube(40.0).getBytes());
+
+        final TestLayer layer = new TestLayer();
+        addModel(layer, registry, wallPath, Position.fromDegrees(10.0, 20.0, 50.0)).setOccluder(true);
+        final ObjModel hidden = addModel(layer, registry, boxPath, Position.fromDegrees(10.0, 20.01, 50.0));
+        // twice as far as the wall, one hidden behind it and one reaching above its top edge on screen
+        final ObjModel below = addModel(layer, registry, blockPath, Position.fromDegrees(10.0, 20.01, 50.0));
+        final ObjModel peeking = addModel(layer, registry, blockPath, Position.fromDegrees(10.0, 20.01, 160.0));
+        layer.setOcclusionCuller(new OcclusionCuller());
+
+        final DrawContextImpl dc = lookingEast();
+        dc.setFrameTimeStamp(1L);
+        final List<Object> queued = layer.draw(dc);
+        assertFalse(queued.contains(hidden));
+        assertFalse(queued.contains(below));
+        assertTrue(queued.contains(peeking));
+    }
+
+    @Test
+    public void testNearPlaneCrossingBoxesAreNeverOccludedNorOcclude() throws Exception {
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final Path wallPath = Files.write(tempFolder.getRoot().toPath().resolve("wall.obj"), cube(100.0).getBytes());
+        final Path boxPath = Files.write(tempFolder.getRoot().toPath().resolve("box.obj"), cube(1.0).getBytes());
+
+        final TestLayer layer = new TestLayer();
+        final OcclusionCuller culler = new OcclusionCuller();
+        layer.setOcclusionCuller(culler);
+        // a wall around the eye would hide everything, but can't be rasterized
+        final ObjModel around = addModel(layer, registry, wallPath, Position.fromDegrees(10.0, 19.99, 50.0));
+        around.setOccluder(true);
+        final ObjModel behind = addModel(layer, registry, boxPath, Position.fromDegrees(10.0, 20.01, 50.0));
+
+        final DrawContextImpl dc = lookingEast();
+        dc.setFrameTimeStamp(1L);
+        List<Object> queued = layer.draw(dc);
+        assertTrue(queued.contains(around));
+        assertTrue(queued.contains(behind));
+        assertEquals(0, culler.getLastOccluderCount());
+
+        // a box crossing the near plane stays drawn behind an occluder that hides its far side
+        around.setOccluder(false);
+        addModel(layer, registry, wallPath, Position.fromDegrees(10.0, 20.0, 50.0)).setOccluder(true);
+        dc.setFrameTimeStamp(2L);
+        queued = layer.draw(dc);
+        assertTrue(queued.contains(around));
+        assertFalse(queued.contains(behind));
+        assertEquals(1, culler.getLastOccluderCount());
+        assertEquals(1, culler.getLastOccludedCount());
+    }
+}
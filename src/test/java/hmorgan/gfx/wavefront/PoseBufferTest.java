@@ -0,0 +1,89 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.PoseBuffer;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class PoseBufferTest {
+
+    @Test
+    public void testWritesInvisibleUntilPublished() {
+        final PoseBuffer buffer = new PoseBuffer(4);
+        buffer.set(2, 10.0, 20.0, 30.0, 1.0, 2.0, 3.0, 4.0);
+
+        assertEquals(0.0, buffer.acquire(1L).getLatitude(2), 0.0);
+
+        buffer.publish();
+        final PoseBuffer.Snapshot snapshot = buffer.acquire(2L);
+        assertEquals(10.0, snapshot.getLatitude(2), 0.0);
+        assertEquals(4.0, snapshot.getScale(2), 0.0);
+        assertEquals(1L, snapshot.getVersion(2));
+        assertEquals(0L, snapshot.getVersion(1));
+    }
+
+    @Test
+    public void testPartialUpdatesKeepOtherSlots() {
+        final PoseBuffer buffer = new PoseBuffer(2);
+        buffer.setPosition(0, 1.0, 1.0, 1.0);
+        buffer.setPosition(1, 2.0, 2.0, 2.0);
+        buffer.publish();
+        buffer.setAttitude(1, 5.0, 6.0, 7.0);
+        buffer.publish();
+        buffer.setPosition(0, 3.0, 3.0, 3.0);
+        buffer.publish();
+
+        final PoseBuffer.Snapshot snapshot = buffer.acquire(1L);
+        assertEquals(3.0, snapshot.getLatitude(0), 0.0);
+        assertEquals(2.0, snapshot.getLatitude(1), 0.0);
+        assertEquals(6.0, snapshot.getPitch(1), 0.0);
+        assertEquals(3L, snapshot.getGeneration());
+    }
+
+    @Test
+    public void testSameFrameSameSnapshot() {
+        final PoseBuffer buffer = new PoseBuffer(1);
+        final PoseBuffer.Snapshot first = buffer.acquire(7L);
+        buffer.setPosition(0, 1.0, 1.0, 1.0);
+        buffer.publish();
+
+        assertSame(first, buffer.acquire(7L));
+        assertEquals(1.0, buffer.acquire(8L).getLatitude(0), 0.0);
+    }
+
+    @Test
+    public void testReaderNeverSeesPartialBatch() throws Exception {
+        final int capacity = 1000;
+        final PoseBuffer buffer = new PoseBuffer(capacity);
+        final AtomicBoolean done = new AtomicBoolean();
+
+        // every batch sets all slots to the batch number
+        final Thread writer = new Thread(() -> {
+            for(int batch = 1; batch <= 5000; batch++) {
+                for(int i = 0; i < capacity; i++)
+                    buffer.setPosition(i, batch, batch, batch);
+                buffer.publish();
+            }
+            done.set(true);
+        });
+        writer.start();
+
+        long frame = 0;
+        double lastBatch = 0;
+        while(!done.get()) {
+            final PoseBuffer.Snapshot snapshot = buffer.acquire(frame++);
+            final double batch = snapshot.getLatitude(0);
+            for(int i = 1; i < capacity; i++)
+                assertEquals(batch, snapshot.getLatitude(i), 0.0);
+            assertTrue(batch >= lastBatch);
+            lastBatch = batch;
+        }
+        writer.join();
+        assertEquals(5000.0, buffer.acquire(frame).getLatitude(capacity - 1), 0.0);
+    }
+}
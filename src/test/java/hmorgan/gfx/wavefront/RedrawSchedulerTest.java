@@ -0,0 +1,143 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.GpuUploadScheduler;
+import com.hmorgan.gfx.wavefront.ObjAssetRegistry;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import com.hmorgan.gfx.wavefront.RedrawScheduler;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Plane;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class RedrawSchedulerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** a timer that runs what is due when the test moves its clock forward */
+    private static final class ManualTimer extends ScheduledThreadPoolExecutor {
+        private final List<Long> dueNanos = new ArrayList<>();
+        private final List<Runnable> tasks = new ArrayList<>();
+        private long nanos = 1_000_000_000L;
+        private int scheduledCount;
+
+        ManualTimer() {
+            super(1);
+        }
+
+        long nanoTime() {
+            return nanos;
+        }
+
+        int getScheduledCount() {
+            return scheduledCount;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            scheduledCount++;
+            dueNanos.add(nanos + unit.toNanos(delay));
+            tasks.add(command);
+            return null;
+        }
+
+        void advanceMillis(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+            for(int i = 0; i < tasks.size(); ) {
+                if(dueNanos.get(i) <= nanos) {
+                    dueNanos.remove(i);
+                    tasks.remove(i).run();
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyVisibleChangesRedrawAndAreCoalesced() throws Exception {
+        final Path path = Files.write(tempFolder.getRoot().toPath().resolve("tri.obj"),
+                                      "o tri\nv 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes());
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final GpuUploadScheduler uploads = RenderFixtures.idleUploadScheduler();
+
+        final DrawContextImpl dc = RenderFixtures.newDrawContext();
+        final Position here = Position.fromDegrees(10.0, 20.0, 0.0);
+        final Position elsewhere = Position.fromDegrees(-40.0, 100.0, 0.0);
+        final Vec4 center = dc.getGlobe().computePointFromPosition(here);
+        final double half = 1000.0;
+        final Frustum frustum = new Frustum(
+                new Plane(1, 0, 0, -(center.x - half)), new Plane(-1, 0, 0, center.x + half),
+                new Plane(0, 1, 0, -(center.y - half)), new Plane(0, -1, 0, center.y + half),
+                new Plane(0, 0, 1, -(center.z - half)), new Plane(0, 0, -1, center.z + half));
+        dc.setView(RenderFixtures.view(frustum));
+        dc.setFrameTimeStamp(1L);
+
+        final AtomicInteger redraws = new AtomicInteger();
+        final ManualTimer timer = new ManualTimer();
+        final RedrawScheduler scheduler = new RedrawScheduler(redraws::incrementAndGet, timer, timer::nanoTime);
+        scheduler.setMinIntervalMillis(200L);
+
+        final ObjModel onScreen = registry.newModel(path);
+        final ObjModel offScreen = registry.newModel(path);
+        for(ObjModel model : new ObjModel[]{onScreen, offScreen}) {
+            model.setUploadScheduler(uploads);
+            model.setPosition(model == onScreen ? here : elsewhere);
+            model.render(dc);
+            model.setRedrawScheduler(scheduler);
+        }
+        scheduler.frameRendered(dc);
+
+        // moving around off screen doesn't redraw
+        for(int i = 0; i < 100; i++)
+            offScreen.setPosition(Position.fromDegrees(-40.0, 100.0 + 0.001 * i, 0.0));
+        assertEquals(0, timer.getScheduledCount());
+        assertEquals(0, redraws.get());
+        assertEquals(100, scheduler.getHiddenChangeCount());
+
+        // a burst of changes on screen redraws once, right away
+        for(int i = 0; i < 100; i++)
+            onScreen.setPosition(Position.fromDegrees(10.0, 20.0 + 0.000001 * i, 0.0));
+        onScreen.setOpacity(0.5f);
+        assertEquals(1, timer.getScheduledCount());
+        timer.advanceMillis(0L);
+        assertEquals(1, redraws.get());
+
+        // changes made after that redraw wait for the end of the interval
+        for(int i = 0; i < 50; i++)
+            onScreen.setPosition(Position.fromDegrees(10.0, 20.0 - 0.000001 * i, 0.0));
+        assertEquals(2, timer.getScheduledCount());
+        timer.advanceMillis(199L);
+        assertEquals(1, redraws.get());
+        timer.advanceMillis(1L);
+        assertEquals(2, redraws.get());
+
+        // moving into view redraws, once the interval has passed
+        offScreen.setPosition(here);
+        timer.advanceMillis(100L);
+        assertEquals(2, redraws.get());
+        timer.advanceMillis(100L);
+        assertEquals(3, redraws.get());
+        assertEquals(252, scheduler.getChangeCount());
+        timer.shutdown();
+    }
+}
@@ -0,0 +1,176 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.GpuUploadScheduler;
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.wavefront.ObjAssetRegistry;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import com.hmorgan.gfx.wavefront.ObjModelLayer;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Plane;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.render.Material;
+import gov.nasa.worldwind.render.OrderedRenderable;
+import gov.nasa.worldwind.view.BasicView;
+import hmorgan.gfx.RecordingGL;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures what the steady-state frames of a layer of models allocate on the render thread:
+ * translucent models are only prepared and queued, opaque ones are drawn into a {@link RecordingGL}.
+ *
+ * @author Hunter N. Morgan
+ */
+public class RenderAllocationTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** fixed view, answering without boxing so the view itself doesn't allocate */
+    private static final class FixedView extends BasicView {
+        private final Frustum frustum;
+
+        FixedView(Frustum frustum) {
+            this.frustum = frustum;
+        }
+
+        @Override public Vec4 getEyePoint() { return Vec4.ZERO; }
+        @Override public Matrix getModelviewMatrix() { return Matrix.IDENTITY; }
+        @Override public Frustum getFrustumInModelCoordinates() { return frustum; }
+        @Override public double computePixelSizeAtDistance(double distance) { return 0.0; }
+    }
+
+    /** counts ordered renderables instead of queuing them, queuing is up to WorldWind */
+    private static final class CountingDrawContext extends DrawContextImpl {
+        int queued;
+
+        @Override
+        public void addOrderedRenderable(OrderedRenderable orderedRenderable) {
+            queued++;
+        }
+    }
+
+    private static final class TestLayer extends ObjModelLayer {
+        void draw(CountingDrawContext dc) {
+            doRender(dc);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocations() {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        return allocations;
+    }
+
+    /**
+     * Adds a grid of 500 models of one triangle around (10.001, 20.001), all of them in the view
+     * of {@link #viewAroundModels(CountingDrawContext)}.
+     */
+    private TestLayer newLayer(boolean translucent, boolean uploaded) throws Exception {
+        final Path path = Files.write(tempFolder.getRoot().toPath().resolve("tri.obj"),
+                                      "o tri\nv 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes());
+        final ObjAssetRegistry registry = new ObjAssetRegistry(new ObjLoader());
+        final GpuUploadScheduler scheduler = RenderFixtures.idleUploadScheduler();
+
+        final TestLayer layer = new TestLayer();
+        layer.setParallelThreshold(Integer.MAX_VALUE);
+        for(int i = 0; i < 500; i++) {
+            final ObjModel model = registry.newModel(path);
+            model.setUploadScheduler(scheduler);
+            // half of the models have their own material, the others keep the one of their mesh
+            if(translucent || i % 2 == 0)
+                model.setMaterial(Material.RED);
+            if(translucent)
+                model.setOpacity(0.5f);
+            // the idle scheduler uploads meshes that are prepared already
+            if(uploaded)
+                model.getMeshes().values().forEach(Mesh::prepareVboBuffer);
+            model.setPosition(Position.fromDegrees(10.0 + 0.0001 * (i % 25), 20.0 + 0.0001 * (i / 25), 0.0));
+            layer.addModel(model);
+        }
+        return layer;
+    }
+
+    private static void viewAroundModels(CountingDrawContext dc) {
+        final Vec4 center = dc.getGlobe().computePointFromPosition(Position.fromDegrees(10.001, 20.001, 0.0));
+        final double half = 100.0;
+        dc.setView(new FixedView(new Frustum(
+                new Plane(1, 0, 0, -(center.x - half)), new Plane(-1, 0, 0, center.x + half),
+                new Plane(0, 1, 0, -(center.y - half)), new Plane(0, -1, 0, center.y + half),
+                new Plane(0, 0, 1, -(center.z - half)), new Plane(0, 0, -1, center.z + half))));
+    }
+
+    /**
+     * Draws 2000 frames to reach the steady state, then returns what the least allocating of the
+     * next three runs of 1000 frames allocated. A run the JIT recompiles something in, e.g.
+     * because another test's threads load classes, allocates once; allocating frames allocate in
+     * every run.
+     */
+    private static long allocatedInSteadyState(com.sun.management.ThreadMXBean allocations, TestLayer layer,
+                                               CountingDrawContext dc) {
+        long frame = 0;
+        for(int i = 0; i < 2000; i++) {
+            dc.setFrameTimeStamp(++frame);
+            layer.draw(dc);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        long least = Long.MAX_VALUE;
+        for(int run = 0; run < 3; run++) {
+            final long before = allocations.getThreadAllocatedBytes(threadId);
+            for(int i = 0; i < 1000; i++) {
+                dc.setFrameTimeStamp(++frame);
+                layer.draw(dc);
+            }
+            least = Math.min(least, allocations.getThreadAllocatedBytes(threadId) - before);
+        }
+        return least;
+    }
+
+    @Test
+    public void testSteadyStateFrameDoesNotAllocate() throws Exception {
+        final com.sun.management.ThreadMXBean allocations = allocations();
+        final TestLayer layer = newLayer(true, false);
+        final CountingDrawContext dc = RenderFixtures.withEarth(new CountingDrawContext());
+        viewAroundModels(dc);
+
+        final long allocated = allocatedInSteadyState(allocations, layer, dc);
+        assertTrue(dc.queued > 0);
+        // a few bytes of slack for the measurement itself
+        assertTrue("allocated " + allocated + " bytes in 1000 frames", allocated < 1024);
+    }
+
+    @Test
+    public void testSteadyStateDrawingDoesNotAllocate() throws Exception {
+        final com.sun.management.ThreadMXBean allocations = allocations();
+        final TestLayer layer = newLayer(false, true);
+        final RecordingGL gl = new RecordingGL();
+        final CountingDrawContext dc = RenderFixtures.withEarth(new CountingDrawContext());
+        dc.setGLContext(gl.getContext());
+        // WorldWind's lighting model allocates its light arrays every frame, the models' drawing is what's measured
+        dc.setStandardLightingModel(null);
+        viewAroundModels(dc);
+
+        final long allocated = allocatedInSteadyState(allocations, layer, dc);
+        // opaque models are drawn in the layer's batch, not queued
+        assertEquals(0, dc.queued);
+        assertTrue(gl.getDrawCalls() > 0);
+        assertEquals(1.0f, gl.getMaterialDiffuseAlpha(), 0.0f);
+        assertTrue("allocated " + allocated + " bytes in 1000 frames", allocated < 1024);
+    }
+}
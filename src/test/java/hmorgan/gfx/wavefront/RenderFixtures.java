@@ -0,0 +1,94 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.GpuUploadScheduler;
+import gov.nasa.worldwind.BasicModel;
+import gov.nasa.worldwind.View;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Earth;
+import gov.nasa.worldwind.globes.EllipsoidalGlobe;
+import gov.nasa.worldwind.layers.LayerList;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.terrain.ZeroElevationModel;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Setup shared by the tests that render models without a GL: a draw context over the earth, a
+ * view of a fixed frustum, and an upload scheduler that never prepares a mesh, so translucent
+ * models are only queued as ordered renderables and nothing needs a GL.
+ *
+ * @author Hunter N. Morgan
+ */
+final class RenderFixtures {
+
+    private RenderFixtures() {
+    }
+
+    /**
+     * @return a shut down executor that discards whatever it is given
+     */
+    static ThreadPoolExecutor idleExecutor() {
+        final ThreadPoolExecutor idle = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                                               new ThreadPoolExecutor.DiscardPolicy());
+        idle.shutdown();
+        return idle;
+    }
+
+    /**
+     * @return an upload scheduler whose meshes are never prepared, so it never uploads
+     */
+    static GpuUploadScheduler idleUploadScheduler() {
+        return new GpuUploadScheduler(idleExecutor(), GpuUploadScheduler.DEFAULT_BYTES_PER_FRAME);
+    }
+
+    /**
+     * @return a new draw context over the earth, see {@link #withEarth(DrawContextImpl)}
+     */
+    static DrawContextImpl newDrawContext() {
+        return withEarth(new DrawContextImpl());
+    }
+
+    /**
+     * Gives a draw context a WGS84 globe without an elevation model, which would go to the
+     * network.
+     *
+     * @param dc the draw context
+     * @return the draw context
+     */
+    static <T extends DrawContextImpl> T withEarth(T dc) {
+        dc.setModel(new BasicModel(new EllipsoidalGlobe(Earth.WGS84_EQUATORIAL_RADIUS, Earth.WGS84_POLAR_RADIUS,
+                                                        Earth.WGS84_ES, new ZeroElevationModel()),
+                                   new LayerList()));
+        return dc;
+    }
+
+    /**
+     * A view with the eye at the origin, looking along a frustum, in which models are never
+     * smaller than a pixel. Anything else asked of it is null.
+     *
+     * @param frustum frustum of the view, in model coordinates
+     * @return the view
+     */
+    static View view(Frustum frustum) {
+        return (View) Proxy.newProxyInstance(View.class.getClassLoader(), new Class<?>[]{View.class},
+                (proxy, method, args) -> {
+                    switch(method.getName()) {
+                        case "getEyePoint":
+                            return Vec4.ZERO;
+                        case "getModelviewMatrix":
+                            return Matrix.IDENTITY;
+                        case "getFrustumInModelCoordinates":
+                            return frustum;
+                        case "computePixelSizeAtDistance":
+                            return 0.0;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,82 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.RenderMetrics;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class RenderMetricsTest {
+
+    // far from the timestamps other tests use
+    private static final long FIRST_FRAME = 1L << 40;
+
+    @Test
+    public void testReportsLastFrameThroughMBean() throws Exception {
+        final RenderMetrics metrics = RenderMetrics.getInstance();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(RenderMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+
+        final DrawContextImpl dc = new DrawContextImpl();
+        // publish whatever frame earlier tests left open, then start from nothing
+        dc.setFrameTimeStamp(FIRST_FRAME - 1);
+        metrics.add(dc, RenderMetrics.Counter.DRAW_CALLS, 0);
+        dc.setFrameTimeStamp(FIRST_FRAME);
+        metrics.add(dc, RenderMetrics.Counter.DRAW_CALLS, 0);
+        server.invoke(name, "reset", null, null);
+
+        final int frames = 100;
+        for(int f = 0; f < frames; f++) {
+            dc.setFrameTimeStamp(FIRST_FRAME + f);
+            metrics.add(dc, RenderMetrics.Counter.MODELS_DRAWN, 3);
+            metrics.add(dc, RenderMetrics.Counter.TRIANGLES_DRAWN, 100);
+            metrics.add(dc, RenderMetrics.Counter.TRIANGLES_DRAWN, 100);
+            metrics.addNanos(dc, RenderMetrics.Timer.PREPARE, 1_000_000L);
+            metrics.addNanos(dc, RenderMetrics.Timer.DRAW, 3_000_000L);
+        }
+        // the last frame is published by the first measurement of the next
+        assertEquals(frames - 1, ((Number) server.getAttribute(name, "FrameCount")).longValue());
+        dc.setFrameTimeStamp(FIRST_FRAME + frames);
+        metrics.add(dc, RenderMetrics.Counter.MODELS_OCCLUDED, 7);
+
+        assertEquals((long) frames, server.getAttribute(name, "FrameCount"));
+        assertEquals(3L, server.getAttribute(name, "ModelsDrawn"));
+        assertEquals(200L, server.getAttribute(name, "TrianglesDrawn"));
+        assertEquals(0L, server.getAttribute(name, "ModelsOccluded"));
+
+        final RenderMetrics.FrameStats frame = metrics.getLastFrame();
+        assertEquals(FIRST_FRAME + frames - 1, frame.getFrameTimestamp());
+        assertEquals(3_000_000L, frame.getNanos(RenderMetrics.Timer.DRAW));
+        assertEquals(4_000_000L, frame.getTotalNanos());
+
+        // percentiles are the upper bounds of power of two microsecond buckets
+        assertEquals(1.024, (Double) server.getAttribute(name, "PrepareTimeP50"), 1e-9);
+        assertEquals(4.096, (Double) server.getAttribute(name, "DrawTimeP99"), 1e-9);
+        assertEquals(4.096, (Double) server.getAttribute(name, "TotalTimeP99"), 1e-9);
+        // frames without a time fall in the first bucket
+        assertEquals(0.001, (Double) server.getAttribute(name, "AnimateTimeP99"), 1e-9);
+
+        // while disabled nothing is recorded
+        server.setAttribute(name, new Attribute("Enabled", false));
+        try {
+            dc.setFrameTimeStamp(FIRST_FRAME + frames + 1);
+            metrics.add(dc, RenderMetrics.Counter.MODELS_DRAWN, 5);
+            assertEquals((long) frames, server.getAttribute(name, "FrameCount"));
+        } finally {
+            server.setAttribute(name, new Attribute("Enabled", true));
+        }
+        dc.setFrameTimeStamp(FIRST_FRAME + frames + 2);
+        metrics.add(dc, RenderMetrics.Counter.DRAW_CALLS, 0);
+        assertEquals(7L, server.getAttribute(name, "ModelsOccluded"));
+        assertEquals(0L, server.getAttribute(name, "ModelsDrawn"));
+    }
+}
@@ -0,0 +1,83 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.StreamCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class StreamCodecTest {
+
+    /** compressible text, several pipeline blocks long */
+    private static byte[] text() {
+        final Random random = new Random(11L);
+        final StringBuilder sb = new StringBuilder();
+        while(sb.length() < 1 << 20)
+            sb.append("v ").append(random.nextFloat()).append(' ').append(random.nextFloat()).append(" 0\n");
+        return sb.toString().getBytes();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[3000];      // not a divisor of the block size
+        int read;
+        while((read = in.read(buf)) >= 0)
+            out.write(buf, 0, read);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testDecodesEveryCodec() throws Exception {
+        final byte[] text = text();
+
+        final ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try(OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(text);
+        }
+        final ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try(ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("model.obj"));
+            out.write(text);
+        }
+        final ByteArrayOutputStream deflate = new ByteArrayOutputStream();
+        try(OutputStream out = new DeflaterOutputStream(deflate)) {
+            out.write(text);
+        }
+
+        for(byte[] encoded : Arrays.asList(gzip.toByteArray(), zip.toByteArray(), deflate.toByteArray(), text)) {
+            try(InputStream in = StreamCodec.open(new ByteArrayInputStream(encoded))) {
+                assertArrayEquals(text, readAll(in));
+            }
+        }
+        assertEquals(StreamCodec.GZIP, StreamCodec.detect(gzip.toByteArray(), 4));
+        assertEquals(StreamCodec.ZIP, StreamCodec.detect(zip.toByteArray(), 4));
+        assertEquals(StreamCodec.DEFLATE, StreamCodec.detect(deflate.toByteArray(), 4));
+        assertEquals(StreamCodec.NONE, StreamCodec.detect(text, 4));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedInputFails() throws Exception {
+        final ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try(OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(text());
+        }
+        final byte[] truncated = Arrays.copyOf(gzip.toByteArray(), gzip.size() / 2);
+        try(InputStream in = StreamCodec.open(new ByteArrayInputStream(truncated))) {
+            readAll(in);
+        }
+    }
+}
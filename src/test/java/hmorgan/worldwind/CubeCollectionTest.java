@@ -0,0 +1,157 @@
+package hmorgan.worldwind;
+
+import com.hmorgan.worldwind.Cube;
+import com.hmorgan.worldwind.CubeCollection;
+import gov.nasa.worldwind.BasicModel;
+import gov.nasa.worldwind.cache.BasicGpuResourceCache;
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Earth;
+import gov.nasa.worldwind.globes.EllipsoidalGlobe;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.layers.LayerList;
+import gov.nasa.worldwind.render.DrawContextImpl;
+import gov.nasa.worldwind.terrain.ZeroElevationModel;
+import gov.nasa.worldwind.view.BasicView;
+import hmorgan.gfx.RecordingGL;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class CubeCollectionTest {
+
+    /** perspective view from an eye point towards a target */
+    private static final class LookAtView extends BasicView {
+        private final Vec4 eye;
+        private final Matrix modelview;
+        private final Frustum frustum;
+
+        LookAtView(Vec4 eye, Vec4 target) {
+            this.eye = eye;
+            this.modelview = Matrix.fromViewLookAt(eye, target, eye.normalize3());
+            this.frustum = Frustum.fromPerspective(Angle.fromDegrees(45.0), 800, 400, 1.0, 100000.0)
+                                  .transformBy(modelview.getTranspose());
+        }
+
+        @Override public Vec4 getEyePoint() { return eye; }
+        @Override public Matrix getModelviewMatrix() { return modelview; }
+        @Override public Frustum getFrustumInModelCoordinates() { return frustum; }
+        @Override public double computePixelSizeAtDistance(double distance) { return 0.0; }
+    }
+
+    private static void earthAndView(DrawContextImpl dc) {
+        dc.setModel(new BasicModel(new EllipsoidalGlobe(Earth.WGS84_EQUATORIAL_RADIUS, Earth.WGS84_POLAR_RADIUS,
+                                                        Earth.WGS84_ES, new ZeroElevationModel()),
+                                   new LayerList()));
+        final Globe globe = dc.getGlobe();
+        dc.setView(new LookAtView(globe.computePointFromPosition(Position.fromDegrees(10.0, 19.9, 500.0)),
+                                  globe.computePointFromPosition(Position.fromDegrees(10.0, 20.0, 500.0))));
+    }
+
+    private static List<Object> render(DrawContextImpl dc, CubeCollection collection) {
+        collection.render(dc);
+        final List<Object> queued = new ArrayList<>();
+        Object renderable;
+        while((renderable = dc.pollOrderedRenderables()) != null)
+            queued.add(renderable);
+        return queued;
+    }
+
+    @Test
+    public void testDrawsOnlyTheChunksInView() {
+        final DrawContextImpl dc = new DrawContextImpl();
+        earthAndView(dc);
+
+        // two chunks of cubes in view, and one far behind the eye
+        final CubeCollection collection = new CubeCollection();
+        for(int i = 0; i < 2 * CubeCollection.CHUNK_SIZE; i++)
+            collection.addCube(new Cube(Position.fromDegrees(10.0 + (i % 16) * 0.0005, 20.0 + (i / 16) * 0.0005, 500.0), 10.0));
+        final List<Cube> behind = new ArrayList<>();
+        for(int i = 0; i < CubeCollection.CHUNK_SIZE; i++) {
+            final Cube cube = new Cube(Position.fromDegrees(10.0 + (i % 16) * 0.0005, 19.0 + (i / 16) * 0.0005, 500.0), 10.0);
+            behind.add(cube);
+            collection.addCube(cube);
+        }
+        assertEquals(3 * CubeCollection.CHUNK_SIZE, collection.getCubeCount());
+
+        dc.setFrameTimeStamp(1L);
+        List<Object> queued = render(dc, collection);
+        assertEquals(1, queued.size());
+        assertSame(collection, queued.get(0));
+        assertEquals(3, collection.getChunkCount());
+        // nearby cubes share chunks, so the cubes behind the eye got a chunk to themselves
+        assertEquals(2 * CubeCollection.CHUNK_SIZE, collection.getLastVisibleCubeCount());
+        assertTrue(collection.getDistanceFromEye() > 0.0);
+
+        // changing a cube rebuilds the chunks, moving it into view draws it
+        final Cube moved = behind.get(0);
+        moved.setPosition(Position.fromDegrees(10.0, 20.0, 500.0));
+        moved.setColor(Color.RED);
+        for(Cube cube : behind.subList(1, behind.size()))
+            assertTrue(collection.removeCube(cube));
+        dc.setFrameTimeStamp(2L);
+        render(dc, collection);
+        assertEquals(2 * CubeCollection.CHUNK_SIZE + 1, collection.getLastVisibleCubeCount());
+
+        // a cube is in one collection at a time
+        try {
+            new CubeCollection().addCube(moved);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertTrue(collection.removeCube(moved));
+        assertFalse(collection.removeCube(moved));
+        dc.setFrameTimeStamp(3L);
+        render(dc, collection);
+        assertEquals(2 * CubeCollection.CHUNK_SIZE, collection.getLastVisibleCubeCount());
+        assertEquals(2, collection.getChunkCount());
+    }
+
+    @Test
+    public void testChangedCubesAreDrawnFromALiveBuffer() {
+        final RecordingGL gl = new RecordingGL();
+        final DrawContextImpl dc = new DrawContextImpl();
+        earthAndView(dc);
+        dc.setGLContext(gl.getContext());
+        // a cache dropping an entry deletes its buffer through the current context
+        final BasicGpuResourceCache cache = new BasicGpuResourceCache(1L << 20, 1L << 24);
+        dc.setGpuResourceCache(cache);
+
+        final CubeCollection collection = new CubeCollection();
+        final Cube cube = new Cube(Position.fromDegrees(10.0, 20.0, 500.0), 10.0);
+        collection.addCube(cube);
+        collection.addCube(new Cube(Position.fromDegrees(10.0, 20.001, 500.0), 10.0));
+
+        gl.getContext().makeCurrentWithoutDrawable();
+        try {
+            for(int frame = 1; frame <= 3; frame++) {
+                // every frame after the first bakes the cubes again
+                if(frame > 1)
+                    cube.setColor(frame == 2 ? Color.RED : Color.BLUE);
+                dc.setFrameTimeStamp(frame);
+                assertEquals(1, render(dc, collection).size());
+                dc.setOrderedRenderingMode(true);
+                try {
+                    collection.render(dc);
+                } finally {
+                    dc.setOrderedRenderingMode(false);
+                }
+                assertEquals(frame, gl.getDrawCalls());
+                assertEquals(0, gl.getDrawsFromDeletedBuffers());
+                assertEquals(1, cache.getNumObjects());
+            }
+        } finally {
+            gl.getContext().release();
+        }
+    }
+}